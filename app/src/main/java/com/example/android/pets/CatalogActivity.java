@@ -16,65 +16,158 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
+import android.widget.EditText;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetsEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.util.ArrayList;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    /* Database Helper that will provide us access to the DB */
-    PetDbHelper mDbHelper;
+    /* Identifies a particular Loader being used in this component. Page n of the catalog is
+     * loaded by the Loader with ID PET_LOADER + n. */
+    private static final int PET_LOADER = 0;
+
+    /* Number of pets loaded per page */
+    private static final int PAGE_SIZE = 50;
 
-    /* SQLiteDatabase variable to be able to read or write to the DB */
-    SQLiteDatabase db;
+    /* The columns of the pets shown in the list, which is all a page reads */
+    private static final String[] PROJECTION =
+            {
+                    PetsEntry._ID,
+                    PetsEntry.COLUMN_PET_NAME,
+                    PetsEntry.COLUMN_PET_BREED,
+            };
 
-    /* Identifies a particular Loader being used in this component */
-    private static final int PET_LOADER = 0;
+    /* Start loading the next page once the list is scrolled this close to the last loaded row */
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+
+    /* Loader arguments: the page holds the pets after ARG_AFTER_ID up to and including
+     * ARG_UNTIL_ID. Only the last page is open-ended, and it stops at PAGE_SIZE pets. */
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_UNTIL_ID = "until_id";
+
+    /* Loader argument with the search text, left out when the whole catalog is shown */
+    private static final String ARG_QUERY = "query";
+
+    /* Saved instance state key for the loader arguments of the pages */
+    private static final String STATE_PAGE_ARGS = "page_args";
 
-    /* Setup an Adapter to create a list item for each row of pet data in the Cursor */
-    PetCursorAdapter mCursorAdapter;
+    /* The pets of every page of the catalog in order. An entry is null until its page has
+     * loaded. */
+    private final ArrayList<PetListSnapshot> mPages = new ArrayList<>();
+
+    /* The loader arguments of every page, in the same order as mPages */
+    private final ArrayList<Bundle> mPageArgs = new ArrayList<>();
+
+    /* Setup an Adapter to create a list item for each row of pet data in the loaded pages */
+    PetRecyclerAdapter mPetAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long startupMillis = StartupTrace.begin();
         super.onCreate(savedInstanceState);
+
+        // Pick up the pages that were loaded before the activity got recreated, or start
+        // with just the first page
+        ArrayList<Bundle> pageArgs = null;
+        if (savedInstanceState != null)
+            {
+                pageArgs = savedInstanceState.getParcelableArrayList(STATE_PAGE_ARGS);
+            }
+        boolean freshStart = pageArgs == null;
+        if (freshStart)
+            {
+                pageArgs = new ArrayList<>();
+                pageArgs.add(new Bundle());
+            }
+
         setContentView(R.layout.activity_catalog);
 
-        // To access our database, we instantiate our subclass of SQLiteOpenHelper
-        // and pass the context, which is the current activity.
-        mDbHelper = new PetDbHelper(CatalogActivity.this);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.pet_list_view);
+        StartupTrace.watchFirstRow(CatalogActivity.this, petListView, startupMillis);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(CatalogActivity.this);
+        petListView.setLayoutManager(layoutManager);
 
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.pet_list_view);
+        // Setup an Adapter to create a list item for each row of pet data.
+        // There is no pet data yet (until the loader is finishied) so the list starts empty
+        mPetAdapter = new PetRecyclerAdapter();
+        petListView.setAdapter(mPetAdapter);
 
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader is finishied) so pass in null for the Cursor
-        mCursorAdapter = new PetCursorAdapter(CatalogActivity.this, null);
-        petListView.setAdapter(mCursorAdapter);
+        // Load the next page of pets as the list gets scrolled towards its end. This also runs
+        // after every layout, so a page that doesn't fill the screen pulls in the next one.
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= mPetAdapter.getItemCount() - PAGE_PREFETCH_DISTANCE)
+                    {
+                        loadNextPage();
+                    }
+            }
+        });
+
+        // Search the pets as the user types, starting again from the first page
+        EditText searchEditText = (EditText) findViewById(R.id.search_pets);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search(s.toString().trim());
+            }
+        });
 
         /**
-         * Initialize the Cursor Loader. The URL_LOADER value is eventually passed
-         * to onCreateLoader()
+         * Initialize a Cursor Loader for every page. The URL_LOADER value is eventually
+         * passed to onCreateLoader()
          */
-        getLoaderManager().initLoader(PET_LOADER, null, CatalogActivity.this);
+        for (int page = 0; page < pageArgs.size(); page++)
+            {
+                mPages.add(null);
+                mPageArgs.add(pageArgs.get(page));
+                Loader<Cursor> loader = getLoaderManager().initLoader(PET_LOADER + page, pageArgs.get(page), CatalogActivity.this);
+
+                // Start reading the first page now, so the query runs while the layout is
+                // being inflated rather than after it
+                if (freshStart && page == 0)
+                    {
+                        ((PageLoader) loader).prefetch();
+                    }
+            }
 
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -87,6 +180,12 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         });
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelableArrayList(STATE_PAGE_ARGS, mPageArgs);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
@@ -100,9 +199,6 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     */
     private void insertPet()
         {
-            // Gets the database in write mode
-            db = mDbHelper.getWritableDatabase();
-
             // Create a ContentValues object where column names are the keys,
             // and Toto's pet attributes are the values.
             ContentValues values = new ContentValues();
@@ -121,6 +217,125 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             Log.v("CatalogActivity", "New Row URI: " + newUri);
         }
 
+    /**
+     * Ask the user to confirm deleting every pet, and delete them if they do.
+     */
+    private void showDeleteAllConfirmationDialog()
+        {
+            new AlertDialog.Builder(this)
+                    .setMessage(R.string.delete_all_dialog_msg)
+                    .setPositiveButton(R.string.action_delete, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            deleteAllPets();
+                        }
+                    })
+                    .setNegativeButton(R.string.action_cancel, null)
+                    .show();
+        }
+
+    /**
+     * Delete every pet in the database. The delete is queued on {@link PetWriteQueue}, so the
+     * UI thread never waits on it; the catalog empties once the loaders hear about the change.
+     */
+    private void deleteAllPets()
+        {
+            PetWriteQueue.getInstance(this).delete(PetsEntry.CONTENT_URI, new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteFinished(ContentProviderResult result) {
+                    // Log message to show how many pets were deleted
+                    Log.v("CatalogActivity", "Deleted pets: " + (result == null ? null : result.count));
+                }
+            });
+        }
+
+    /**
+     * Start loading the page after the last one, if the last page has loaded and is full.
+     * The last page then gets closed off at its last pet, so the two pages never overlap, even
+     * when rows get deleted from the earlier one.
+     */
+    private void loadNextPage()
+        {
+            int lastPage = mPages.size() - 1;
+            PetListSnapshot lastPagePets = mPages.get(lastPage);
+
+            // Wait for the last page to load, and stop once a page comes back short
+            if (lastPagePets == null || lastPagePets.size() < PAGE_SIZE)
+                {
+                    return;
+                }
+
+            long lastId = lastPagePets.getId(lastPagePets.size() - 1);
+
+            // Close off the current last page at its last pet
+            Bundle lastPageArgs = new Bundle(mPageArgs.get(lastPage));
+            lastPageArgs.putLong(ARG_UNTIL_ID, lastId);
+            mPageArgs.set(lastPage, lastPageArgs);
+            getLoaderManager().restartLoader(PET_LOADER + lastPage, lastPageArgs, CatalogActivity.this);
+
+            // And open a new page right after it, for the same search text
+            Bundle nextPageArgs = new Bundle();
+            nextPageArgs.putLong(ARG_AFTER_ID, lastId);
+            if (lastPageArgs.containsKey(ARG_QUERY))
+                {
+                    nextPageArgs.putString(ARG_QUERY, lastPageArgs.getString(ARG_QUERY));
+                }
+            mPages.add(null);
+            mPageArgs.add(nextPageArgs);
+            getLoaderManager().initLoader(PET_LOADER + lastPage + 1, nextPageArgs, CatalogActivity.this);
+        }
+
+    /**
+     * Show the pets matching the given search text, or every pet if the text is empty,
+     * starting over from the first page.
+     */
+    private void search(String query)
+        {
+            // Nothing to do if these results are already being shown, as happens when the
+            // search text is restored after the activity got recreated
+            String currentQuery = mPageArgs.get(0).getString(ARG_QUERY);
+            if (TextUtils.equals(currentQuery, TextUtils.isEmpty(query) ? null : query))
+                {
+                    return;
+                }
+
+            // Drop every page but the first one, which gets reloaded with the new search text
+            for (int page = mPages.size() - 1; page > 0; page--)
+                {
+                    getLoaderManager().destroyLoader(PET_LOADER + page);
+                }
+            mPages.clear();
+            mPageArgs.clear();
+
+            Bundle firstPageArgs = new Bundle();
+            if (!TextUtils.isEmpty(query))
+                {
+                    firstPageArgs.putString(ARG_QUERY, query);
+                }
+            mPages.add(null);
+            mPageArgs.add(firstPageArgs);
+            getLoaderManager().restartLoader(PET_LOADER, firstPageArgs, CatalogActivity.this);
+        }
+
+    /**
+     * Show every page that has loaded so far, stopping at the first one that hasn't. The adapter
+     * works out which rows actually changed, so only those get rebound.
+     */
+    private void showPages()
+        {
+            ArrayList<PetListSnapshot> loadedPages = new ArrayList<>();
+            for (PetListSnapshot page : mPages)
+                {
+                    if (page == null)
+                        {
+                            break;
+                        }
+                    loadedPages.add(page);
+                }
+
+            mPetAdapter.submitSnapshot(PetListSnapshot.concat(loadedPages));
+        }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -132,7 +347,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
+                showDeleteAllConfirmationDialog();
                 return true;
         }
         return super.onOptionsItemSelected(item);
@@ -148,31 +363,107 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
 
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection =
-                {
-                        PetsEntry._ID,
-                        PetsEntry.COLUMN_PET_NAME,
-                        PetsEntry.COLUMN_PET_BREED,
-                };
+        // Either page through every pet, or through the results of a search
+        Uri uri = PetsEntry.CONTENT_URI;
+        if (args.containsKey(ARG_QUERY))
+            {
+                uri = PetsEntry.buildSearchUri(args.getString(ARG_QUERY));
+            }
+
+        // Every page seeks to the pet it starts after, rather than skipping rows with OFFSET
+        Uri pageUri;
+        if (args.containsKey(ARG_AFTER_ID))
+            {
+                pageUri = PetsEntry.buildPageUri(uri, args.getLong(ARG_AFTER_ID), PAGE_SIZE);
+            }
+        else
+            {
+                pageUri = PetsEntry.buildPageUri(uri, PAGE_SIZE);
+            }
+
+        // A page that has been closed off ends at the pet the next page starts after
+        String selection = null;
+        String[] selectionArgs = null;
+        if (args.containsKey(ARG_UNTIL_ID))
+            {
+                selection = PetsEntry._ID + "<=?";
+                selectionArgs = new String[] {String.valueOf(args.getLong(ARG_UNTIL_ID))};
+            }
 
         // This Loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(
+        return new PageLoader(
                       CatalogActivity.this,
-                            PetsEntry.CONTENT_URI,
-                            projection,
-                            null,
-                            null,
+                            pageUri,
+                            PROJECTION,
+                            selection,
+                            selectionArgs,
                             null
                     );
     }
 
+    /**
+     * Loads a page of the catalog. A loader only starts once the activity does, after the
+     * layout is inflated, so the first page can be prefetched from onCreate() instead. The
+     * prefetched cursor is the one the loader delivers and watches for changes, so the page is
+     * read once.
+     */
+    private static final class PageLoader extends CursorLoader
+        {
+            /* Whether a load was started before the activity, and hasn't finished yet */
+            private boolean mPrefetching;
+
+            PageLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+                {
+                    super(context, uri, projection, selection, selectionArgs, sortOrder);
+                }
+
+            /**
+             * Start loading right away. A cursor that's read before the activity starts is
+             * kept by CursorLoader and delivered when it does.
+             */
+            void prefetch()
+                {
+                    mPrefetching = true;
+                    forceLoad();
+                }
+
+            @Override
+            protected void onStartLoading()
+                {
+                    // Starting would cancel the prefetch and query the page again; it gets
+                    // delivered as soon as it's read instead
+                    if (!mPrefetching)
+                        {
+                            super.onStartLoading();
+                        }
+                }
+
+            @Override
+            public void deliverResult(Cursor cursor)
+                {
+                    mPrefetching = false;
+                    super.deliverResult(cursor);
+                }
+
+            @Override
+            public void onCanceled(Cursor cursor)
+                {
+                    mPrefetching = false;
+                    super.onCanceled(cursor);
+                }
+        }
+
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.changeCursor(data);
+        // Update {@link PetRecyclerAdapter} with this new page of updated pet data. The page is
+        // copied right away, so the cursor itself never leaves the main thread.
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size())
+            {
+                mPages.set(page, PetListSnapshot.fromCursor(data));
+                showPages();
+            }
 
     }
 
@@ -187,7 +478,12 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     public void onLoaderReset(Loader<Cursor> loader) {
 
         // Callback called when the data needs to be deleted
-        mCursorAdapter.changeCursor(null);
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size())
+            {
+                mPages.set(page, null);
+                showPages();
+            }
 
     }
 }
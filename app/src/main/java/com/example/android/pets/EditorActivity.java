@@ -15,6 +15,7 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
@@ -37,6 +38,7 @@ import android.widget.Toast;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetsEntry;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetWriteQueue;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -129,7 +131,8 @@ public class EditorActivity extends AppCompatActivity {
     }
 
     /**
-     * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
+     * Save the pet entered in the editor. The insert is queued on {@link PetWriteQueue}, so the
+     * UI thread never waits on the database; a toast reports the outcome once it is done.
      */
     public void insertPet()
         {
@@ -148,21 +151,30 @@ public class EditorActivity extends AppCompatActivity {
             values.put(PetsEntry.COLUMN_PET_GENDER, mGender);
             values.put(PetsEntry.COLUMN_PET_WEIGHT, weightInt);
 
-            // Insert a new pet into the provider, returning the content URI for the new pet.
-            Uri newUri = getContentResolver().insert(PetContract.PetsEntry.CONTENT_URI, values);
+            // The editor is usually gone by the time the insert is done, so report back
+            // through the application context
+            final Context appContext = getApplicationContext();
 
-            Log.v("EditorActivity", "New URI: " + newUri.toString());
+            // Queue the insertion of the new pet, which hands back the content URI for the new pet.
+            PetWriteQueue.getInstance(this).insert(values, new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteFinished(ContentProviderResult result) {
+                    Uri newUri = result == null ? null : result.uri;
 
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+                    Log.v("EditorActivity", "New URI: " + newUri);
+
+                    // Show a toast message depending on whether or not the insertion was successful
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_insert_pet_failed),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_insert_pet_successful),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
 
     @Override
@@ -171,10 +183,10 @@ public class EditorActivity extends AppCompatActivity {
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save the pet data to DB
+                // Queue the pet data to be saved to the DB
                 insertPet();
 
-                // Exit Activity
+                // Exit Activity right away, the save finishes in the background
                 finish();
                 return true;
             // Respond to a click on the "Delete" menu option
@@ -0,0 +1,204 @@
+package com.example.android.pets;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable copy of the pets shown in the catalog: the ID, name and breed of every row, in
+ * order. Snapshots are read from a page's cursor as soon as it loads, so they can be diffed on a
+ * background thread while the cursors themselves stay on the main thread.
+ * <p>
+ * The names and breeds are copied out of the cursor as characters, without making a String of
+ * each, and packed one after the other into a single array that rows are bound from directly.
+ */
+class PetListSnapshot {
+
+    /* Initial capacity of the buffer a name or breed gets copied into */
+    private static final int BUFFER_CAPACITY = 32;
+
+    /* The snapshot of an empty list */
+    static final PetListSnapshot EMPTY = new PetListSnapshot(new long[0], new char[0], new int[0], new int[0]);
+
+    /* The ID of every pet, by position in the list */
+    private final long[] mIds;
+
+    /* The names and breeds of every pet, one after the other */
+    private final char[] mText;
+
+    /*
+     * Where the name and breed of every pet start in mText, at 2 * position and
+     * 2 * position + 1, and how long they are, -1 for a pet without a breed
+     */
+    private final int[] mStarts;
+    private final int[] mLengths;
+
+    private PetListSnapshot(long[] ids, char[] text, int[] starts, int[] lengths)
+        {
+            mIds = ids;
+            mText = text;
+            mStarts = starts;
+            mLengths = lengths;
+        }
+
+    /**
+     * Copy every row of the given cursor, which needs the _id, name and breed columns.
+     */
+    static PetListSnapshot fromCursor(Cursor cursor)
+        {
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            int[] starts = new int[2 * count];
+            int[] lengths = new int[2 * count];
+            char[] text = new char[count * BUFFER_CAPACITY];
+            int textLength = 0;
+
+            int idColumnIndex = cursor.getColumnIndex(PetsEntry._ID);
+            int[] textColumnIndices = {
+                    cursor.getColumnIndex(PetsEntry.COLUMN_PET_NAME),
+                    cursor.getColumnIndex(PetsEntry.COLUMN_PET_BREED)
+            };
+            CharArrayBuffer buffer = new CharArrayBuffer(BUFFER_CAPACITY);
+
+            for (int position = 0; cursor.moveToPosition(position); position++)
+                {
+                    ids[position] = cursor.getLong(idColumnIndex);
+                    for (int column = 0; column < textColumnIndices.length; column++)
+                        {
+                            int field = 2 * position + column;
+                            starts[field] = textLength;
+                            if (cursor.isNull(textColumnIndices[column]))
+                                {
+                                    lengths[field] = -1;
+                                    continue;
+                                }
+
+                            // The cursor copies straight into the buffer, growing it if needed
+                            cursor.copyStringToBuffer(textColumnIndices[column], buffer);
+                            if (textLength + buffer.sizeCopied > text.length)
+                                {
+                                    text = Arrays.copyOf(text, Math.max(2 * text.length, textLength + buffer.sizeCopied));
+                                }
+                            System.arraycopy(buffer.data, 0, text, textLength, buffer.sizeCopied);
+                            lengths[field] = buffer.sizeCopied;
+                            textLength += buffer.sizeCopied;
+                        }
+                }
+
+            return new PetListSnapshot(ids, Arrays.copyOf(text, textLength), starts, lengths);
+        }
+
+    /**
+     * Join the given snapshots into one, in order.
+     */
+    static PetListSnapshot concat(List<PetListSnapshot> snapshots)
+        {
+            int count = 0;
+            int textLength = 0;
+            for (PetListSnapshot snapshot : snapshots)
+                {
+                    count += snapshot.size();
+                    textLength += snapshot.mText.length;
+                }
+
+            long[] ids = new long[count];
+            char[] text = new char[textLength];
+            int[] starts = new int[2 * count];
+            int[] lengths = new int[2 * count];
+
+            int position = 0;
+            int textOffset = 0;
+            for (PetListSnapshot snapshot : snapshots)
+                {
+                    int size = snapshot.size();
+                    System.arraycopy(snapshot.mIds, 0, ids, position, size);
+                    System.arraycopy(snapshot.mText, 0, text, textOffset, snapshot.mText.length);
+                    System.arraycopy(snapshot.mLengths, 0, lengths, 2 * position, 2 * size);
+                    for (int field = 0; field < 2 * size; field++)
+                        {
+                            starts[2 * position + field] = snapshot.mStarts[field] + textOffset;
+                        }
+                    position += size;
+                    textOffset += snapshot.mText.length;
+                }
+
+            return new PetListSnapshot(ids, text, starts, lengths);
+        }
+
+    int size()
+        {
+            return mIds.length;
+        }
+
+    long getId(int position)
+        {
+            return mIds[position];
+        }
+
+    /**
+     * Returns the array the names and breeds are packed into. It must not be changed.
+     */
+    char[] getText()
+        {
+            return mText;
+        }
+
+    /**
+     * Returns where the name of the pet at the given position starts in {@link #getText()}.
+     */
+    int getNameStart(int position)
+        {
+            return mStarts[2 * position];
+        }
+
+    int getNameLength(int position)
+        {
+            return mLengths[2 * position];
+        }
+
+    /**
+     * Returns where the breed of the pet at the given position starts in {@link #getText()}.
+     */
+    int getBreedStart(int position)
+        {
+            return mStarts[2 * position + 1];
+        }
+
+    /**
+     * Returns the length of the breed of the pet at the given position, or -1 if it has none.
+     */
+    int getBreedLength(int position)
+        {
+            return mLengths[2 * position + 1];
+        }
+
+    /**
+     * Returns whether the pet at the given position has the same name and breed as the pet at
+     * the other position of the other snapshot.
+     */
+    boolean hasSameText(int position, PetListSnapshot other, int otherPosition)
+        {
+            for (int field = 0; field < 2; field++)
+                {
+                    int length = mLengths[2 * position + field];
+                    if (length != other.mLengths[2 * otherPosition + field])
+                        {
+                            return false;
+                        }
+                    int start = mStarts[2 * position + field];
+                    int otherStart = other.mStarts[2 * otherPosition + field];
+                    for (int i = 0; i < length; i++)
+                        {
+                            if (mText[start + i] != other.mText[otherStart + i])
+                                {
+                                    return false;
+                                }
+                        }
+                }
+            return true;
+        }
+}
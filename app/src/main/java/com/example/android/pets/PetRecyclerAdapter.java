@@ -0,0 +1,151 @@
+package com.example.android.pets;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the pets of a {@link PetListSnapshot} in a {@link RecyclerView}. Every new snapshot is
+ * diffed against the one on screen on a background thread, by _id and then by name and breed,
+ * and only the rows that were actually inserted, removed or changed get updated.
+ */
+public class PetRecyclerAdapter extends RecyclerView.Adapter<PetRecyclerAdapter.ViewHolder> {
+
+    /* Runs the diffs, one at a time and off the main thread */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    /* Hands finished diffs back to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* The pets on screen */
+    private PetListSnapshot mSnapshot = PetListSnapshot.EMPTY;
+
+    /* Counts the snapshots submitted, so the result of an outdated diff can be dropped */
+    private int mSubmitGeneration;
+
+    /**
+     * Holds the views of a list item, found once when it's created, so binding it again after
+     * it's recycled looks nothing up.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder
+        {
+            final TextView name;
+            final TextView breed;
+
+            ViewHolder(View view)
+                {
+                    super(view);
+                    name = (TextView) view.findViewById(R.id.pet_name);
+                    breed = (TextView) view.findViewById(R.id.pet_breed);
+                }
+        }
+
+    /**
+     * Compares two snapshots: rows are the same pet if they have the same _id, and unchanged
+     * if the name and breed are the same too.
+     */
+    static class SnapshotDiffCallback extends DiffUtil.Callback
+        {
+            private final PetListSnapshot mOldSnapshot;
+            private final PetListSnapshot mNewSnapshot;
+
+            SnapshotDiffCallback(PetListSnapshot oldSnapshot, PetListSnapshot newSnapshot)
+                {
+                    mOldSnapshot = oldSnapshot;
+                    mNewSnapshot = newSnapshot;
+                }
+
+            @Override
+            public int getOldListSize() {
+                return mOldSnapshot.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mNewSnapshot.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return mOldSnapshot.getId(oldItemPosition) == mNewSnapshot.getId(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return mOldSnapshot.hasSameText(oldItemPosition, mNewSnapshot, newItemPosition);
+            }
+        }
+
+    public PetRecyclerAdapter()
+        {
+            setHasStableIds(true);
+        }
+
+    /**
+     * Show the given pets. The diff against the pets on screen runs in the background, and the
+     * minimal set of updates is dispatched on the main thread once it is done. If another
+     * snapshot gets submitted in the meantime, this one is skipped.
+     */
+    void submitSnapshot(final PetListSnapshot newSnapshot)
+        {
+            final PetListSnapshot oldSnapshot = mSnapshot;
+            final int generation = ++mSubmitGeneration;
+
+            sDiffExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // The pets are ordered by _id in both snapshots, so rows never move
+                    final DiffUtil.DiffResult result =
+                            DiffUtil.calculateDiff(new SnapshotDiffCallback(oldSnapshot, newSnapshot), false);
+
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != mSubmitGeneration)
+                                {
+                                    return;
+                                }
+                            mSnapshot = newSnapshot;
+                            result.dispatchUpdatesTo(PetRecyclerAdapter.this);
+                        }
+                    });
+                }
+            });
+        }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+
+        // Inflate a list item view using the layout specified in pet_list.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.pet_list, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+
+        // Update the TextViews with the attributes for the current pet, straight from the
+        // snapshot's characters, which never change, so binding makes no Strings
+        char[] text = mSnapshot.getText();
+        holder.name.setText(text, mSnapshot.getNameStart(position), mSnapshot.getNameLength(position));
+        holder.breed.setText(text, mSnapshot.getBreedStart(position), Math.max(0, mSnapshot.getBreedLength(position)));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.getId(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSnapshot.size();
+    }
+}
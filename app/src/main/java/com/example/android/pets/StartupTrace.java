@@ -0,0 +1,83 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+
+/**
+ * Measures how long a cold start takes to show the first pet: from the start of the process,
+ * or from the creation of the activity where the system can't tell when the process started,
+ * to the first frame with a pet row in the list. The time is logged once per process, as
+ * "first_pet_row_ms=&lt;millis&gt; since=&lt;process|activity&gt;" under {@link #LOG_TAG}, where the
+ * startup harness in scripts/startup-benchmark.sh reads it, and reported to the system as the
+ * moment the activity was fully drawn.
+ */
+final class StartupTrace {
+
+    /* Tag the time to the first pet row is logged under */
+    static final String LOG_TAG = "PetsStartup";
+
+    /* Whether the time has been measured in this process already */
+    private static boolean sMeasured;
+
+    private StartupTrace()
+        {
+        }
+
+    /**
+     * Start measuring, if nothing has been measured in this process yet. Call this first thing
+     * in onCreate() of the activity, then {@link #watchFirstRow} once its list exists.
+     *
+     * @return the time the start is measured from, in {@link SystemClock#elapsedRealtime()}
+     * milliseconds, or -1 if there is nothing to measure
+     */
+    static long begin()
+        {
+            if (sMeasured)
+                {
+                    return -1;
+                }
+            sMeasured = true;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                {
+                    return Process.getStartElapsedRealtime();
+                }
+            return SystemClock.elapsedRealtime();
+        }
+
+    /**
+     * Log the time from the given start to the first frame the given list draws with a row in
+     * it, unless the start is -1.
+     */
+    static void watchFirstRow(final Activity activity, final RecyclerView list, final long startMillis)
+        {
+            if (startMillis == -1)
+                {
+                    return;
+                }
+
+            final String since = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? "process" : "activity";
+            list.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    if (list.getChildCount() == 0)
+                        {
+                            return true;
+                        }
+                    list.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                    Log.i(LOG_TAG, "first_pet_row_ms=" + (SystemClock.elapsedRealtime() - startMillis) + " since=" + since);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                        {
+                            activity.reportFullyDrawn();
+                        }
+                    return true;
+                }
+            });
+        }
+}
@@ -0,0 +1,954 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The {@link PetStore} that keeps every pet in memory, in an {@link InMemoryPetTable}, for
+ * catalogs that fit in RAM. Lookups by _id are binary searches, and other queries scan the
+ * column arrays without touching the disk.
+ * <p>
+ * With a write-through store, the pets are loaded from it when the engine is created, and
+ * every write goes to it before it is applied in memory, so the pets survive the process. The
+ * selections of writes then have to be ones {@link InMemorySelection} can run, so memory stays in
+ * step with the database. Without one, the pets are lost when the process dies.
+ * <p>
+ * Reads run in parallel; writes and transactions run one at a time. A transaction keeps the
+ * first version of every pet it touches, and one that rolls back puts just those pets back.
+ */
+class InMemoryPetStore implements PetStore {
+
+    /* Tag for the Log Message */
+    private static final String LOG_TAG = InMemoryPetStore.class.getSimpleName();
+
+    /* The store every write goes through to, or null if the pets only live in memory */
+    private final PetStore mWriteThrough;
+
+    /* Readers share it; writers, and transactions from begin to end, hold it exclusively */
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /* The pets. Replaced when every pet is deleted or the database is restored. */
+    private InMemoryPetTable mTable = new InMemoryPetTable();
+
+    /* The transaction running on the current thread, if any */
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    /**
+     * The state of one transaction. Transactions can be nested; the outermost one rolls back
+     * if any level wasn't marked successful.
+     */
+    private static class Transaction
+        {
+            /*
+             * The pets the transaction touched, by _id, as they were before its first write to
+             * them: the values of their row, or null for pets it inserted
+             */
+            final HashMap<Long, Object[]> undo = new HashMap<>();
+
+            /*
+             * The table as it was when the transaction deleted every pet, or null if it didn't.
+             * Nothing written after that needs undoing, since the table it went to is dropped.
+             */
+            InMemoryPetTable replaced;
+            int depth;
+            boolean markedSuccessful;
+            boolean failed;
+        }
+
+    /**
+     * Create an engine that only keeps the pets in memory.
+     */
+    InMemoryPetStore()
+        {
+            this(null);
+        }
+
+    /**
+     * Create an engine that writes through to the given store, starting out with the pets
+     * already in it.
+     */
+    InMemoryPetStore(PetStore writeThrough)
+        {
+            mWriteThrough = writeThrough;
+            if (writeThrough != null)
+                {
+                    load(writeThrough);
+                }
+        }
+
+    /**
+     * Copy every pet of the given store into memory.
+     */
+    private void load(PetStore store)
+        {
+            Cursor cursor = store.query(InMemoryPetTable.COLUMN_NAMES, null, null, PetContract.PetsEntry._ID + " ASC", null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            mTable.insert(
+                                    cursor.getLong(InMemoryPetTable.COLUMN_ID),
+                                    cursor.getString(InMemoryPetTable.COLUMN_NAME),
+                                    cursor.isNull(InMemoryPetTable.COLUMN_BREED) ? null : cursor.getString(InMemoryPetTable.COLUMN_BREED),
+                                    cursor.getInt(InMemoryPetTable.COLUMN_GENDER),
+                                    cursor.getInt(InMemoryPetTable.COLUMN_WEIGHT),
+                                    cursor.isNull(InMemoryPetTable.COLUMN_MICROCHIP) ? null : cursor.getString(InMemoryPetTable.COLUMN_MICROCHIP));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Override
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            return select(null, projection, selection, selectionArgs, sortOrder, limit);
+        }
+
+    /**
+     * A lookup by _id is already a binary search, through the _id range of the selection.
+     */
+    @Override
+    public Cursor queryById(long id, String[] projection)
+        {
+            return query(projection, PetContract.PetsEntry._ID + "=?", new String[] {String.valueOf(id)}, null, null);
+        }
+
+    /**
+     * Search by scanning the names and breeds for words that start with every word of the
+     * text, like the full-text index of the database does.
+     */
+    @Override
+    public Cursor search(String text, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            return select(splitWords(text), projection, selection, selectionArgs, sortOrder, limit);
+        }
+
+    /**
+     * Describe the scan {@link #select} makes: over every row, or only over the rows in the
+     * range of _id the selection allows, then the sorting, if the rows don't come out in order.
+     */
+    @Override
+    public String explainQuery(String searchText, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            long[] range = InMemorySelection.getIdRange(InMemorySelection.parse(selection, selectionArgs));
+            boolean naturalOrder = InMemorySelection.isNaturalOrder(sortOrder);
+
+            StringBuilder plan = new StringBuilder();
+            if (range[0] == Long.MIN_VALUE && range[1] == Long.MAX_VALUE)
+                {
+                    plan.append("SCAN ").append(PetContract.PetsEntry.TABLE_PET_NAME);
+                }
+            else
+                {
+                    plan.append("SEARCH ").append(PetContract.PetsEntry.TABLE_PET_NAME).append(" USING ")
+                            .append(PetContract.PetsEntry._ID).append(range[0] == range[1] ? " (=?)" : " RANGE");
+                }
+            if (searchText != null)
+                {
+                    plan.append("\nMATCH WORDS OF ").append(PetContract.PetsEntry.COLUMN_PET_NAME)
+                            .append(", ").append(PetContract.PetsEntry.COLUMN_PET_BREED);
+                }
+            if (!naturalOrder)
+                {
+                    plan.append("\nSORT BY ").append(sortOrder);
+                }
+            else if (limit != null)
+                {
+                    plan.append("\nSTOP AFTER ").append(limit).append(" ROWS");
+                }
+            return plan.toString();
+        }
+
+    /* The columns of the statistics, in the order InMemoryPetTable#getStats() gives them, then the average */
+    private static final String[] STATS_COLUMNS = {
+            PetContract.PetStatsEntry.COLUMN_DIMENSION,
+            PetContract.PetStatsEntry.COLUMN_VALUE,
+            PetContract.PetStatsEntry.COLUMN_PET_COUNT,
+            PetContract.PetStatsEntry.COLUMN_WEIGHT_SUM,
+            PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT
+    };
+
+    /**
+     * Returns the statistics the table keeps up to date. Only the whole set can be read, in
+     * order of dimension and value, so the selection and sort order must be null.
+     */
+    @Override
+    public Cursor queryStats(String[] projection, String selection, String[] selectionArgs, String sortOrder)
+        {
+            if (selection != null || sortOrder != null)
+                {
+                    throw new IllegalArgumentException("In-memory engine can't filter or sort the statistics");
+                }
+
+            String[] columnNames = projection != null ? projection : STATS_COLUMNS;
+            int[] columns = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++)
+                {
+                    columns[i] = Arrays.asList(STATS_COLUMNS).indexOf(columnNames[i]);
+                    if (columns[i] == -1)
+                        {
+                            throw new IllegalArgumentException("No such column: " + columnNames[i]);
+                        }
+                }
+
+            ArrayList<Object[]> stats;
+            mLock.readLock().lock();
+            try
+                {
+                    stats = mTable.getStats();
+                }
+            finally
+                {
+                    mLock.readLock().unlock();
+                }
+
+            MatrixCursor cursor = new MatrixCursor(columnNames, stats.size());
+            for (Object[] row : stats)
+                {
+                    long count = (Long) row[2];
+                    Object average = count == 0 ? null : (Object) ((Long) row[3] / (double) count);
+                    Object[] values = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++)
+                        {
+                            values[i] = columns[i] < row.length ? row[columns[i]] : average;
+                        }
+                    cursor.addRow(values);
+                }
+            return cursor;
+        }
+
+    /**
+     * Returns the lower case words of the given text. Anything that isn't a letter or a digit
+     * separates words.
+     */
+    private static String[] splitWords(String text)
+        {
+            ArrayList<String> words = new ArrayList<>();
+            if (text != null)
+                {
+                    for (String word : text.toLowerCase(Locale.US).split("[^\\p{L}\\p{Nd}]+"))
+                        {
+                            if (!word.isEmpty())
+                                {
+                                    words.add(word);
+                                }
+                        }
+                }
+            return words.toArray(new String[words.size()]);
+        }
+
+    /**
+     * Returns whether every search word starts a word of the given name or breed.
+     */
+    private static boolean matchesSearch(String[] searchWords, String name, String breed)
+        {
+            if (searchWords.length == 0)
+                {
+                    // Text without any words can't match a pet
+                    return false;
+                }
+
+            String[] petWords = splitWords(name + " " + (breed == null ? "" : breed));
+            for (String searchWord : searchWords)
+                {
+                    boolean found = false;
+                    for (String petWord : petWords)
+                        {
+                            if (petWord.startsWith(searchWord))
+                                {
+                                    found = true;
+                                    break;
+                                }
+                        }
+                    if (!found)
+                        {
+                            return false;
+                        }
+                }
+            return true;
+        }
+
+    /**
+     * Run a query, only keeping the pets that match the search words if there are any.
+     */
+    private Cursor select(String[] searchWords, String[] projection, String selection, String[] selectionArgs,
+                          String sortOrder, String limit)
+        {
+            InMemorySelection.Predicate predicate = InMemorySelection.parse(selection, selectionArgs);
+            int[] columns = getColumns(projection);
+            int maxRows = parseLimit(limit);
+            boolean naturalOrder = InMemorySelection.isNaturalOrder(sortOrder);
+
+            String[] columnNames = projection != null ? projection : InMemoryPetTable.COLUMN_NAMES;
+            MatrixCursor cursor;
+
+            mLock.readLock().lock();
+            try
+                {
+                    InMemoryPetTable table = mTable;
+                    int start = getFirstRow(table, predicate);
+                    int end = getEndRow(table, predicate);
+
+                    // In _id order, the scan can stop as soon as it has enough rows
+                    int[] rows = new int[Math.max(0, Math.min(end - start, naturalOrder ? maxRows : Integer.MAX_VALUE))];
+                    int count = 0;
+                    for (int row = start; row < end && count < rows.length; row++)
+                        {
+                            if (predicate.matches(table, row) &&
+                                    (searchWords == null || matchesSearch(searchWords, table.getName(row), table.getBreed(row))))
+                                {
+                                    rows[count++] = row;
+                                }
+                        }
+
+                    InMemorySelection.sort(table, rows, count, sortOrder);
+                    count = Math.min(count, maxRows);
+
+                    cursor = new MatrixCursor(columnNames, count);
+                    for (int i = 0; i < count; i++)
+                        {
+                            Object[] values = new Object[columns.length];
+                            for (int j = 0; j < columns.length; j++)
+                                {
+                                    values[j] = table.getValue(columns[j], rows[i]);
+                                }
+                            cursor.addRow(values);
+                        }
+                }
+            finally
+                {
+                    mLock.readLock().unlock();
+                }
+            return cursor;
+        }
+
+    /**
+     * Returns the first row that can match the given predicate.
+     */
+    private static int getFirstRow(InMemoryPetTable table, InMemorySelection.Predicate predicate)
+        {
+            long minId = InMemorySelection.getIdRange(predicate)[0];
+            if (minId == Long.MIN_VALUE)
+                {
+                    return 0;
+                }
+            int row = table.indexOfId(minId);
+            return row >= 0 ? row : -row - 1;
+        }
+
+    /**
+     * Returns the row after the last row that can match the given predicate.
+     */
+    private static int getEndRow(InMemoryPetTable table, InMemorySelection.Predicate predicate)
+        {
+            long maxId = InMemorySelection.getIdRange(predicate)[1];
+            if (maxId == Long.MAX_VALUE)
+                {
+                    return table.size();
+                }
+            int row = table.indexOfId(maxId);
+            return row >= 0 ? row + 1 : -row - 1;
+        }
+
+    /**
+     * Returns the column indexes of the given projection, or of every column if it's null.
+     */
+    private static int[] getColumns(String[] projection)
+        {
+            if (projection == null)
+                {
+                    projection = InMemoryPetTable.COLUMN_NAMES;
+                }
+            int[] columns = new int[projection.length];
+            for (int i = 0; i < projection.length; i++)
+                {
+                    columns[i] = InMemoryPetTable.getColumnIndex(projection[i]);
+                    if (columns[i] == -1)
+                        {
+                            throw new IllegalArgumentException("No such column: " + projection[i]);
+                        }
+                }
+            return columns;
+        }
+
+    /**
+     * Parse the most rows a query returns. Like in SQLite, a negative limit means no limit.
+     */
+    private static int parseLimit(String limit)
+        {
+            if (limit == null)
+                {
+                    return Integer.MAX_VALUE;
+                }
+            try
+                {
+                    int rows = Integer.parseInt(limit.trim());
+                    return rows < 0 ? Integer.MAX_VALUE : rows;
+                }
+            catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException("In-memory engine can't run limit " + limit);
+                }
+        }
+
+    /**
+     * Check that the given values only name columns of the table, and don't change the _id.
+     */
+    private static void checkColumns(ContentValues values, boolean allowId)
+        {
+            for (String key : values.keySet())
+                {
+                    int column = InMemoryPetTable.getColumnIndex(key);
+                    if (column == -1 || (column == InMemoryPetTable.COLUMN_ID && !allowId))
+                        {
+                            throw new IllegalArgumentException("In-memory engine can't write column " + key);
+                        }
+                }
+        }
+
+    /**
+     * Read the journal of the write-through store. Without one, the pets only live in memory
+     * and there is no journal to read.
+     */
+    @Override
+    public Cursor queryChanges(String[] projection, long afterSequence, String limit)
+        {
+            return getJournal().queryChanges(projection, afterSequence, limit);
+        }
+
+    @Override
+    public long getLastChangeSequence()
+        {
+            return getJournal().getLastChangeSequence();
+        }
+
+    @Override
+    public int deleteChanges(String selection, String[] selectionArgs)
+        {
+            return getJournal().deleteChanges(selection, selectionArgs);
+        }
+
+    private PetStore getJournal()
+        {
+            if (mWriteThrough == null)
+                {
+                    throw new IllegalArgumentException("In-memory engine keeps no change journal");
+                }
+            return mWriteThrough;
+        }
+
+    /**
+     * Back up the database of the write-through store, which holds every pet memory does.
+     */
+    @Override
+    public long backup(File destination, int stepPages, long stepPauseMillis) throws IOException
+        {
+            return getDatabase().backup(destination, stepPages, stepPauseMillis);
+        }
+
+    /**
+     * Restore the database of the write-through store, then load the pets from it again.
+     */
+    @Override
+    public void restore(File source) throws IOException
+        {
+            PetStore database = getDatabase();
+            mLock.writeLock().lock();
+            try
+                {
+                    database.restore(source);
+                    mTable = new InMemoryPetTable();
+                    load(database);
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    /**
+     * Compact the database of the write-through store; memory has nothing to give back.
+     */
+    @Override
+    public void compact()
+        {
+            getDatabase().compact();
+        }
+
+    private PetStore getDatabase()
+        {
+            if (mWriteThrough == null)
+                {
+                    throw new IllegalArgumentException("In-memory engine keeps no database");
+                }
+            return mWriteThrough;
+        }
+
+    @Override
+    public long insert(ContentValues values)
+        {
+            checkColumns(values, true);
+
+            mLock.writeLock().lock();
+            try
+                {
+                    String name = values.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
+                    Integer gender = values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
+                    Integer weight = values.containsKey(PetContract.PetsEntry.COLUMN_PET_WEIGHT)
+                            ? values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT) : Integer.valueOf(0);
+                    Long id = values.getAsLong(PetContract.PetsEntry._ID);
+                    String microchip = values.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+
+                    // Fail the same way SQLiteDatabase#insert does for a NOT NULL or UNIQUE column
+                    if (name == null || gender == null || weight == null ||
+                            (id != null && mTable.indexOfId(id) >= 0) ||
+                            (microchip != null && mTable.indexOfMicrochip(microchip) >= 0))
+                        {
+                            Log.e(LOG_TAG, "Error inserting " + values);
+                            return -1;
+                        }
+
+                    if (mWriteThrough != null)
+                        {
+                            id = mWriteThrough.insert(values);
+                            if (id == -1)
+                                {
+                                    return -1;
+                                }
+                        }
+                    else if (id == null)
+                        {
+                            id = mTable.getMaxId() + 1;
+                        }
+
+                    beforeWrite(id);
+                    mTable.insert(id, name, values.getAsString(PetContract.PetsEntry.COLUMN_PET_BREED), gender, weight, microchip);
+                    return id;
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    @Override
+    public long[] bulkInsert(ContentValues[] values)
+        {
+            mLock.writeLock().lock();
+            try
+                {
+                    checkNewMicrochips(values);
+
+                    long[] ids;
+                    if (mWriteThrough != null)
+                        {
+                            ids = mWriteThrough.bulkInsert(values);
+                        }
+                    else
+                        {
+                            ids = new long[values.length];
+                            long nextId = mTable.getMaxId() + 1;
+                            for (int i = 0; i < values.length; i++)
+                                {
+                                    ids[i] = nextId++;
+                                }
+                        }
+
+                    for (int i = 0; i < values.length; i++)
+                        {
+                            if (ids[i] == -1)
+                                {
+                                    continue;
+                                }
+                            beforeWrite(ids[i]);
+                            Integer weight = values[i].getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+                            mTable.insert(ids[i],
+                                    values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_NAME),
+                                    values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_BREED),
+                                    values[i].getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER),
+                                    weight == null ? 0 : weight,
+                                    values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP));
+                        }
+                    return ids;
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    /**
+     * Fail the way the unique index of the database does if any of the given new pets has a
+     * microchip that another pet, or an earlier one of them, already has.
+     */
+    private void checkNewMicrochips(ContentValues[] values)
+        {
+            HashSet<String> microchips = new HashSet<>();
+            for (ContentValues pet : values)
+                {
+                    String microchip = pet.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                    if (microchip != null && (mTable.indexOfMicrochip(microchip) >= 0 || !microchips.add(microchip)))
+                        {
+                            throw new SQLiteConstraintException("UNIQUE constraint failed: " +
+                                    PetContract.PetsEntry.TABLE_PET_NAME + "." + PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                        }
+                }
+        }
+
+    /**
+     * Match the pets on their microchip against the table the same way the database does,
+     * or, with a write-through store, apply what it did with each of them.
+     */
+    @Override
+    public long[] upsert(ContentValues[] values, int[] outcomes)
+        {
+            mLock.writeLock().lock();
+            try
+                {
+                    long[] ids = mWriteThrough != null ? mWriteThrough.upsert(values, outcomes) : new long[values.length];
+
+                    InMemoryPetTable table = mTable;
+                    for (int i = 0; i < values.length; i++)
+                        {
+                            String name = values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
+                            String breed = values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_BREED);
+                            int gender = values[i].getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
+                            Integer weight = values[i].getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+                            String microchip = values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                            if (weight == null)
+                                {
+                                    weight = 0;
+                                }
+
+                            int row;
+                            if (mWriteThrough == null)
+                                {
+                                    row = microchip == null ? -1 : table.indexOfMicrochip(microchip);
+                                    if (row == -1)
+                                        {
+                                            ids[i] = table.getMaxId() + 1;
+                                            outcomes[i] = UPSERT_INSERTED;
+                                        }
+                                    else
+                                        {
+                                            ids[i] = table.getId(row);
+                                            boolean same = name.equals(table.getName(row)) &&
+                                                    (breed == null ? table.getBreed(row) == null : breed.equals(table.getBreed(row))) &&
+                                                    gender == table.getLong(InMemoryPetTable.COLUMN_GENDER, row) &&
+                                                    weight == table.getLong(InMemoryPetTable.COLUMN_WEIGHT, row);
+                                            outcomes[i] = same ? UPSERT_UNCHANGED : UPSERT_UPDATED;
+                                        }
+                                }
+
+                            if (outcomes[i] != UPSERT_UNCHANGED)
+                                {
+                                    beforeWrite(ids[i]);
+                                }
+                            if (outcomes[i] == UPSERT_INSERTED)
+                                {
+                                    table.insert(ids[i], name, breed, gender, weight, microchip);
+                                }
+                            else if (outcomes[i] == UPSERT_UPDATED)
+                                {
+                                    row = table.indexOfId(ids[i]);
+                                    table.setName(row, name);
+                                    table.setBreed(row, breed);
+                                    table.setGender(row, gender);
+                                    table.setWeight(row, weight);
+                                }
+                        }
+                    return ids;
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    @Override
+    public int update(ContentValues values, String selection, String[] selectionArgs)
+        {
+            checkColumns(values, false);
+            InMemorySelection.Predicate predicate = InMemorySelection.parse(selection, selectionArgs);
+
+            // Check the new values up front, so memory can't fail after the database took them
+            boolean setName = values.containsKey(PetContract.PetsEntry.COLUMN_PET_NAME);
+            boolean setBreed = values.containsKey(PetContract.PetsEntry.COLUMN_PET_BREED);
+            boolean setGender = values.containsKey(PetContract.PetsEntry.COLUMN_PET_GENDER);
+            boolean setWeight = values.containsKey(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+            boolean setMicrochip = values.containsKey(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+            String name = values.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
+            String breed = values.getAsString(PetContract.PetsEntry.COLUMN_PET_BREED);
+            Integer gender = values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
+            Integer weight = values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+            String microchip = values.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+            if ((setName && name == null) || (setGender && gender == null) || (setWeight && weight == null))
+                {
+                    throw new SQLiteConstraintException("NOT NULL constraint failed");
+                }
+
+            mLock.writeLock().lock();
+            try
+                {
+                    if (setMicrochip && microchip != null)
+                        {
+                            checkMicrochipUpdate(predicate, microchip);
+                        }
+                    if (mWriteThrough != null)
+                        {
+                            mWriteThrough.update(values, selection, selectionArgs);
+                        }
+
+                    InMemoryPetTable table = mTable;
+                    int rowsUpdated = 0;
+                    int end = getEndRow(table, predicate);
+                    for (int row = getFirstRow(table, predicate); row < end; row++)
+                        {
+                            if (!predicate.matches(table, row))
+                                {
+                                    continue;
+                                }
+                            beforeWrite(table.getId(row));
+                            if (setName)
+                                {
+                                    table.setName(row, name);
+                                }
+                            if (setBreed)
+                                {
+                                    table.setBreed(row, breed);
+                                }
+                            if (setGender)
+                                {
+                                    table.setGender(row, gender);
+                                }
+                            if (setWeight)
+                                {
+                                    table.setWeight(row, weight);
+                                }
+                            if (setMicrochip)
+                                {
+                                    table.setMicrochip(row, microchip);
+                                }
+                            rowsUpdated++;
+                        }
+                    return rowsUpdated;
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    /**
+     * Fail the way the unique index of the database does if giving every pet that matches the
+     * predicate the given microchip would leave two pets with it.
+     */
+    private void checkMicrochipUpdate(InMemorySelection.Predicate predicate, String microchip)
+        {
+            InMemoryPetTable table = mTable;
+            int holder = table.indexOfMicrochip(microchip);
+            int matches = 0;
+            boolean holderMatches = false;
+            int end = getEndRow(table, predicate);
+            for (int row = getFirstRow(table, predicate); row < end; row++)
+                {
+                    if (predicate.matches(table, row))
+                        {
+                            matches++;
+                            holderMatches |= row == holder;
+                        }
+                }
+            if (matches > 1 || (matches == 1 && holder != -1 && !holderMatches))
+                {
+                    throw new SQLiteConstraintException("UNIQUE constraint failed: " +
+                            PetContract.PetsEntry.TABLE_PET_NAME + "." + PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                }
+        }
+
+    @Override
+    public int updateById(long id, ContentValues values)
+        {
+            return update(values, PetContract.PetsEntry._ID + "=?", new String[] {String.valueOf(id)});
+        }
+
+    @Override
+    public int delete(String selection, String[] selectionArgs)
+        {
+            InMemorySelection.Predicate predicate = InMemorySelection.parse(selection, selectionArgs);
+
+            mLock.writeLock().lock();
+            try
+                {
+                    if (mWriteThrough != null)
+                        {
+                            mWriteThrough.delete(selection, selectionArgs);
+                        }
+
+                    // Deleting every pet just starts over with an empty table
+                    InMemoryPetTable table = mTable;
+                    if (predicate == InMemorySelection.ALL)
+                        {
+                            int rowsDeleted = table.size();
+                            if (rowsDeleted != 0)
+                                {
+                                    beforeReplace();
+                                    mTable = new InMemoryPetTable();
+                                }
+                            return rowsDeleted;
+                        }
+
+                    boolean[] removed = new boolean[table.size()];
+                    int rowsDeleted = 0;
+                    int end = getEndRow(table, predicate);
+                    for (int row = getFirstRow(table, predicate); row < end; row++)
+                        {
+                            if (predicate.matches(table, row))
+                                {
+                                    beforeWrite(table.getId(row));
+                                    removed[row] = true;
+                                    rowsDeleted++;
+                                }
+                        }
+
+                    if (rowsDeleted != 0)
+                        {
+                            mTable.removeRows(removed);
+                        }
+                    return rowsDeleted;
+                }
+            finally
+                {
+                    mLock.writeLock().unlock();
+                }
+        }
+
+    @Override
+    public int deleteById(long id)
+        {
+            return delete(PetContract.PetsEntry._ID + "=?", new String[] {String.valueOf(id)});
+        }
+
+    /**
+     * Called before the pet with the given _id is inserted, changed or deleted, so a transaction
+     * can keep the pet as it was before its first write to it.
+     */
+    private void beforeWrite(long id)
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null || transaction.replaced != null || transaction.undo.containsKey(id))
+                {
+                    return;
+                }
+            int row = mTable.indexOfId(id);
+            transaction.undo.put(id, row >= 0 ? mTable.getRow(row) : null);
+        }
+
+    /**
+     * Called before the table is replaced by an empty one, so a transaction can go back to it.
+     */
+    private void beforeReplace()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction != null && transaction.replaced == null)
+                {
+                    transaction.replaced = mTable;
+                }
+        }
+
+    /**
+     * Put back the table the way it was before the given transaction.
+     */
+    private void rollBack(Transaction transaction)
+        {
+            if (transaction.replaced != null)
+                {
+                    mTable = transaction.replaced;
+                }
+            mTable.putBack(transaction.undo);
+        }
+
+    @Override
+    public void beginTransaction()
+        {
+            mLock.writeLock().lock();
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    transaction = new Transaction();
+                    mTransaction.set(transaction);
+                }
+            transaction.depth++;
+            transaction.markedSuccessful = false;
+
+            if (mWriteThrough != null)
+                {
+                    mWriteThrough.beginTransaction();
+                }
+        }
+
+    @Override
+    public void setTransactionSuccessful()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    throw new IllegalStateException("No transaction to mark successful");
+                }
+            transaction.markedSuccessful = true;
+
+            if (mWriteThrough != null)
+                {
+                    mWriteThrough.setTransactionSuccessful();
+                }
+        }
+
+    @Override
+    public void endTransaction()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    throw new IllegalStateException("No transaction to end");
+                }
+            try
+                {
+                    if (mWriteThrough != null)
+                        {
+                            mWriteThrough.endTransaction();
+                        }
+                }
+            finally
+                {
+                    if (!transaction.markedSuccessful)
+                        {
+                            transaction.failed = true;
+                        }
+                    transaction.markedSuccessful = false;
+
+                    if (--transaction.depth == 0)
+                        {
+                            mTransaction.remove();
+                            if (transaction.failed)
+                                {
+                                    rollBack(transaction);
+                                }
+                        }
+                    mLock.writeLock().unlock();
+                }
+        }
+}
@@ -0,0 +1,455 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The pets table of {@link InMemoryPetStore}, kept as one primitive array per column, so a
+ * pet costs no objects besides its strings. Rows are kept sorted by _id, so a pet is found by
+ * binary search and the rows come out in _id order without sorting. A pet is also found by its
+ * microchip through a map, which keeps the microchips unique like the index of the database.
+ * <p>
+ * Not thread-safe; the store guards it.
+ */
+final class InMemoryPetTable {
+
+    /* Indexes of the columns, in the order of the pets table */
+    static final int COLUMN_ID = 0;
+    static final int COLUMN_NAME = 1;
+    static final int COLUMN_BREED = 2;
+    static final int COLUMN_GENDER = 3;
+    static final int COLUMN_WEIGHT = 4;
+    static final int COLUMN_MICROCHIP = 5;
+
+    /* Names of the columns, by index */
+    static final String[] COLUMN_NAMES = {
+            PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    /* Number of rows room is made for when the table starts out empty */
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mIds;
+    private String[] mNames;
+    private String[] mBreeds;
+    private int[] mGenders;
+    private int[] mWeights;
+    private String[] mMicrochips;
+    private int mSize;
+
+    /* The _id of every pet with a microchip, by microchip */
+    private final HashMap<String, Long> mIdsByMicrochip = new HashMap<>();
+
+    /*
+     * Statistics per gender and per breed, as {pet count, weight sum}, keyed by dimension and
+     * value, kept up to date by every change to the rows
+     */
+    private final TreeMap<String, long[]> mStats = new TreeMap<>();
+
+    /* Total weight of every pet */
+    private long mWeightSum;
+
+    InMemoryPetTable()
+        {
+            this(MIN_CAPACITY);
+        }
+
+    private InMemoryPetTable(int capacity)
+        {
+            mIds = new long[capacity];
+            mNames = new String[capacity];
+            mBreeds = new String[capacity];
+            mGenders = new int[capacity];
+            mWeights = new int[capacity];
+            mMicrochips = new String[capacity];
+        }
+
+    /**
+     * Returns the index of the column with the given name, or -1 if the table has no such
+     * column. Like in SQL, column names aren't case-sensitive.
+     */
+    static int getColumnIndex(String columnName)
+        {
+            for (int i = 0; i < COLUMN_NAMES.length; i++)
+                {
+                    if (COLUMN_NAMES[i].equalsIgnoreCase(columnName))
+                        {
+                            return i;
+                        }
+                }
+            return -1;
+        }
+
+    /**
+     * Returns whether the column at the given index holds text, rather than integers.
+     */
+    static boolean isTextColumn(int column)
+        {
+            return column == COLUMN_NAME || column == COLUMN_BREED || column == COLUMN_MICROCHIP;
+        }
+
+    int size()
+        {
+            return mSize;
+        }
+
+    long getId(int row)
+        {
+            return mIds[row];
+        }
+
+    String getName(int row)
+        {
+            return mNames[row];
+        }
+
+    String getBreed(int row)
+        {
+            return mBreeds[row];
+        }
+
+    String getMicrochip(int row)
+        {
+            return mMicrochips[row];
+        }
+
+    /**
+     * Returns the row of the pet with the given microchip, or -1 if no pet has it.
+     */
+    int indexOfMicrochip(String microchip)
+        {
+            Long id = mIdsByMicrochip.get(microchip);
+            return id == null ? -1 : indexOfId(id);
+        }
+
+    /**
+     * Returns the value of an integer column.
+     */
+    long getLong(int column, int row)
+        {
+            switch (column)
+                {
+                    case COLUMN_ID:
+                        return mIds[row];
+                    case COLUMN_GENDER:
+                        return mGenders[row];
+                    case COLUMN_WEIGHT:
+                        return mWeights[row];
+                    default:
+                        throw new IllegalArgumentException("Not an integer column: " + COLUMN_NAMES[column]);
+                }
+        }
+
+    /**
+     * Returns the value of a text column, which may be null.
+     */
+    String getText(int column, int row)
+        {
+            switch (column)
+                {
+                    case COLUMN_NAME:
+                        return mNames[row];
+                    case COLUMN_BREED:
+                        return mBreeds[row];
+                    case COLUMN_MICROCHIP:
+                        return mMicrochips[row];
+                    default:
+                        throw new IllegalArgumentException("Not a text column: " + COLUMN_NAMES[column]);
+                }
+        }
+
+    /**
+     * Returns the value of any column, boxed, as it goes into a cursor row.
+     */
+    Object getValue(int column, int row)
+        {
+            return isTextColumn(column) ? getText(column, row) : (Object) getLong(column, row);
+        }
+
+    /**
+     * Returns the largest _id in the table, or 0 if it's empty.
+     */
+    long getMaxId()
+        {
+            return mSize == 0 ? 0 : mIds[mSize - 1];
+        }
+
+    /**
+     * Returns the row of the pet with the given _id, or, if there is none, (-(insertion row) - 1).
+     */
+    int indexOfId(long id)
+        {
+            return Arrays.binarySearch(mIds, 0, mSize, id);
+        }
+
+    /**
+     * Add a pet, keeping the rows in _id order. Neither the _id nor the microchip, if there is
+     * one, may be in the table yet.
+     */
+    void insert(long id, String name, String breed, int gender, int weight, String microchip)
+        {
+            int row = indexOfId(id);
+            if (row >= 0)
+                {
+                    throw new IllegalArgumentException("Pet " + id + " is already in the table");
+                }
+            if (microchip != null && mIdsByMicrochip.containsKey(microchip))
+                {
+                    throw new IllegalArgumentException("Microchip " + microchip + " is already in the table");
+                }
+            row = -row - 1;
+
+            if (mSize == mIds.length)
+                {
+                    int capacity = mIds.length * 2;
+                    mIds = Arrays.copyOf(mIds, capacity);
+                    mNames = Arrays.copyOf(mNames, capacity);
+                    mBreeds = Arrays.copyOf(mBreeds, capacity);
+                    mGenders = Arrays.copyOf(mGenders, capacity);
+                    mWeights = Arrays.copyOf(mWeights, capacity);
+                    mMicrochips = Arrays.copyOf(mMicrochips, capacity);
+                }
+
+            // New pets almost always get the largest _id, so this rarely moves anything
+            int moved = mSize - row;
+            if (moved > 0)
+                {
+                    System.arraycopy(mIds, row, mIds, row + 1, moved);
+                    System.arraycopy(mNames, row, mNames, row + 1, moved);
+                    System.arraycopy(mBreeds, row, mBreeds, row + 1, moved);
+                    System.arraycopy(mGenders, row, mGenders, row + 1, moved);
+                    System.arraycopy(mWeights, row, mWeights, row + 1, moved);
+                    System.arraycopy(mMicrochips, row, mMicrochips, row + 1, moved);
+                }
+
+            mIds[row] = id;
+            mNames[row] = name;
+            mBreeds[row] = breed;
+            mGenders[row] = gender;
+            mWeights[row] = weight;
+            mMicrochips[row] = microchip;
+            if (microchip != null)
+                {
+                    mIdsByMicrochip.put(microchip, id);
+                }
+            mSize++;
+            countInStats(row, 1);
+        }
+
+    void setName(int row, String name)
+        {
+            mNames[row] = name;
+        }
+
+    void setBreed(int row, String breed)
+        {
+            countInStats(row, -1);
+            mBreeds[row] = breed;
+            countInStats(row, 1);
+        }
+
+    void setGender(int row, int gender)
+        {
+            countInStats(row, -1);
+            mGenders[row] = gender;
+            countInStats(row, 1);
+        }
+
+    void setWeight(int row, int weight)
+        {
+            countInStats(row, -1);
+            mWeights[row] = weight;
+            countInStats(row, 1);
+        }
+
+    /**
+     * Set the microchip of a pet, which no other pet may have.
+     */
+    void setMicrochip(int row, String microchip)
+        {
+            if (microchip != null)
+                {
+                    Long holder = mIdsByMicrochip.get(microchip);
+                    if (holder != null && holder != mIds[row])
+                        {
+                            throw new IllegalArgumentException("Microchip " + microchip + " is already in the table");
+                        }
+                }
+            if (mMicrochips[row] != null)
+                {
+                    mIdsByMicrochip.remove(mMicrochips[row]);
+                }
+            mMicrochips[row] = microchip;
+            if (microchip != null)
+                {
+                    mIdsByMicrochip.put(microchip, mIds[row]);
+                }
+        }
+
+    /**
+     * Add the pet in the given row to the statistics, or take it out with a sign of -1.
+     */
+    private void countInStats(int row, int sign)
+        {
+            mWeightSum += sign * (long) mWeights[row];
+            countInStats(PetContract.PetStatsEntry.DIMENSION_GENDER, String.valueOf(mGenders[row]), mWeights[row], sign);
+            countInStats(PetContract.PetStatsEntry.DIMENSION_BREED, mBreeds[row] == null ? "" : mBreeds[row], mWeights[row], sign);
+        }
+
+    private void countInStats(String dimension, String value, int weight, int sign)
+        {
+            String key = dimension + '\0' + value;
+            long[] stats = mStats.get(key);
+            if (stats == null)
+                {
+                    stats = new long[2];
+                    mStats.put(key, stats);
+                }
+            stats[0] += sign;
+            stats[1] += sign * (long) weight;
+
+            // Groups that no pet is left in go away, so old breeds don't pile up
+            if (stats[0] == 0)
+                {
+                    mStats.remove(key);
+                }
+        }
+
+    /**
+     * Returns the statistics of the table as rows of {dimension, value, pet count, weight sum},
+     * ordered by dimension and value, the first one being over all pets.
+     */
+    ArrayList<Object[]> getStats()
+        {
+            ArrayList<Object[]> rows = new ArrayList<>(mStats.size() + 1);
+            rows.add(new Object[] {PetContract.PetStatsEntry.DIMENSION_ALL, "", (long) mSize, mWeightSum});
+            for (Map.Entry<String, long[]> entry : mStats.entrySet())
+                {
+                    String key = entry.getKey();
+                    int separator = key.indexOf('\0');
+                    rows.add(new Object[] {key.substring(0, separator), key.substring(separator + 1),
+                            entry.getValue()[0], entry.getValue()[1]});
+                }
+            return rows;
+        }
+
+    /**
+     * Returns a copy of the values of the given row, by column index, to put back with
+     * {@link #putBack(Map)}.
+     */
+    Object[] getRow(int row)
+        {
+            Object[] values = new Object[COLUMN_NAMES.length];
+            for (int column = 0; column < values.length; column++)
+                {
+                    values[column] = getValue(column, row);
+                }
+            return values;
+        }
+
+    /**
+     * Put the given pets back the way they were, by _id: as the values of their row from
+     * {@link #getRow(int)}, or null for a pet that didn't exist. Pets not in the map are left
+     * alone, so undoing a transaction only costs as much as the rows it touched.
+     */
+    void putBack(Map<Long, Object[]> rows)
+        {
+            // Take out the pets that didn't exist, and free the microchips of the others, so
+            // microchips that moved between pets can move back
+            boolean[] removed = null;
+            for (Map.Entry<Long, Object[]> entry : rows.entrySet())
+                {
+                    int row = indexOfId(entry.getKey());
+                    if (row < 0)
+                        {
+                            continue;
+                        }
+                    if (entry.getValue() == null)
+                        {
+                            if (removed == null)
+                                {
+                                    removed = new boolean[mSize];
+                                }
+                            removed[row] = true;
+                        }
+                    else
+                        {
+                            setMicrochip(row, null);
+                        }
+                }
+            if (removed != null)
+                {
+                    removeRows(removed);
+                }
+
+            for (Map.Entry<Long, Object[]> entry : rows.entrySet())
+                {
+                    Object[] values = entry.getValue();
+                    if (values == null)
+                        {
+                            continue;
+                        }
+                    String name = (String) values[COLUMN_NAME];
+                    String breed = (String) values[COLUMN_BREED];
+                    int gender = ((Long) values[COLUMN_GENDER]).intValue();
+                    int weight = ((Long) values[COLUMN_WEIGHT]).intValue();
+                    String microchip = (String) values[COLUMN_MICROCHIP];
+
+                    int row = indexOfId(entry.getKey());
+                    if (row < 0)
+                        {
+                            insert(entry.getKey(), name, breed, gender, weight, microchip);
+                            continue;
+                        }
+                    setName(row, name);
+                    setBreed(row, breed);
+                    setGender(row, gender);
+                    setWeight(row, weight);
+                    setMicrochip(row, microchip);
+                }
+        }
+
+    /**
+     * Remove the rows flagged in the given array, shifting the rest down in one pass.
+     */
+    void removeRows(boolean[] removed)
+        {
+            int kept = 0;
+            for (int row = 0; row < mSize; row++)
+                {
+                    if (removed[row])
+                        {
+                            countInStats(row, -1);
+                            if (mMicrochips[row] != null)
+                                {
+                                    mIdsByMicrochip.remove(mMicrochips[row]);
+                                }
+                            continue;
+                        }
+                    if (kept != row)
+                        {
+                            mIds[kept] = mIds[row];
+                            mNames[kept] = mNames[row];
+                            mBreeds[kept] = mBreeds[row];
+                            mGenders[kept] = mGenders[row];
+                            mWeights[kept] = mWeights[row];
+                            mMicrochips[kept] = mMicrochips[row];
+                        }
+                    kept++;
+                }
+
+            // Let go of the strings of the removed rows
+            Arrays.fill(mNames, kept, mSize, null);
+            Arrays.fill(mBreeds, kept, mSize, null);
+            Arrays.fill(mMicrochips, kept, mSize, null);
+            mSize = kept;
+        }
+}
@@ -0,0 +1,678 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Runs the selections and sort orders given to {@link InMemoryPetStore} against an
+ * {@link InMemoryPetTable}, with the same results SQLite gives for the pets table.
+ * <p>
+ * A selection may compare columns with {@code = == != <> < <= > >=} against a {@code ?}, a
+ * number or a quoted string, test them with {@code IS NULL} and {@code IS NOT NULL}, and combine
+ * those with {@code AND}, {@code OR}, {@code NOT} and parentheses. A sort order is a list of
+ * columns, each optionally followed by {@code ASC} or {@code DESC}. Anything else is rejected with
+ * an {@link IllegalArgumentException}.
+ */
+final class InMemorySelection {
+
+    /* The results of a condition. As in SQL, a comparison with NULL is neither true nor false. */
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int UNKNOWN = 2;
+
+    /**
+     * A condition on the rows of the table.
+     */
+    abstract static class Predicate
+        {
+            /**
+             * Returns {@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN} for the given row.
+             */
+            abstract int evaluate(InMemoryPetTable table, int row);
+
+            /**
+             * Returns whether the given row is selected, which it only is if the condition is
+             * true for it.
+             */
+            final boolean matches(InMemoryPetTable table, int row)
+                {
+                    return evaluate(table, row) == TRUE;
+                }
+        }
+
+    /* Matches every row, for a null selection */
+    static final Predicate ALL = new Predicate() {
+        @Override
+        int evaluate(InMemoryPetTable table, int row) {
+            return TRUE;
+        }
+    };
+
+    /* The comparison operators */
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private InMemorySelection()
+        {
+        }
+
+    /**
+     * Parse the given selection, binding the selection arguments to its {@code ?}s in order.
+     */
+    static Predicate parse(String selection, String[] selectionArgs)
+        {
+            if (selection == null || selection.trim().isEmpty())
+                {
+                    if (selectionArgs != null && selectionArgs.length > 0)
+                        {
+                            throw new IllegalArgumentException("Selection arguments without a selection");
+                        }
+                    return ALL;
+                }
+
+            Parser parser = new Parser(selection, selectionArgs);
+            Predicate predicate = parser.parseOr();
+            parser.expectEnd();
+            return predicate;
+        }
+
+    /**
+     * Returns the smallest and the largest _id a row needs to match the given predicate, as far
+     * as its comparisons of _id joined by AND tell. Since the rows are kept in _id order, only
+     * the rows in that range need to be looked at, which makes lookups by _id and pages of a
+     * paginated query a binary search away.
+     */
+    static long[] getIdRange(Predicate predicate)
+        {
+            long[] range = {Long.MIN_VALUE, Long.MAX_VALUE};
+            narrowIdRange(predicate, range);
+            return range;
+        }
+
+    private static void narrowIdRange(Predicate predicate, long[] range)
+        {
+            if (predicate instanceof Logical && ((Logical) predicate).and)
+                {
+                    narrowIdRange(((Logical) predicate).left, range);
+                    narrowIdRange(((Logical) predicate).right, range);
+                }
+            else if (predicate instanceof Comparison)
+                {
+                    Comparison comparison = (Comparison) predicate;
+                    if (comparison.column != InMemoryPetTable.COLUMN_ID || !(comparison.value instanceof Long))
+                        {
+                            return;
+                        }
+                    long value = (Long) comparison.value;
+                    switch (comparison.operator)
+                        {
+                            case EQ:
+                                range[0] = Math.max(range[0], value);
+                                range[1] = Math.min(range[1], value);
+                                break;
+                            case GT:
+                                range[0] = Math.max(range[0], value == Long.MAX_VALUE ? value : value + 1);
+                                if (value == Long.MAX_VALUE)
+                                    {
+                                        range[1] = Long.MIN_VALUE;
+                                    }
+                                break;
+                            case GE:
+                                range[0] = Math.max(range[0], value);
+                                break;
+                            case LT:
+                                range[1] = Math.min(range[1], value == Long.MIN_VALUE ? value : value - 1);
+                                if (value == Long.MIN_VALUE)
+                                    {
+                                        range[0] = Long.MAX_VALUE;
+                                    }
+                                break;
+                            case LE:
+                                range[1] = Math.min(range[1], value);
+                                break;
+                            default:
+                                break;
+                        }
+                }
+        }
+
+    /**
+     * Returns whether the given sort order leaves the rows in _id order, the order they are
+     * kept in.
+     */
+    static boolean isNaturalOrder(String sortOrder)
+        {
+            if (sortOrder == null || sortOrder.trim().isEmpty())
+                {
+                    return true;
+                }
+            String[] words = sortOrder.trim().split("\\s+");
+            return InMemoryPetTable.getColumnIndex(words[0]) == InMemoryPetTable.COLUMN_ID &&
+                    (words.length == 1 || (words.length == 2 && words[1].equalsIgnoreCase("ASC")));
+        }
+
+    /**
+     * Sort the first count of the given rows by the given sort order. Rows that are equal
+     * on every sort column stay in _id order.
+     */
+    static void sort(final InMemoryPetTable table, int[] rows, int count, String sortOrder)
+        {
+            if (isNaturalOrder(sortOrder))
+                {
+                    return;
+                }
+
+            String[] terms = sortOrder.split(",");
+            final int[] columns = new int[terms.length];
+            final boolean[] descending = new boolean[terms.length];
+            for (int i = 0; i < terms.length; i++)
+                {
+                    String[] words = terms[i].trim().split("\\s+");
+                    columns[i] = InMemoryPetTable.getColumnIndex(words[0]);
+                    if (columns[i] == -1 || words.length > 2 ||
+                            (words.length == 2 && !words[1].equalsIgnoreCase("ASC") && !words[1].equalsIgnoreCase("DESC")))
+                        {
+                            throw new IllegalArgumentException("Can't sort by " + terms[i].trim());
+                        }
+                    descending[i] = words.length == 2 && words[1].equalsIgnoreCase("DESC");
+                }
+
+            Integer[] boxed = new Integer[count];
+            for (int i = 0; i < count; i++)
+                {
+                    boxed[i] = rows[i];
+                }
+
+            // Arrays.sort on objects is stable, so ties keep their _id order
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    for (int i = 0; i < columns.length; i++)
+                        {
+                            int result = compareColumn(table, columns[i], a, b);
+                            if (result != 0)
+                                {
+                                    return descending[i] ? -result : result;
+                                }
+                        }
+                    return 0;
+                }
+            });
+
+            for (int i = 0; i < count; i++)
+                {
+                    rows[i] = boxed[i];
+                }
+        }
+
+    /**
+     * Compare a column of two rows. Like in SQLite, NULL comes before any text.
+     */
+    private static int compareColumn(InMemoryPetTable table, int column, int a, int b)
+        {
+            if (!InMemoryPetTable.isTextColumn(column))
+                {
+                    long valueA = table.getLong(column, a);
+                    long valueB = table.getLong(column, b);
+                    return valueA < valueB ? -1 : (valueA == valueB ? 0 : 1);
+                }
+
+            String valueA = table.getText(column, a);
+            String valueB = table.getText(column, b);
+            if (valueA == null || valueB == null)
+                {
+                    return valueA == null ? (valueB == null ? 0 : -1) : 1;
+                }
+            return valueA.compareTo(valueB);
+        }
+
+    /**
+     * A column compared with a value.
+     */
+    private static final class Comparison extends Predicate
+        {
+            final int column;
+            final int operator;
+            /* A Long, a Double or a String */
+            final Object value;
+
+            Comparison(int column, int operator, Object value)
+                {
+                    this.column = column;
+                    this.operator = operator;
+                    this.value = value;
+                }
+
+            @Override
+            int evaluate(InMemoryPetTable table, int row)
+                {
+                    int result;
+                    if (InMemoryPetTable.isTextColumn(column))
+                        {
+                            // Nothing is known about a NULL, so neither this nor its opposite selects the row
+                            String text = table.getText(column, row);
+                            if (text == null)
+                                {
+                                    return UNKNOWN;
+                                }
+                            result = text.compareTo(value.toString());
+                        }
+                    else if (value instanceof Long)
+                        {
+                            long number = table.getLong(column, row);
+                            long other = (Long) value;
+                            result = number < other ? -1 : (number == other ? 0 : 1);
+                        }
+                    else if (value instanceof Double)
+                        {
+                            result = Double.compare(table.getLong(column, row), (Double) value);
+                        }
+                    else
+                        {
+                            // In SQLite every number sorts before every text
+                            result = -1;
+                        }
+
+                    boolean matches;
+                    switch (operator)
+                        {
+                            case EQ:
+                                matches = result == 0;
+                                break;
+                            case NE:
+                                matches = result != 0;
+                                break;
+                            case LT:
+                                matches = result < 0;
+                                break;
+                            case LE:
+                                matches = result <= 0;
+                                break;
+                            case GT:
+                                matches = result > 0;
+                                break;
+                            default:
+                                matches = result >= 0;
+                                break;
+                        }
+                    return matches ? TRUE : FALSE;
+                }
+        }
+
+    /**
+     * A test of whether a column is NULL.
+     */
+    private static final class IsNull extends Predicate
+        {
+            final int column;
+            final boolean negated;
+
+            IsNull(int column, boolean negated)
+                {
+                    this.column = column;
+                    this.negated = negated;
+                }
+
+            @Override
+            int evaluate(InMemoryPetTable table, int row)
+                {
+                    // Only the text columns can hold NULL
+                    boolean isNull = InMemoryPetTable.isTextColumn(column) && table.getText(column, row) == null;
+                    return isNull != negated ? TRUE : FALSE;
+                }
+        }
+
+    /**
+     * Two conditions joined by AND or OR.
+     */
+    private static final class Logical extends Predicate
+        {
+            final Predicate left;
+            final Predicate right;
+            final boolean and;
+
+            Logical(Predicate left, Predicate right, boolean and)
+                {
+                    this.left = left;
+                    this.right = right;
+                    this.and = and;
+                }
+
+            @Override
+            int evaluate(InMemoryPetTable table, int row)
+                {
+                    // FALSE decides an AND and TRUE decides an OR, even next to UNKNOWN
+                    int decisive = and ? FALSE : TRUE;
+                    int left = this.left.evaluate(table, row);
+                    if (left == decisive)
+                        {
+                            return decisive;
+                        }
+                    int right = this.right.evaluate(table, row);
+                    if (right == decisive)
+                        {
+                            return decisive;
+                        }
+                    return left == UNKNOWN || right == UNKNOWN ? UNKNOWN : left;
+                }
+        }
+
+    /**
+     * The opposite of a condition.
+     */
+    private static final class Not extends Predicate
+        {
+            final Predicate predicate;
+
+            Not(Predicate predicate)
+                {
+                    this.predicate = predicate;
+                }
+
+            @Override
+            int evaluate(InMemoryPetTable table, int row)
+                {
+                    // The opposite of UNKNOWN is still UNKNOWN
+                    int result = predicate.evaluate(table, row);
+                    return result == UNKNOWN ? UNKNOWN : (result == TRUE ? FALSE : TRUE);
+                }
+        }
+
+    /**
+     * A recursive descent parser for the selections described at the top.
+     */
+    private static final class Parser
+        {
+            private final String mSelection;
+            private final String[] mArgs;
+            private final ArrayList<String> mTokens = new ArrayList<>();
+            private int mPosition;
+            private int mArgIndex;
+
+            Parser(String selection, String[] args)
+                {
+                    mSelection = selection;
+                    mArgs = args == null ? new String[0] : args;
+                    tokenize();
+                }
+
+            private void tokenize()
+                {
+                    int length = mSelection.length();
+                    int i = 0;
+                    while (i < length)
+                        {
+                            char c = mSelection.charAt(i);
+                            int start = i;
+                            if (Character.isWhitespace(c))
+                                {
+                                    i++;
+                                    continue;
+                                }
+                            if (Character.isLetter(c) || c == '_')
+                                {
+                                    while (i < length && (Character.isLetterOrDigit(mSelection.charAt(i)) || mSelection.charAt(i) == '_'))
+                                        {
+                                            i++;
+                                        }
+                                }
+                            else if (Character.isDigit(c) || c == '-' || c == '.')
+                                {
+                                    i++;
+                                    while (i < length && (Character.isDigit(mSelection.charAt(i)) || mSelection.charAt(i) == '.'))
+                                        {
+                                            i++;
+                                        }
+                                }
+                            else if (c == '\'')
+                                {
+                                    // A quoted string, where '' stands for a quote
+                                    i++;
+                                    while (true)
+                                        {
+                                            if (i >= length)
+                                                {
+                                                    throw error("unterminated string");
+                                                }
+                                            if (mSelection.charAt(i) == '\'')
+                                                {
+                                                    if (i + 1 < length && mSelection.charAt(i + 1) == '\'')
+                                                        {
+                                                            i += 2;
+                                                            continue;
+                                                        }
+                                                    i++;
+                                                    break;
+                                                }
+                                            i++;
+                                        }
+                                }
+                            else if ((c == '<' || c == '>' || c == '!' || c == '=') && i + 1 < length &&
+                                    (mSelection.charAt(i + 1) == '=' || (c == '<' && mSelection.charAt(i + 1) == '>')))
+                                {
+                                    i += 2;
+                                }
+                            else
+                                {
+                                    i++;
+                                }
+                            mTokens.add(mSelection.substring(start, i));
+                        }
+                }
+
+            private IllegalArgumentException error(String problem)
+                {
+                    return new IllegalArgumentException("In-memory engine can't run selection \"" +
+                            mSelection + "\": " + problem);
+                }
+
+            private String peek()
+                {
+                    return mPosition < mTokens.size() ? mTokens.get(mPosition) : null;
+                }
+
+            private boolean acceptKeyword(String keyword)
+                {
+                    String token = peek();
+                    if (token != null && token.equalsIgnoreCase(keyword))
+                        {
+                            mPosition++;
+                            return true;
+                        }
+                    return false;
+                }
+
+            private String next()
+                {
+                    String token = peek();
+                    if (token == null)
+                        {
+                            throw error("unexpected end");
+                        }
+                    mPosition++;
+                    return token;
+                }
+
+            void expectEnd()
+                {
+                    if (peek() != null)
+                        {
+                            throw error("unexpected " + peek());
+                        }
+                    if (mArgIndex != mArgs.length)
+                        {
+                            throw error(mArgs.length + " arguments given for " + mArgIndex + " ?s");
+                        }
+                }
+
+            Predicate parseOr()
+                {
+                    Predicate predicate = parseAnd();
+                    while (acceptKeyword("OR"))
+                        {
+                            predicate = new Logical(predicate, parseAnd(), false);
+                        }
+                    return predicate;
+                }
+
+            private Predicate parseAnd()
+                {
+                    Predicate predicate = parseUnary();
+                    while (acceptKeyword("AND"))
+                        {
+                            predicate = new Logical(predicate, parseUnary(), true);
+                        }
+                    return predicate;
+                }
+
+            private Predicate parseUnary()
+                {
+                    if (acceptKeyword("NOT"))
+                        {
+                            return new Not(parseUnary());
+                        }
+                    if (acceptKeyword("("))
+                        {
+                            Predicate predicate = parseOr();
+                            if (!acceptKeyword(")"))
+                                {
+                                    throw error("missing )");
+                                }
+                            return predicate;
+                        }
+                    return parseComparison();
+                }
+
+            private Predicate parseComparison()
+                {
+                    String columnName = next();
+                    int column = InMemoryPetTable.getColumnIndex(columnName);
+                    if (column == -1)
+                        {
+                            throw error("no such column " + columnName);
+                        }
+
+                    if (acceptKeyword("IS"))
+                        {
+                            boolean negated = acceptKeyword("NOT");
+                            if (!acceptKeyword("NULL"))
+                                {
+                                    throw error("only IS NULL and IS NOT NULL are supported");
+                                }
+                            return new IsNull(column, negated);
+                        }
+
+                    int operator;
+                    String token = next();
+                    switch (token)
+                        {
+                            case "=":
+                            case "==":
+                                operator = EQ;
+                                break;
+                            case "!=":
+                            case "<>":
+                                operator = NE;
+                                break;
+                            case "<":
+                                operator = LT;
+                                break;
+                            case "<=":
+                                operator = LE;
+                                break;
+                            case ">":
+                                operator = GT;
+                                break;
+                            case ">=":
+                                operator = GE;
+                                break;
+                            default:
+                                throw error("unsupported operator " + token);
+                        }
+
+                    return new Comparison(column, operator, parseValue(column));
+                }
+
+            /**
+             * Parse the value a column is compared with, converted the way SQLite converts it
+             * for the column's type.
+             */
+            private Object parseValue(int column)
+                {
+                    String token = next();
+                    String text;
+                    boolean literalNumber = false;
+                    if (token.equals("?"))
+                        {
+                            if (mArgIndex >= mArgs.length)
+                                {
+                                    throw error("not enough arguments");
+                                }
+                            text = mArgs[mArgIndex++];
+                            if (text == null)
+                                {
+                                    throw error("argument " + mArgIndex + " is null");
+                                }
+                        }
+                    else if (token.startsWith("'"))
+                        {
+                            text = token.substring(1, token.length() - 1).replace("''", "'");
+                        }
+                    else if (!token.isEmpty() && (Character.isDigit(token.charAt(0)) || token.charAt(0) == '-' || token.charAt(0) == '.'))
+                        {
+                            text = token;
+                            literalNumber = true;
+                        }
+                    else
+                        {
+                            throw error("unsupported value " + token);
+                        }
+
+                    if (InMemoryPetTable.isTextColumn(column))
+                        {
+                            return text;
+                        }
+
+                    // An integer column turns text that looks like a number into that number
+                    Object number = parseNumber(text);
+                    if (number == null && literalNumber)
+                        {
+                            throw error("bad number " + token);
+                        }
+                    return number != null ? number : text;
+                }
+
+            private static Object parseNumber(String text)
+                {
+                    String trimmed = text.trim().toLowerCase(Locale.US);
+                    try
+                        {
+                            return Long.parseLong(trimmed);
+                        }
+                    catch (NumberFormatException e)
+                        {
+                            // Maybe it has a fraction
+                        }
+                    try
+                        {
+                            if (trimmed.isEmpty() || trimmed.contains("n") || trimmed.endsWith("d") || trimmed.endsWith("f"))
+                                {
+                                    // Not a number in SQL, even though Java would take NaN, Infinity, 1d and 1f
+                                    return null;
+                                }
+                            double number = Double.parseDouble(trimmed);
+                            return number == Math.rint(number) && Math.abs(number) < 9.2e18 ? (Object) (long) number : number;
+                        }
+                    catch (NumberFormatException e)
+                        {
+                            return null;
+                        }
+                }
+        }
+}
@@ -0,0 +1,315 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers the change notifications of {@link PetProvider} so a burst of writes results in one
+ * notification per changed URI, instead of one per write.
+ * <p>
+ * A notification sent inside a transaction is held until the transaction ends: it is sent if
+ * the transaction committed, and dropped if it rolled back. Any other notification waits for
+ * the notification window, so everything else changed within the window gets sent along with
+ * it. A window of 0 sends notifications outside a transaction right away.
+ * <p>
+ * Every change to a single pet is sent for the URI of that pet, so a burst of them would still
+ * be one notification per pet. When more than one row of a table is waiting, they are sent as
+ * one notification for the table instead, which every observer of those rows listens to as
+ * well.
+ */
+class NotificationCoalescer {
+
+    /* How long notifications outside a transaction are buffered for, unless configured */
+    static final long DEFAULT_WINDOW_MILLIS = 50;
+
+    /* The resolver the notifications are sent through */
+    private final ContentResolver mResolver;
+
+    /* Guards every field below */
+    private final Object mLock = new Object();
+
+    /* URIs waiting for the window to close, in the order they first changed */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /* How long notifications outside a transaction are buffered for */
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    /* Sends the pending notifications once the window closes. Started the first time it's needed. */
+    private Handler mHandler;
+
+    /* Whether a flush has been scheduled for the current window */
+    private boolean mFlushScheduled;
+
+    /* The notifications of the transaction running on the current thread, if any */
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    /* Number of notifications sent, and number left out because their URI was already waiting */
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mSuppressedCount = new AtomicLong();
+
+    /* Sends the pending notifications when the window closes */
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * The notifications of one transaction. Transactions can be nested; the notifications are
+     * only let go by the outermost one.
+     */
+    private static class Transaction
+        {
+            final Set<Uri> uris = new LinkedHashSet<>();
+            int depth;
+        }
+
+    NotificationCoalescer(ContentResolver resolver)
+        {
+            mResolver = resolver;
+        }
+
+    /**
+     * Set how long notifications outside a transaction are buffered for. 0 sends them right away.
+     */
+    void setWindowMillis(long windowMillis)
+        {
+            if (windowMillis < 0)
+                {
+                    throw new IllegalArgumentException("Notification window can't be negative");
+                }
+            synchronized (mLock)
+                {
+                    mWindowMillis = windowMillis;
+                }
+        }
+
+    long getWindowMillis()
+        {
+            synchronized (mLock)
+                {
+                    return mWindowMillis;
+                }
+        }
+
+    /**
+     * Returns the number of notifications sent so far.
+     */
+    long getSentCount()
+        {
+            return mSentCount.get();
+        }
+
+    /**
+     * Returns the number of notifications left out so far, because the same URI was already
+     * waiting to be notified, or because they were sent for their table along with other rows.
+     */
+    long getSuppressedCount()
+        {
+            return mSuppressedCount.get();
+        }
+
+    /**
+     * Start holding back the notifications of the current thread until the matching
+     * {@link #endTransaction(boolean)}.
+     */
+    void beginTransaction()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    transaction = new Transaction();
+                    mTransaction.set(transaction);
+                }
+            transaction.depth++;
+        }
+
+    /**
+     * End a transaction started with {@link #beginTransaction()}. When the outermost transaction
+     * ends, its notifications are sent right away if it committed, or dropped if it didn't.
+     */
+    void endTransaction(boolean successful)
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    throw new IllegalStateException("No transaction to end");
+                }
+            if (--transaction.depth > 0)
+                {
+                    return;
+                }
+            mTransaction.remove();
+
+            if (!successful || transaction.uris.isEmpty())
+                {
+                    return;
+                }
+
+            synchronized (mLock)
+                {
+                    for (Uri uri : transaction.uris)
+                        {
+                            if (!mPending.add(uri))
+                                {
+                                    mSuppressedCount.incrementAndGet();
+                                }
+                        }
+                }
+            flush();
+        }
+
+    /**
+     * Notify the listeners of the given URI that its data has changed, once the current
+     * transaction has committed or the window has closed.
+     */
+    void notifyChange(Uri uri)
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction != null)
+                {
+                    if (!transaction.uris.add(uri))
+                        {
+                            mSuppressedCount.incrementAndGet();
+                        }
+                    return;
+                }
+
+            boolean flushNow = false;
+            synchronized (mLock)
+                {
+                    if (!mPending.add(uri))
+                        {
+                            mSuppressedCount.incrementAndGet();
+                        }
+
+                    if (mWindowMillis == 0)
+                        {
+                            flushNow = true;
+                        }
+                    else if (!mFlushScheduled)
+                        {
+                            if (mHandler == null)
+                                {
+                                    HandlerThread thread = new HandlerThread("PetProvider notifications");
+                                    thread.start();
+                                    mHandler = new Handler(thread.getLooper());
+                                }
+                            mFlushScheduled = true;
+                            mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+                        }
+                }
+
+            if (flushNow)
+                {
+                    flush();
+                }
+        }
+
+    /**
+     * Send every pending notification right away, once per URI.
+     */
+    void flush()
+        {
+            ArrayList<Uri> uris;
+            synchronized (mLock)
+                {
+                    if (mFlushScheduled)
+                        {
+                            mHandler.removeCallbacks(mFlushRunnable);
+                            mFlushScheduled = false;
+                        }
+                    uris = collapseRows(mPending);
+                    mPending.clear();
+                }
+
+            // Send outside the lock, so writers never wait on the observers being told
+            for (Uri uri : uris)
+                {
+                    mResolver.notifyChange(uri, null);
+                    mSentCount.incrementAndGet();
+                }
+        }
+
+    /**
+     * Returns the given URIs, in order, with the URIs of single rows replaced by the URI of
+     * their table wherever more than one row of the table is waiting. The table's URI keeps the
+     * kind of change if all of those rows had the same one.
+     */
+    private ArrayList<Uri> collapseRows(Set<Uri> uris)
+        {
+            // The number of rows waiting per table, and their kind of change, null once they differ
+            HashMap<Uri, Integer> rowCounts = new HashMap<>();
+            HashMap<Uri, String> changes = new HashMap<>();
+            for (Uri uri : uris)
+                {
+                    Uri table = getTableUri(uri);
+                    if (table == null)
+                        {
+                            continue;
+                        }
+                    Integer count = rowCounts.get(table);
+                    String change = PetContract.PetsEntry.getChange(uri);
+                    if (count == null)
+                        {
+                            rowCounts.put(table, 1);
+                            changes.put(table, change);
+                        }
+                    else
+                        {
+                            rowCounts.put(table, count + 1);
+                            if (!TextUtils.equals(changes.get(table), change))
+                                {
+                                    changes.put(table, null);
+                                }
+                        }
+                }
+
+            LinkedHashSet<Uri> collapsed = new LinkedHashSet<>();
+            for (Uri uri : uris)
+                {
+                    Uri table = getTableUri(uri);
+                    if (table != null && rowCounts.get(table) > 1)
+                        {
+                            String change = changes.get(table);
+                            uri = change == null ? table : PetContract.PetsEntry.buildChangeUri(table, change);
+                        }
+                    if (!collapsed.add(uri))
+                        {
+                            mSuppressedCount.incrementAndGet();
+                        }
+                }
+            return new ArrayList<>(collapsed);
+        }
+
+    /**
+     * Returns the URI of the table the row of the given URI is in, such as pets for pets/3, or
+     * null if the URI isn't that of a single row.
+     */
+    private static Uri getTableUri(Uri uri)
+        {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() < 2 || !TextUtils.isDigitsOnly(segments.get(segments.size() - 1)))
+                {
+                    return null;
+                }
+
+            Uri.Builder table = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+            for (int i = 0; i < segments.size() - 1; i++)
+                {
+                    table.appendPath(segments.get(i));
+                }
+            return table.build();
+        }
+}
@@ -0,0 +1,362 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Copies the shelter database to a snapshot file while the provider keeps reading and writing
+ * it, and puts a snapshot back in its place.
+ * <p>
+ * With write-ahead logging, commits only go to the -wal file; the database file itself only
+ * changes when the log is checkpointed into it. A backup checkpoints the whole log once, then
+ * keeps SQLite from checkpointing again until the copy is done, so the database file stays as
+ * it was at that moment while new commits pile up in the log. The file is copied a step of
+ * pages at a time with a pause in between, to leave the disk to the app, and writers only ever
+ * wait for the one checkpoint. Without write-ahead logging, which low-RAM devices can't turn
+ * on, the copy holds the write lock instead, so writers wait for the whole copy, and it runs
+ * without pauses.
+ * <p>
+ * The snapshot is marked as a database with a rollback journal, so it is a single
+ * self-contained file, and is checked before it's kept.
+ */
+final class PetBackup {
+
+    /* The header of every SQLite database file, and where it keeps its page size */
+    private static final String HEADER = "SQLite format 3\0";
+    private static final int HEADER_PAGE_SIZE_OFFSET = 16;
+
+    /*
+     * Where the header keeps the versions of the file format SQLite writes and reads: 2 for
+     * write-ahead logging, 1 for a rollback journal
+     */
+    private static final int HEADER_WRITE_VERSION_OFFSET = 18;
+    private static final int HEADER_READ_VERSION_OFFSET = 19;
+    private static final int FORMAT_ROLLBACK_JOURNAL = 1;
+
+    /* Times to try the checkpoint while readers hold on to an older state of the database */
+    private static final int CHECKPOINT_ATTEMPTS = 5;
+    private static final long CHECKPOINT_RETRY_MILLIS = 50;
+
+    /* The files SQLite keeps next to a database */
+    private static final String[] DATABASE_SUFFIXES = {"-wal", "-shm", "-journal"};
+
+    private PetBackup()
+        {
+        }
+
+    /**
+     * Copy the database of the given helper to the given file, {@code stepPages} pages at a time
+     * with a pause of {@code stepPauseMillis} in between, and return the number of pages
+     * copied. The file is only replaced once the whole snapshot is written and checked. Can't
+     * run inside a transaction.
+     */
+    static synchronized long backup(PetDbHelper dbHelper, File destination, int stepPages, long stepPauseMillis) throws IOException
+        {
+            if (stepPages <= 0 || stepPauseMillis < 0)
+                {
+                    throw new IllegalArgumentException("Backup needs a positive step and a pause of at least 0");
+                }
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            if (db.inTransaction())
+                {
+                    throw new IllegalStateException("Can't back up the database inside a transaction");
+                }
+
+            File source = new File(db.getPath());
+            File temporary = new File(destination.getPath() + ".tmp");
+            long pages;
+            if ("wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null)))
+                {
+                    long autoCheckpoint = setAutoCheckpoint(db, 0);
+                    try
+                        {
+                            checkpoint(db);
+                            pages = copyPages(source, temporary, stepPages, stepPauseMillis);
+                        }
+                    finally
+                        {
+                            setAutoCheckpoint(db, autoCheckpoint);
+                        }
+                }
+            else
+                {
+                    // Nothing else can write while the transaction holds the write lock, and it
+                    // writes nothing itself, so the file stays as it is
+                    db.beginTransactionNonExclusive();
+                    try
+                        {
+                            pages = copyPages(source, temporary, stepPages, 0);
+                        }
+                    finally
+                        {
+                            db.endTransaction();
+                        }
+                }
+
+            try
+                {
+                    check(temporary);
+                }
+            catch (IOException e)
+                {
+                    temporary.delete();
+                    throw e;
+                }
+            if (!temporary.renameTo(destination))
+                {
+                    temporary.delete();
+                    throw new IOException("Couldn't move the backup to " + destination);
+                }
+            return pages;
+        }
+
+    /**
+     * Put the given snapshot in place of the database of the given helper, which is closed for
+     * it and opened again afterwards, upgrading the snapshot if it was taken by an older
+     * version of the app. No other thread may be using the database meanwhile. The database is
+     * left alone if the snapshot isn't a sound database of this app.
+     */
+    static synchronized void restore(PetDbHelper dbHelper, File source) throws IOException
+        {
+            check(source);
+
+            File database = new File(dbHelper.getWritableDatabase().getPath());
+            File temporary = new File(database.getPath() + "-restore");
+            copy(source, temporary);
+
+            dbHelper.close();
+            for (String suffix : DATABASE_SUFFIXES)
+                {
+                    new File(database.getPath() + suffix).delete();
+                }
+            if (!temporary.renameTo(database))
+                {
+                    temporary.delete();
+                    throw new IOException("Couldn't move the backup to " + database);
+                }
+            dbHelper.getWritableDatabase();
+        }
+
+    /**
+     * Set how many pages of log commits the primary connection checkpoints after, 0 for never,
+     * and return what it was before. Inside a transaction every statement of the thread runs on
+     * the primary connection, the one every write, and so every checkpoint, goes through.
+     */
+    private static long setAutoCheckpoint(SQLiteDatabase db, long pages)
+        {
+            db.beginTransactionNonExclusive();
+            try
+                {
+                    long before = DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null);
+                    DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + pages, null);
+                    db.setTransactionSuccessful();
+                    return before;
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+        }
+
+    /**
+     * Checkpoint the whole log into the database file. A full checkpoint waits for the writer
+     * and for readers of older states; if it still can't copy every commit, it's tried again.
+     */
+    private static void checkpoint(SQLiteDatabase db) throws IOException
+        {
+            for (int attempt = 1; ; attempt++)
+                {
+                    Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+                    try
+                        {
+                            // Whether it was blocked, the frames in the log, and those checkpointed
+                            if (cursor.moveToFirst() && cursor.getInt(0) == 0 && cursor.getLong(1) == cursor.getLong(2))
+                                {
+                                    return;
+                                }
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                    if (attempt == CHECKPOINT_ATTEMPTS)
+                        {
+                            throw new IOException("Couldn't checkpoint the database for a backup");
+                        }
+                    try
+                        {
+                            Thread.sleep(CHECKPOINT_RETRY_MILLIS);
+                        }
+                    catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Backup interrupted");
+                        }
+                }
+        }
+
+    /**
+     * Copy every page of the given database file to the given file, a step of pages at a time,
+     * marking the copy as a database with a rollback journal, and return the number of pages.
+     */
+    private static long copyPages(File source, File destination, int stepPages, long stepPauseMillis) throws IOException
+        {
+            RandomAccessFile in = new RandomAccessFile(source, "r");
+            try
+                {
+                    byte[] header = new byte[HEADER.length() + 4];
+                    in.readFully(header);
+                    if (!new String(header, 0, HEADER.length(), "ISO-8859-1").equals(HEADER))
+                        {
+                            throw new IOException(source + " isn't a database");
+                        }
+                    int pageSize = ((header[HEADER_PAGE_SIZE_OFFSET] & 0xFF) << 8) | (header[HEADER_PAGE_SIZE_OFFSET + 1] & 0xFF);
+                    if (pageSize == 1)
+                        {
+                            pageSize = 65536;
+                        }
+                    long pages = in.length() / pageSize;
+
+                    FileOutputStream out = new FileOutputStream(destination);
+                    try
+                        {
+                            byte[] step = new byte[stepPages * pageSize];
+                            in.seek(0);
+                            for (long page = 0; page < pages; page += stepPages)
+                                {
+                                    if (page != 0 && stepPauseMillis > 0)
+                                        {
+                                            pause(stepPauseMillis);
+                                        }
+                                    int length = (int) (Math.min(stepPages, pages - page) * pageSize);
+                                    in.readFully(step, 0, length);
+                                    if (page == 0)
+                                        {
+                                            step[HEADER_WRITE_VERSION_OFFSET] = FORMAT_ROLLBACK_JOURNAL;
+                                            step[HEADER_READ_VERSION_OFFSET] = FORMAT_ROLLBACK_JOURNAL;
+                                        }
+                                    out.write(step, 0, length);
+                                }
+                            out.getFD().sync();
+                        }
+                    finally
+                        {
+                            out.close();
+                        }
+                    return pages;
+                }
+            catch (IOException e)
+                {
+                    destination.delete();
+                    throw e;
+                }
+            finally
+                {
+                    in.close();
+                }
+        }
+
+    private static void pause(long millis) throws IOException
+        {
+            try
+                {
+                    Thread.sleep(millis);
+                }
+            catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Backup interrupted");
+                }
+        }
+
+    /**
+     * Copy the given file as it is, and sync the copy to the disk.
+     */
+    private static void copy(File source, File destination) throws IOException
+        {
+            InputStream in = new FileInputStream(source);
+            try
+                {
+                    FileOutputStream out = new FileOutputStream(destination);
+                    try
+                        {
+                            byte[] buffer = new byte[64 * 1024];
+                            int n;
+                            while ((n = in.read(buffer)) != -1)
+                                {
+                                    out.write(buffer, 0, n);
+                                }
+                            out.getFD().sync();
+                        }
+                    finally
+                        {
+                            out.close();
+                        }
+                }
+            catch (IOException e)
+                {
+                    destination.delete();
+                    throw e;
+                }
+            finally
+                {
+                    in.close();
+                }
+        }
+
+    /**
+     * Check that the given file is a sound database of a version this app can open, throwing
+     * an {@link IOException} if it isn't.
+     */
+    private static void check(File snapshot) throws IOException
+        {
+            SQLiteDatabase db;
+            try
+                {
+                    db = SQLiteDatabase.openDatabase(snapshot.getPath(), null, SQLiteDatabase.OPEN_READONLY,
+                            new DatabaseErrorHandler()
+                                {
+                                    @Override
+                                    public void onCorruption(SQLiteDatabase db)
+                                        {
+                                            // Leave the file be, rather than deleting it the way
+                                            // the default handler does; the damage is reported
+                                        }
+                                });
+                }
+            catch (SQLiteException e)
+                {
+                    throw new IOException(snapshot + " isn't a database", e);
+                }
+            try
+                {
+                    String result = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null);
+                    if (!"ok".equals(result))
+                        {
+                            throw new IOException(snapshot + " is damaged: " + result);
+                        }
+                    if (db.getVersion() > PetDbHelper.DATABASE_VERSION)
+                        {
+                            throw new IOException(snapshot + " is from a newer version of the app, " + db.getVersion());
+                        }
+                }
+            catch (SQLiteException e)
+                {
+                    throw new IOException(snapshot + " isn't a database", e);
+                }
+            finally
+                {
+                    db.close();
+                }
+        }
+}
@@ -36,6 +36,150 @@ public class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path for searching pets by name and breed, appended to the pets content URI and followed
+     * by the search text. For instance, content://com.example.android.pets/pets/search/ter
+     * finds every pet with a word in its name or breed starting with "ter", such as a Terrier.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path for exporting every pet, appended to the pets content URI and followed by the
+     * format of the export, {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_BINARY}. An export
+     * is read as a stream with {@link ContentResolver#openInputStream(Uri)}, and is written while
+     * it's being read, so it takes the same memory however many pets there are. The pets come
+     * out in _id order; pets changed while the export runs may or may not be in it.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path for the statistics of the pets table, appended to the pets content URI. See
+     * {@link PetStatsEntry}.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path for the change journal of the pets table, appended to the pets content URI. See
+     * {@link PetChangesEntry}.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Export format of comma-separated values, as in RFC 4180: a header line with the column
+     * names, then one line per pet with its _id, name, breed, gender, weight and microchip. A
+     * missing breed or microchip is an empty field. {@link PetImporter} reads it back.
+     */
+    public static final String EXPORT_FORMAT_CSV = "csv";
+
+    /**
+     * Compact binary export format. The stream starts with the ASCII bytes "PETS" and a version
+     * byte of 2, followed by each pet in turn until the end of the stream:
+     * <ul>
+     * <li>its _id, as the difference from the _id of the pet before it (or from 0),</li>
+     * <li>its name, then its breed, each as its length in UTF-8 bytes plus one followed by those
+     * bytes, where a length of 0 stands for null,</li>
+     * <li>its gender, then its weight,</li>
+     * <li>its microchip, as a string like the name.</li>
+     * </ul>
+     * Version 1 had no microchip.
+     * Every number is written as a zigzag-encoded variable-length integer: 7 bits per byte,
+     * least significant first, with the top bit set on every byte but the last.
+     */
+    public static final String EXPORT_FORMAT_BINARY = "binary";
+
+    /**
+     * Query parameters for reading the pets, or the results of a search, one page at a time.
+     * A page is requested with content://com.example.android.pets/pets?after=<id>&limit=<n>
+     * and holds at most n pets whose _id is greater than the given id, ordered by _id. Leave
+     * out "after" for the first page. Pages are found by seeking on the primary key, so every
+     * page costs the same no matter how deep into the table it is.
+     */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter on the URIs that change notifications are sent for, saying which kind of
+     * change happened there. A change to one pet is sent for that pet's URI, pets/<id>, so only
+     * the observers of that pet and of the whole table hear about it. A change to any number of
+     * pets is sent for the pets URI. So are the changes to single pets when more than one is
+     * waiting to be sent, keeping their kind if they all had the same one, so a burst of writes
+     * doesn't make the observers of the table requery once per pet. Observers can read the kind
+     * of change with
+     * {@link PetsEntry#getChange(Uri)} in {@link android.database.ContentObserver#onChange(boolean, Uri)}
+     * and skip work that the change can't affect.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    /**
+     * Query parameter on the pets URI that makes an insert or bulk insert an upsert: a pet
+     * whose {@link PetsEntry#COLUMN_PET_MICROCHIP} another pet already has updates that pet
+     * instead of being inserted next to it, so running the same feed again doesn't duplicate
+     * any pet. Pets without a microchip are always inserted. See {@link PetsEntry#buildUpsertUri()}.
+     */
+    public static final String QUERY_PARAMETER_UPSERT = "upsert";
+
+    /* Possible kinds of change */
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that returns
+     * how often the provider was used and how long it took, per operation and per kind of URI.
+     * See {@link MetricsEntry}.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that sets
+     * every metric of the provider back to 0.
+     */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that returns
+     * the slow-query log: the latest queries that took at least the slow-query threshold, with
+     * the plan they ran with. See {@link SlowQueryEntry}.
+     */
+    public static final String METHOD_GET_SLOW_QUERIES = "get_slow_queries";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that sets
+     * the slow-query threshold to the number of milliseconds given as the argument. A threshold
+     * of 0 logs every query, and a negative one logs none.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that applies
+     * changes pulled from another device, given in the extras under
+     * {@link PetChangesEntry#KEY_CHANGES}, in one transaction. They aren't written to the change
+     * journal, so they aren't pushed back. See {@link PetChangesEntry}.
+     */
+    public static final String METHOD_APPLY_CHANGES = "apply_changes";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that copies
+     * the shelter database to the file whose path is given as the argument, as it was at one
+     * moment, while the pets go on being read and written. See {@link BackupEntry}.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that puts
+     * every pet back the way it was in the backup whose path is given as the argument. Nothing
+     * else may use the provider meanwhile.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Method of {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that hands
+     * the space of deleted pets back to the file system. The first call on a database made
+     * before incremental auto-vacuum rewrites the whole file, so it belongs in a maintenance
+     * job, off the main thread.
+     */
+    public static final String METHOD_COMPACT = "compact";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -60,6 +204,16 @@ public class PetContract {
             public static final String CONTENT_ITEM_TYPE =
                     ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+            /**
+             * The MIME type of an export in {@link #EXPORT_FORMAT_CSV}.
+             */
+            public static final String EXPORT_CSV_TYPE = "text/csv";
+
+            /**
+             * The MIME type of an export in {@link #EXPORT_FORMAT_BINARY}.
+             */
+            public static final String EXPORT_BINARY_TYPE = "application/vnd." + CONTENT_AUTHORITY + "." + PATH_PETS;
+
             /* Defining the name of the Column Heading of the Table */
             public static final String _ID = BaseColumns._ID;
             public static final String TABLE_PET_NAME = "pets";
@@ -67,6 +221,8 @@ public class PetContract {
             public static final String COLUMN_PET_BREED = "breed";
             public static final String COLUMN_PET_GENDER = "gender";
             public static final String COLUMN_PET_WEIGHT = "weight";
+            /* The number of the pet's microchip, if it has one. No two pets have the same. */
+            public static final String COLUMN_PET_MICROCHIP = "microchip";
 
             /* Defining the keywords that are going to be used for Querying */
             public static final String TEXT_TYPE = "TEXT";
@@ -81,6 +237,89 @@ public class PetContract {
             public static final int GENDER_FEMALE = 2;
             public static final int GENDER_UNKNOWN = 0;
 
+            /* Name of the full-text index over the name and breed of every pet */
+            public static final String TABLE_PET_SEARCH_NAME = "pets_fts";
+
+            /**
+             * Returns the content URI for the pets whose name or breed has words starting
+             * with the words of the given search text.
+             */
+            public static Uri buildSearchUri(String query)
+                {
+                    return CONTENT_URI.buildUpon()
+                            .appendPath(PATH_SEARCH)
+                            .appendPath(query)
+                            .build();
+                }
+
+            /**
+             * Returns the content URI for exporting every pet in the given format,
+             * {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_BINARY}.
+             */
+            public static Uri buildExportUri(String format)
+                {
+                    return CONTENT_URI.buildUpon()
+                            .appendPath(PATH_EXPORT)
+                            .appendPath(format)
+                            .build();
+                }
+
+            /**
+             * Returns the given pets content URI, or search URI, limited to its first page of
+             * at most {@code limit} pets.
+             */
+            public static Uri buildPageUri(Uri uri, int limit)
+                {
+                    return uri.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                            .build();
+                }
+
+            /**
+             * Returns the given pets content URI, or search URI, limited to the page of at most
+             * {@code limit} pets that comes right after the pet with the given ID.
+             */
+            public static Uri buildPageUri(Uri uri, long afterId, int limit)
+                {
+                    return uri.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId))
+                            .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                            .build();
+                }
+
+            /**
+             * Returns the pets content URI to insert pets into by their microchip: an insert
+             * or bulk insert there updates the pet with the same microchip if there is one.
+             * An insert returns the URI of the pet either way; a bulk insert returns the number
+             * of pets inserted or changed, leaving out those that were already the same.
+             */
+            public static Uri buildUpsertUri()
+                {
+                    return CONTENT_URI.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_UPSERT, "true")
+                            .build();
+                }
+
+            /**
+             * Returns the URI that a change notification of the given kind is sent for, for a
+             * change at the given pet URI or pets URI.
+             */
+            public static Uri buildChangeUri(Uri uri, String change)
+                {
+                    return uri.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                            .build();
+                }
+
+            /**
+             * Returns the kind of change a notification was sent for: {@link #CHANGE_INSERT},
+             * {@link #CHANGE_UPDATE}, {@link #CHANGE_DELETE}, or null if it isn't known.
+             */
+            public static String getChange(Uri uri)
+                {
+                    return uri == null ? null : uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+                }
+
             /**
              * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE},
              * or {@link #GENDER_FEMALE}.
@@ -94,4 +333,192 @@ public class PetContract {
                     return false;
                 }
         }
+
+    /**
+     * Inner class that defines constant values for the statistics of the pets table: the number
+     * of pets and their total and average weight, over all pets, per gender and per breed. The
+     * statistics are kept up to date as pets change, so reading them costs the same however
+     * many pets there are.
+     * <p>
+     * Each row holds the statistics of one group of pets: the {@link #COLUMN_DIMENSION} says
+     * how the pets are grouped, and the {@link #COLUMN_VALUE} which group it is, such as the
+     * gender "1" or the breed "Terrier". Pets without a breed are counted under the breed "".
+     */
+    public static abstract class PetStatsEntry
+        {
+            /**
+             * The content URI to read the statistics from. A cursor on it is notified whenever
+             * a pet changes.
+             */
+            public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_STATS);
+
+            /**
+             * The MIME type of the {@link #CONTENT_URI}.
+             */
+            public static final String CONTENT_LIST_TYPE =
+                    ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "." + PATH_STATS;
+
+            /* Name of the summary table the statistics are kept in */
+            public static final String TABLE_PET_STATS_NAME = "pet_stats";
+
+            /* Columns of the statistics */
+            public static final String COLUMN_DIMENSION = "dimension";
+            public static final String COLUMN_VALUE = "value";
+            public static final String COLUMN_PET_COUNT = "pet_count";
+            public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+            /* Not stored, worked out from the sum and the count when read. Null for no pets. */
+            public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+            /* Possible dimensions. There is always exactly one row for DIMENSION_ALL, with the value "". */
+            public static final String DIMENSION_ALL = "all";
+            public static final String DIMENSION_GENDER = "gender";
+            public static final String DIMENSION_BREED = "breed";
+        }
+
+    /**
+     * Inner class that defines constant values for the change journal of the pets table: one row
+     * for every pet inserted, updated or deleted, in the order it happened, numbered by a
+     * {@link #COLUMN_SEQUENCE} that only ever goes up. Deleting every pet at once is a single
+     * {@link #CHANGE_CLEAR}. Every engine that keeps the pets in the shelter database writes the
+     * journal in the same transaction as the change; the in-memory engine keeps none.
+     * <p>
+     * Reading the journal with content://com.example.android.pets/pets/changes?after=&lt;seq&gt;&amp;limit=&lt;n&gt;
+     * returns at most n entries after the given sequence number, oldest first, together with
+     * the pet as it is now, or nulls in its columns if it's gone. Entries are deleted once
+     * they're no longer needed, with a selection on {@link #COLUMN_SEQUENCE}.
+     * <p>
+     * Changes pulled from another device are applied with {@link #METHOD_APPLY_CHANGES}, as a
+     * list of ContentValues that each hold a {@link #COLUMN_CHANGE} and, except for
+     * {@link #CHANGE_CLEAR}, the microchip the pet is matched on: an insert or update holds the
+     * pet's columns and is upserted, a delete deletes the pet with that microchip. Pets that
+     * have changes in the journal keep them, since those happened after anything pulled.
+     */
+    public static abstract class PetChangesEntry
+        {
+            /**
+             * The content URI to read the change journal from.
+             */
+            public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_CHANGES);
+
+            /**
+             * The MIME type of the {@link #CONTENT_URI}.
+             */
+            public static final String CONTENT_LIST_TYPE =
+                    ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "." + PATH_CHANGES;
+
+            /* Name of the table the journal is kept in */
+            public static final String TABLE_PET_CHANGES_NAME = "pet_changes";
+
+            /* Columns of the journal */
+            public static final String COLUMN_SEQUENCE = "seq";
+            public static final String COLUMN_PET_ID = "pet_id";
+            /* One of CHANGE_INSERT, CHANGE_UPDATE, CHANGE_DELETE or CHANGE_CLEAR */
+            public static final String COLUMN_CHANGE = "change";
+            /* The microchip the pet had before an update or delete */
+            public static final String COLUMN_OLD_MICROCHIP = "old_microchip";
+
+            /* Every pet was deleted at once */
+            public static final String CHANGE_CLEAR = "clear";
+
+            /* Key of the changes given to METHOD_APPLY_CHANGES, and of the number of pets they changed */
+            public static final String KEY_CHANGES = "changes";
+            public static final String KEY_ROWS = "rows";
+
+            /**
+             * Returns the URI of at most the given number of journal entries after the given
+             * sequence number.
+             */
+            public static Uri buildPageUri(long afterSequence, int limit)
+                {
+                    return CONTENT_URI.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterSequence))
+                            .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                            .build();
+                }
+        }
+
+    /**
+     * Inner class that defines the keys of {@link #METHOD_BACKUP}. The database is copied
+     * {@link #KEY_STEP_PAGES} pages at a time, with a pause of {@link #KEY_STEP_PAUSE_MILLIS}
+     * in between, both optional in the extras. The returned Bundle holds the number of pages
+     * copied under {@link #KEY_PAGES}.
+     */
+    public static abstract class BackupEntry
+        {
+            public static final String KEY_STEP_PAGES = "step_pages";
+            public static final String KEY_STEP_PAUSE_MILLIS = "step_pause_millis";
+            public static final String KEY_PAGES = "pages";
+
+            /* The steps of a backup, unless given otherwise */
+            public static final int DEFAULT_STEP_PAGES = 64;
+            public static final long DEFAULT_STEP_PAUSE_MILLIS = 5;
+        }
+
+    /**
+     * Inner class that defines the keys of the metrics returned by {@link #METHOD_GET_METRICS}.
+     * The returned Bundle holds one Bundle for every operation and kind of URI that was used
+     * since the metrics were last reset, keyed by the operation and the URI pattern with a space
+     * in between, such as "query pets/#". URIs the provider doesn't know are counted under
+     * {@link #URI_UNKNOWN}.
+     */
+    public static abstract class MetricsEntry
+        {
+            /* Operations */
+            public static final String OPERATION_QUERY = "query";
+            public static final String OPERATION_INSERT = "insert";
+            public static final String OPERATION_BULK_INSERT = "bulkInsert";
+            public static final String OPERATION_UPDATE = "update";
+            public static final String OPERATION_DELETE = "delete";
+
+            /* Pattern of the URIs that didn't match any of the provider's */
+            public static final String URI_UNKNOWN = "unknown";
+
+            /* Number of calls, and how many of them threw */
+            public static final String KEY_CALLS = "calls";
+            public static final String KEY_FAILURES = "failures";
+
+            /* Number of rows returned by queries, or written by the other operations */
+            public static final String KEY_ROWS = "rows";
+
+            /* Total and longest time taken by a call, in nanoseconds */
+            public static final String KEY_TOTAL_NANOS = "total_nanos";
+            public static final String KEY_MAX_NANOS = "max_nanos";
+
+            /**
+             * Latency histogram, as a long[] of {@link #LATENCY_BUCKETS} call counts. Bucket 0
+             * counts the calls that took under a microsecond, and bucket i the calls that took
+             * from 2^(i-1) up to 2^i microseconds. The last bucket also counts every longer call.
+             */
+            public static final String KEY_LATENCY_HISTOGRAM = "latency_histogram";
+            public static final int LATENCY_BUCKETS = 24;
+        }
+
+    /**
+     * Inner class that defines the keys of the slow-query log returned by
+     * {@link #METHOD_GET_SLOW_QUERIES}. The returned Bundle holds the logged queries under
+     * {@link #KEY_SLOW_QUERIES}, as a list of Bundles, oldest first. Only the latest
+     * {@link #MAX_SLOW_QUERIES} are kept.
+     */
+    public static abstract class SlowQueryEntry
+        {
+            public static final String KEY_SLOW_QUERIES = "slow_queries";
+            public static final int MAX_SLOW_QUERIES = 32;
+
+            /* Keys of each logged query */
+            public static final String KEY_URI = "uri";
+            public static final String KEY_SELECTION = "selection";
+            public static final String KEY_SORT_ORDER = "sort_order";
+            public static final String KEY_ROWS = "rows";
+            public static final String KEY_ELAPSED_NANOS = "elapsed_nanos";
+            /* The time the query ended at, in milliseconds since the epoch */
+            public static final String KEY_TIME_MILLIS = "time_millis";
+            /*
+             * How the storage engine ran the query, one step per line, as SQLite's EXPLAIN QUERY
+             * PLAN puts it. Missing for the statistics, which are read from a summary table.
+             */
+            public static final String KEY_QUERY_PLAN = "query_plan";
+
+            /* The slow-query threshold, unless set otherwise */
+            public static final long DEFAULT_THRESHOLD_MILLIS = 50;
+        }
 }
@@ -1,9 +1,16 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
 import com.example.android.pets.data.PetContract.PetsEntry;
 
 /**
@@ -15,11 +22,14 @@ import com.example.android.pets.data.PetContract.PetsEntry;
  */
 public class PetDbHelper extends SQLiteOpenHelper {
 
+    /* Tag for the Log Message */
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
     /* Defining the name of the DB */
     public static final String DATABASE_NAME = "shelter.db";
 
-    /* Defining the version of the DB */
-    public static final int DATABASE_VERSION = 1;
+    /* Defining the version of the DB. This is always the version of the last migration. */
+    public static final int DATABASE_VERSION = 6;
 
     /* The Query statement to CREATE the pets Table */
     public static final String SQL_CREATE_PETS_TABLE=
@@ -33,10 +43,408 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /* The Query statemnt to DELETE the pets Table if it already exists */
     public static final String SQL_DELETE_PETS_TABLE = "DROP TABLE IF EXISTS " + PetsEntry.TABLE_PET_NAME;
 
-    /* The constructor for the PetDbHelper class */
+    /* The value of PRAGMA auto_vacuum in incremental mode, which every shelter.db is kept in */
+    public static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /* Index names, used by the migrations below */
+    public static final String INDEX_PETS_BREED = "index_pets_breed";
+    public static final String INDEX_PETS_GENDER = "index_pets_gender";
+    public static final String INDEX_PETS_NAME_NOCASE = "index_pets_name_nocase";
+    public static final String INDEX_PETS_GENDER_WEIGHT = "index_pets_gender_weight";
+    public static final String INDEX_PETS_MICROCHIP = "index_pets_microchip";
+
+    /* Trigger names, used by the migrations below */
+    public static final String TRIGGER_PETS_FTS_INSERT = "pets_fts_insert";
+    public static final String TRIGGER_PETS_FTS_UPDATE = "pets_fts_update";
+    public static final String TRIGGER_PETS_FTS_DELETE = "pets_fts_delete";
+    public static final String TRIGGER_PET_STATS_INSERT = "pet_stats_insert";
+    public static final String TRIGGER_PET_STATS_UPDATE = "pet_stats_update";
+    public static final String TRIGGER_PET_STATS_DELETE = "pet_stats_delete";
+    public static final String TRIGGER_PET_CHANGES_INSERT = "pet_changes_insert";
+    public static final String TRIGGER_PET_CHANGES_UPDATE = "pet_changes_update";
+    public static final String TRIGGER_PET_CHANGES_DELETE = "pet_changes_delete";
+
+    /* The statement of a trigger that writes a change of the given kind to the journal */
+    private static String journalChange(String change, String petId, String oldMicrochip)
+        {
+            return "INSERT INTO " + PetChangesEntry.TABLE_PET_CHANGES_NAME + " (" +
+                    PetChangesEntry.COLUMN_PET_ID + ", " + PetChangesEntry.COLUMN_CHANGE + ", " +
+                    PetChangesEntry.COLUMN_OLD_MICROCHIP + ") VALUES (" + petId + ", '" + change + "', " +
+                    oldMicrochip + "); ";
+        }
+
+    /* The grouping of every statistics dimension but "all", as a column of the given row */
+    private static String statsValue(String dimension, String row)
+        {
+            if (PetStatsEntry.DIMENSION_GENDER.equals(dimension))
+                {
+                    return "CAST(" + row + "." + PetsEntry.COLUMN_PET_GENDER + " AS TEXT)";
+                }
+            return "IFNULL(" + row + "." + PetsEntry.COLUMN_PET_BREED + ", '')";
+        }
+
+    /* The statements of a trigger that count the pet of the given row ("new" or "old") in the statistics */
+    private static String addToStats(String row)
+        {
+            String weight = row + "." + PetsEntry.COLUMN_PET_WEIGHT;
+            StringBuilder sql = new StringBuilder(
+                    "UPDATE " + PetStatsEntry.TABLE_PET_STATS_NAME + " SET " +
+                    PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, " +
+                    PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " + " + weight +
+                    " WHERE " + PetStatsEntry.COLUMN_DIMENSION + " = '" + PetStatsEntry.DIMENSION_ALL + "'; ");
+            for (String dimension : new String[] {PetStatsEntry.DIMENSION_GENDER, PetStatsEntry.DIMENSION_BREED})
+                {
+                    String value = statsValue(dimension, row);
+                    sql.append("INSERT OR IGNORE INTO ").append(PetStatsEntry.TABLE_PET_STATS_NAME).append(" VALUES ('")
+                            .append(dimension).append("', ").append(value).append(", 0, 0); ");
+                    sql.append("UPDATE ").append(PetStatsEntry.TABLE_PET_STATS_NAME).append(" SET ")
+                            .append(PetStatsEntry.COLUMN_PET_COUNT).append(" = ").append(PetStatsEntry.COLUMN_PET_COUNT).append(" + 1, ")
+                            .append(PetStatsEntry.COLUMN_WEIGHT_SUM).append(" = ").append(PetStatsEntry.COLUMN_WEIGHT_SUM)
+                            .append(" + ").append(weight)
+                            .append(" WHERE ").append(PetStatsEntry.COLUMN_DIMENSION).append(" = '").append(dimension)
+                            .append("' AND ").append(PetStatsEntry.COLUMN_VALUE).append(" = ").append(value).append("; ");
+                }
+            return sql.toString();
+        }
+
+    /* The statements of a trigger that take the pet of the given row out of the statistics */
+    private static String removeFromStats(String row)
+        {
+            String weight = row + "." + PetsEntry.COLUMN_PET_WEIGHT;
+            StringBuilder sql = new StringBuilder(
+                    "UPDATE " + PetStatsEntry.TABLE_PET_STATS_NAME + " SET " +
+                    PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, " +
+                    PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " - " + weight +
+                    " WHERE " + PetStatsEntry.COLUMN_DIMENSION + " = '" + PetStatsEntry.DIMENSION_ALL + "'; ");
+            for (String dimension : new String[] {PetStatsEntry.DIMENSION_GENDER, PetStatsEntry.DIMENSION_BREED})
+                {
+                    String where = " WHERE " + PetStatsEntry.COLUMN_DIMENSION + " = '" + dimension + "' AND " +
+                            PetStatsEntry.COLUMN_VALUE + " = " + statsValue(dimension, row);
+                    sql.append("UPDATE ").append(PetStatsEntry.TABLE_PET_STATS_NAME).append(" SET ")
+                            .append(PetStatsEntry.COLUMN_PET_COUNT).append(" = ").append(PetStatsEntry.COLUMN_PET_COUNT).append(" - 1, ")
+                            .append(PetStatsEntry.COLUMN_WEIGHT_SUM).append(" = ").append(PetStatsEntry.COLUMN_WEIGHT_SUM)
+                            .append(" - ").append(weight).append(where).append("; ");
+                    // Groups that no pet is left in go away, so old breeds don't pile up
+                    sql.append("DELETE FROM ").append(PetStatsEntry.TABLE_PET_STATS_NAME).append(where)
+                            .append(" AND ").append(PetStatsEntry.COLUMN_PET_COUNT).append(" = 0; ");
+                }
+            return sql.toString();
+        }
+
+    /**
+     * A single step in the schema history. Applying a migration moves the database from
+     * {@code version - 1} to {@code version}.
+     */
+    static final class Migration
+        {
+            /* The version the database is at once this migration has been applied */
+            final int version;
+
+            /* The statements that make up this migration, run in order */
+            final String[] statements;
+
+            Migration(int version, String... statements)
+                {
+                    this.version = version;
+                    this.statements = statements;
+                }
+        }
+
+    /*
+     * Every migration, ordered by version. Version 1 is the table created by
+     * SQL_CREATE_PETS_TABLE, so the list starts at version 2. To change the schema, append a
+     * new migration here and bump DATABASE_VERSION to its version; never edit a migration that
+     * has already shipped.
+     */
+    static final Migration[] MIGRATIONS =
+            {
+                    // Indexes for the filters the catalog runs through the provider: by breed,
+                    // by gender, by name ignoring case, and by gender ordered by weight
+                    new Migration(2,
+                            "CREATE INDEX IF NOT EXISTS " + INDEX_PETS_BREED + " ON " +
+                                    PetsEntry.TABLE_PET_NAME + " (" + PetsEntry.COLUMN_PET_BREED + ")",
+                            "CREATE INDEX IF NOT EXISTS " + INDEX_PETS_GENDER + " ON " +
+                                    PetsEntry.TABLE_PET_NAME + " (" + PetsEntry.COLUMN_PET_GENDER + ")",
+                            "CREATE INDEX IF NOT EXISTS " + INDEX_PETS_NAME_NOCASE + " ON " +
+                                    PetsEntry.TABLE_PET_NAME + " (" + PetsEntry.COLUMN_PET_NAME + " COLLATE NOCASE)",
+                            "CREATE INDEX IF NOT EXISTS " + INDEX_PETS_GENDER_WEIGHT + " ON " +
+                                    PetsEntry.TABLE_PET_NAME + " (" + PetsEntry.COLUMN_PET_GENDER + ", " +
+                                    PetsEntry.COLUMN_PET_WEIGHT + ")"),
+
+                    // Full-text index over the name and breed of every pet. Each row's docid is
+                    // the _id of its pet, and triggers keep it in step with the pets table.
+                    new Migration(3,
+                            "CREATE VIRTUAL TABLE " + PetsEntry.TABLE_PET_SEARCH_NAME + " USING fts4(" +
+                                    PetsEntry.COLUMN_PET_NAME + ", " + PetsEntry.COLUMN_PET_BREED + ")",
+                            "INSERT INTO " + PetsEntry.TABLE_PET_SEARCH_NAME + " (docid, " +
+                                    PetsEntry.COLUMN_PET_NAME + ", " + PetsEntry.COLUMN_PET_BREED + ") " +
+                                    "SELECT " + PetsEntry._ID + ", " + PetsEntry.COLUMN_PET_NAME + ", " +
+                                    PetsEntry.COLUMN_PET_BREED + " FROM " + PetsEntry.TABLE_PET_NAME,
+                            "CREATE TRIGGER " + TRIGGER_PETS_FTS_INSERT + " AFTER INSERT ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    "INSERT INTO " + PetsEntry.TABLE_PET_SEARCH_NAME + " (docid, " +
+                                    PetsEntry.COLUMN_PET_NAME + ", " + PetsEntry.COLUMN_PET_BREED + ") " +
+                                    "VALUES (new." + PetsEntry._ID + ", new." + PetsEntry.COLUMN_PET_NAME +
+                                    ", new." + PetsEntry.COLUMN_PET_BREED + "); END",
+                            "CREATE TRIGGER " + TRIGGER_PETS_FTS_UPDATE + " AFTER UPDATE OF " +
+                                    PetsEntry._ID + ", " + PetsEntry.COLUMN_PET_NAME + ", " +
+                                    PetsEntry.COLUMN_PET_BREED + " ON " + PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    "DELETE FROM " + PetsEntry.TABLE_PET_SEARCH_NAME +
+                                    " WHERE docid = old." + PetsEntry._ID + "; " +
+                                    "INSERT INTO " + PetsEntry.TABLE_PET_SEARCH_NAME + " (docid, " +
+                                    PetsEntry.COLUMN_PET_NAME + ", " + PetsEntry.COLUMN_PET_BREED + ") " +
+                                    "VALUES (new." + PetsEntry._ID + ", new." + PetsEntry.COLUMN_PET_NAME +
+                                    ", new." + PetsEntry.COLUMN_PET_BREED + "); END",
+                            "CREATE TRIGGER " + TRIGGER_PETS_FTS_DELETE + " AFTER DELETE ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    "DELETE FROM " + PetsEntry.TABLE_PET_SEARCH_NAME +
+                                    " WHERE docid = old." + PetsEntry._ID + "; END"),
+
+                    // Statistics per gender, per breed and over all pets, counted up from the
+                    // pets already there and kept up to date by triggers, so reading them
+                    // doesn't have to go through the pets table
+                    new Migration(4,
+                            "CREATE TABLE " + PetStatsEntry.TABLE_PET_STATS_NAME + " (" +
+                                    PetStatsEntry.COLUMN_DIMENSION + " " + PetsEntry.TEXT_TYPE + " " + PetsEntry.NOT_NULL + ", " +
+                                    PetStatsEntry.COLUMN_VALUE + " " + PetsEntry.TEXT_TYPE + " " + PetsEntry.NOT_NULL + ", " +
+                                    PetStatsEntry.COLUMN_PET_COUNT + " " + PetsEntry.INTEGER_TYPE + " " + PetsEntry.NOT_NULL + ", " +
+                                    PetStatsEntry.COLUMN_WEIGHT_SUM + " " + PetsEntry.INTEGER_TYPE + " " + PetsEntry.NOT_NULL + ", " +
+                                    PetsEntry.PRIMARY_KEY + " (" + PetStatsEntry.COLUMN_DIMENSION + ", " +
+                                    PetStatsEntry.COLUMN_VALUE + "))",
+                            "INSERT INTO " + PetStatsEntry.TABLE_PET_STATS_NAME + " SELECT '" +
+                                    PetStatsEntry.DIMENSION_ALL + "', '', COUNT(*), IFNULL(SUM(" +
+                                    PetsEntry.COLUMN_PET_WEIGHT + "), 0) FROM " + PetsEntry.TABLE_PET_NAME,
+                            "INSERT INTO " + PetStatsEntry.TABLE_PET_STATS_NAME + " SELECT '" +
+                                    PetStatsEntry.DIMENSION_GENDER + "', " + statsValue(PetStatsEntry.DIMENSION_GENDER, PetsEntry.TABLE_PET_NAME) +
+                                    ", COUNT(*), SUM(" + PetsEntry.COLUMN_PET_WEIGHT + ") FROM " + PetsEntry.TABLE_PET_NAME +
+                                    " GROUP BY 2",
+                            "INSERT INTO " + PetStatsEntry.TABLE_PET_STATS_NAME + " SELECT '" +
+                                    PetStatsEntry.DIMENSION_BREED + "', " + statsValue(PetStatsEntry.DIMENSION_BREED, PetsEntry.TABLE_PET_NAME) +
+                                    ", COUNT(*), SUM(" + PetsEntry.COLUMN_PET_WEIGHT + ") FROM " + PetsEntry.TABLE_PET_NAME +
+                                    " GROUP BY 2",
+                            "CREATE TRIGGER " + TRIGGER_PET_STATS_INSERT + " AFTER INSERT ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " + addToStats("new") + "END",
+                            "CREATE TRIGGER " + TRIGGER_PET_STATS_UPDATE + " AFTER UPDATE OF " +
+                                    PetsEntry.COLUMN_PET_BREED + ", " + PetsEntry.COLUMN_PET_GENDER + ", " +
+                                    PetsEntry.COLUMN_PET_WEIGHT + " ON " + PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    removeFromStats("old") + addToStats("new") + "END",
+                            "CREATE TRIGGER " + TRIGGER_PET_STATS_DELETE + " AFTER DELETE ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " + removeFromStats("old") + "END"),
+
+                    // The microchip of a pet, the key a shelter feed is matched against when it's
+                    // imported again. Pets without one are NULL, which any number of pets can be
+                    // under the unique index.
+                    new Migration(5,
+                            "ALTER TABLE " + PetsEntry.TABLE_PET_NAME + " ADD COLUMN " +
+                                    PetsEntry.COLUMN_PET_MICROCHIP + " " + PetsEntry.TEXT_TYPE,
+                            "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_PETS_MICROCHIP + " ON " +
+                                    PetsEntry.TABLE_PET_NAME + " (" + PetsEntry.COLUMN_PET_MICROCHIP + ")"),
+
+                    // The change journal that syncing pushes from. AUTOINCREMENT keeps the
+                    // sequence numbers going up after pushed entries are deleted. The pets that
+                    // are already there count as inserted, so the first push sends them all.
+                    new Migration(6,
+                            "CREATE TABLE " + PetChangesEntry.TABLE_PET_CHANGES_NAME + " (" +
+                                    PetChangesEntry.COLUMN_SEQUENCE + " " + PetsEntry.INTEGER_TYPE + " " +
+                                    PetsEntry.PRIMARY_KEY + " AUTOINCREMENT, " +
+                                    PetChangesEntry.COLUMN_PET_ID + " " + PetsEntry.INTEGER_TYPE + ", " +
+                                    PetChangesEntry.COLUMN_CHANGE + " " + PetsEntry.TEXT_TYPE + " " + PetsEntry.NOT_NULL + ", " +
+                                    PetChangesEntry.COLUMN_OLD_MICROCHIP + " " + PetsEntry.TEXT_TYPE + ")",
+                            "INSERT INTO " + PetChangesEntry.TABLE_PET_CHANGES_NAME + " (" +
+                                    PetChangesEntry.COLUMN_PET_ID + ", " + PetChangesEntry.COLUMN_CHANGE + ") " +
+                                    "SELECT " + PetsEntry._ID + ", '" + PetContract.CHANGE_INSERT + "' FROM " +
+                                    PetsEntry.TABLE_PET_NAME + " ORDER BY " + PetsEntry._ID,
+                            "CREATE TRIGGER " + TRIGGER_PET_CHANGES_INSERT + " AFTER INSERT ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    journalChange(PetContract.CHANGE_INSERT, "new." + PetsEntry._ID, "NULL") + "END",
+                            "CREATE TRIGGER " + TRIGGER_PET_CHANGES_UPDATE + " AFTER UPDATE ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    journalChange(PetContract.CHANGE_UPDATE, "new." + PetsEntry._ID,
+                                            "old." + PetsEntry.COLUMN_PET_MICROCHIP) + "END",
+                            "CREATE TRIGGER " + TRIGGER_PET_CHANGES_DELETE + " AFTER DELETE ON " +
+                                    PetsEntry.TABLE_PET_NAME + " BEGIN " +
+                                    journalChange(PetContract.CHANGE_DELETE, "old." + PetsEntry._ID,
+                                            "old." + PetsEntry.COLUMN_PET_MICROCHIP) + "END"),
+            };
+
+    /**
+     * A named set of PRAGMA settings applied every time the database is opened. Every profile
+     * runs in write-ahead logging mode, so readers such as the catalog's loader are never blocked
+     * by a writer; the profiles differ in how much memory they use and how often they sync.
+     * <p>
+     * The cache and memory-mapping sizes only hold for the primary connection, which every
+     * write and every transaction goes through. With write-ahead logging, SQLiteDatabase also
+     * opens pooled connections for reads outside a transaction, and there is no hook to
+     * configure those, so they keep SQLite's defaults. synchronous only matters for writes, so
+     * it always applies.
+     */
+    public static final class PragmaProfile
+        {
+            /**
+             * Syncs on every commit and uses modest caches. A committed pet survives power loss.
+             */
+            public static final PragmaProfile DURABLE =
+                    new PragmaProfile("durable", 2 * 1024, 0, "FULL");
+
+            /**
+             * Syncs only at checkpoints and uses larger caches and memory-mapped reads. The
+             * database can't be corrupted, but the last commits may be lost on power loss.
+             * Meant for imports and other bulk work.
+             */
+            public static final PragmaProfile THROUGHPUT =
+                    new PragmaProfile("throughput", 8 * 1024, 64L * 1024 * 1024, "NORMAL");
+
+            /* The name of the profile, as accepted by forName() */
+            public final String name;
+
+            /* Size of the page cache in KiB */
+            public final int cacheSizeKib;
+
+            /* Maximum number of bytes of the database file to memory-map, 0 to disable */
+            public final long mmapSize;
+
+            /* Value of PRAGMA synchronous: OFF, NORMAL or FULL */
+            public final String synchronous;
+
+            public PragmaProfile(String name, int cacheSizeKib, long mmapSize, String synchronous)
+                {
+                    this.name = name;
+                    this.cacheSizeKib = cacheSizeKib;
+                    this.mmapSize = mmapSize;
+                    this.synchronous = synchronous;
+                }
+
+            /**
+             * Returns the built-in profile with the given name.
+             */
+            public static PragmaProfile forName(String name)
+                {
+                    if (DURABLE.name.equals(name))
+                        {
+                            return DURABLE;
+                        }
+                    if (THROUGHPUT.name.equals(name))
+                        {
+                            return THROUGHPUT;
+                        }
+                    throw new IllegalArgumentException("Unknown PRAGMA profile " + name);
+                }
+        }
+
+    /* The PRAGMA settings applied whenever the database is opened */
+    private final PragmaProfile mProfile;
+
+    /* The constructor for the PetDbHelper class, using the durable profile */
     public PetDbHelper(Context context)
+        {
+            this(context, PragmaProfile.DURABLE);
+        }
+
+    /* The constructor for the PetDbHelper class, using the given profile */
+    public PetDbHelper(Context context, PragmaProfile profile)
         {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            mProfile = profile;
+        }
+
+    /**
+     * Returns the PRAGMA profile this helper applies.
+     */
+    public PragmaProfile getProfile()
+        {
+            return mProfile;
+        }
+
+    /**
+     * Called when the database connection is being configured, to enable features
+     * such as write-ahead logging or foreign key support.
+     * <p>
+     * This method is called before {@link #onCreate}, {@link #onUpgrade},
+     * {@link #onDowngrade}, or {@link #onOpen} are called.  It should not modify
+     * the database except to configure the database connection as required.
+     * </p>
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // onConfigure() only exists from Jelly Bean on, so older releases are configured here
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            {
+                configure(db);
+            }
+    }
+
+    /**
+     * Turn on write-ahead logging and apply the PRAGMA profile. cache_size and mmap_size are
+     * settings of a connection, and this only runs for the primary one; see
+     * {@link PragmaProfile}.
+     */
+    private void configure(SQLiteDatabase db)
+        {
+            db.enableWriteAheadLogging();
+
+            // Only takes effect while the database is still empty; see enableIncrementalVacuum()
+            runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+
+            runPragma(db, "PRAGMA cache_size = -" + mProfile.cacheSizeKib);
+            runPragma(db, "PRAGMA mmap_size = " + mProfile.mmapSize);
+            runPragma(db, "PRAGMA synchronous = " + mProfile.synchronous);
+        }
+
+    /**
+     * Make sure the database is in incremental auto-vacuum mode, so the pages freed by deleted
+     * pets can be handed back to the file system without rewriting the whole file. A new
+     * database is created in that mode; a database from before has to be rewritten by VACUUM
+     * once to switch. VACUUM can't run inside a transaction, which rules out doing this in a
+     * migration, and rewriting the whole file would stall whoever opens the database, so it's
+     * left to {@link PetStore#compact}, which runs as maintenance off the main thread.
+     * <p>
+     * VACUUM needs room for a second copy of the database, and the write lock for as long as it
+     * runs. If it fails, the database just stays in its old mode, which only costs the space of
+     * deleted pets, and the switch is tried again the next time.
+     */
+    void enableIncrementalVacuum()
+        {
+            SQLiteDatabase db = getWritableDatabase();
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL)
+                {
+                    return;
+                }
+            try
+                {
+                    runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+                    db.execSQL("VACUUM");
+                }
+            catch (SQLiteException e)
+                {
+                    Log.w(LOG_TAG, "Couldn't switch to incremental auto-vacuum, trying again next time", e);
+                }
+        }
+
+    /**
+     * Run a PRAGMA statement. Some PRAGMAs answer with a row, which execSQL() refuses, so they
+     * all go through a query that is stepped once and closed.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma)
+        {
+            Cursor cursor = db.rawQuery(pragma, null);
+            try
+                {
+                    cursor.moveToFirst();
+                }
+            finally
+                {
+                    cursor.close();
+                }
         }
 
     /**
@@ -49,8 +457,45 @@ public class PetDbHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         // Create the pets Table if it doesn't already exists
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // A new database starts at version 1, then goes through the same migrations as an
+        // upgraded one, so both always end up with the same schema
+        migrate(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * Apply, in order, every migration after {@code oldVersion} up to and including
+     * {@code newVersion}.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion)
+        {
+            int version = oldVersion;
+            for (Migration migration : MIGRATIONS)
+                {
+                    if (migration.version <= oldVersion || migration.version > newVersion)
+                        {
+                            continue;
+                        }
+
+                    // The migrations have to be listed without gaps, or a step would be skipped
+                    if (migration.version != version + 1)
+                        {
+                            throw new IllegalStateException("Missing migration to version " + (version + 1));
+                        }
+
+                    for (String statement : migration.statements)
+                        {
+                            db.execSQL(statement);
+                        }
+                    version = migration.version;
+                }
+
+            if (version != newVersion)
+                {
+                    throw new IllegalStateException("No migration to version " + newVersion);
+                }
+        }
+
     /**
      * Called when the database needs to be upgraded. The implementation
      * should use this method to drop tables, add tables, or do anything else it
@@ -71,11 +516,9 @@ public class PetDbHelper extends SQLiteOpenHelper {
      * @param oldVersion The old database version.
      * @param newVersion The new database version.
      */
-    /**
-     * This is called when the database needs to be upgraded.
-     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // Run every migration the database hasn't seen yet
+        migrate(db, oldVersion, newVersion);
     }
 }
@@ -0,0 +1,187 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The wire format of the batches of changes {@link PetSyncEngine} pushes and pulls: "PETD",
+ * a version byte and the number of changes, then every change as a kind byte followed by its
+ * microchip and, for an upsert, the rest of the pet, in the varints and strings of
+ * {@link PetContract#EXPORT_FORMAT_BINARY}. The whole batch is gzipped.
+ * <p>
+ * A change is the ContentValues {@link PetContract#METHOD_APPLY_CHANGES} takes: an upsert is a
+ * {@link PetContract#CHANGE_UPDATE} with every column of the pet.
+ */
+final class PetDeltaCodec {
+
+    /* Kinds of change on the wire */
+    private static final int KIND_UPSERT = 1;
+    private static final int KIND_DELETE = 2;
+    private static final int KIND_CLEAR = 3;
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PetDeltaCodec()
+        {
+        }
+
+    /**
+     * Returns the given changes as a batch.
+     */
+    static byte[] encode(List<ContentValues> changes) throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = new GZIPOutputStream(bytes);
+            out.write(new byte[] {'P', 'E', 'T', 'D', VERSION});
+            PetExporter.writeVarint(out, changes.size());
+            for (ContentValues change : changes)
+                {
+                    String kind = change.getAsString(PetChangesEntry.COLUMN_CHANGE);
+                    if (PetChangesEntry.CHANGE_CLEAR.equals(kind))
+                        {
+                            out.write(KIND_CLEAR);
+                            continue;
+                        }
+
+                    String microchip = change.getAsString(PetsEntry.COLUMN_PET_MICROCHIP);
+                    if (PetContract.CHANGE_DELETE.equals(kind))
+                        {
+                            out.write(KIND_DELETE);
+                            PetExporter.writeBinaryString(out, microchip);
+                            continue;
+                        }
+
+                    Integer weight = change.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT);
+                    out.write(KIND_UPSERT);
+                    PetExporter.writeBinaryString(out, microchip);
+                    PetExporter.writeBinaryString(out, change.getAsString(PetsEntry.COLUMN_PET_NAME));
+                    PetExporter.writeBinaryString(out, change.getAsString(PetsEntry.COLUMN_PET_BREED));
+                    PetExporter.writeVarint(out, change.getAsInteger(PetsEntry.COLUMN_PET_GENDER));
+                    PetExporter.writeVarint(out, weight == null ? 0 : weight);
+                }
+            out.close();
+            return bytes.toByteArray();
+        }
+
+    /**
+     * Returns the changes of the given batch.
+     */
+    static ArrayList<ContentValues> decode(byte[] batch) throws IOException
+        {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(batch));
+            try
+                {
+                    if (readByte(in) != 'P' || readByte(in) != 'E' || readByte(in) != 'T' || readByte(in) != 'D' ||
+                            readByte(in) != VERSION)
+                        {
+                            throw new IOException("Not a batch of pet changes");
+                        }
+
+                    int count = (int) readVarint(in);
+                    ArrayList<ContentValues> changes = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++)
+                        {
+                            ContentValues change = new ContentValues();
+                            int kind = readByte(in);
+                            switch (kind)
+                                {
+                                    case KIND_CLEAR:
+                                        change.put(PetChangesEntry.COLUMN_CHANGE, PetChangesEntry.CHANGE_CLEAR);
+                                        break;
+                                    case KIND_DELETE:
+                                        change.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_DELETE);
+                                        change.put(PetsEntry.COLUMN_PET_MICROCHIP, readBinaryString(in));
+                                        break;
+                                    case KIND_UPSERT:
+                                        change.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_UPDATE);
+                                        change.put(PetsEntry.COLUMN_PET_MICROCHIP, readBinaryString(in));
+                                        change.put(PetsEntry.COLUMN_PET_NAME, readBinaryString(in));
+                                        change.put(PetsEntry.COLUMN_PET_BREED, readBinaryString(in));
+                                        change.put(PetsEntry.COLUMN_PET_GENDER, (int) readVarint(in));
+                                        change.put(PetsEntry.COLUMN_PET_WEIGHT, (int) readVarint(in));
+                                        break;
+                                    default:
+                                        throw new IOException("Unknown kind of change " + kind);
+                                }
+                            changes.add(change);
+                        }
+                    return changes;
+                }
+            finally
+                {
+                    in.close();
+                }
+        }
+
+    private static int readByte(InputStream in) throws IOException
+        {
+            int b = in.read();
+            if (b == -1)
+                {
+                    throw new EOFException("Batch of pet changes ends early");
+                }
+            return b;
+        }
+
+    /**
+     * Read a zigzag-encoded variable-length integer, as written by {@link PetExporter#writeVarint}.
+     */
+    private static long readVarint(InputStream in) throws IOException
+        {
+            long zigzag = 0;
+            int shift = 0;
+            int b;
+            do
+                {
+                    if (shift > 63)
+                        {
+                            throw new IOException("Varint is too long");
+                        }
+                    b = readByte(in);
+                    zigzag |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                }
+            while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+    /**
+     * Read a string as written by {@link PetExporter#writeBinaryString}.
+     */
+    private static String readBinaryString(InputStream in) throws IOException
+        {
+            int length = (int) readVarint(in);
+            if (length == 0)
+                {
+                    return null;
+                }
+            byte[] bytes = new byte[length - 1];
+            int read = 0;
+            while (read < bytes.length)
+                {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n == -1)
+                        {
+                            throw new EOFException("Batch of pet changes ends early");
+                        }
+                    read += n;
+                }
+            return new String(bytes, UTF_8);
+        }
+}
@@ -0,0 +1,313 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Writes every pet of a {@link PetStore} to a stream, in one of the export formats of
+ * {@link PetContract}. The pets are read in chunks of {@link #CHUNK_SIZE}, seeking on _id the
+ * way paginated queries do, so only one chunk is held in memory at a time however large the
+ * table is, and no read stays open for the whole export.
+ * <p>
+ * {@link PetProvider} runs an exporter through {@link ContentProvider#openPipeHelper}, on a
+ * background thread while the client reads the other end of the pipe. The provider's lock is
+ * only held while a chunk is read, not while it's written to the pipe, so a slow reader holds
+ * up nothing else.
+ */
+abstract class PetExporter {
+
+    /* Tag for the Log Message */
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /* Number of pets read from the store at a time */
+    static final int CHUNK_SIZE = 1000;
+
+    /* Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* The columns of an export, in order */
+    private static final String[] COLUMNS = {
+            PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    /**
+     * Writes {@link PetContract#EXPORT_FORMAT_CSV}.
+     */
+    static final PetExporter CSV = new PetExporter(PetContract.PetsEntry.EXPORT_CSV_TYPE) {
+        @Override
+        void writeHeader(OutputStream out) throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++)
+                {
+                    if (i > 0)
+                        {
+                            out.write(',');
+                        }
+                    writeCsvField(out, COLUMNS[i]);
+                }
+            out.write('\r');
+            out.write('\n');
+        }
+
+        @Override
+        void writePet(OutputStream out, long previousId, long id, String name, String breed, int gender, int weight,
+                      String microchip) throws IOException {
+            writeAscii(out, Long.toString(id));
+            out.write(',');
+            writeCsvField(out, name);
+            out.write(',');
+            if (breed != null)
+                {
+                    writeCsvField(out, breed);
+                }
+            out.write(',');
+            writeAscii(out, Integer.toString(gender));
+            out.write(',');
+            writeAscii(out, Integer.toString(weight));
+            out.write(',');
+            if (microchip != null)
+                {
+                    writeCsvField(out, microchip);
+                }
+            out.write('\r');
+            out.write('\n');
+        }
+    };
+
+    /**
+     * Writes {@link PetContract#EXPORT_FORMAT_BINARY}.
+     */
+    static final PetExporter BINARY = new PetExporter(PetContract.PetsEntry.EXPORT_BINARY_TYPE) {
+        @Override
+        void writeHeader(OutputStream out) throws IOException {
+            writeAscii(out, "PETS");
+            out.write(2);
+        }
+
+        @Override
+        void writePet(OutputStream out, long previousId, long id, String name, String breed, int gender, int weight,
+                      String microchip) throws IOException {
+            writeVarint(out, id - previousId);
+            writeBinaryString(out, name);
+            writeBinaryString(out, breed);
+            writeVarint(out, gender);
+            writeVarint(out, weight);
+            writeBinaryString(out, microchip);
+        }
+    };
+
+    private final String mMimeType;
+
+    private PetExporter(String mimeType)
+        {
+            mMimeType = mimeType;
+        }
+
+    /**
+     * Returns the exporter of the given format, or null if there is no such format.
+     */
+    static PetExporter forFormat(String format)
+        {
+            if (PetContract.EXPORT_FORMAT_CSV.equals(format))
+                {
+                    return CSV;
+                }
+            if (PetContract.EXPORT_FORMAT_BINARY.equals(format))
+                {
+                    return BINARY;
+                }
+            return null;
+        }
+
+    /**
+     * Returns the MIME type of the exports written.
+     */
+    String getMimeType()
+        {
+            return mMimeType;
+        }
+
+    /**
+     * Write whatever comes before the first pet.
+     */
+    abstract void writeHeader(OutputStream out) throws IOException;
+
+    /**
+     * Write one pet. The ID of the pet written before it is given too, or 0 for the first one.
+     */
+    abstract void writePet(OutputStream out, long previousId, long id, String name, String breed, int gender, int weight,
+                           String microchip) throws IOException;
+
+    /**
+     * Write every pet of the given store to the given pipe, holding the given lock while each
+     * chunk is read.
+     */
+    void writeToPipe(ParcelFileDescriptor output, Uri uri, PetStore store, Lock lock)
+        {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(output.getFileDescriptor()), BUFFER_SIZE);
+            try
+                {
+                    export(store, lock, out);
+                    out.flush();
+                }
+            catch (IOException e)
+                {
+                    // Most likely the reader went away before the end
+                    Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                }
+        }
+
+    /**
+     * Write every pet of the given store to the given stream. Returns the number of pets written.
+     */
+    long export(PetStore store, OutputStream out) throws IOException
+        {
+            return export(store, null, out);
+        }
+
+    /**
+     * Write every pet of the given store to the given stream, holding the given lock, if any,
+     * while each chunk is read. Returns the number of pets written.
+     */
+    long export(PetStore store, Lock lock, OutputStream out) throws IOException
+        {
+            writeHeader(out);
+
+            long count = 0;
+            long previousId = 0;
+            String selection = null;
+            String[] selectionArgs = null;
+            String chunkSize = String.valueOf(CHUNK_SIZE);
+            while (true)
+                {
+                    // Counting the rows reads the whole chunk into the cursor, so it's written out
+                    // without going back to the store
+                    Cursor cursor;
+                    int rows;
+                    if (lock != null)
+                        {
+                            lock.lock();
+                        }
+                    try
+                        {
+                            cursor = store.query(COLUMNS, selection, selectionArgs, PetContract.PetsEntry._ID + " ASC", chunkSize);
+                            try
+                                {
+                                    rows = cursor.getCount();
+                                }
+                            catch (RuntimeException e)
+                                {
+                                    cursor.close();
+                                    throw e;
+                                }
+                        }
+                    finally
+                        {
+                            if (lock != null)
+                                {
+                                    lock.unlock();
+                                }
+                        }
+                    try
+                        {
+                            while (cursor.moveToNext())
+                                {
+                                    long id = cursor.getLong(0);
+                                    writePet(out, previousId, id, cursor.getString(1),
+                                            cursor.isNull(2) ? null : cursor.getString(2), cursor.getInt(3), cursor.getInt(4),
+                                            cursor.isNull(5) ? null : cursor.getString(5));
+                                    previousId = id;
+                                }
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+
+                    count += rows;
+                    if (rows < CHUNK_SIZE)
+                        {
+                            return count;
+                        }
+
+                    // The next chunk starts right after the last pet written
+                    selection = PetContract.PetsEntry._ID + ">?";
+                    selectionArgs = new String[] {String.valueOf(previousId)};
+                }
+        }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException
+        {
+            for (int i = 0; i < text.length(); i++)
+                {
+                    out.write(text.charAt(i));
+                }
+        }
+
+    /**
+     * Write a CSV field, quoted if it holds a separator, a quote or a line break.
+     */
+    private static void writeCsvField(OutputStream out, String value) throws IOException
+        {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++)
+                {
+                    char c = value.charAt(i);
+                    quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+                }
+
+            if (!quote)
+                {
+                    out.write(value.getBytes(UTF_8));
+                    return;
+                }
+            out.write('"');
+            out.write(value.replace("\"", "\"\"").getBytes(UTF_8));
+            out.write('"');
+        }
+
+    /**
+     * Write a string as its length in UTF-8 bytes plus one, then those bytes. Null is a length of 0.
+     */
+    static void writeBinaryString(OutputStream out, String value) throws IOException
+        {
+            if (value == null)
+                {
+                    writeVarint(out, 0);
+                    return;
+                }
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(out, bytes.length + 1);
+            out.write(bytes);
+        }
+
+    /**
+     * Write a zigzag-encoded variable-length integer.
+     */
+    static void writeVarint(OutputStream out, long value) throws IOException
+        {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0)
+                {
+                    out.write((int) ((zigzag & 0x7F) | 0x80));
+                    zigzag >>>= 7;
+                }
+            out.write((int) zigzag);
+        }
+}
@@ -0,0 +1,706 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Imports pets from a CSV or JSON stream, such as an intake file, without reading the whole
+ * file into memory.
+ * <p>
+ * A background thread parses the stream and validates every pet with the same rules as
+ * {@link PetProvider} applies to inserts. It hands the valid pets over in chunks, and the thread
+ * that called {@link #importPets} inserts each chunk in one transaction through
+ * {@link ContentResolver#bulkInsert}. At most a few chunks wait to be inserted at a time: when
+ * the inserts fall behind, the parser blocks until they catch up, so memory stays bounded
+ * however large the file is.
+ * <p>
+ * A pet that can't be parsed or isn't valid is reported and left out, and the import goes on
+ * with the next one. If a chunk fails to insert as a whole, its pets are inserted one at a time,
+ * so only the ones that fail are left out.
+ */
+public class PetImporter {
+
+    /**
+     * Import format of comma-separated values, as written by {@link PetContract#EXPORT_FORMAT_CSV}:
+     * a header line naming the columns, then one line per pet. The name and gender columns are
+     * required; the breed, weight and microchip columns are optional, and so are their values.
+     * Other columns, such as _id, are ignored.
+     */
+    public static final String FORMAT_CSV = "csv";
+
+    /**
+     * Import format of a JSON array of objects, one per pet, with the same keys as the columns
+     * of the pets table. Other keys are ignored.
+     */
+    public static final String FORMAT_JSON = "json";
+
+    /* Number of pets inserted in one transaction, unless configured */
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /* Number of parsed chunks that may wait to be inserted, unless configured */
+    private static final int DEFAULT_MAX_PENDING_CHUNKS = 2;
+
+    /**
+     * Hears about the progress of an import, on the thread running it.
+     */
+    public interface Listener
+        {
+            /**
+             * Called for every pet that was left out.
+             *
+             * @param rowNumber the number of the pet in the file, counting from 1
+             * @param reason    why the pet was left out
+             */
+            void onRowFailed(long rowNumber, String reason);
+
+            /**
+             * Called after every chunk.
+             */
+            void onProgress(long rowsRead, long rowsImported, long rowsFailed);
+        }
+
+    /**
+     * What an import did, once it's done.
+     */
+    public static final class Result
+        {
+            public final long rowsRead;
+            public final long rowsImported;
+            public final long rowsFailed;
+
+            Result(long rowsRead, long rowsImported, long rowsFailed)
+                {
+                    this.rowsRead = rowsRead;
+                    this.rowsImported = rowsImported;
+                    this.rowsFailed = rowsFailed;
+                }
+        }
+
+    /* The resolver the pets are inserted through */
+    private final ContentResolver mResolver;
+
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private int mMaxPendingChunks = DEFAULT_MAX_PENDING_CHUNKS;
+
+    /* The URI the pets are inserted into */
+    private Uri mInsertUri = PetContract.PetsEntry.CONTENT_URI;
+
+    public PetImporter(Context context)
+        {
+            mResolver = context.getContentResolver();
+        }
+
+    /**
+     * Set the number of pets inserted in one transaction.
+     */
+    public void setChunkSize(int chunkSize)
+        {
+            if (chunkSize <= 0)
+                {
+                    throw new IllegalArgumentException("Chunk size must be positive");
+                }
+            mChunkSize = chunkSize;
+        }
+
+    /**
+     * Set the number of parsed chunks that may wait to be inserted before parsing blocks.
+     */
+    public void setMaxPendingChunks(int maxPendingChunks)
+        {
+            if (maxPendingChunks <= 0)
+                {
+                    throw new IllegalArgumentException("Pending chunks must be positive");
+                }
+            mMaxPendingChunks = maxPendingChunks;
+        }
+
+    /**
+     * Set whether pets are matched on their microchip, so importing the same file again updates
+     * the pets it imported the last time instead of adding them once more. Pets that are
+     * already the same don't count as imported then.
+     */
+    public void setUpsert(boolean upsert)
+        {
+            mInsertUri = upsert ? PetContract.PetsEntry.buildUpsertUri() : PetContract.PetsEntry.CONTENT_URI;
+        }
+
+    /**
+     * A number of parsed pets, along with the pets of the same stretch of the file that failed.
+     */
+    private static final class Chunk
+        {
+            final ArrayList<ContentValues> pets;
+            final ArrayList<Long> rowNumbers;
+            final ArrayList<Long> failedRowNumbers = new ArrayList<>();
+            final ArrayList<String> failedReasons = new ArrayList<>();
+            long rowsRead;
+            /* Whether this is the last chunk of the file */
+            boolean last;
+            /* Why reading the file stopped, if it couldn't be read to the end */
+            IOException failure;
+
+            Chunk(int size)
+                {
+                    pets = new ArrayList<>(size);
+                    rowNumbers = new ArrayList<>(size);
+                }
+        }
+
+    /**
+     * Thrown by a parser for a pet it can't read, after skipping over it.
+     */
+    private static final class RowException extends Exception
+        {
+            RowException(String message)
+                {
+                    super(message);
+                }
+        }
+
+    /**
+     * Reads pets from a file one at a time.
+     */
+    private abstract static class RowParser
+        {
+            /* Number of pets read so far, including the ones that failed */
+            long rowNumber;
+
+            /**
+             * Returns the next pet, or null at the end of the file. Throws a
+             * {@link RowException} for a pet that can't be read, and an {@link IOException} if
+             * the rest of the file can't be read.
+             */
+            abstract ContentValues next() throws IOException, RowException;
+        }
+
+    /**
+     * Import every pet of the given stream, which is in the given format, {@link #FORMAT_CSV} or
+     * {@link #FORMAT_JSON}. Blocks until the whole stream has been imported, so it must not be
+     * called on the main thread. The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read to the end. The pets before that point
+     *                     have been imported.
+     */
+    public Result importPets(InputStream in, String format, @Nullable Listener listener) throws IOException
+        {
+            Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+            final RowParser parser;
+            if (FORMAT_CSV.equals(format))
+                {
+                    parser = new CsvParser(reader);
+                }
+            else if (FORMAT_JSON.equals(format))
+                {
+                    parser = new JsonParser(reader);
+                }
+            else
+                {
+                    throw new IllegalArgumentException("Unknown import format " + format);
+                }
+
+            final int chunkSize = mChunkSize;
+            final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(mMaxPendingChunks);
+            Thread parserThread = new Thread("PetImporter parser") {
+                @Override
+                public void run() {
+                    parse(parser, chunkSize, queue);
+                }
+            };
+            parserThread.start();
+
+            long rowsRead = 0;
+            long rowsImported = 0;
+            long rowsFailed = 0;
+            try
+                {
+                    while (true)
+                        {
+                            Chunk chunk = queue.take();
+                            for (int i = 0; i < chunk.failedRowNumbers.size(); i++)
+                                {
+                                    rowsFailed++;
+                                    if (listener != null)
+                                        {
+                                            listener.onRowFailed(chunk.failedRowNumbers.get(i), chunk.failedReasons.get(i));
+                                        }
+                                }
+
+                            long inserted = insert(chunk, listener);
+                            rowsImported += inserted;
+                            rowsFailed += chunk.pets.size() - inserted;
+                            rowsRead += chunk.rowsRead;
+                            if (listener != null)
+                                {
+                                    listener.onProgress(rowsRead, rowsImported, rowsFailed);
+                                }
+
+                            if (chunk.failure != null)
+                                {
+                                    throw chunk.failure;
+                                }
+                            if (chunk.last)
+                                {
+                                    return new Result(rowsRead, rowsImported, rowsFailed);
+                                }
+                        }
+                }
+            catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Import interrupted");
+                }
+            finally
+                {
+                    // Stop the parser if the import ended early; it may be blocked on a full queue
+                    parserThread.interrupt();
+                    queue.clear();
+                }
+        }
+
+    /**
+     * Parse the whole file into chunks, putting each one on the queue as it fills up. Blocks
+     * while the queue is full.
+     */
+    private static void parse(RowParser parser, int chunkSize, BlockingQueue<Chunk> queue)
+        {
+            Chunk chunk = new Chunk(chunkSize);
+            try
+                {
+                    while (true)
+                        {
+                            ContentValues pet;
+                            try
+                                {
+                                    pet = parser.next();
+                                    if (pet == null)
+                                        {
+                                            break;
+                                        }
+                                    PetProvider.validatePet(pet);
+                                    chunk.pets.add(pet);
+                                    chunk.rowNumbers.add(parser.rowNumber);
+                                }
+                            catch (RowException | IllegalArgumentException e)
+                                {
+                                    chunk.failedRowNumbers.add(parser.rowNumber);
+                                    chunk.failedReasons.add(e.getMessage());
+                                }
+                            chunk.rowsRead++;
+
+                            // Failed rows count too, so a long run of them can't pile up
+                            if (chunk.rowsRead == chunkSize)
+                                {
+                                    queue.put(chunk);
+                                    chunk = new Chunk(chunkSize);
+                                }
+                        }
+                    chunk.last = true;
+                }
+            catch (IOException e)
+                {
+                    chunk.failure = e;
+                }
+            catch (RuntimeException e)
+                {
+                    // JsonReader throws IllegalStateException for a file that isn't a JSON array
+                    chunk.failure = new IOException("Can't read the file", e);
+                }
+            catch (InterruptedException e)
+                {
+                    // The import ended early, nobody is waiting for the rest
+                    return;
+                }
+
+            try
+                {
+                    queue.put(chunk);
+                }
+            catch (InterruptedException e)
+                {
+                    // The import ended early, nobody is waiting for the rest
+                }
+        }
+
+    /**
+     * Insert the pets of the given chunk in one transaction, or one at a time if that fails.
+     * Returns the number of pets inserted.
+     */
+    private long insert(Chunk chunk, Listener listener)
+        {
+            if (chunk.pets.isEmpty())
+                {
+                    return 0;
+                }
+
+            try
+                {
+                    return mResolver.bulkInsert(mInsertUri,
+                            chunk.pets.toArray(new ContentValues[chunk.pets.size()]));
+                }
+            catch (SQLException | IllegalArgumentException e)
+                {
+                    // The transaction rolled back, find out which pets are to blame
+                }
+
+            long inserted = 0;
+            for (int i = 0; i < chunk.pets.size(); i++)
+                {
+                    String reason;
+                    try
+                        {
+                            if (mResolver.insert(mInsertUri, chunk.pets.get(i)) != null)
+                                {
+                                    inserted++;
+                                    continue;
+                                }
+                            reason = "Pet could not be inserted";
+                        }
+                    catch (SQLException | IllegalArgumentException e)
+                        {
+                            reason = e.getMessage();
+                        }
+                    if (listener != null)
+                        {
+                            listener.onRowFailed(chunk.rowNumbers.get(i), reason);
+                        }
+                }
+            return inserted;
+        }
+
+    /**
+     * Put the given text into the pet as the value of the given column, converting it as the
+     * column needs. An empty breed, weight or microchip is left out.
+     */
+    private static void putValue(ContentValues pet, String column, String value) throws RowException
+        {
+            if (PetContract.PetsEntry.COLUMN_PET_NAME.equals(column))
+                {
+                    pet.put(column, value);
+                    return;
+                }
+            if (PetContract.PetsEntry.COLUMN_PET_BREED.equals(column))
+                {
+                    if (value != null && !value.isEmpty())
+                        {
+                            pet.put(column, value);
+                        }
+                    return;
+                }
+            if (PetContract.PetsEntry.COLUMN_PET_MICROCHIP.equals(column))
+                {
+                    if (value != null && !value.trim().isEmpty())
+                        {
+                            pet.put(column, value.trim());
+                        }
+                    return;
+                }
+            if (value == null || value.isEmpty())
+                {
+                    // validatePet rejects a pet without a gender; a missing weight defaults to 0
+                    return;
+                }
+            try
+                {
+                    pet.put(column, Integer.parseInt(value.trim()));
+                }
+            catch (NumberFormatException e)
+                {
+                    throw new RowException("The " + column + " is not a whole number: " + value);
+                }
+        }
+
+    /**
+     * Returns the pets table column of the given CSV column or JSON key, or null if it isn't one
+     * that gets imported.
+     */
+    private static String getImportedColumn(String name)
+        {
+            String[] columns = {
+                    PetContract.PetsEntry.COLUMN_PET_NAME,
+                    PetContract.PetsEntry.COLUMN_PET_BREED,
+                    PetContract.PetsEntry.COLUMN_PET_GENDER,
+                    PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+                    PetContract.PetsEntry.COLUMN_PET_MICROCHIP
+            };
+            for (String column : columns)
+                {
+                    if (column.equalsIgnoreCase(name.trim()))
+                        {
+                            return column;
+                        }
+                }
+            return null;
+        }
+
+    /**
+     * Reads pets from comma-separated values, as in RFC 4180.
+     */
+    private static final class CsvParser extends RowParser
+        {
+            private final Reader mReader;
+            private final ArrayList<String> mRecord = new ArrayList<>();
+            private final StringBuilder mField = new StringBuilder();
+            /* The pets table column of every CSV column, or null for the ones left out */
+            private String[] mColumns;
+            /* A character read ahead, or -2 if there is none */
+            private int mPeeked = -2;
+
+            CsvParser(Reader reader)
+                {
+                    mReader = reader;
+                }
+
+            private int read() throws IOException
+                {
+                    if (mPeeked != -2)
+                        {
+                            int c = mPeeked;
+                            mPeeked = -2;
+                            return c;
+                        }
+                    return mReader.read();
+                }
+
+            /**
+             * Read the fields of the next line into mRecord. Returns false at the end of the file.
+             */
+            private boolean readRecord() throws IOException
+                {
+                    mRecord.clear();
+                    mField.setLength(0);
+                    int c = read();
+                    if (c == -1)
+                        {
+                            return false;
+                        }
+
+                    boolean quoted = false;
+                    boolean fieldStart = true;
+                    while (true)
+                        {
+                            if (quoted)
+                                {
+                                    if (c == -1)
+                                        {
+                                            throw new IOException("Quoted field not closed at the end of the file");
+                                        }
+                                    if (c == '"')
+                                        {
+                                            int next = read();
+                                            if (next == '"')
+                                                {
+                                                    mField.append('"');
+                                                }
+                                            else
+                                                {
+                                                    quoted = false;
+                                                    c = next;
+                                                    continue;
+                                                }
+                                        }
+                                    else
+                                        {
+                                            mField.append((char) c);
+                                        }
+                                }
+                            else if (c == '"' && fieldStart)
+                                {
+                                    quoted = true;
+                                }
+                            else if (c == ',')
+                                {
+                                    mRecord.add(mField.toString());
+                                    mField.setLength(0);
+                                    fieldStart = true;
+                                    c = read();
+                                    continue;
+                                }
+                            else if (c == '\r' || c == '\n' || c == -1)
+                                {
+                                    if (c == '\r')
+                                        {
+                                            int next = read();
+                                            if (next != '\n')
+                                                {
+                                                    mPeeked = next;
+                                                }
+                                        }
+                                    mRecord.add(mField.toString());
+                                    return true;
+                                }
+                            else
+                                {
+                                    mField.append((char) c);
+                                }
+                            fieldStart = false;
+                            c = read();
+                        }
+                }
+
+            private boolean isBlankRecord()
+                {
+                    return mRecord.size() == 1 && mRecord.get(0).trim().isEmpty();
+                }
+
+            @Override
+            ContentValues next() throws IOException, RowException
+                {
+                    if (mColumns == null)
+                        {
+                            readHeader();
+                        }
+
+                    // Skip blank lines, such as the one at the end of the file
+                    do
+                        {
+                            if (!readRecord())
+                                {
+                                    return null;
+                                }
+                        }
+                    while (isBlankRecord());
+                    rowNumber++;
+
+                    if (mRecord.size() != mColumns.length)
+                        {
+                            throw new RowException("Expected " + mColumns.length + " fields but found " + mRecord.size());
+                        }
+                    ContentValues pet = new ContentValues();
+                    for (int i = 0; i < mColumns.length; i++)
+                        {
+                            if (mColumns[i] != null)
+                                {
+                                    putValue(pet, mColumns[i], mRecord.get(i));
+                                }
+                        }
+                    return pet;
+                }
+
+            private void readHeader() throws IOException
+                {
+                    if (!readRecord())
+                        {
+                            throw new IOException("The CSV file is empty, it has no header");
+                        }
+                    mColumns = new String[mRecord.size()];
+                    boolean hasName = false;
+                    boolean hasGender = false;
+                    for (int i = 0; i < mColumns.length; i++)
+                        {
+                            mColumns[i] = getImportedColumn(mRecord.get(i));
+                            hasName |= PetContract.PetsEntry.COLUMN_PET_NAME.equals(mColumns[i]);
+                            hasGender |= PetContract.PetsEntry.COLUMN_PET_GENDER.equals(mColumns[i]);
+                        }
+                    if (!hasName || !hasGender)
+                        {
+                            throw new IOException("The CSV header needs a name and a gender column: " + mRecord);
+                        }
+                }
+        }
+
+    /**
+     * Reads pets from a JSON array of objects.
+     */
+    private static final class JsonParser extends RowParser
+        {
+            private final JsonReader mReader;
+            private boolean mStarted;
+
+            JsonParser(Reader reader)
+                {
+                    mReader = new JsonReader(reader);
+                }
+
+            @Override
+            ContentValues next() throws IOException, RowException
+                {
+                    if (!mStarted)
+                        {
+                            mReader.beginArray();
+                            mStarted = true;
+                        }
+                    if (!mReader.hasNext())
+                        {
+                            mReader.endArray();
+                            return null;
+                        }
+                    rowNumber++;
+
+                    if (mReader.peek() != JsonToken.BEGIN_OBJECT)
+                        {
+                            mReader.skipValue();
+                            throw new RowException("Not a JSON object");
+                        }
+
+                    // Read the whole object, even after a bad value, so the next pet starts clean
+                    ContentValues pet = new ContentValues();
+                    String error = null;
+                    mReader.beginObject();
+                    while (mReader.hasNext())
+                        {
+                            String column = getImportedColumn(mReader.nextName());
+                            if (column == null)
+                                {
+                                    mReader.skipValue();
+                                    continue;
+                                }
+
+                            String value;
+                            JsonToken token = mReader.peek();
+                            if (token == JsonToken.NULL)
+                                {
+                                    mReader.nextNull();
+                                    value = null;
+                                }
+                            else if (token == JsonToken.STRING || token == JsonToken.NUMBER)
+                                {
+                                    value = mReader.nextString();
+                                }
+                            else
+                                {
+                                    mReader.skipValue();
+                                    if (error == null)
+                                        {
+                                            error = "The " + column + " is not a string or a number";
+                                        }
+                                    continue;
+                                }
+
+                            try
+                                {
+                                    putValue(pet, column, value);
+                                }
+                            catch (RowException e)
+                                {
+                                    if (error == null)
+                                        {
+                                            error = e.getMessage();
+                                        }
+                                }
+                        }
+                    mReader.endObject();
+
+                    if (error != null)
+                        {
+                            throw new RowException(error);
+                        }
+                    return pet;
+                }
+        }
+}
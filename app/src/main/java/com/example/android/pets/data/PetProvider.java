@@ -1,18 +1,34 @@
 package com.example.android.pets.data;
 
+import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.database.ContentObserver;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * Created by test-pc on 03-Mar-18.
  */
@@ -31,6 +47,77 @@ public class PetProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PETS_ID = 101;
 
+    /** URI matcher code for the content URI for searching the pets table */
+    private static final int PETS_SEARCH = 102;
+
+    /** URI matcher code for the content URI for exporting the pets table */
+    private static final int PETS_EXPORT = 103;
+
+    /** URI matcher code for the content URI for the statistics of the pets table */
+    private static final int PETS_STATS = 104;
+
+    /** URI matcher code for the content URI for the change journal of the pets table */
+    private static final int PETS_CHANGES = 105;
+
+    /* Patterns of the URIs above, by match code less PETS, then the name of the URIs matching none */
+    private static final String[] METRICS_URI_NAMES = {
+            PetContract.PATH_PETS,
+            PetContract.PATH_PETS + "/#",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_STATS,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES,
+            PetContract.MetricsEntry.URI_UNKNOWN
+    };
+
+    /**
+     * Name of the meta-data of the provider in the manifest that picks its storage engine: one of
+     * {@link #STORAGE_ENGINE_SQLITE}, {@link #STORAGE_ENGINE_MEMORY} or
+     * {@link #STORAGE_ENGINE_MEMORY_WRITE_THROUGH}. Without it the pets are kept in SQLite.
+     */
+    public static final String META_DATA_STORAGE_ENGINE = "com.example.android.pets.STORAGE_ENGINE";
+
+    /** Storage engine that keeps the pets in the shelter database */
+    public static final String STORAGE_ENGINE_SQLITE = "sqlite";
+
+    /** Storage engine that keeps the pets in memory only, for catalogs that fit in RAM */
+    public static final String STORAGE_ENGINE_MEMORY = "memory";
+
+    /**
+     * Storage engine that answers queries from memory, and writes every change through to the
+     * shelter database as well
+     */
+    public static final String STORAGE_ENGINE_MEMORY_WRITE_THROUGH = "memory-write-through";
+
+    /* The engine the pets are stored in. Created on first use, so opening the database waits for it. */
+    private PetStore mStore;
+
+    /*
+     * Every call that uses the store shares it for as long as it does. A restore, which puts
+     * another database in place of the store's, and a switch of engine hold it exclusively.
+     */
+    private final ReentrantReadWriteLock mStoreLock = new ReentrantReadWriteLock();
+
+    /* Buffers the change notifications, so a burst of writes sends one per changed URI */
+    private NotificationCoalescer mNotifier;
+
+    /* The most recently read pets, so looking the same pet up again skips the database */
+    private PetRowCache mRowCache;
+
+    /* Calls, rows and latencies of every operation, per kind of URI */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(METRICS_URI_NAMES);
+
+    /* The latest queries that took longer than the slow-query threshold */
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog();
+
+    /**
+     * Returns the index of the given URI match code in {@link #METRICS_URI_NAMES}.
+     */
+    private static int metricsUri(int match)
+        {
+            return match == UriMatcher.NO_MATCH ? METRICS_URI_NAMES.length - 1 : match - PETS;
+        }
+
     /* The variable that's used when matching predefined URIs to Querying URIs */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -54,6 +141,30 @@ public class PetProvider extends ContentProvider {
             // For example, "content://com.example.android.pets/pets/3" matches, but
             // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
             sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PETS_ID);
+
+            // The content URI of the form "content://com.example.android.pets/pets/search/*" will
+            // map to the integer code {@link #PETS_SEARCH}. This URI is used to find the pets whose
+            // name or breed matches the search text at the end of the URI.
+            sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                    PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PETS_SEARCH);
+
+            // The content URI of the form "content://com.example.android.pets/pets/export/*" will
+            // map to the integer code {@link #PETS_EXPORT}. This URI is opened as a stream of
+            // every pet, in the format at the end of the URI.
+            sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                    PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*", PETS_EXPORT);
+
+            // The content URI of the form "content://com.example.android.pets/pets/stats" will map
+            // to the integer code {@link #PETS_STATS}. This URI is used to read the statistics of
+            // the pets table.
+            sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                    PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PETS_STATS);
+
+            // The content URI of the form "content://com.example.android.pets/pets/changes" will
+            // map to the integer code {@link #PETS_CHANGES}. This URI is used to read the change
+            // journal of the pets table, and to delete the entries that have been pushed.
+            sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                    PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PETS_CHANGES);
         }
 
     /**
@@ -87,9 +198,229 @@ public class PetProvider extends ContentProvider {
         // To access our database, we instantiate our subclass of SQLiteOpenHelper
         // and pass the context, which is the current activity.
         mDbHelper = new PetDbHelper(getContext());
+        mNotifier = new NotificationCoalescer(getContext().getContentResolver());
+        mRowCache = new PetRowCache(PetRowCache.defaultMaxBytes());
         return true;
     }
 
+    /**
+     * Returns the engine the pets are stored in, creating the one picked in the manifest the
+     * first time.
+     */
+    private synchronized PetStore getStore()
+        {
+            if (mStore == null)
+                {
+                    String engine = null;
+                    try
+                        {
+                            ProviderInfo info = getContext().getPackageManager().getProviderInfo(
+                                    new ComponentName(getContext(), PetProvider.class), PackageManager.GET_META_DATA);
+                            if (info.metaData != null)
+                                {
+                                    engine = info.metaData.getString(META_DATA_STORAGE_ENGINE);
+                                }
+                        }
+                    catch (PackageManager.NameNotFoundException e)
+                        {
+                            // Not declared in a manifest, so there is nothing to pick the engine
+                        }
+                    mStore = createStore(engine == null ? STORAGE_ENGINE_SQLITE : engine);
+                }
+            return mStore;
+        }
+
+    private PetStore createStore(String engine)
+        {
+            switch (engine)
+                {
+                    case STORAGE_ENGINE_SQLITE:
+                        return new SqlitePetStore(mDbHelper);
+                    case STORAGE_ENGINE_MEMORY:
+                        return new InMemoryPetStore();
+                    case STORAGE_ENGINE_MEMORY_WRITE_THROUGH:
+                        return new InMemoryPetStore(new SqlitePetStore(mDbHelper));
+                    default:
+                        throw new IllegalArgumentException("Unknown storage engine " + engine);
+                }
+        }
+
+    /**
+     * Switch to the given storage engine, one of {@link #STORAGE_ENGINE_SQLITE},
+     * {@link #STORAGE_ENGINE_MEMORY} or {@link #STORAGE_ENGINE_MEMORY_WRITE_THROUGH}, instead of
+     * the one picked in the manifest. Pets stored in memory by the engine used until now are
+     * dropped. Meant for comparing the engines; waits for the calls using the engine until now.
+     */
+    public void setStorageEngine(String engine)
+        {
+            mStoreLock.writeLock().lock();
+            try
+                {
+                    synchronized (this)
+                        {
+                            mStore = createStore(engine);
+                        }
+                    mRowCache.invalidateAll();
+                }
+            finally
+                {
+                    mStoreLock.writeLock().unlock();
+                }
+        }
+
+    /**
+     * Turn the cache of recently read pets on or off. It is on by default.
+     */
+    public void setRowCacheEnabled(boolean enabled)
+        {
+            mRowCache.setEnabled(enabled);
+        }
+
+    /**
+     * Returns the number of single pet lookups answered from the cache so far.
+     */
+    public int getRowCacheHitCount()
+        {
+            return mRowCache.getHitCount();
+        }
+
+    /**
+     * Returns the number of single pet lookups that had to go to the database so far, while
+     * the cache was on.
+     */
+    public int getRowCacheMissCount()
+        {
+            return mRowCache.getMissCount();
+        }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Give back the memory of the cached pets when the system is running low
+        mRowCache.trimMemory(level);
+    }
+
+    /**
+     * Set how long change notifications outside a transaction are buffered for, so that every
+     * URI changed within that time gets notified once. 0 sends every notification right away.
+     */
+    public void setNotificationWindowMillis(long windowMillis)
+        {
+            mNotifier.setWindowMillis(windowMillis);
+        }
+
+    /**
+     * Returns the number of change notifications sent so far.
+     */
+    public long getSentNotificationCount()
+        {
+            return mNotifier.getSentCount();
+        }
+
+    /**
+     * Returns the number of change notifications that didn't need to be sent, because the
+     * same URI was already waiting to be notified.
+     */
+    public long getSuppressedNotificationCount()
+        {
+            return mNotifier.getSuppressedCount();
+        }
+
+    /**
+     * Turn the recording of metrics on or off. It is on by default; turning it off is only
+     * meant for measuring what recording costs.
+     */
+    public void setMetricsEnabled(boolean enabled)
+        {
+            mMetrics.setEnabled(enabled);
+        }
+
+    /**
+     * Set how long a query has to take to be logged in the slow-query log, in milliseconds.
+     * 0 logs every query, and a negative threshold none.
+     */
+    public void setSlowQueryThresholdMillis(long thresholdMillis)
+        {
+            mSlowQueryLog.setThresholdMillis(thresholdMillis);
+        }
+
+    /**
+     * Call a provider-defined method: {@link PetContract#METHOD_GET_METRICS} returns the calls,
+     * rows and latencies recorded so far, and {@link PetContract#METHOD_RESET_METRICS} sets
+     * them back to 0. {@link PetContract#METHOD_GET_SLOW_QUERIES} returns the slow-query log,
+     * and {@link PetContract#METHOD_SET_SLOW_QUERY_THRESHOLD} sets its threshold.
+     * {@link PetContract#METHOD_APPLY_CHANGES} applies changes pulled from another device.
+     * {@link PetContract#METHOD_BACKUP} and {@link PetContract#METHOD_RESTORE} copy the database
+     * to a file and back, and {@link PetContract#METHOD_COMPACT} hands the space of deleted
+     * pets back to the file system.
+     *
+     * @param method method name to call
+     * @param arg    provider-defined String argument. May be {@code null}.
+     * @param extras provider-defined Bundle argument. May be {@code null}.
+     * @return provider-defined return value. May be {@code null}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method)
+            {
+                case PetContract.METHOD_GET_METRICS:
+                    return mMetrics.toBundle();
+                case PetContract.METHOD_RESET_METRICS:
+                    mMetrics.reset();
+                    return null;
+                case PetContract.METHOD_GET_SLOW_QUERIES:
+                    return mSlowQueryLog.toBundle();
+                case PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                    try
+                        {
+                            setSlowQueryThresholdMillis(Long.parseLong(arg));
+                        }
+                    catch (NumberFormatException e)
+                        {
+                            throw new IllegalArgumentException("Slow-query threshold must be a number of milliseconds, not " + arg);
+                        }
+                    return null;
+                case PetContract.METHOD_APPLY_CHANGES:
+                    ArrayList<ContentValues> changes = extras == null ? null :
+                            extras.<ContentValues>getParcelableArrayList(PetContract.PetChangesEntry.KEY_CHANGES);
+                    if (changes == null)
+                        {
+                            throw new IllegalArgumentException("No changes to apply");
+                        }
+                    Bundle result = new Bundle();
+                    mStoreLock.readLock().lock();
+                    try
+                        {
+                            result.putInt(PetContract.PetChangesEntry.KEY_ROWS, applyChanges(changes));
+                        }
+                    finally
+                        {
+                            mStoreLock.readLock().unlock();
+                        }
+                    return result;
+                case PetContract.METHOD_BACKUP:
+                    return backup(parseBackupPath(arg), extras);
+                case PetContract.METHOD_RESTORE:
+                    restore(parseBackupPath(arg));
+                    return null;
+                case PetContract.METHOD_COMPACT:
+                    mStoreLock.readLock().lock();
+                    try
+                        {
+                            getStore().compact();
+                        }
+                    finally
+                        {
+                            mStoreLock.readLock().unlock();
+                        }
+                    return null;
+                default:
+                    return super.call(method, arg, extras);
+            }
+    }
+
     /**
      * Implement this to handle query requests from clients.
      * This method can be called from multiple threads, as described in
@@ -149,65 +480,277 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
 
-        // Get readable DB
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        // Figure out if the URI Matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+
+        // Always timed, whether the metrics are on or not, for the slow-query log
+        long start = System.nanoTime();
+        Cursor cursor;
+        int rows;
+        mStoreLock.readLock().lock();
+        try
+            {
+                cursor = queryPets(match, uri, projection, selection, selectionArgs, sortOrder);
+
+                // ContentResolver counts the rows of a cursor as soon as it gets it, to run the
+                // query, so counting them here costs nothing more and times the query itself
+                rows = cursor.getCount();
+            }
+        catch (RuntimeException e)
+            {
+                mMetrics.recordFailure(ProviderMetrics.OPERATION_QUERY, metricsUri(match), start);
+                throw e;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
+            }
+        mMetrics.record(ProviderMetrics.OPERATION_QUERY, metricsUri(match), rows, start);
+
+        // Log a slow query together with its plan. Working out the plan adds to the time the
+        // caller waits, but only for a query that was already slow.
+        long elapsedNanos = System.nanoTime() - start;
+        if (mSlowQueryLog.isSlow(elapsedNanos))
+            {
+                mSlowQueryLog.add(uri, selection, sortOrder, rows, elapsedNanos,
+                        explainQuery(match, uri, projection, selection, selectionArgs, sortOrder));
+            }
+        return cursor;
+    }
+
+    /**
+     * The arguments the pets are queried with for a pets or search URI, once the page the URI
+     * asks for, if any, is added to them.
+     */
+    private static final class PetsQuery
+        {
+            String searchText;
+            String selection;
+            String[] selectionArgs;
+            String sortOrder;
+            String limit;
+        }
+
+    private static PetsQuery parsePetsQuery(int match, Uri uri, String selection, String[] selectionArgs, String sortOrder)
+        {
+            PetsQuery query = new PetsQuery();
+            if (match == PETS_SEARCH)
+                {
+                    query.searchText = uri.getLastPathSegment();
+                }
+
+            // If the URI asks for a page, only read the rows after the given _id
+            // and stop at the page size.
+            String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+            if (limit != null)
+                {
+                    checkPageLimit(limit);
+
+                    String after = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER);
+                    if (after != null)
+                        {
+                            selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry._ID + ">?");
+                            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                    new String[] {String.valueOf(parsePageAfter(after))});
+                        }
+
+                    // Seeking on _id only works if the page is ordered by _id
+                    if (sortOrder != null && !sortOrder.equals(PetContract.PetsEntry._ID) &&
+                            !sortOrder.equals(PetContract.PetsEntry._ID + " ASC"))
+                        {
+                            throw new IllegalArgumentException("Pages are always sorted by _id, not " + sortOrder);
+                        }
+                    sortOrder = PetContract.PetsEntry._ID + " ASC";
+                }
+
+            query.selection = selection;
+            query.selectionArgs = selectionArgs;
+            query.sortOrder = sortOrder;
+            query.limit = limit;
+            return query;
+        }
+
+    /**
+     * Returns how the storage engine runs the query of the given URI, which the URI matcher
+     * matched to the given code, or null for the statistics, which are read from a summary table.
+     */
+    private String explainQuery(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+        {
+            mStoreLock.readLock().lock();
+            try
+                {
+                    switch (match)
+                        {
+                            case PETS:
+                            case PETS_SEARCH:
+                                PetsQuery query = parsePetsQuery(match, uri, selection, selectionArgs, sortOrder);
+                                return getStore().explainQuery(query.searchText, projection, query.selection,
+                                        query.selectionArgs, query.sortOrder, query.limit);
+                            case PETS_ID:
+                                return getStore().explainQuery(null, projection, PetContract.PetsEntry._ID + "=?",
+                                        new String[] {String.valueOf(ContentUris.parseId(uri))}, null, null);
+                            default:
+                                return null;
+                        }
+                }
+            finally
+                {
+                    mStoreLock.readLock().unlock();
+                }
+        }
+
+    /**
+     * Query the given URI, which the URI matcher matched to the given code.
+     */
+    private Cursor queryPets(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+
+        // The engine the pets are stored in
+        PetStore store = getStore();
 
         // This cursor will hold the result of the Query
         Cursor cursor;
 
-        // Figure out if the URI Matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match)
             {
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
                 case PETS:
-                        cursor = db.query(
-                            PetContract.PetsEntry.TABLE_PET_NAME,
-                            projection,
-                            selection,
-                            selectionArgs,
-                            null,
-                            null,
-                            sortOrder);
+                case PETS_SEARCH:
+                        // If the URI asks for a page, only read the rows of that page. For the
+                        // PETS_SEARCH code, only keep the pets whose name or breed matches the
+                        // search text at the end of the URI.
+                        PetsQuery query = parsePetsQuery(match, uri, selection, selectionArgs, sortOrder);
+                        if (query.searchText != null)
+                            {
+                                cursor = store.search(query.searchText, projection, query.selection, query.selectionArgs, query.sortOrder, query.limit);
+                            }
+                        else
+                            {
+                                cursor = store.query(projection, query.selection, query.selectionArgs, query.sortOrder, query.limit);
+                            }
                         break;
                 case PETS_ID:
                     // For the PET_ID code, extract out the ID from the URI.
                     // For an example URI such as "content://com.example.android.pets/pets/3",
-                    // the selection will be "_id=?" and the selection argument will be a
-                    // String array containing the actual ID of 3 in this case.
-                    //
-                    // For every "?" in the selection, we need to have an element in the selection
-                    // arguments that will fill in the "?". Since we have 1 question mark in the
-                    // selection, we have 1 String in the selection arguments' String array.
-                    selection = PetContract.PetsEntry._ID + "=?";
-                    selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-
-                    // This will perform a query on the pets table where the _id equals 3 to return a
-                    // Cursor containing that row of the table.
-                    cursor = db.query(
-                        PetContract.PetsEntry.TABLE_PET_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                    // the ID is 3. The store looks the pet up by its ID with the same statement
+                    // every time, rather than building a selection for it.
+                    long id = ContentUris.parseId(uri);
+
+                    // If the pet was read recently, answer from the row cache, as long as the
+                    // projection only names its columns
+                    PetRowCache.Row row = mRowCache.get(id);
+                    if (row != null && row.hasColumns(projection))
+                        {
+                            cursor = row.toCursor(projection);
+                            break;
+                        }
+
+                    // Expressions in the projection are left to the store to work out
+                    if (row != null || !mRowCache.isEnabled())
+                        {
+                            // This will perform a query on the pets table where the _id equals 3 to return a
+                            // Cursor containing that row of the table.
+                            cursor = store.queryById(id, projection);
+                            break;
+                        }
+
+                    // Otherwise read every column of the pet, so the row can be cached for any
+                    // projection asked for later
+                    long generation = mRowCache.getGeneration();
+                    Cursor petCursor = store.queryById(id, null);
+                    try
+                        {
+                            if (petCursor.moveToFirst())
+                                {
+                                    row = PetRowCache.Row.fromCursor(petCursor);
+                                    mRowCache.put(generation, row);
+                                    cursor = row.hasColumns(projection)
+                                            ? row.toCursor(projection)
+                                            : store.queryById(id, projection);
+                                }
+                            else
+                                {
+                                    cursor = new MatrixCursor(projection != null ? projection : petCursor.getColumnNames(), 0);
+                                }
+                        }
+                    finally
+                        {
+                            petCursor.close();
+                        }
                     break;
+                case PETS_STATS:
+                    // The statistics are kept up to date by every write, so reading them doesn't
+                    // depend on how many pets there are. They change whenever any pet does, so
+                    // the cursor listens to the whole pets table rather than to its own URI.
+                    cursor = store.queryStats(projection, selection, selectionArgs, sortOrder);
+                    cursor.setNotificationUri(getContext().getContentResolver(), PetContract.PetsEntry.CONTENT_URI);
+                    return cursor;
+                case PETS_CHANGES:
+                    // The journal is only ever read in order, a page at a time from a sequence
+                    // number on, by seeking on its primary key
+                    if (selection != null || sortOrder != null)
+                        {
+                            throw new IllegalArgumentException("The change journal is read by sequence number only");
+                        }
+                    String after = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER);
+                    String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+                    if (limit != null)
+                        {
+                            checkPageLimit(limit);
+                        }
+                    cursor = store.queryChanges(projection, after == null ? 0 : parsePageAfter(after), limit);
+                    cursor.setNotificationUri(getContext().getContentResolver(), PetContract.PetsEntry.CONTENT_URI);
+                    return cursor;
                 default:
                     throw new IllegalArgumentException("Can't Query unknown URUI " + uri);
             }
 
         // Se Notification URI on the Cursor, so we know what tehe content URI the
         // Cursor was created for. If the data at this URI changes, then we know
-        // we need to update the URI
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // we need to update the URI. A change to a single pet is only sent for pets/<id>,
+        // which search results don't descend from, so they listen to the whole pets table.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == PETS_SEARCH ? PetContract.PetsEntry.CONTENT_URI : uri);
 
         // Return the Cursor
         return cursor;
     }
 
+    /**
+     * Make sure the page size of a paginated query is a positive number.
+     */
+    private static void checkPageLimit(String limit)
+        {
+            try
+                {
+                    if (Integer.parseInt(limit) > 0)
+                        {
+                            return;
+                        }
+                }
+            catch (NumberFormatException e)
+                {
+                    // Handled below, together with a page size that isn't positive
+                }
+            throw new IllegalArgumentException("Page limit must be a positive number, not " + limit);
+        }
+
+    /**
+     * Parse the _id that a page of a paginated query starts after.
+     */
+    private static long parsePageAfter(String after)
+        {
+            try
+                {
+                    return Long.parseLong(after);
+                }
+            catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException("Page must start after a pet ID, not " + after);
+                }
+        }
+
     /**
      * Implement this to handle requests for the MIME type of the data at the
      * given URI.  The returned MIME type should start with
@@ -237,22 +780,79 @@ public class PetProvider extends ContentProvider {
                     return PetContract.PetsEntry.CONTENT_LIST_TYPE;
                 case PETS_ID:
                     return PetContract.PetsEntry.CONTENT_ITEM_TYPE;
+                case PETS_SEARCH:
+                    return PetContract.PetsEntry.CONTENT_LIST_TYPE;
+                case PETS_EXPORT:
+                    PetExporter exporter = PetExporter.forFormat(uri.getLastPathSegment());
+                    return exporter == null ? null : exporter.getMimeType();
+                case PETS_STATS:
+                    return PetContract.PetStatsEntry.CONTENT_LIST_TYPE;
+                case PETS_CHANGES:
+                    return PetContract.PetChangesEntry.CONTENT_LIST_TYPE;
                 default:
                     throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
             }
     }
 
     /**
-     * Insert a pet into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Override this to handle requests to open a file blob.
+     * The default implementation always throws {@link FileNotFoundException}.
+     * This method can be called from multiple threads, as described in
+     * <a href="{@docRoot}guide/topics/fundamentals/processes-and-threads.html#Threads">Processes
+     * and Threads</a>.
+     * <p>
+     * Here an export URI opens the read end of a pipe, and a background thread writes every
+     * pet into the other end, a chunk of pets at a time, while the client reads it.
+     *
+     * @param uri  The URI whose file is to be opened.
+     * @param mode Access mode for the file. Exports can only be opened for reading, "r".
+     * @return Returns a new ParcelFileDescriptor which you can use to access
+     * the file.
+     * @throws FileNotFoundException Throws FileNotFoundException if there is
+     *                               no file associated with the given URI or the mode is invalid.
      */
-    private Uri insertPet(Uri uri, ContentValues contentValues)
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+
+        if (sUriMatcher.match(uri) != PETS_EXPORT)
+            {
+                throw new FileNotFoundException("No file at " + uri);
+            }
+        if (!"r".equals(mode))
+            {
+                throw new FileNotFoundException("Exports can only be read, not opened with mode " + mode);
+            }
+
+        final PetExporter exporter = PetExporter.forFormat(uri.getLastPathSegment());
+        if (exporter == null)
+            {
+                throw new FileNotFoundException("Unknown export format " + uri.getLastPathSegment());
+            }
+
+        return openPipeHelper(uri, exporter.getMimeType(), null, getStore(), new PipeDataWriter<PetStore>() {
+            @Override
+            public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                        @Nullable Bundle opts, @Nullable PetStore store) {
+                // Exports read a chunk at a time, so a restore only waits for the chunk being read
+                exporter.writeToPipe(output, uri, store, mStoreLock.readLock());
+            }
+        });
+    }
+
+    /**
+     * Check that the given content values describe a valid pet, throwing an
+     * {@link IllegalArgumentException} if they don't. These are the rules every inserted row
+     * has to follow, whether it comes in on its own, as part of a batch, or from an import.
+     */
+    static void validatePet(ContentValues contentValues)
         {
             // Getting the values from the contentValues passed as the input argument
             // to make sure that none of them are of the incorrect values
             String name = contentValues.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
             Integer gender = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
             Integer weight = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+            String microchip = contentValues.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
 
             // Checking one by one if the input values are incorrect
             if(name == null)
@@ -267,14 +867,51 @@ public class PetProvider extends ContentProvider {
                 {
                     throw new IllegalArgumentException("Please input the breed of the pet");
                 }
+            if (microchip != null && microchip.isEmpty())
+                {
+                    throw new IllegalArgumentException("Pet microchip can't be empty");
+                }
 
             // No need to check the breed, any value is valid (including null).
+        }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. The notification is held
+     * back until the transaction running on this thread commits, or otherwise until the
+     * notification window closes, and is sent once no matter how often the URI changed.
+     */
+    private void notifyChange(Uri uri)
+        {
+            mNotifier.notifyChange(uri);
+        }
+
+    /**
+     * Notify all listeners that a change of the given kind happened at the given URI. A change
+     * through a single pet's URI is sent for pets/<id> alone, so observers of other pets don't
+     * hear about it; any other change is sent for the whole pets table.
+     */
+    private void notifyChange(Uri uri, String change)
+        {
+            Uri changedUri = PetContract.PetsEntry.CONTENT_URI;
+            if (sUriMatcher.match(uri) == PETS_ID)
+                {
+                    changedUri = ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_URI, ContentUris.parseId(uri));
+                }
 
-            // Get writable DB
-            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            notifyChange(PetContract.PetsEntry.buildChangeUri(changedUri, change));
+        }
+
+    /**
+     * Insert a pet into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertPet(Uri uri, ContentValues contentValues)
+        {
+            // Make sure the values are valid before touching the database
+            validatePet(contentValues);
 
             // Insert the new pet with the given values
-            long newURI = db.insert(PetContract.PetsEntry.TABLE_PET_NAME, null, contentValues);
+            long newURI = getStore().insert(contentValues);
 
             // If the ID is -1, then the insertion failed. Log an error and return null.
             if (newURI == -1)
@@ -283,14 +920,46 @@ public class PetProvider extends ContentProvider {
                     return null;
                 }
 
-            // Notify all listeners that the data has changed for the pet content URI
-            // uri: content://com.example.android.pets/pets
-            getContext().getContentResolver().notifyChange(uri, null);
+            // Make sure nothing cached under the new ID survives
+            mRowCache.invalidate(newURI);
+
+            // Notify the listeners of the new pet's URI, and of the pets table, that a pet has
+            // been inserted. uri: content://com.example.android.pets/pets/<id>?change=insert
+            notifyChange(ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_URI, newURI),
+                    PetContract.CHANGE_INSERT);
 
             // Return the new URI with the ID (of the newly inserted row) appended at the end
             return ContentUris.withAppendedId(uri, newURI);
         }
 
+    /**
+     * Insert the pet with the given content values, or update the pet that already has its
+     * microchip with them, in one write at most. A pet that's already stored exactly like this
+     * isn't written, and listeners aren't notified. Return the content URI of the pet.
+     */
+    private Uri upsertPet(ContentValues contentValues)
+        {
+            // Make sure the values are valid before touching the database
+            validatePet(contentValues);
+
+            int[] outcomes = new int[1];
+            long id = getStore().upsert(new ContentValues[] {contentValues}, outcomes)[0];
+            if (outcomes[0] == PetStore.UPSERT_FAILED)
+                {
+                    Log.e(LOG_TAG, "Failed to upsert row for " + PetContract.PetsEntry.buildUpsertUri());
+                    return null;
+                }
+
+            Uri petUri = ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_URI, id);
+            if (outcomes[0] != PetStore.UPSERT_UNCHANGED)
+                {
+                    mRowCache.invalidate(id);
+                    notifyChange(petUri, outcomes[0] == PetStore.UPSERT_INSERTED
+                            ? PetContract.CHANGE_INSERT : PetContract.CHANGE_UPDATE);
+                }
+            return petUri;
+        }
+
     /**
      * Implement this to handle requests to insert a new row.
      * This method can be called from multiple threads, as described in
@@ -306,15 +975,502 @@ public class PetProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
         final int match = sUriMatcher.match(uri);
-        switch (match)
+        long start = mMetrics.start();
+        Uri newUri;
+        mStoreLock.readLock().lock();
+        try
             {
-                case PETS:
-                    return insertPet(uri, values);
-                default:
-                    throw new IllegalArgumentException("Insertion is not supported for : " + uri);
+                switch (match)
+                    {
+                        case PETS:
+                            if (uri.getBooleanQueryParameter(PetContract.QUERY_PARAMETER_UPSERT, false))
+                                {
+                                    newUri = upsertPet(values);
+                                }
+                            else
+                                {
+                                    newUri = insertPet(uri, values);
+                                }
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Insertion is not supported for : " + uri);
+                    }
+            }
+        catch (RuntimeException e)
+            {
+                mMetrics.recordFailure(ProviderMetrics.OPERATION_INSERT, metricsUri(match), start);
+                throw e;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
+            }
+        mMetrics.record(ProviderMetrics.OPERATION_INSERT, metricsUri(match), newUri == null ? 0 : 1, start);
+        return newUri;
+    }
+
+    /**
+     * Insert all of the given pets in a single transaction. Every row is validated before
+     * anything is written, so an invalid row rejects the whole batch. The storage engine writes
+     * the rows with {@link PetStore#bulkInsert}, in one transaction, and listeners are notified
+     * once for the whole batch. Return the number of rows that were inserted.
+     */
+    private int bulkInsertPets(Uri uri, ContentValues[] values)
+        {
+            // Validate the whole batch up front, so a bad row can't leave half of it behind
+            for (ContentValues contentValues : values)
+                {
+                    validatePet(contentValues);
+                }
+
+            // Track the number of rows that were inserted
+            int rowsInserted = 0;
+
+            boolean successful = false;
+            mNotifier.beginTransaction();
+            mRowCache.beginTransaction();
+            try
+                {
+                    for (long newId : getStore().bulkInsert(values))
+                        {
+                            if (newId != -1)
+                                {
+                                    mRowCache.invalidate(newId);
+                                    rowsInserted++;
+                                }
+                        }
+                    // Notify all listeners once for the whole batch
+                    if (rowsInserted != 0)
+                        {
+                            notifyChange(uri, PetContract.CHANGE_INSERT);
+                        }
+                    successful = true;
+                }
+            finally
+                {
+                    mNotifier.endTransaction(successful);
+                    mRowCache.endTransaction();
+                }
+
+            return rowsInserted;
+        }
+
+    /**
+     * Insert or update all of the given pets by their microchip in a single transaction, the way
+     * a re-import of the same feed should go. Every row is validated before anything is written.
+     * Pets that are already stored exactly like this aren't written, and listeners are notified
+     * once for the inserted pets and once for the updated ones. Return the number of pets that
+     * were inserted or updated.
+     */
+    private int bulkUpsertPets(Uri uri, ContentValues[] values)
+        {
+            // Validate the whole batch up front, so a bad row can't leave half of it behind
+            for (ContentValues contentValues : values)
+                {
+                    validatePet(contentValues);
+                }
+
+            int rowsInserted = 0;
+            int rowsUpdated = 0;
+            int[] outcomes = new int[values.length];
+
+            boolean successful = false;
+            mNotifier.beginTransaction();
+            mRowCache.beginTransaction();
+            try
+                {
+                    long[] ids = getStore().upsert(values, outcomes);
+                    for (int i = 0; i < ids.length; i++)
+                        {
+                            if (outcomes[i] == PetStore.UPSERT_INSERTED)
+                                {
+                                    rowsInserted++;
+                                }
+                            else if (outcomes[i] == PetStore.UPSERT_UPDATED)
+                                {
+                                    rowsUpdated++;
+                                }
+                            else
+                                {
+                                    continue;
+                                }
+                            mRowCache.invalidate(ids[i]);
+                        }
+                    // Notify all listeners once for each kind of change in the batch
+                    if (rowsInserted != 0)
+                        {
+                            notifyChange(uri, PetContract.CHANGE_INSERT);
+                        }
+                    if (rowsUpdated != 0)
+                        {
+                            notifyChange(uri, PetContract.CHANGE_UPDATE);
+                        }
+                    successful = true;
+                }
+            finally
+                {
+                    mNotifier.endTransaction(successful);
+                    mRowCache.endTransaction();
+                }
+
+            return rowsInserted + rowsUpdated;
+        }
+
+    /**
+     * Override this to handle requests to insert a set of new rows, or the
+     * default implementation will iterate over the values and call
+     * {@link #insert} on each of them.
+     * As a courtesy, call {@link android.content.ContentResolver#notifyChange(android.net.Uri, android.database.ContentObserver) notifyChange()}
+     * after inserting.
+     * This method can be called from multiple threads, as described in
+     * <a href="{@docRoot}guide/topics/fundamentals/processes-and-threads.html#Threads">Processes
+     * and Threads</a>.
+     *
+     * @param uri    The content:// URI of the insertion request.
+     * @param values An array of sets of column_name/value pairs to add to the database.
+     *               This must not be {@code null}.
+     * @return The number of values that were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int rowsInserted;
+        mStoreLock.readLock().lock();
+        try
+            {
+                switch (match)
+                    {
+                        case PETS:
+                            if (uri.getBooleanQueryParameter(PetContract.QUERY_PARAMETER_UPSERT, false))
+                                {
+                                    rowsInserted = bulkUpsertPets(uri, values);
+                                }
+                            else
+                                {
+                                    rowsInserted = bulkInsertPets(uri, values);
+                                }
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Insertion is not supported for : " + uri);
+                    }
+            }
+        catch (RuntimeException e)
+            {
+                mMetrics.recordFailure(ProviderMetrics.OPERATION_BULK_INSERT, metricsUri(match), start);
+                throw e;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
+            }
+        mMetrics.record(ProviderMetrics.OPERATION_BULK_INSERT, metricsUri(match), rowsInserted, start);
+        return rowsInserted;
+    }
+
+    /**
+     * Override this to handle requests to perform a batch of operations, or the
+     * default implementation will iterate over the operations and call
+     * {@link ContentProviderOperation#apply} on each of them.
+     * If all calls to {@link ContentProviderOperation#apply} succeed
+     * then a {@link ContentProviderResult} array with as many
+     * elements as there were operations will be returned.  If any of the calls
+     * fail, it is up to the implementation how many of the others take effect.
+     * This method can be called from multiple threads, as described in
+     * <a href="{@docRoot}guide/topics/fundamentals/processes-and-threads.html#Threads">Processes
+     * and Threads</a>.
+     * <p>
+     * Here all of the operations run inside one transaction, so either all of them take effect
+     * or none of them do, and listeners are notified once per changed URI after the commit.
+     *
+     * @param operations the operations to apply
+     * @return the results of the applications
+     * @throws OperationApplicationException thrown if any operation fails.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+        // A restore waits for the whole batch, not just the operation running
+        mStoreLock.readLock().lock();
+        try
+            {
+                // The engine the pets are stored in
+                PetStore store = getStore();
+
+                // Hold back the notifications of the batch, so the listeners get told once per
+                // changed URI after it commits, and not at all if it rolls back
+                ContentProviderResult[] results;
+                boolean successful = false;
+                store.beginTransaction();
+                mNotifier.beginTransaction();
+                mRowCache.beginTransaction();
+                try
+                    {
+                        results = super.applyBatch(operations);
+                        store.setTransactionSuccessful();
+                        successful = true;
+                    }
+                finally
+                    {
+                        store.endTransaction();
+                        mNotifier.endTransaction(successful);
+                        mRowCache.endTransaction();
+                    }
+
+                return results;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
             }
     }
 
+    private static File parseBackupPath(String path)
+        {
+            if (path == null || path.isEmpty())
+                {
+                    throw new IllegalArgumentException("Backup requires the path of its file");
+                }
+            return new File(path);
+        }
+
+    /**
+     * Copy the database to the given file with the pacing given in the extras, and return the
+     * number of pages copied. The provider can't pass an {@link IOException} on to its caller,
+     * so a backup that fails throws an {@link IllegalStateException} instead.
+     */
+    private Bundle backup(File destination, Bundle extras)
+        {
+            int stepPages = PetContract.BackupEntry.DEFAULT_STEP_PAGES;
+            long stepPauseMillis = PetContract.BackupEntry.DEFAULT_STEP_PAUSE_MILLIS;
+            if (extras != null)
+                {
+                    stepPages = extras.getInt(PetContract.BackupEntry.KEY_STEP_PAGES, stepPages);
+                    stepPauseMillis = extras.getLong(PetContract.BackupEntry.KEY_STEP_PAUSE_MILLIS, stepPauseMillis);
+                }
+
+            long pages;
+            mStoreLock.readLock().lock();
+            try
+                {
+                    pages = getStore().backup(destination, stepPages, stepPauseMillis);
+                }
+            catch (IOException e)
+                {
+                    throw new IllegalStateException("Backup to " + destination + " failed: " + e.getMessage(), e);
+                }
+            finally
+                {
+                    mStoreLock.readLock().unlock();
+                }
+            Bundle result = new Bundle();
+            result.putLong(PetContract.BackupEntry.KEY_PAGES, pages);
+            return result;
+        }
+
+    /**
+     * Put every pet back the way it was in the given backup, and tell every listener of the
+     * pets, since any of them may have changed. The restore waits for the calls using the store
+     * to finish, and holds off new ones until it's done. Like a backup, a restore that fails
+     * throws an {@link IllegalStateException}.
+     */
+    private void restore(File source)
+        {
+            mStoreLock.writeLock().lock();
+            try
+                {
+                    getStore().restore(source);
+                }
+            catch (IOException e)
+                {
+                    throw new IllegalStateException("Restore from " + source + " failed: " + e.getMessage(), e);
+                }
+            finally
+                {
+                    // Dropped while no reader can put a pet of the old database back
+                    mRowCache.invalidateAll();
+                    mStoreLock.writeLock().unlock();
+                }
+            notifyChange(PetContract.PetsEntry.CONTENT_URI);
+        }
+
+    /**
+     * Apply the given changes pulled from another device, in order, in one transaction, and
+     * return the number of pets they changed. An insert or update is upserted by microchip,
+     * and a delete deletes the pet with its microchip. None of them go into the change journal,
+     * so they aren't pushed back.
+     * <p>
+     * A pet that has changes of its own in the journal keeps them: they haven't been pushed,
+     * so they come after anything that could be pulled, and win everywhere once they are.
+     * For the same reason nothing but a clear is applied while the journal holds a clear. A
+     * pulled clear deletes every pet, and with them whatever was waiting to be pushed.
+     */
+    private int applyChanges(ArrayList<ContentValues> changes)
+        {
+            // Validate the whole batch up front, so a bad change can't leave half of it behind
+            for (ContentValues change : changes)
+                {
+                    String kind = change.getAsString(PetContract.PetChangesEntry.COLUMN_CHANGE);
+                    if (PetContract.CHANGE_INSERT.equals(kind) || PetContract.CHANGE_UPDATE.equals(kind))
+                        {
+                            validatePet(change);
+                        }
+                    else if (!PetContract.CHANGE_DELETE.equals(kind) && !PetContract.PetChangesEntry.CHANGE_CLEAR.equals(kind))
+                        {
+                            throw new IllegalArgumentException("Unknown kind of change " + kind);
+                        }
+                }
+
+            // The engine the pets are stored in
+            PetStore store = getStore();
+
+            int rowsChanged = 0;
+            boolean successful = false;
+            store.beginTransaction();
+            mNotifier.beginTransaction();
+            mRowCache.beginTransaction();
+            try
+                {
+                    long lastSequence = store.getLastChangeSequence();
+                    HashSet<String> pendingMicrochips = new HashSet<>();
+                    boolean pendingClear = readPendingChanges(store, pendingMicrochips);
+
+                    // Runs of upserts go to the store together
+                    ArrayList<ContentValues> upserts = new ArrayList<>();
+                    for (ContentValues change : changes)
+                        {
+                            String kind = change.getAsString(PetContract.PetChangesEntry.COLUMN_CHANGE);
+                            if (PetContract.PetChangesEntry.CHANGE_CLEAR.equals(kind))
+                                {
+                                    rowsChanged += applyUpserts(store, upserts);
+                                    int rowsDeleted = store.delete(null, null);
+                                    if (rowsDeleted != 0)
+                                        {
+                                            notifyChange(PetContract.PetsEntry.CONTENT_URI, PetContract.CHANGE_DELETE);
+                                        }
+                                    rowsChanged += rowsDeleted;
+
+                                    // Nothing that was waiting to be pushed is left
+                                    store.deleteChanges(null, null);
+                                    pendingMicrochips.clear();
+                                    pendingClear = false;
+                                    continue;
+                                }
+
+                            String microchip = change.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                            if (pendingClear || microchip == null || pendingMicrochips.contains(microchip))
+                                {
+                                    continue;
+                                }
+                            if (PetContract.CHANGE_DELETE.equals(kind))
+                                {
+                                    rowsChanged += applyUpserts(store, upserts);
+                                    int rowsDeleted = store.delete(PetContract.PetsEntry.COLUMN_PET_MICROCHIP + "=?", new String[] {microchip});
+                                    if (rowsDeleted != 0)
+                                        {
+                                            notifyChange(PetContract.PetsEntry.CONTENT_URI, PetContract.CHANGE_DELETE);
+                                        }
+                                    rowsChanged += rowsDeleted;
+                                }
+                            else
+                                {
+                                    upserts.add(change);
+                                }
+                        }
+                    rowsChanged += applyUpserts(store, upserts);
+
+                    // What was just applied came from elsewhere, so it mustn't be pushed back
+                    store.deleteChanges(PetContract.PetChangesEntry.COLUMN_SEQUENCE + ">?",
+                            new String[] {String.valueOf(lastSequence)});
+                    if (rowsChanged != 0)
+                        {
+                            mRowCache.invalidateAll();
+                        }
+                    store.setTransactionSuccessful();
+                    successful = true;
+                }
+            finally
+                {
+                    store.endTransaction();
+                    mNotifier.endTransaction(successful);
+                    mRowCache.endTransaction();
+                }
+
+            return rowsChanged;
+        }
+
+    /**
+     * Read the microchips of the pets with changes in the journal into the given set, both the
+     * ones they have now and the ones they had before. Returns whether the journal holds a clear.
+     */
+    private static boolean readPendingChanges(PetStore store, HashSet<String> microchips)
+        {
+            boolean clear = false;
+            Cursor cursor = store.queryChanges(new String[] {
+                    PetContract.PetChangesEntry.COLUMN_CHANGE,
+                    PetContract.PetChangesEntry.COLUMN_OLD_MICROCHIP,
+                    PetContract.PetsEntry.COLUMN_PET_MICROCHIP}, 0, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            clear |= PetContract.PetChangesEntry.CHANGE_CLEAR.equals(cursor.getString(0));
+                            for (int column = 1; column <= 2; column++)
+                                {
+                                    if (!cursor.isNull(column))
+                                        {
+                                            microchips.add(cursor.getString(column));
+                                        }
+                                }
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return clear;
+        }
+
+    /**
+     * Upsert the given pulled pets, if there are any, notify the listeners of what changed and
+     * empty the list. Returns the number of pets inserted or updated.
+     */
+    private int applyUpserts(PetStore store, ArrayList<ContentValues> upserts)
+        {
+            if (upserts.isEmpty())
+                {
+                    return 0;
+                }
+
+            int[] outcomes = new int[upserts.size()];
+            store.upsert(upserts.toArray(new ContentValues[upserts.size()]), outcomes);
+            upserts.clear();
+
+            int rowsInserted = 0;
+            int rowsUpdated = 0;
+            for (int outcome : outcomes)
+                {
+                    if (outcome == PetStore.UPSERT_INSERTED)
+                        {
+                            rowsInserted++;
+                        }
+                    else if (outcome == PetStore.UPSERT_UPDATED)
+                        {
+                            rowsUpdated++;
+                        }
+                }
+            if (rowsInserted != 0)
+                {
+                    notifyChange(PetContract.PetsEntry.CONTENT_URI, PetContract.CHANGE_INSERT);
+                }
+            if (rowsUpdated != 0)
+                {
+                    notifyChange(PetContract.PetsEntry.CONTENT_URI, PetContract.CHANGE_UPDATE);
+                }
+            return rowsInserted + rowsUpdated;
+        }
+
     /**
      * Implement this to handle requests to delete one or more rows.
      * The implementation should apply the selection clause when performing
@@ -336,52 +1492,86 @@ public class PetProvider extends ContentProvider {
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
 
-        // Get writable DB
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int match = sUriMatcher.match(uri);
 
-        // Track the number of rows that were deleted
+        long start = mMetrics.start();
         int rowsDeleted;
+        mStoreLock.readLock().lock();
+        try
+            {
+                rowsDeleted = deletePets(match, uri, selection, selectionArgs);
+            }
+        catch (RuntimeException e)
+            {
+                mMetrics.recordFailure(ProviderMetrics.OPERATION_DELETE, metricsUri(match), start);
+                throw e;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
+            }
+        mMetrics.record(ProviderMetrics.OPERATION_DELETE, metricsUri(match), rowsDeleted, start);
+        return rowsDeleted;
+    }
 
-        int match = sUriMatcher.match(uri);
+    /**
+     * Delete the pets at the given URI, which the URI matcher matched to the given code.
+     */
+    private int deletePets(int match, Uri uri, String selection, String[] selectionArgs) {
+
+        // The engine the pets are stored in
+        PetStore store = getStore();
+
+        // Track the number of rows that were deleted
+        int rowsDeleted;
 
         switch (match)
             {
                 case PETS:
-                    // Delete all rows that match the selection and selection args
-                    rowsDeleted = db.delete(PetContract.PetsEntry.TABLE_PET_NAME,selection, selectionArgs);
+                    // Delete all rows that match the selection and selection args, or every row
+                    // if there is no selection. A large delete runs in chunks, so if it fails
+                    // partway some pets may be gone already, and none of the cached ones can be
+                    // trusted. The listeners are only told about a delete that went through.
+                    try
+                        {
+                            rowsDeleted = store.delete(selection, selectionArgs);
+                        }
+                    catch (RuntimeException e)
+                        {
+                            mRowCache.invalidateAll();
+                            throw e;
+                        }
                     if(rowsDeleted != 0 )
                         {
-                            getContext().getContentResolver().notifyChange(uri, null);
+                            // Any cached pet may be gone now
+                            mRowCache.invalidateAll();
+                            notifyChange(uri, PetContract.CHANGE_DELETE);
                         }
                     return rowsDeleted;
                 case PETS_ID:
                     // Delete a single row given by the ID in the URI
-                    selection = PetContract.PetsEntry._ID + "=?";
-                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                    rowsDeleted = db.delete(PetContract.PetsEntry.TABLE_PET_NAME, selection, selectionArgs);
+                    long id = ContentUris.parseId(uri);
+                    rowsDeleted = store.deleteById(id);
+                    mRowCache.invalidate(id);
                     if(rowsDeleted != 0 )
                         {
-                            getContext().getContentResolver().notifyChange(uri, null);
+                            notifyChange(uri, PetContract.CHANGE_DELETE);
                         }
                     return rowsDeleted;
+                case PETS_CHANGES:
+                    // Journal entries that are no longer needed, which no listener cares about
+                    return store.deleteChanges(selection, selectionArgs);
                 default:
                     throw new IllegalArgumentException("Delete is not supported for " + uri);
             }
     }
 
     /**
-     * Update pets in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
-     * Return the number of rows that were successfully updated.
+     * Check the values a pet is to be updated with, which only have to hold the columns being
+     * changed.
      */
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+    private void validatePetUpdate(ContentValues values)
         {
-            // If there are no values to update, then don't try to update the database
-            if (values.size() == 0)
-                {
-                    return 0;
-                }
-
             // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
             // check that the name value is not null.
             if (values.containsKey(PetContract.PetsEntry.COLUMN_PET_NAME))
@@ -418,24 +1608,84 @@ public class PetProvider extends ContentProvider {
                             throw new IllegalArgumentException("Please input the breed of the pet");
                         }
                 }
+        }
+
+    /**
+     * Update the single pet whose ID ends the given URI with the given content values. Return
+     * the number of rows that were successfully updated.
+     */
+    private int updatePet(Uri uri, ContentValues values)
+        {
+            // If there are no values to update, then don't try to update the database
+            if (values.size() == 0)
+                {
+                    return 0;
+                }
+            validatePetUpdate(values);
 
-            // Otherwise, get writeable database to update the data
-            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            // Perform the update and get the number of rows affected
+            long id = ContentUris.parseId(uri);
+            int rowsUpdated = getStore().updateById(id, values);
 
-            // Perform the update on the DB and get the number of rows affected
-            int rowsUpdated = db.update(PetContract.PetsEntry.TABLE_PET_NAME, values, selection, selectionArgs);
+            // Drop the cached copy of the updated pet
+            mRowCache.invalidate(id);
 
-            // If 1 or more rows were updated, then notify all listeners that the data at the
-            // given URI has changed
+            // If the row was updated, then notify all listeners that the data at the given URI
+            // has changed
             if(rowsUpdated != 0)
                 {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri, PetContract.CHANGE_UPDATE);
                 }
 
             // Return the number of rows updated
             return rowsUpdated;
         }
 
+    /**
+     * Update every pet that matches the selection and selection arguments with the given content
+     * values, such as setting the weight of every pet of a breed. The values are checked once
+     * for the whole set, which is changed by a single UPDATE in one transaction, and listeners
+     * are notified once after it commits. Return the number of rows that were updated.
+     */
+    private int updateMatchingPets(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+        {
+            // If there are no values to update, then don't try to update the database
+            if (values.size() == 0)
+                {
+                    return 0;
+                }
+            validatePetUpdate(values);
+
+            // The engine the pets are stored in
+            PetStore store = getStore();
+
+            int rowsUpdated;
+            boolean successful = false;
+            store.beginTransaction();
+            mNotifier.beginTransaction();
+            mRowCache.beginTransaction();
+            try
+                {
+                    rowsUpdated = store.update(values, selection, selectionArgs);
+                    if (rowsUpdated != 0)
+                        {
+                            // Any cached pet may have changed
+                            mRowCache.invalidateAll();
+                            notifyChange(uri, PetContract.CHANGE_UPDATE);
+                        }
+                    store.setTransactionSuccessful();
+                    successful = true;
+                }
+            finally
+                {
+                    store.endTransaction();
+                    mNotifier.endTransaction(successful);
+                    mRowCache.endTransaction();
+                }
+
+            return rowsUpdated;
+        }
+
     /**
      * Implement this to handle requests to update one or more rows.
      * The implementation should update all rows matching the selection
@@ -456,17 +1706,41 @@ public class PetProvider extends ContentProvider {
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
 
         final int match = sUriMatcher.match(uri);
+
+        long start = mMetrics.start();
+        int rowsUpdated;
+        mStoreLock.readLock().lock();
+        try
+            {
+                rowsUpdated = updatePets(match, uri, values, selection, selectionArgs);
+            }
+        catch (RuntimeException e)
+            {
+                mMetrics.recordFailure(ProviderMetrics.OPERATION_UPDATE, metricsUri(match), start);
+                throw e;
+            }
+        finally
+            {
+                mStoreLock.readLock().unlock();
+            }
+        mMetrics.record(ProviderMetrics.OPERATION_UPDATE, metricsUri(match), rowsUpdated, start);
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the pets at the given URI, which the URI matcher matched to the given code.
+     */
+    private int updatePets(int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
         switch (match)
             {
                 case PETS:
-                    return update(uri, values, selection, selectionArgs);
+                    // For the PETS code, update every pet the selection matches at once
+                    return updateMatchingPets(uri, values, selection, selectionArgs);
                 case PETS_ID:
-                    // For the PET_ID code, extract out the ID from the URI,
-                    // so we know which row to update. Selection will be "_id=?" and selection
-                    // arguments will be a String array containing the actual ID
-                    selection = PetContract.PetsEntry._ID + "=?";
-                    selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                    return updatePet(uri, values, selection, selectionArgs);
+                    // For the PET_ID code, the pet to update is the one whose ID ends the URI.
+                    // updatePet() reads it from there, so there's no selection to build.
+                    return updatePet(uri, values);
                 default:
                     throw new IllegalArgumentException("Update is not supported for " + uri);
             }
@@ -0,0 +1,354 @@
+package com.example.android.pets.data;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the most recently read pets in memory, keyed by _id, so that looking the same pet up
+ * again doesn't go back to the database. The cache is bounded by an estimate of the memory its
+ * rows take up, and shrinks when the system runs low on memory.
+ * <p>
+ * Every write has to invalidate the rows it touches. A row read from the database is only
+ * cached if nothing was invalidated while it was being read, so a read racing with a write can
+ * never put an outdated row back. Writes inside a transaction are invalidated again once the
+ * transaction ends, since a reader may have seen the old row until the commit.
+ */
+class PetRowCache {
+
+    /* Estimated memory taken by a cached row besides its values, and by each value */
+    private static final int ROW_OVERHEAD_BYTES = 64;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    /**
+     * Returns the default bound on the memory used by the cache: 1/256th of the heap.
+     */
+    static int defaultMaxBytes()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 256);
+        }
+
+    /**
+     * A copy of every column of a pet.
+     */
+    static final class Row
+        {
+            final String[] columnNames;
+            final Object[] values;
+            final int sizeBytes;
+
+            private Row(String[] columnNames, Object[] values)
+                {
+                    this.columnNames = columnNames;
+                    this.values = values;
+
+                    int size = ROW_OVERHEAD_BYTES;
+                    for (Object value : values)
+                        {
+                            size += VALUE_OVERHEAD_BYTES;
+                            if (value instanceof String)
+                                {
+                                    size += 2 * ((String) value).length();
+                                }
+                            else if (value instanceof byte[])
+                                {
+                                    size += ((byte[]) value).length;
+                                }
+                        }
+                    sizeBytes = size;
+                }
+
+            /**
+             * Copy the row the given cursor is on.
+             */
+            static Row fromCursor(Cursor cursor)
+                {
+                    String[] columnNames = cursor.getColumnNames();
+                    Object[] values = new Object[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++)
+                        {
+                            switch (cursor.getType(i))
+                                {
+                                    case Cursor.FIELD_TYPE_INTEGER:
+                                        values[i] = cursor.getLong(i);
+                                        break;
+                                    case Cursor.FIELD_TYPE_FLOAT:
+                                        values[i] = cursor.getDouble(i);
+                                        break;
+                                    case Cursor.FIELD_TYPE_STRING:
+                                        values[i] = cursor.getString(i);
+                                        break;
+                                    case Cursor.FIELD_TYPE_BLOB:
+                                        values[i] = cursor.getBlob(i);
+                                        break;
+                                    default:
+                                        values[i] = null;
+                                        break;
+                                }
+                        }
+                    return new Row(columnNames, values);
+                }
+
+            /**
+             * Returns whether every entry of the given projection is a column of this row, so
+             * {@link #toCursor(String[])} can answer it. A projection holding expressions, such
+             * as {@code COUNT(*)} or {@code name || breed}, has to go to the store.
+             */
+            boolean hasColumns(String[] projection)
+                {
+                    if (projection == null)
+                        {
+                            return true;
+                        }
+                    for (String column : projection)
+                        {
+                            if (findColumnIndex(column) < 0)
+                                {
+                                    return false;
+                                }
+                        }
+                    return true;
+                }
+
+            /**
+             * Returns a cursor holding this row, with the given columns, or every column if
+             * the projection is null.
+             */
+            Cursor toCursor(String[] projection)
+                {
+                    if (projection == null)
+                        {
+                            projection = columnNames;
+                        }
+
+                    Object[] projectedValues = new Object[projection.length];
+                    for (int i = 0; i < projection.length; i++)
+                        {
+                            projectedValues[i] = values[getColumnIndex(projection[i])];
+                        }
+
+                    MatrixCursor cursor = new MatrixCursor(projection, 1);
+                    cursor.addRow(projectedValues);
+                    return cursor;
+                }
+
+            private int getColumnIndex(String columnName)
+                {
+                    int index = findColumnIndex(columnName);
+                    if (index < 0)
+                        {
+                            throw new IllegalArgumentException("No such column: " + columnName);
+                        }
+                    return index;
+                }
+
+            private int findColumnIndex(String columnName)
+                {
+                    for (int i = 0; i < columnNames.length; i++)
+                        {
+                            if (columnNames[i].equals(columnName))
+                                {
+                                    return i;
+                                }
+                        }
+                    return -1;
+                }
+        }
+
+    /* The cached rows, bounded by their estimated size in bytes */
+    private final LruCache<Long, Row> mCache;
+
+    /* Guards mGeneration and the pending invalidations */
+    private final Object mLock = new Object();
+
+    /* Goes up on every invalidation, so reads that raced with one don't get cached */
+    private long mGeneration;
+
+    /* The invalidations of the transaction running on the current thread, if any */
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    /* Whether rows are cached at all */
+    private volatile boolean mEnabled = true;
+
+    /**
+     * The rows invalidated by one transaction. Transactions can be nested; the rows are only
+     * invalidated again by the outermost one.
+     */
+    private static class Transaction
+        {
+            final ArrayList<Long> ids = new ArrayList<>();
+            boolean all;
+            int depth;
+        }
+
+    PetRowCache(int maxBytes)
+        {
+            mCache = new LruCache<Long, Row>(maxBytes) {
+                @Override
+                protected int sizeOf(Long key, Row row) {
+                    return row.sizeBytes;
+                }
+            };
+        }
+
+    /**
+     * Turn caching on or off. Turning it off empties the cache.
+     */
+    void setEnabled(boolean enabled)
+        {
+            mEnabled = enabled;
+            if (!enabled)
+                {
+                    invalidateAll();
+                }
+        }
+
+    boolean isEnabled()
+        {
+            return mEnabled;
+        }
+
+    /**
+     * Returns the cached row of the pet with the given ID, or null if it isn't cached.
+     */
+    Row get(long id)
+        {
+            return mEnabled ? mCache.get(id) : null;
+        }
+
+    /**
+     * Returns the current generation, to be passed to {@link #put(long, Row)} along with the
+     * row read after calling this.
+     */
+    long getGeneration()
+        {
+            synchronized (mLock)
+                {
+                    return mGeneration;
+                }
+        }
+
+    /**
+     * Cache the given row, unless something got invalidated since the given generation.
+     */
+    void put(long generation, Row row)
+        {
+            synchronized (mLock)
+                {
+                    if (mEnabled && generation == mGeneration)
+                        {
+                            long id = (Long) row.values[row.getColumnIndex(PetContract.PetsEntry._ID)];
+                            mCache.put(id, row);
+                        }
+                }
+        }
+
+    /**
+     * Drop the row of the pet with the given ID.
+     */
+    void invalidate(long id)
+        {
+            synchronized (mLock)
+                {
+                    mGeneration++;
+                    mCache.remove(id);
+                }
+
+            Transaction transaction = mTransaction.get();
+            if (transaction != null)
+                {
+                    transaction.ids.add(id);
+                }
+        }
+
+    /**
+     * Drop every row, for writes that can touch any number of pets.
+     */
+    void invalidateAll()
+        {
+            synchronized (mLock)
+                {
+                    mGeneration++;
+                    mCache.evictAll();
+                }
+
+            Transaction transaction = mTransaction.get();
+            if (transaction != null)
+                {
+                    transaction.all = true;
+                }
+        }
+
+    /**
+     * Start recording the invalidations of the current thread, to repeat them once the matching
+     * {@link #endTransaction()} is reached.
+     */
+    void beginTransaction()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    transaction = new Transaction();
+                    mTransaction.set(transaction);
+                }
+            transaction.depth++;
+        }
+
+    /**
+     * End a transaction started with {@link #beginTransaction()}. When the outermost transaction
+     * ends, whether it committed or not, everything it invalidated is invalidated again.
+     */
+    void endTransaction()
+        {
+            Transaction transaction = mTransaction.get();
+            if (transaction == null)
+                {
+                    throw new IllegalStateException("No transaction to end");
+                }
+            if (--transaction.depth > 0)
+                {
+                    return;
+                }
+            mTransaction.remove();
+
+            if (transaction.all)
+                {
+                    invalidateAll();
+                }
+            else
+                {
+                    for (long id : transaction.ids)
+                        {
+                            invalidate(id);
+                        }
+                }
+        }
+
+    /**
+     * Shrink the cache as the system asks apps to release memory.
+     */
+    void trimMemory(int level)
+        {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+                {
+                    mCache.evictAll();
+                }
+            else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+                {
+                    mCache.trimToSize(mCache.maxSize() / 2);
+                }
+        }
+
+    int getHitCount()
+        {
+            return mCache.hitCount();
+        }
+
+    int getMissCount()
+        {
+            return mCache.missCount();
+        }
+}
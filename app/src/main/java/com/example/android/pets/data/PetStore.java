@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The storage engine beneath {@link PetProvider}: reads and writes the rows of the pets table.
+ * The provider takes care of matching URIs, validating pets, caching and notifying listeners,
+ * and leaves storing the rows to the engine.
+ * <p>
+ * Selections, selection arguments and sort orders follow the SQL syntax of the pets table, as
+ * they do for {@link android.database.sqlite.SQLiteDatabase#query}. An engine that can't run a
+ * given selection or sort order throws an {@link IllegalArgumentException}.
+ */
+interface PetStore {
+
+    /* What an upsert did with a pet */
+    int UPSERT_FAILED = -1;
+    int UPSERT_UNCHANGED = 0;
+    int UPSERT_INSERTED = 1;
+    int UPSERT_UPDATED = 2;
+
+    /**
+     * Query the pets table, returning a cursor over the matching rows.
+     *
+     * @param limit the most rows to return, or {@code null} for all of them
+     */
+    Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit);
+
+    /**
+     * Query the pet with the given _id, returning a cursor over at most one row.
+     */
+    Cursor queryById(long id, String[] projection);
+
+    /**
+     * Query the pets whose name or breed matches every word of the given search text, as a
+     * prefix, and that also match the selection.
+     */
+    Cursor search(String text, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit);
+
+    /**
+     * Returns how the engine runs {@link #query}, or {@link #search} if search text is given,
+     * with the same arguments, one step per line, in the words of SQLite's EXPLAIN QUERY PLAN.
+     * No pets are read.
+     */
+    String explainQuery(String searchText, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit);
+
+    /**
+     * Query the statistics of the pets table described by {@link PetContract.PetStatsEntry}.
+     * They are kept up to date as pets change, so this costs the same however many pets there are.
+     */
+    Cursor queryStats(String[] projection, String selection, String[] selectionArgs, String sortOrder);
+
+    /**
+     * Query the change journal described by {@link PetContract.PetChangesEntry}: the entries
+     * after the given sequence number, oldest first, each with the columns of its pet as the
+     * pet is now.
+     *
+     * @param limit the most entries to return, or {@code null} for all of them
+     */
+    Cursor queryChanges(String[] projection, long afterSequence, String limit);
+
+    /**
+     * Returns the sequence number of the latest change written to the journal, whether or not
+     * it has been deleted since, or 0 if there has been none.
+     */
+    long getLastChangeSequence();
+
+    /**
+     * Delete the journal entries that match the selection, returning the number deleted.
+     */
+    int deleteChanges(String selection, String[] selectionArgs);
+
+    /**
+     * Copy the database the pets are kept in to the given file, as it was at one moment, while
+     * other threads go on reading and writing. The copy goes {@code stepPages} pages at a time
+     * with a pause of {@code stepPauseMillis} in between. Returns the number of pages copied.
+     */
+    long backup(File destination, int stepPages, long stepPauseMillis) throws IOException;
+
+    /**
+     * Put every pet back the way it was in a copy made by {@link #backup}. No other thread may
+     * use the engine meanwhile, which {@link PetProvider} sees to. The change journal starts
+     * over with a clear and an insert of every pet, numbered after every change made before,
+     * so the next sync sends the pets as they were restored.
+     */
+    void restore(File source) throws IOException;
+
+    /**
+     * Hand the space of deleted pets in the database back to the file system. The first time,
+     * a database from before incremental auto-vacuum is rewritten whole to switch to it, which
+     * takes long and holds the write lock, so this is maintenance for a background thread.
+     */
+    void compact();
+
+    /**
+     * Insert a pet, returning its new _id, or -1 if it couldn't be inserted.
+     */
+    long insert(ContentValues values);
+
+    /**
+     * Insert all of the given pets in one transaction, returning the new _id of each of them,
+     * or -1 for a pet that couldn't be inserted. Only the name, breed, gender, weight and
+     * microchip are read from the values.
+     */
+    long[] bulkInsert(ContentValues[] values);
+
+    /**
+     * Insert or update all of the given pets in one transaction, matching them on their
+     * microchip: a pet whose microchip another pet already has updates that pet's name, breed,
+     * gender and weight, and any other pet is inserted. Each pet costs at most one write, and
+     * none if it's already the same. Returns the _id of each pet, or -1 for a pet that couldn't
+     * be written, and puts what happened with each pet into {@code outcomes}, as one of
+     * {@link #UPSERT_INSERTED}, {@link #UPSERT_UPDATED}, {@link #UPSERT_UNCHANGED} or
+     * {@link #UPSERT_FAILED}.
+     */
+    long[] upsert(ContentValues[] values, int[] outcomes);
+
+    /**
+     * Update the pets that match the selection, returning the number of rows updated.
+     */
+    int update(ContentValues values, String selection, String[] selectionArgs);
+
+    /**
+     * Update the pet with the given _id, returning the number of rows updated, 0 or 1.
+     */
+    int updateById(long id, ContentValues values);
+
+    /**
+     * Delete the pets that match the selection, returning the number of rows deleted. A null
+     * selection deletes every pet. Outside a transaction, an engine may delete a large set of
+     * pets in several smaller transactions, so other threads get to read and write in between;
+     * if such a delete fails partway, the pets deleted before the failure stay deleted.
+     */
+    int delete(String selection, String[] selectionArgs);
+
+    /**
+     * Delete the pet with the given _id, returning the number of rows deleted, 0 or 1.
+     */
+    int deleteById(long id);
+
+    /**
+     * Start a transaction on the current thread. Transactions can be nested; the writes only
+     * take effect if every level was marked successful.
+     */
+    void beginTransaction();
+
+    /**
+     * Mark the innermost transaction of the current thread as successful.
+     */
+    void setTransactionSuccessful();
+
+    /**
+     * End the innermost transaction of the current thread, rolling back the outermost one if
+     * any level wasn't marked successful.
+     */
+    void endTransaction();
+}
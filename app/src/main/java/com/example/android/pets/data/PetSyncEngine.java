@@ -0,0 +1,319 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps the pets of this device in step with other shelter devices through a server, sending
+ * and receiving only what changed rather than the whole pets table.
+ * <p>
+ * A push reads the change journal of {@link PetChangesEntry} from where the last push stopped,
+ * turns each page of it into a batch of changes, and sends the batch, compressed, through the
+ * {@link Transport}. A pet changed several times in a page is sent once, as it is now. Once the
+ * server has a batch, its journal entries are deleted. A pull fetches the batches the server
+ * stored after the last one pulled and applies each of them in one transaction through
+ * {@link PetContract#METHOD_APPLY_CHANGES}.
+ * <p>
+ * Pets are matched across devices on their microchip; pets without one stay on the device they
+ * are on. The server keeps every batch in the order it got them, and every device applies them
+ * in that order, its own included, so all devices end up with the same pets. A pet with changes
+ * that haven't been pushed yet keeps them when it's pulled, since they will come after anything
+ * already on the server.
+ */
+public class PetSyncEngine {
+
+    /**
+     * Carries batches to and from the server. A batch is opaque to the transport; the server
+     * only has to store the batches pushed to it, in order, and hand them out again.
+     */
+    public interface Transport
+        {
+            /**
+             * Store the given batch on the server, after every batch it has already. The
+             * sequence number of the last journal entry in the batch is given along, and only
+             * goes up from one push of a device to the next, so the server can drop a batch it
+             * already has when a device sends it again after not hearing back.
+             */
+            void push(String deviceId, long lastSequence, byte[] batch) throws IOException;
+
+            /**
+             * Returns at most the given number of batches the server stored after the given
+             * position, oldest first, or an empty list if there are none.
+             */
+            List<Batch> pull(long afterPosition, int maxBatches) throws IOException;
+        }
+
+    /**
+     * A batch of changes as stored by the server, at its position in the order of all batches.
+     */
+    public static final class Batch
+        {
+            public final long position;
+            public final byte[] data;
+
+            public Batch(long position, byte[] data)
+                {
+                    this.position = position;
+                    this.data = data;
+                }
+        }
+
+    /**
+     * What a sync did, once it's done.
+     */
+    public static final class Result
+        {
+            public final long changesPushed;
+            public final long bytesPushed;
+            public final long changesPulled;
+            public final long bytesPulled;
+
+            Result(long changesPushed, long bytesPushed, long changesPulled, long bytesPulled)
+                {
+                    this.changesPushed = changesPushed;
+                    this.bytesPushed = bytesPushed;
+                    this.changesPulled = changesPulled;
+                    this.bytesPulled = bytesPulled;
+                }
+        }
+
+    /* Name of the preferences the position of the sync is kept in */
+    private static final String PREFERENCES_NAME = "pet_sync";
+
+    /* Keys of the preferences */
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_PUSHED_SEQUENCE = "pushed_sequence";
+    private static final String KEY_PULLED_POSITION = "pulled_position";
+
+    /* Number of journal entries read, and pushed as one batch, unless configured */
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /* Number of batches fetched with one pull from the server */
+    private static final int BATCHES_PER_PULL = 16;
+
+    /* The columns of the journal a push reads */
+    private static final String[] JOURNAL_COLUMNS = {
+            PetChangesEntry.COLUMN_SEQUENCE,
+            PetChangesEntry.COLUMN_PET_ID,
+            PetChangesEntry.COLUMN_CHANGE,
+            PetChangesEntry.COLUMN_OLD_MICROCHIP,
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    /* The resolver the journal is read and the pulled changes applied through */
+    private final ContentResolver mResolver;
+
+    /* Where the device ID and the position of the sync are kept */
+    private final SharedPreferences mPreferences;
+
+    private final Transport mTransport;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    public PetSyncEngine(Context context, Transport transport)
+        {
+            mResolver = context.getContentResolver();
+            mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            mTransport = transport;
+        }
+
+    /**
+     * Set the number of journal entries pushed as one batch.
+     */
+    public void setBatchSize(int batchSize)
+        {
+            if (batchSize <= 0)
+                {
+                    throw new IllegalArgumentException("Batch size must be positive");
+                }
+            mBatchSize = batchSize;
+        }
+
+    /**
+     * Returns the ID this device pushes its batches under, made up the first time it's needed.
+     */
+    public synchronized String getDeviceId()
+        {
+            String deviceId = mPreferences.getString(KEY_DEVICE_ID, null);
+            if (deviceId == null)
+                {
+                    deviceId = UUID.randomUUID().toString();
+                    mPreferences.edit().putString(KEY_DEVICE_ID, deviceId).commit();
+                }
+            return deviceId;
+        }
+
+    /**
+     * Push what changed here, then pull what changed elsewhere. Pushing first means the pull
+     * brings back this device's own changes in their place among everyone else's.
+     */
+    public synchronized Result sync() throws IOException
+        {
+            Result pushed = push();
+            Result pulled = pull();
+            return new Result(pushed.changesPushed, pushed.bytesPushed, pulled.changesPulled, pulled.bytesPulled);
+        }
+
+    /**
+     * Push every change in the journal to the server, a batch at a time.
+     */
+    public synchronized Result push() throws IOException
+        {
+            String deviceId = getDeviceId();
+            long pushedSequence = mPreferences.getLong(KEY_PUSHED_SEQUENCE, 0);
+            long changesPushed = 0;
+            long bytesPushed = 0;
+            while (true)
+                {
+                    ArrayList<ContentValues> changes = new ArrayList<>();
+                    long lastSequence = readChanges(pushedSequence, changes);
+                    if (lastSequence == pushedSequence)
+                        {
+                            return new Result(changesPushed, bytesPushed, 0, 0);
+                        }
+
+                    if (!changes.isEmpty())
+                        {
+                            byte[] batch = PetDeltaCodec.encode(changes);
+                            mTransport.push(deviceId, lastSequence, batch);
+                            changesPushed += changes.size();
+                            bytesPushed += batch.length;
+                        }
+
+                    // The server has the batch, so its entries aren't needed any more
+                    pushedSequence = lastSequence;
+                    mPreferences.edit().putLong(KEY_PUSHED_SEQUENCE, pushedSequence).commit();
+                    mResolver.delete(PetChangesEntry.CONTENT_URI, PetChangesEntry.COLUMN_SEQUENCE + "<=?",
+                            new String[] {String.valueOf(pushedSequence)});
+                }
+        }
+
+    /**
+     * Read a page of the journal after the given sequence number into the given list of
+     * changes, and return the sequence number of the last entry read, or the given one if
+     * there are none.
+     * <p>
+     * Every entry but a delete is sent as the pet is now, once, where the page last mentions
+     * the pet, so it comes after whatever else happened to its microchip before. A pet whose
+     * microchip changed gets the old one deleted where it changed. A clear makes everything
+     * before it in the page moot.
+     */
+    private long readChanges(long afterSequence, ArrayList<ContentValues> changes)
+        {
+            Cursor cursor = mResolver.query(PetChangesEntry.buildPageUri(afterSequence, mBatchSize),
+                    JOURNAL_COLUMNS, null, null, null);
+            try
+                {
+                    // Where the page last mentions each pet
+                    HashMap<Long, Integer> lastPositions = new HashMap<>();
+                    while (cursor.moveToNext())
+                        {
+                            if (!cursor.isNull(1))
+                                {
+                                    lastPositions.put(cursor.getLong(1), cursor.getPosition());
+                                }
+                        }
+
+                    long lastSequence = afterSequence;
+                    cursor.moveToPosition(-1);
+                    while (cursor.moveToNext())
+                        {
+                            lastSequence = cursor.getLong(0);
+                            String change = cursor.getString(2);
+                            String oldMicrochip = cursor.getString(3);
+                            boolean petExists = !cursor.isNull(4);
+                            String microchip = petExists ? cursor.getString(9) : null;
+
+                            if (PetChangesEntry.CHANGE_CLEAR.equals(change))
+                                {
+                                    changes.clear();
+                                    changes.add(newChange(PetChangesEntry.CHANGE_CLEAR, null));
+                                    continue;
+                                }
+                            if (oldMicrochip != null && !oldMicrochip.equals(microchip))
+                                {
+                                    changes.add(newChange(PetContract.CHANGE_DELETE, oldMicrochip));
+                                }
+                            if (PetContract.CHANGE_DELETE.equals(change) || !petExists || microchip == null ||
+                                    lastPositions.get(cursor.getLong(1)) != cursor.getPosition())
+                                {
+                                    continue;
+                                }
+
+                            ContentValues pet = newChange(PetContract.CHANGE_UPDATE, microchip);
+                            pet.put(PetsEntry.COLUMN_PET_NAME, cursor.getString(5));
+                            pet.put(PetsEntry.COLUMN_PET_BREED, cursor.isNull(6) ? null : cursor.getString(6));
+                            pet.put(PetsEntry.COLUMN_PET_GENDER, cursor.getInt(7));
+                            pet.put(PetsEntry.COLUMN_PET_WEIGHT, cursor.getInt(8));
+                            changes.add(pet);
+                        }
+                    return lastSequence;
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    private static ContentValues newChange(String change, String microchip)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetChangesEntry.COLUMN_CHANGE, change);
+            if (microchip != null)
+                {
+                    values.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip);
+                }
+            return values;
+        }
+
+    /**
+     * Pull every batch the server got since the last pull, and apply each of them in one
+     * transaction. A batch is applied before the position after it is kept, so a batch may be
+     * applied twice if the app stops in between, which changes nothing the second time.
+     */
+    public synchronized Result pull() throws IOException
+        {
+            long pulledPosition = mPreferences.getLong(KEY_PULLED_POSITION, 0);
+            long changesPulled = 0;
+            long bytesPulled = 0;
+            while (true)
+                {
+                    List<Batch> batches = mTransport.pull(pulledPosition, BATCHES_PER_PULL);
+                    if (batches.isEmpty())
+                        {
+                            return new Result(0, 0, changesPulled, bytesPulled);
+                        }
+
+                    for (Batch batch : batches)
+                        {
+                            ArrayList<ContentValues> changes = PetDeltaCodec.decode(batch.data);
+                            Bundle extras = new Bundle();
+                            extras.putParcelableArrayList(PetChangesEntry.KEY_CHANGES, changes);
+                            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_APPLY_CHANGES, null, extras);
+
+                            changesPulled += changes.size();
+                            bytesPulled += batch.data.length;
+                            pulledPosition = batch.position;
+                            mPreferences.edit().putLong(KEY_PULLED_POSITION, pulledPosition).commit();
+                        }
+                }
+        }
+}
@@ -0,0 +1,245 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs inserts, updates and deletes of pets off the main thread. Writes are queued and run by
+ * a single background thread, in the order they were queued. Every write that piles up while
+ * the thread is busy gets applied together in one transaction, through
+ * {@link PetProvider#applyBatch}. Each caller hears back on the main thread once its write is
+ * done.
+ */
+public class PetWriteQueue {
+
+    /* Tag for the Log Message */
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /* The most writes applied in one transaction */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Called on the main thread once a queued write is done.
+     */
+    public interface Callback
+        {
+            /**
+             * @param result the result of the write: the new pet's URI for an insert, or the
+             *               number of rows affected for an update or delete. {@code null} if
+             *               the write failed.
+             */
+            void onWriteFinished(@Nullable ContentProviderResult result);
+        }
+
+    /* The one queue of the app, so every write goes through the same thread */
+    private static PetWriteQueue sInstance;
+
+    /* The resolver the writes are applied through */
+    private final ContentResolver mResolver;
+
+    /* Runs the writes, one batch at a time */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    /* Delivers the results to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Guards mPending and mDrainScheduled */
+    private final Object mLock = new Object();
+
+    /* Writes waiting for the background thread */
+    private ArrayList<PendingWrite> mPending = new ArrayList<>();
+
+    /* Whether the background thread has been asked to apply the pending writes */
+    private boolean mDrainScheduled;
+
+    /**
+     * A queued write and whoever should hear back about it.
+     */
+    private static class PendingWrite
+        {
+            final ContentProviderOperation operation;
+            final Callback callback;
+
+            PendingWrite(ContentProviderOperation operation, Callback callback)
+                {
+                    this.operation = operation;
+                    this.callback = callback;
+                }
+        }
+
+    /* Applies the pending writes until there are none left */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try
+                {
+                    while (true)
+                        {
+                            ArrayList<PendingWrite> batch;
+                            synchronized (mLock)
+                                {
+                                    if (mPending.isEmpty())
+                                        {
+                                            return;
+                                        }
+                                    batch = mPending;
+                                    mPending = new ArrayList<>();
+                                }
+
+                            for (int start = 0; start < batch.size(); start += MAX_BATCH_SIZE)
+                                {
+                                    apply(batch.subList(start, Math.min(start + MAX_BATCH_SIZE, batch.size())));
+                                }
+                        }
+                }
+            finally
+                {
+                    // However the drain ends, the next write has to schedule another one
+                    synchronized (mLock)
+                        {
+                            mDrainScheduled = false;
+                            if (!mPending.isEmpty())
+                                {
+                                    mDrainScheduled = true;
+                                    mExecutor.execute(mDrainRunnable);
+                                }
+                        }
+                }
+        }
+    };
+
+    /* Package-private so tests can have a queue of their own */
+    PetWriteQueue(Context context)
+        {
+            mResolver = context.getContentResolver();
+        }
+
+    /**
+     * Returns the write queue of the app.
+     */
+    public static synchronized PetWriteQueue getInstance(Context context)
+        {
+            if (sInstance == null)
+                {
+                    sInstance = new PetWriteQueue(context.getApplicationContext());
+                }
+            return sInstance;
+        }
+
+    /**
+     * Queue the insertion of a new pet with the given values.
+     */
+    public void insert(ContentValues values, @Nullable Callback callback)
+        {
+            enqueue(ContentProviderOperation.newInsert(PetContract.PetsEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build(), callback);
+        }
+
+    /**
+     * Queue an update of the pet, or pets, at the given URI with the given values.
+     */
+    public void update(Uri uri, ContentValues values, @Nullable Callback callback)
+        {
+            enqueue(ContentProviderOperation.newUpdate(uri)
+                    .withValues(values)
+                    .build(), callback);
+        }
+
+    /**
+     * Queue the deletion of the pet, or pets, at the given URI.
+     */
+    public void delete(Uri uri, @Nullable Callback callback)
+        {
+            enqueue(ContentProviderOperation.newDelete(uri).build(), callback);
+        }
+
+    private void enqueue(ContentProviderOperation operation, Callback callback)
+        {
+            synchronized (mLock)
+                {
+                    mPending.add(new PendingWrite(operation, callback));
+                    if (!mDrainScheduled)
+                        {
+                            mDrainScheduled = true;
+                            mExecutor.execute(mDrainRunnable);
+                        }
+                }
+        }
+
+    /**
+     * Apply the given writes in one transaction. If the transaction fails, it has rolled back,
+     * so the writes are tried again one at a time and only the bad ones fail.
+     */
+    private void apply(final List<PendingWrite> batch)
+        {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+            for (PendingWrite write : batch)
+                {
+                    operations.add(write.operation);
+                }
+
+            ContentProviderResult[] results = applyBatch(operations);
+            if (results == null && batch.size() > 1)
+                {
+                    results = new ContentProviderResult[batch.size()];
+                    for (int i = 0; i < batch.size(); i++)
+                        {
+                            ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+                            single.add(batch.get(i).operation);
+                            ContentProviderResult[] singleResult = applyBatch(single);
+                            results[i] = singleResult == null ? null : singleResult[0];
+                        }
+                }
+
+            // Report back on the main thread
+            final ContentProviderResult[] finalResults = results;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < batch.size(); i++)
+                        {
+                            Callback callback = batch.get(i).callback;
+                            if (callback != null)
+                                {
+                                    callback.onWriteFinished(finalResults == null ? null : finalResults[i]);
+                                }
+                        }
+                }
+            });
+        }
+
+    /**
+     * Apply the given operations in one transaction, returning null if it failed. Any failure
+     * counts, whether the provider rejected a write or the database couldn't take it, such as
+     * a duplicate microchip or a full disk: the writer has to hear back either way, and the
+     * queue has to keep going.
+     */
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+        {
+            try
+                {
+                    return mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                }
+            catch (RemoteException | OperationApplicationException | RuntimeException e)
+                {
+                    Log.e(LOG_TAG, "Failed to apply " + operations.size() + " writes", e);
+                    return null;
+                }
+        }
+}
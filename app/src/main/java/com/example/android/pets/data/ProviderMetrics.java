@@ -0,0 +1,181 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.MetricsEntry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls of {@link PetProvider}, the rows they touched and how long they took, per
+ * operation and per kind of URI. Recording a call never takes a lock: every figure is a slot of
+ * one {@link AtomicLongArray}, so calls on different threads only ever race on a counter.
+ * <p>
+ * The figures of a snapshot are read one at a time, so a snapshot taken while calls are running
+ * may count a call in one figure and not yet in another.
+ */
+final class ProviderMetrics {
+
+    /* Operations, by index */
+    static final int OPERATION_QUERY = 0;
+    static final int OPERATION_INSERT = 1;
+    static final int OPERATION_BULK_INSERT = 2;
+    static final int OPERATION_UPDATE = 3;
+    static final int OPERATION_DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {
+            MetricsEntry.OPERATION_QUERY,
+            MetricsEntry.OPERATION_INSERT,
+            MetricsEntry.OPERATION_BULK_INSERT,
+            MetricsEntry.OPERATION_UPDATE,
+            MetricsEntry.OPERATION_DELETE
+    };
+
+    /* Offsets of the figures of one operation on one kind of URI, followed by the histogram */
+    private static final int CALLS = 0;
+    private static final int FAILURES = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int MAX_NANOS = 4;
+    private static final int HISTOGRAM = 5;
+    private static final int STRIDE = HISTOGRAM + MetricsEntry.LATENCY_BUCKETS;
+
+    /* Patterns of the kinds of URI, by index */
+    private final String[] mUriNames;
+
+    /* The figures of every operation on every kind of URI, STRIDE slots each */
+    private final AtomicLongArray mFigures;
+
+    /* Whether calls are recorded. Only meant to be turned off to measure what recording costs. */
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param uriNames the patterns of the kinds of URI the calls are told apart by, which are
+     *                 then given to {@link #record} by their index
+     */
+    ProviderMetrics(String[] uriNames)
+        {
+            mUriNames = uriNames;
+            mFigures = new AtomicLongArray(OPERATION_NAMES.length * uriNames.length * STRIDE);
+        }
+
+    void setEnabled(boolean enabled)
+        {
+            mEnabled = enabled;
+        }
+
+    /**
+     * Returns the time a call starts at, to pass to {@link #record} or {@link #recordFailure}
+     * once it ends.
+     */
+    long start()
+        {
+            return mEnabled ? System.nanoTime() : 0;
+        }
+
+    /**
+     * Record a call that returned, having touched the given number of rows.
+     */
+    void record(int operation, int uri, long rows, long startNanos)
+        {
+            if (!mEnabled)
+                {
+                    return;
+                }
+            int base = record(operation, uri, System.nanoTime() - startNanos);
+            mFigures.addAndGet(base + ROWS, rows);
+        }
+
+    /**
+     * Record a call that threw.
+     */
+    void recordFailure(int operation, int uri, long startNanos)
+        {
+            if (!mEnabled)
+                {
+                    return;
+                }
+            int base = record(operation, uri, System.nanoTime() - startNanos);
+            mFigures.incrementAndGet(base + FAILURES);
+        }
+
+    /**
+     * Count a call and its latency, returning where the figures of its operation and URI start.
+     */
+    private int record(int operation, int uri, long elapsedNanos)
+        {
+            int base = (operation * mUriNames.length + uri) * STRIDE;
+            mFigures.incrementAndGet(base + CALLS);
+            mFigures.addAndGet(base + TOTAL_NANOS, elapsedNanos);
+            mFigures.incrementAndGet(base + HISTOGRAM + bucket(elapsedNanos));
+
+            long max = mFigures.get(base + MAX_NANOS);
+            while (elapsedNanos > max && !mFigures.compareAndSet(base + MAX_NANOS, max, elapsedNanos))
+                {
+                    max = mFigures.get(base + MAX_NANOS);
+                }
+            return base;
+        }
+
+    /**
+     * Returns the histogram bucket of the given latency, as described by
+     * {@link MetricsEntry#KEY_LATENCY_HISTOGRAM}.
+     */
+    private static int bucket(long elapsedNanos)
+        {
+            long micros = elapsedNanos / 1000;
+            if (micros <= 0)
+                {
+                    return 0;
+                }
+            return Math.min(64 - Long.numberOfLeadingZeros(micros), MetricsEntry.LATENCY_BUCKETS - 1);
+        }
+
+    /**
+     * Set every figure back to 0.
+     */
+    void reset()
+        {
+            for (int i = 0; i < mFigures.length(); i++)
+                {
+                    mFigures.set(i, 0);
+                }
+        }
+
+    /**
+     * Returns the figures of every operation and kind of URI that was called, laid out as
+     * described by {@link MetricsEntry}.
+     */
+    Bundle toBundle()
+        {
+            Bundle metrics = new Bundle();
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++)
+                {
+                    for (int uri = 0; uri < mUriNames.length; uri++)
+                        {
+                            int base = (operation * mUriNames.length + uri) * STRIDE;
+                            long calls = mFigures.get(base + CALLS);
+                            if (calls == 0)
+                                {
+                                    continue;
+                                }
+
+                            long[] histogram = new long[MetricsEntry.LATENCY_BUCKETS];
+                            for (int i = 0; i < histogram.length; i++)
+                                {
+                                    histogram[i] = mFigures.get(base + HISTOGRAM + i);
+                                }
+
+                            Bundle figures = new Bundle();
+                            figures.putLong(MetricsEntry.KEY_CALLS, calls);
+                            figures.putLong(MetricsEntry.KEY_FAILURES, mFigures.get(base + FAILURES));
+                            figures.putLong(MetricsEntry.KEY_ROWS, mFigures.get(base + ROWS));
+                            figures.putLong(MetricsEntry.KEY_TOTAL_NANOS, mFigures.get(base + TOTAL_NANOS));
+                            figures.putLong(MetricsEntry.KEY_MAX_NANOS, mFigures.get(base + MAX_NANOS));
+                            figures.putLongArray(MetricsEntry.KEY_LATENCY_HISTOGRAM, histogram);
+                            metrics.putBundle(OPERATION_NAMES[operation] + " " + mUriNames[uri], figures);
+                        }
+                }
+            return metrics;
+        }
+}
@@ -0,0 +1,104 @@
+package com.example.android.pets.data;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.SlowQueryEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest queries of {@link PetProvider} that took at least a threshold, in a ring
+ * buffer of {@link SlowQueryEntry#MAX_SLOW_QUERIES} entries, so the oldest one makes way for a
+ * new one. Checking whether a query is slow takes no lock, so fast queries don't pay for the log.
+ */
+final class SlowQueryLog {
+
+    /**
+     * A logged query.
+     */
+    private static final class Entry
+        {
+            final Uri uri;
+            final String selection;
+            final String sortOrder;
+            final int rows;
+            final long elapsedNanos;
+            final long timeMillis;
+            final String queryPlan;
+
+            Entry(Uri uri, String selection, String sortOrder, int rows, long elapsedNanos, String queryPlan)
+                {
+                    this.uri = uri;
+                    this.selection = selection;
+                    this.sortOrder = sortOrder;
+                    this.rows = rows;
+                    this.elapsedNanos = elapsedNanos;
+                    this.timeMillis = System.currentTimeMillis();
+                    this.queryPlan = queryPlan;
+                }
+        }
+
+    /* Queries taking at least this long are logged. Negative logs none. */
+    private volatile long mThresholdNanos = TimeUnit.MILLISECONDS.toNanos(SlowQueryEntry.DEFAULT_THRESHOLD_MILLIS);
+
+    /* The ring buffer, and the index the next entry goes in. Guarded by the log. */
+    private final Entry[] mEntries = new Entry[SlowQueryEntry.MAX_SLOW_QUERIES];
+    private int mNext;
+
+    /**
+     * Set the threshold, in milliseconds. 0 logs every query, and a negative threshold none.
+     */
+    void setThresholdMillis(long thresholdMillis)
+        {
+            mThresholdNanos = thresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        }
+
+    /**
+     * Returns whether a query that took the given time is to be logged.
+     */
+    boolean isSlow(long elapsedNanos)
+        {
+            long thresholdNanos = mThresholdNanos;
+            return thresholdNanos >= 0 && elapsedNanos >= thresholdNanos;
+        }
+
+    /**
+     * Log a slow query, making way for it if the log is full.
+     */
+    synchronized void add(Uri uri, String selection, String sortOrder, int rows, long elapsedNanos, String queryPlan)
+        {
+            mEntries[mNext] = new Entry(uri, selection, sortOrder, rows, elapsedNanos, queryPlan);
+            mNext = (mNext + 1) % mEntries.length;
+        }
+
+    /**
+     * Returns the logged queries, oldest first, laid out as described by {@link SlowQueryEntry}.
+     */
+    synchronized Bundle toBundle()
+        {
+            ArrayList<Bundle> queries = new ArrayList<>(mEntries.length);
+            for (int i = 0; i < mEntries.length; i++)
+                {
+                    Entry entry = mEntries[(mNext + i) % mEntries.length];
+                    if (entry == null)
+                        {
+                            continue;
+                        }
+                    Bundle query = new Bundle();
+                    query.putString(SlowQueryEntry.KEY_URI, entry.uri.toString());
+                    query.putString(SlowQueryEntry.KEY_SELECTION, entry.selection);
+                    query.putString(SlowQueryEntry.KEY_SORT_ORDER, entry.sortOrder);
+                    query.putInt(SlowQueryEntry.KEY_ROWS, entry.rows);
+                    query.putLong(SlowQueryEntry.KEY_ELAPSED_NANOS, entry.elapsedNanos);
+                    query.putLong(SlowQueryEntry.KEY_TIME_MILLIS, entry.timeMillis);
+                    query.putString(SlowQueryEntry.KEY_QUERY_PLAN, entry.queryPlan);
+                    queries.add(query);
+                }
+
+            Bundle log = new Bundle();
+            log.putParcelableArrayList(SlowQueryEntry.KEY_SLOW_QUERIES, queries);
+            return log;
+        }
+}
@@ -0,0 +1,852 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link PetStore} that keeps the pets in the shelter database, through {@link PetDbHelper}.
+ */
+class SqlitePetStore implements PetStore {
+
+    /* Tag for the Log Message */
+    private static final String LOG_TAG = SqlitePetStore.class.getSimpleName();
+
+    /* The INSERT statement of a pet, reused for every row of a bulk insert */
+    private static final String SQL_INSERT_PET =
+            "INSERT INTO " + PetContract.PetsEntry.TABLE_PET_NAME + " (" +
+            PetContract.PetsEntry.COLUMN_PET_NAME + ", " +
+            PetContract.PetsEntry.COLUMN_PET_BREED + ", " +
+            PetContract.PetsEntry.COLUMN_PET_GENDER + ", " +
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT + ", " +
+            PetContract.PetsEntry.COLUMN_PET_MICROCHIP + ") VALUES (?, ?, ?, ?, ?)";
+
+    /* The query of the _id of the pet with a given microchip, through its unique index */
+    private static final String SQL_QUERY_ID_BY_MICROCHIP =
+            "SELECT " + PetContract.PetsEntry._ID + " FROM " + PetContract.PetsEntry.TABLE_PET_NAME +
+            " WHERE " + PetContract.PetsEntry.COLUMN_PET_MICROCHIP + "=?";
+
+    /*
+     * The UPDATE statement of an upsert of a pet that is already there, bound like
+     * SQL_INSERT_PET. It leaves the pet alone if nothing changed, so the triggers don't run
+     * for it and nothing is written.
+     */
+    private static final String SQL_UPSERT_UPDATE_PET =
+            "UPDATE " + PetContract.PetsEntry.TABLE_PET_NAME + " SET " +
+            PetContract.PetsEntry.COLUMN_PET_NAME + "=?1, " +
+            PetContract.PetsEntry.COLUMN_PET_BREED + "=?2, " +
+            PetContract.PetsEntry.COLUMN_PET_GENDER + "=?3, " +
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT + "=?4 WHERE " +
+            PetContract.PetsEntry.COLUMN_PET_MICROCHIP + "=?5 AND NOT (" +
+            PetContract.PetsEntry.COLUMN_PET_NAME + " IS ?1 AND " +
+            PetContract.PetsEntry.COLUMN_PET_BREED + " IS ?2 AND " +
+            PetContract.PetsEntry.COLUMN_PET_GENDER + " IS ?3 AND " +
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT + " IS ?4)";
+
+    /* The query of every column of a single pet */
+    private static final String SQL_QUERY_PET_BY_ID =
+            "SELECT * FROM " + PetContract.PetsEntry.TABLE_PET_NAME + " WHERE " + PetContract.PetsEntry._ID + "=?";
+
+    /* The DELETE statement of a single pet */
+    private static final String SQL_DELETE_PET_BY_ID =
+            "DELETE FROM " + PetContract.PetsEntry.TABLE_PET_NAME + " WHERE " + PetContract.PetsEntry._ID + "=?";
+
+    /* The columns a pet is inserted and updated with through a cached statement */
+    private static final String[] PET_COLUMNS = {
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    /* The most pets a filtered delete outside a transaction deletes in one transaction */
+    static final int DELETE_CHUNK_ROWS = 2000;
+
+    /* The most free pages handed back to the file system in one transaction */
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    /*
+     * The most compiled statements kept: the insert, the delete, the two statements of an
+     * upsert, and an update for each of the 31 sets of PET_COLUMNS a pet can be updated with
+     */
+    private static final int MAX_CACHED_STATEMENTS = 35;
+
+    /* The columns of the statistics, with the average weight worked out as they are read */
+    private static final Map<String, String> STATS_PROJECTION_MAP = new LinkedHashMap<>();
+
+    static
+        {
+            String[] storedColumns = {
+                    PetContract.PetStatsEntry.COLUMN_DIMENSION,
+                    PetContract.PetStatsEntry.COLUMN_VALUE,
+                    PetContract.PetStatsEntry.COLUMN_PET_COUNT,
+                    PetContract.PetStatsEntry.COLUMN_WEIGHT_SUM
+            };
+            for (String column : storedColumns)
+                {
+                    STATS_PROJECTION_MAP.put(column, column);
+                }
+            STATS_PROJECTION_MAP.put(PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT,
+                    "CAST(" + PetContract.PetStatsEntry.COLUMN_WEIGHT_SUM + " AS REAL) / NULLIF(" +
+                            PetContract.PetStatsEntry.COLUMN_PET_COUNT + ", 0) AS " +
+                            PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT);
+        }
+
+    /* The columns of the change journal, each entry with the pet it is about as that pet is now */
+    private static final Map<String, String> CHANGES_PROJECTION_MAP = new LinkedHashMap<>();
+
+    static
+        {
+            String[] journalColumns = {
+                    PetContract.PetChangesEntry.COLUMN_SEQUENCE,
+                    PetContract.PetChangesEntry.COLUMN_PET_ID,
+                    PetContract.PetChangesEntry.COLUMN_CHANGE,
+                    PetContract.PetChangesEntry.COLUMN_OLD_MICROCHIP
+            };
+            for (String column : journalColumns)
+                {
+                    CHANGES_PROJECTION_MAP.put(column, "c." + column + " AS " + column);
+                }
+            CHANGES_PROJECTION_MAP.put(PetContract.PetsEntry._ID,
+                    "p." + PetContract.PetsEntry._ID + " AS " + PetContract.PetsEntry._ID);
+            for (String column : PET_COLUMNS)
+                {
+                    CHANGES_PROJECTION_MAP.put(column, "p." + column + " AS " + column);
+                }
+        }
+
+    /* DB Helper Object */
+    private final PetDbHelper mDbHelper;
+
+    /* Whether pets were deleted inside a transaction, so space is to be reclaimed once it ends */
+    private volatile boolean mReclaimPending;
+
+    /* The statements of the fixed shapes of writes, compiled once per database connection */
+    private final StatementCache mStatements = new StatementCache(MAX_CACHED_STATEMENTS);
+
+    SqlitePetStore(PetDbHelper dbHelper)
+        {
+            mDbHelper = dbHelper;
+        }
+
+    /**
+     * Returns the helper of the database the pets are kept in.
+     */
+    PetDbHelper getDbHelper()
+        {
+            return mDbHelper;
+        }
+
+    @Override
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            return db.query(
+                PetContract.PetsEntry.TABLE_PET_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit);
+        }
+
+    /**
+     * Every column of a pet is read with the same SQL text, which the connection has prepared
+     * already after the first time. Only a projection of some columns has its SQL built.
+     */
+    @Override
+    public Cursor queryById(long id, String[] projection)
+        {
+            String[] selectionArgs = {String.valueOf(id)};
+            if (projection == null)
+                {
+                    return mDbHelper.getReadableDatabase().rawQuery(SQL_QUERY_PET_BY_ID, selectionArgs);
+                }
+            return query(projection, PetContract.PetsEntry._ID + "=?", selectionArgs, null, null);
+        }
+
+    @Override
+    public Cursor search(String text, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            return query(projection, buildSearchSelection(selection),
+                    buildSearchSelectionArgs(text, selectionArgs), sortOrder, limit);
+        }
+
+    @Override
+    public String explainQuery(String searchText, String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit)
+        {
+            if (searchText != null)
+                {
+                    selection = buildSearchSelection(selection);
+                    selectionArgs = buildSearchSelectionArgs(searchText, selectionArgs);
+                }
+            String sql = SQLiteQueryBuilder.buildQueryString(false, PetContract.PetsEntry.TABLE_PET_NAME,
+                    projection, selection, null, null, sortOrder, limit);
+
+            StringBuilder plan = new StringBuilder();
+            Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try
+                {
+                    int detail = cursor.getColumnIndexOrThrow("detail");
+                    while (cursor.moveToNext())
+                        {
+                            if (plan.length() > 0)
+                                {
+                                    plan.append('\n');
+                                }
+                            plan.append(cursor.getString(detail));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return plan.toString();
+        }
+
+    /**
+     * Only keep the pets that the full-text index finds for the search text, on top of the
+     * given selection. The search text is the last selection argument.
+     */
+    private static String buildSearchSelection(String selection)
+        {
+            return DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry._ID +
+                    " IN (SELECT docid FROM " + PetContract.PetsEntry.TABLE_PET_SEARCH_NAME +
+                    " WHERE " + PetContract.PetsEntry.TABLE_PET_SEARCH_NAME + " MATCH ?)");
+        }
+
+    private static String[] buildSearchSelectionArgs(String text, String[] selectionArgs)
+        {
+            return DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {buildSearchMatch(text)});
+        }
+
+    @Override
+    public Cursor queryStats(String[] projection, String selection, String[] selectionArgs, String sortOrder)
+        {
+            SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            builder.setTables(PetContract.PetStatsEntry.TABLE_PET_STATS_NAME);
+            builder.setProjectionMap(STATS_PROJECTION_MAP);
+            if (sortOrder == null)
+                {
+                    sortOrder = PetContract.PetStatsEntry.COLUMN_DIMENSION + ", " + PetContract.PetStatsEntry.COLUMN_VALUE;
+                }
+            return builder.query(mDbHelper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+        }
+
+    /**
+     * Read the journal by its primary key from the given sequence number on, joined with the
+     * pets by their primary key.
+     */
+    @Override
+    public Cursor queryChanges(String[] projection, long afterSequence, String limit)
+        {
+            SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            builder.setTables(PetContract.PetChangesEntry.TABLE_PET_CHANGES_NAME + " c LEFT JOIN " +
+                    PetContract.PetsEntry.TABLE_PET_NAME + " p ON p." + PetContract.PetsEntry._ID + " = c." +
+                    PetContract.PetChangesEntry.COLUMN_PET_ID);
+            builder.setProjectionMap(CHANGES_PROJECTION_MAP);
+            return builder.query(mDbHelper.getReadableDatabase(), projection,
+                    "c." + PetContract.PetChangesEntry.COLUMN_SEQUENCE + " > ?", new String[] {String.valueOf(afterSequence)},
+                    null, null, "c." + PetContract.PetChangesEntry.COLUMN_SEQUENCE, limit);
+        }
+
+    @Override
+    public long getLastChangeSequence()
+        {
+            // sqlite_sequence keeps the largest sequence number ever used, even once it's deleted
+            return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                    "SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name = ?), 0)",
+                    new String[] {PetContract.PetChangesEntry.TABLE_PET_CHANGES_NAME});
+        }
+
+    @Override
+    public int deleteChanges(String selection, String[] selectionArgs)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            return db.delete(PetContract.PetChangesEntry.TABLE_PET_CHANGES_NAME, selection, selectionArgs);
+        }
+
+    @Override
+    public long backup(File destination, int stepPages, long stepPauseMillis) throws IOException
+        {
+            return PetBackup.backup(mDbHelper, destination, stepPages, stepPauseMillis);
+        }
+
+    @Override
+    public void compact()
+        {
+            mDbHelper.enableIncrementalVacuum();
+            reclaimSpace(mDbHelper.getWritableDatabase());
+        }
+
+    /**
+     * The journal of the copy knows nothing of what was synced since the copy was made, so it's
+     * replaced, in one transaction, by a clear and an insert of every pet, after the latest
+     * sequence number of either database.
+     */
+    @Override
+    public void restore(File source) throws IOException
+        {
+            long lastSequence = getLastChangeSequence();
+            PetBackup.restore(mDbHelper, source);
+            lastSequence = Math.max(lastSequence, getLastChangeSequence());
+
+            String journal = PetContract.PetChangesEntry.TABLE_PET_CHANGES_NAME;
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try
+                {
+                    db.delete(journal, null, null);
+                    db.delete("sqlite_sequence", "name = ?", new String[] {journal});
+                    ContentValues sequence = new ContentValues();
+                    sequence.put("name", journal);
+                    sequence.put("seq", lastSequence);
+                    db.insertOrThrow("sqlite_sequence", null, sequence);
+
+                    ContentValues clear = new ContentValues();
+                    clear.put(PetContract.PetChangesEntry.COLUMN_CHANGE, PetContract.PetChangesEntry.CHANGE_CLEAR);
+                    db.insertOrThrow(journal, null, clear);
+                    db.execSQL("INSERT INTO " + journal + " (" + PetContract.PetChangesEntry.COLUMN_PET_ID + ", " +
+                            PetContract.PetChangesEntry.COLUMN_CHANGE + ") SELECT " + PetContract.PetsEntry._ID +
+                            ", ? FROM " + PetContract.PetsEntry.TABLE_PET_NAME + " ORDER BY " + PetContract.PetsEntry._ID,
+                            new Object[] {PetContract.CHANGE_INSERT});
+                    db.setTransactionSuccessful();
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+        }
+
+    /**
+     * Turn the text typed by the user into a full-text MATCH expression: every word of the text
+     * becomes a prefix query, and a pet has to match all of them. Anything that isn't a letter or
+     * a digit only separates words, so the user can't type FTS operators by accident.
+     */
+    private static String buildSearchMatch(String query)
+        {
+            StringBuilder match = new StringBuilder();
+            int length = query.length();
+            int wordStart = -1;
+            for (int i = 0; i <= length; i++)
+                {
+                    boolean inWord = i < length && Character.isLetterOrDigit(query.charAt(i));
+                    if (inWord && wordStart == -1)
+                        {
+                            wordStart = i;
+                        }
+                    else if (!inWord && wordStart != -1)
+                        {
+                            if (match.length() > 0)
+                                {
+                                    match.append(' ');
+                                }
+                            match.append('"').append(query, wordStart, i).append("*\"");
+                            wordStart = -1;
+                        }
+                }
+
+            // Text without any words can't match a pet. A quoted empty phrase matches nothing.
+            if (match.length() == 0)
+                {
+                    return "\"\"";
+                }
+            return match.toString();
+        }
+
+    /**
+     * Insert the pet through the cached INSERT statement, unless it comes with columns other
+     * than the name, breed, gender, weight and microchip.
+     */
+    @Override
+    public long insert(ContentValues values)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            if (!hasOnlyPetColumns(values))
+                {
+                    return db.insert(PetContract.PetsEntry.TABLE_PET_NAME, null, values);
+                }
+
+            SQLiteStatement statement = mStatements.acquire(db, SQL_INSERT_PET);
+            try
+                {
+                    bindPet(statement, values);
+                    return statement.executeInsert();
+                }
+            catch (SQLException e)
+                {
+                    // Fail the way SQLiteDatabase#insert does
+                    Log.e(LOG_TAG, "Error inserting " + values, e);
+                    return -1;
+                }
+            finally
+                {
+                    mStatements.release(db, SQL_INSERT_PET, statement);
+                }
+        }
+
+    /**
+     * Returns whether the given values only hold columns of {@link #PET_COLUMNS}.
+     */
+    private static boolean hasOnlyPetColumns(ContentValues values)
+        {
+            int petColumns = 0;
+            for (String column : PET_COLUMNS)
+                {
+                    if (values.containsKey(column))
+                        {
+                            petColumns++;
+                        }
+                }
+            return petColumns == values.size();
+        }
+
+    /**
+     * Bind the name, breed, gender, weight and microchip of a pet to the first five arguments
+     * of the given statement.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values)
+        {
+            String breed = values.getAsString(PetContract.PetsEntry.COLUMN_PET_BREED);
+            Integer weight = values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+
+            statement.clearBindings();
+            statement.bindString(1, values.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME));
+            if (breed == null)
+                {
+                    statement.bindNull(2);
+                }
+            else
+                {
+                    statement.bindString(2, breed);
+                }
+            statement.bindLong(3, values.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER));
+            // A missing weight gets the same default as the column definition
+            statement.bindLong(4, weight == null ? 0 : weight);
+            String microchip = values.getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+            if (microchip == null)
+                {
+                    statement.bindNull(5);
+                }
+            else
+                {
+                    statement.bindString(5, microchip);
+                }
+        }
+
+    /**
+     * Insert the pets through one compiled INSERT statement that is rebound for each of them.
+     */
+    @Override
+    public long[] bulkInsert(ContentValues[] values)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            long[] ids = new long[values.length];
+
+            db.beginTransaction();
+            try
+                {
+                    SQLiteStatement statement = mStatements.acquire(db, SQL_INSERT_PET);
+                    try
+                        {
+                            for (int i = 0; i < values.length; i++)
+                                {
+                                    bindPet(statement, values[i]);
+                                    ids[i] = statement.executeInsert();
+                                }
+                        }
+                    finally
+                        {
+                            mStatements.release(db, SQL_INSERT_PET, statement);
+                        }
+                    db.setTransactionSuccessful();
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+
+            return ids;
+        }
+
+    /**
+     * Find each pet with a microchip by the unique index, then either insert it or update the
+     * pet found, through cached statements. SQLite only has INSERT ... ON CONFLICT DO UPDATE
+     * from Android 11 on, and INSERT OR REPLACE would delete the pet found and insert a new
+     * one under a new _id, so each pet is one lookup and at most one write.
+     */
+    @Override
+    public long[] upsert(ContentValues[] values, int[] outcomes)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            long[] ids = new long[values.length];
+
+            db.beginTransaction();
+            try
+                {
+                    SQLiteStatement lookup = mStatements.acquire(db, SQL_QUERY_ID_BY_MICROCHIP);
+                    SQLiteStatement update = mStatements.acquire(db, SQL_UPSERT_UPDATE_PET);
+                    SQLiteStatement insert = mStatements.acquire(db, SQL_INSERT_PET);
+                    try
+                        {
+                            for (int i = 0; i < values.length; i++)
+                                {
+                                    long id = -1;
+                                    String microchip = values[i].getAsString(PetContract.PetsEntry.COLUMN_PET_MICROCHIP);
+                                    if (microchip != null)
+                                        {
+                                            lookup.bindString(1, microchip);
+                                            try
+                                                {
+                                                    id = lookup.simpleQueryForLong();
+                                                }
+                                            catch (SQLiteDoneException e)
+                                                {
+                                                    // No pet has the microchip yet
+                                                }
+                                        }
+
+                                    if (id != -1)
+                                        {
+                                            bindPet(update, values[i]);
+                                            ids[i] = id;
+                                            outcomes[i] = update.executeUpdateDelete() == 0 ? UPSERT_UNCHANGED : UPSERT_UPDATED;
+                                        }
+                                    else
+                                        {
+                                            bindPet(insert, values[i]);
+                                            ids[i] = insert.executeInsert();
+                                            outcomes[i] = ids[i] == -1 ? UPSERT_FAILED : UPSERT_INSERTED;
+                                        }
+                                }
+                        }
+                    finally
+                        {
+                            mStatements.release(db, SQL_INSERT_PET, insert);
+                            mStatements.release(db, SQL_UPSERT_UPDATE_PET, update);
+                            mStatements.release(db, SQL_QUERY_ID_BY_MICROCHIP, lookup);
+                        }
+                    db.setTransactionSuccessful();
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+
+            return ids;
+        }
+
+    @Override
+    public int update(ContentValues values, String selection, String[] selectionArgs)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            return db.update(PetContract.PetsEntry.TABLE_PET_NAME, values, selection, selectionArgs);
+        }
+
+    /**
+     * Update the pet through a cached UPDATE statement of the columns being set, unless they
+     * aren't all columns of {@link #PET_COLUMNS}.
+     */
+    @Override
+    public int updateById(long id, ContentValues values)
+        {
+            if (values.size() == 0 || !hasOnlyPetColumns(values))
+                {
+                    return update(values, PetContract.PetsEntry._ID + "=?", new String[] {String.valueOf(id)});
+                }
+
+            // The SQL of the columns being set, always in the order of PET_COLUMNS, so the same
+            // set of columns always finds the same statement
+            StringBuilder sql = new StringBuilder("UPDATE ").append(PetContract.PetsEntry.TABLE_PET_NAME).append(" SET ");
+            Object[] bindArgs = new Object[values.size()];
+            int count = 0;
+            for (String column : PET_COLUMNS)
+                {
+                    if (values.containsKey(column))
+                        {
+                            sql.append(count == 0 ? "" : ", ").append(column).append("=?");
+                            bindArgs[count++] = values.get(column);
+                        }
+                }
+            sql.append(" WHERE ").append(PetContract.PetsEntry._ID).append("=?");
+            String updateSql = sql.toString();
+
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            SQLiteStatement statement = mStatements.acquire(db, updateSql);
+            try
+                {
+                    for (int i = 0; i < count; i++)
+                        {
+                            DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+                        }
+                    statement.bindLong(count + 1, id);
+                    return statement.executeUpdateDelete();
+                }
+            finally
+                {
+                    mStatements.release(db, updateSql, statement);
+                }
+        }
+
+    @Override
+    public int delete(String selection, String[] selectionArgs)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            int rowsDeleted;
+            if (TextUtils.isEmpty(selection))
+                {
+                    rowsDeleted = deleteAll(db);
+                }
+            else if (db.inTransaction())
+                {
+                    // The transaction has to hold on to the lock anyway, so splitting up the
+                    // delete would gain nothing
+                    rowsDeleted = db.delete(PetContract.PetsEntry.TABLE_PET_NAME, selection, selectionArgs);
+                }
+            else
+                {
+                    rowsDeleted = deleteInChunks(db, selection, selectionArgs);
+                }
+
+            if (rowsDeleted != 0)
+                {
+                    reclaimSpace(db);
+                }
+            return rowsDeleted;
+        }
+
+    /**
+     * Delete every pet at once. The triggers on the pets table would run for every single pet,
+     * and keep SQLite from simply truncating the table, so they are dropped for the delete and
+     * created again afterwards, with the search index and the statistics cleared alongside, all
+     * in one transaction. The change journal gets a single clear instead of a delete per pet.
+     * The number of pets deleted is read from the statistics.
+     */
+    private static int deleteAll(SQLiteDatabase db)
+        {
+            db.beginTransaction();
+            try
+                {
+                    int rowsDeleted = (int) DatabaseUtils.longForQuery(db,
+                            "SELECT " + PetContract.PetStatsEntry.COLUMN_PET_COUNT + " FROM " +
+                                    PetContract.PetStatsEntry.TABLE_PET_STATS_NAME + " WHERE " +
+                                    PetContract.PetStatsEntry.COLUMN_DIMENSION + " = ?",
+                            new String[] {PetContract.PetStatsEntry.DIMENSION_ALL});
+
+                    // Keep the definitions of the triggers, and of the search index, to create
+                    // them again just as they were
+                    ArrayList<String> triggerNames = new ArrayList<>();
+                    ArrayList<String> triggerSql = new ArrayList<>();
+                    Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger' AND tbl_name = ?",
+                            new String[] {PetContract.PetsEntry.TABLE_PET_NAME});
+                    try
+                        {
+                            while (cursor.moveToNext())
+                                {
+                                    triggerNames.add(cursor.getString(0));
+                                    triggerSql.add(cursor.getString(1));
+                                }
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                    String searchSql = DatabaseUtils.stringForQuery(db,
+                            "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                            new String[] {PetContract.PetsEntry.TABLE_PET_SEARCH_NAME});
+
+                    // No one sees the pets without their triggers and search index, since
+                    // they only go missing inside this transaction
+                    for (String name : triggerNames)
+                        {
+                            db.execSQL("DROP TRIGGER " + name);
+                        }
+                    db.execSQL("DELETE FROM " + PetContract.PetsEntry.TABLE_PET_NAME);
+
+                    // Deleting from the search index goes through it row by row too, so it is
+                    // dropped and created empty instead
+                    db.execSQL("DROP TABLE " + PetContract.PetsEntry.TABLE_PET_SEARCH_NAME);
+                    db.execSQL(searchSql);
+
+                    // The statistics over all pets stay, at zero; every group is gone
+                    db.delete(PetContract.PetStatsEntry.TABLE_PET_STATS_NAME,
+                            PetContract.PetStatsEntry.COLUMN_DIMENSION + " != ?",
+                            new String[] {PetContract.PetStatsEntry.DIMENSION_ALL});
+                    db.execSQL("UPDATE " + PetContract.PetStatsEntry.TABLE_PET_STATS_NAME + " SET " +
+                            PetContract.PetStatsEntry.COLUMN_PET_COUNT + " = 0, " +
+                            PetContract.PetStatsEntry.COLUMN_WEIGHT_SUM + " = 0");
+
+                    if (rowsDeleted != 0)
+                        {
+                            ContentValues clear = new ContentValues();
+                            clear.put(PetContract.PetChangesEntry.COLUMN_CHANGE, PetContract.PetChangesEntry.CHANGE_CLEAR);
+                            db.insertOrThrow(PetContract.PetChangesEntry.TABLE_PET_CHANGES_NAME, null, clear);
+                        }
+
+                    for (String sql : triggerSql)
+                        {
+                            db.execSQL(sql);
+                        }
+                    db.setTransactionSuccessful();
+                    return rowsDeleted;
+                }
+            finally
+                {
+                    db.endTransaction();
+                }
+        }
+
+    /**
+     * Delete the pets that match the selection in transactions of at most
+     * {@link #DELETE_CHUNK_ROWS} pets, so the write lock is let go between them. The chunks go
+     * through the pets in _id order, each one starting after the last _id of the one before, so
+     * no chunk looks at the pets an earlier one went past again.
+     */
+    private static int deleteInChunks(SQLiteDatabase db, String selection, String[] selectionArgs)
+        {
+            String table = PetContract.PetsEntry.TABLE_PET_NAME;
+            String id = PetContract.PetsEntry._ID;
+            String[] args = selectionArgs == null ? new String[0] : selectionArgs;
+            String chunkEndSql = "SELECT " + id + " FROM " + table + " WHERE " + id + " > ? AND (" + selection +
+                    ") ORDER BY " + id + " LIMIT 1 OFFSET " + (DELETE_CHUNK_ROWS - 1);
+
+            int rowsDeleted = 0;
+            long afterId = Long.MIN_VALUE;
+            boolean lastChunk = false;
+            while (!lastChunk)
+                {
+                    db.beginTransaction();
+                    try
+                        {
+                            // The _id the chunk ends at, unless fewer pets than a chunk are left
+                            Cursor cursor = db.rawQuery(chunkEndSql, prepend(args, String.valueOf(afterId)));
+                            long untilId;
+                            try
+                                {
+                                    lastChunk = !cursor.moveToFirst();
+                                    untilId = lastChunk ? Long.MAX_VALUE : cursor.getLong(0);
+                                }
+                            finally
+                                {
+                                    cursor.close();
+                                }
+
+                            rowsDeleted += db.delete(table, id + " > ? AND " + id + " <= ? AND (" + selection + ")",
+                                    prepend(args, String.valueOf(afterId), String.valueOf(untilId)));
+                            db.setTransactionSuccessful();
+                            afterId = untilId;
+                        }
+                    finally
+                        {
+                            db.endTransaction();
+                        }
+                }
+            return rowsDeleted;
+        }
+
+    /**
+     * Returns the given arguments with the given leading arguments put in front.
+     */
+    private static String[] prepend(String[] args, String... leading)
+        {
+            String[] all = new String[leading.length + args.length];
+            System.arraycopy(leading, 0, all, 0, leading.length);
+            System.arraycopy(args, 0, all, leading.length, args.length);
+            return all;
+        }
+
+    /**
+     * Hand the pages deleted pets have freed back to the file system with incremental vacuum, a
+     * few pages per transaction, so the database file doesn't keep its largest size. Inside a
+     * transaction the pages aren't free until it commits, so it's left until it ends.
+     */
+    private void reclaimSpace(SQLiteDatabase db)
+        {
+            if (db.inTransaction())
+                {
+                    mReclaimPending = true;
+                    return;
+                }
+            mReclaimPending = false;
+
+            // Only a database in incremental auto-vacuum mode can give pages back this way
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != PetDbHelper.AUTO_VACUUM_INCREMENTAL)
+                {
+                    return;
+                }
+            while (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0)
+                {
+                    // The pragma answers with a row for each page it frees, and frees them as
+                    // it's stepped through, so every row has to be read
+                    Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")", null);
+                    int pagesFreed;
+                    try
+                        {
+                            pagesFreed = cursor.getCount();
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                    if (pagesFreed == 0)
+                        {
+                            return;
+                        }
+                }
+        }
+
+    @Override
+    public int deleteById(long id)
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            SQLiteStatement statement = mStatements.acquire(db, SQL_DELETE_PET_BY_ID);
+            try
+                {
+                    statement.bindLong(1, id);
+                    return statement.executeUpdateDelete();
+                }
+            finally
+                {
+                    mStatements.release(db, SQL_DELETE_PET_BY_ID, statement);
+                }
+        }
+
+    @Override
+    public void beginTransaction()
+        {
+            mDbHelper.getWritableDatabase().beginTransaction();
+        }
+
+    @Override
+    public void setTransactionSuccessful()
+        {
+            mDbHelper.getWritableDatabase().setTransactionSuccessful();
+        }
+
+    @Override
+    public void endTransaction()
+        {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.endTransaction();
+            if (mReclaimPending && !db.inTransaction())
+                {
+                    reclaimSpace(db);
+                }
+        }
+}
@@ -0,0 +1,97 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps compiled statements of a database for reuse, keyed by their SQL, so the statements the
+ * store runs over and over aren't compiled again every time. At most a fixed number are kept;
+ * the least recently used one is closed to make room for another.
+ * <p>
+ * A statement is taken out of the cache while it's in use, with {@link #acquire}, and handed
+ * back with {@link #release}, so no two threads ever bind arguments to the same statement, and
+ * no lock is held while it runs. A thread that wants a statement another thread is using gets
+ * a fresh one. Cached statements belong to the database connection they were compiled for:
+ * when the database is closed and opened again, the statements of the old connection are
+ * closed instead of being reused.
+ */
+final class StatementCache {
+
+    /* The most statements kept */
+    private final int mMaxSize;
+
+    /* The database the cached statements were compiled for. Guarded by the cache. */
+    private SQLiteDatabase mDb;
+
+    /* The statements not in use, least recently used first. Guarded by the cache. */
+    private final LinkedHashMap<String, SQLiteStatement> mStatements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(int maxSize)
+        {
+            mMaxSize = maxSize;
+        }
+
+    /**
+     * Returns a compiled statement of the given SQL for the given database, taken from the cache
+     * if there is one. It has to be handed back with {@link #release} once it has run.
+     */
+    SQLiteStatement acquire(SQLiteDatabase db, String sql)
+        {
+            ArrayList<SQLiteStatement> stale = null;
+            SQLiteStatement statement;
+            synchronized (this)
+                {
+                    if (db != mDb)
+                        {
+                            stale = new ArrayList<>(mStatements.values());
+                            mStatements.clear();
+                            mDb = db;
+                        }
+                    statement = mStatements.remove(sql);
+                }
+
+            if (stale != null)
+                {
+                    for (SQLiteStatement staleStatement : stale)
+                        {
+                            staleStatement.close();
+                        }
+                }
+            return statement != null ? statement : db.compileStatement(sql);
+        }
+
+    /**
+     * Hand back a statement given by {@link #acquire} for the given database and SQL, keeping
+     * it for the next time unless it's no longer needed.
+     */
+    void release(SQLiteDatabase db, String sql, SQLiteStatement statement)
+        {
+            statement.clearBindings();
+
+            SQLiteStatement evicted = statement;
+            synchronized (this)
+                {
+                    if (db == mDb && db.isOpen() && !mStatements.containsKey(sql))
+                        {
+                            mStatements.put(sql, statement);
+                            evicted = null;
+                            if (mStatements.size() > mMaxSize)
+                                {
+                                    Iterator<Map.Entry<String, SQLiteStatement>> eldest = mStatements.entrySet().iterator();
+                                    evicted = eldest.next().getValue();
+                                    eldest.remove();
+                                }
+                        }
+                }
+
+            if (evicted != null)
+                {
+                    evicted.close();
+                }
+        }
+}
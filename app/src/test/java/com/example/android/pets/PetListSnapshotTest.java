@@ -0,0 +1,104 @@
+package com.example.android.pets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A {@link PetListSnapshot} keeps the _id, name and breed of every pet it was read with, also
+ * once joined with others, and tells a pet without a breed from one with an empty breed. The
+ * {@link PetRecyclerAdapter.SnapshotDiffCallback} built on it matches pets by _id and finds
+ * the ones whose name or breed changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class PetListSnapshotTest {
+
+    /**
+     * Returns the text of the given length at the given start of the snapshot, or null for a
+     * length of -1.
+     */
+    private static String text(PetListSnapshot snapshot, int start, int length)
+        {
+            return length < 0 ? null : new String(snapshot.getText(), start, length);
+        }
+
+    @Test
+    public void concatKeepsEveryPet()
+        {
+            PetListSnapshot first = PetSnapshots.of(1, 7);
+            PetListSnapshot second = PetSnapshots.of(8, 5);
+            PetListSnapshot pets = PetListSnapshot.concat(Arrays.asList(first, PetListSnapshot.EMPTY, second));
+
+            assertEquals(12, pets.size());
+            for (int position = 0; position < pets.size(); position++)
+                {
+                    long id = position + 1;
+                    assertEquals(id, pets.getId(position));
+                    assertEquals(PetSnapshots.name(id),
+                            text(pets, pets.getNameStart(position), pets.getNameLength(position)));
+                    assertEquals(PetSnapshots.breed(id),
+                            text(pets, pets.getBreedStart(position), pets.getBreedLength(position)));
+
+                    // The text of the second snapshot moved along by the length of the first
+                    if (position < first.size())
+                        {
+                            assertTrue(pets.hasSameText(position, first, position));
+                        }
+                    else
+                        {
+                            assertTrue(pets.hasSameText(position, second, position - first.size()));
+                            assertTrue(!pets.hasSameText(position, first, position - first.size()));
+                        }
+                }
+        }
+
+    @Test
+    public void hasSameTextTellsNoBreedFromEmptyBreed()
+        {
+            PetListSnapshot pets = PetSnapshots.rows(
+                    new Object[] {1L, "Toto", null},
+                    new Object[] {2L, "Toto", ""},
+                    new Object[] {3L, "Toto", null},
+                    new Object[] {4L, "Toto", "Terrier"},
+                    new Object[] {5L, "Tot", "Terrier"},
+                    new Object[] {6L, "", "Terrier"});
+
+            assertNull(text(pets, pets.getBreedStart(0), pets.getBreedLength(0)));
+            assertEquals("", text(pets, pets.getBreedStart(1), pets.getBreedLength(1)));
+            assertTrue(pets.hasSameText(0, pets, 2));
+            assertTrue(!pets.hasSameText(0, pets, 1));
+            assertTrue(!pets.hasSameText(1, pets, 0));
+            assertTrue(!pets.hasSameText(0, pets, 3));
+            assertTrue(!pets.hasSameText(3, pets, 4));
+            assertTrue(!pets.hasSameText(4, pets, 5));
+            assertTrue(pets.hasSameText(4, PetSnapshots.rows(new Object[] {9L, "Tot", "Terrier"}), 0));
+        }
+
+    @Test
+    public void diffCallbackMatchesPetsById()
+        {
+            PetListSnapshot oldPets = PetSnapshots.of(1, 4);
+            PetListSnapshot newPets = PetListSnapshot.concat(Arrays.asList(
+                    PetSnapshots.of(1, 2),
+                    PetSnapshots.rows(new Object[] {3L, PetSnapshots.name(3), "Husky"}),
+                    PetSnapshots.of(4, 2)));
+            PetRecyclerAdapter.SnapshotDiffCallback callback = new PetRecyclerAdapter.SnapshotDiffCallback(oldPets, newPets);
+
+            assertEquals(4, callback.getOldListSize());
+            assertEquals(5, callback.getNewListSize());
+            for (int position = 0; position < oldPets.size(); position++)
+                {
+                    assertTrue(callback.areItemsTheSame(position, position));
+                    assertEquals(position != 2, callback.areContentsTheSame(position, position));
+                }
+            assertTrue(!callback.areItemsTheSame(3, 4));
+        }
+}
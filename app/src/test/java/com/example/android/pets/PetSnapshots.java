@@ -0,0 +1,67 @@
+package com.example.android.pets;
+
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+/**
+ * Makes {@link PetListSnapshot}s of made-up pets for the tests. A pet is fully determined by
+ * its _id, so the same _id always gives the same name and breed, in any snapshot.
+ */
+final class PetSnapshots {
+
+    /* Breeds, with null standing for pets whose breed isn't known */
+    private static final String[] BREEDS = {
+            "Terrier", "Tabby", "Labrador Retriever", "German Shepherd", "Siamese", null
+    };
+
+    private PetSnapshots()
+        {
+        }
+
+    static String name(long id)
+        {
+            return "Pet " + id;
+        }
+
+    static String breed(long id)
+        {
+            return BREEDS[(int) (id % BREEDS.length)];
+        }
+
+    /**
+     * Returns a snapshot of the given number of pets, with _ids counting up from the given one,
+     * read from a cursor the way the catalog reads its pages.
+     */
+    static PetListSnapshot of(long firstId, int count)
+        {
+            Object[][] rows = new Object[count][];
+            for (int i = 0; i < count; i++)
+                {
+                    long id = firstId + i;
+                    rows[i] = new Object[] {id, name(id), breed(id)};
+                }
+            return rows(rows);
+        }
+
+    /**
+     * Returns a snapshot of the given rows, each an _id, a name and a breed, which may be null.
+     */
+    static PetListSnapshot rows(Object[]... rows)
+        {
+            MatrixCursor cursor = new MatrixCursor(new String[] {
+                    PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED}, rows.length);
+            for (Object[] row : rows)
+                {
+                    cursor.addRow(row);
+                }
+            try
+                {
+                    return PetListSnapshot.fromCursor(cursor);
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+}
@@ -0,0 +1,82 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Reports benchmark results, both on the console and as one JSON object per line in
+ * results.jsonl, so they can be collected and compared over time.
+ */
+public final class BenchmarkResults {
+
+    /* File the results are appended to */
+    private static final String RESULTS_FILE_NAME = "results.jsonl";
+
+    private BenchmarkResults()
+        {
+        }
+
+    /**
+     * Report that the given number of operations against a table of the given number of rows
+     * took the given time.
+     */
+    public static void report(String benchmark, int rows, long operations, long elapsedNanos)
+        {
+            report(benchmark, rows, operations, elapsedNanos, -1);
+        }
+
+    /**
+     * Report that the given number of operations against a table of the given number of rows
+     * took the given time, and at most the given number of bytes of heap on top of what was in
+     * use before, as measured by a {@link HeapSampler}.
+     */
+    public static synchronized void report(String benchmark, int rows, long operations, long elapsedNanos, long peakHeapBytes)
+        {
+            double elapsedMillis = elapsedNanos / 1e6;
+            double opsPerSecond = operations * 1e9 / Math.max(elapsedNanos, 1);
+            double nanosPerOp = elapsedNanos / (double) Math.max(operations, 1);
+
+            String json = String.format(Locale.US,
+                    "{\"benchmark\":\"%s\",\"rows\":%d,\"operations\":%d,\"elapsedMillis\":%.3f," +
+                            "\"opsPerSecond\":%.1f,\"nanosPerOp\":%.1f,%s\"timestamp\":%d}",
+                    benchmark, rows, operations, elapsedMillis, opsPerSecond, nanosPerOp,
+                    peakHeapBytes < 0 ? "" : "\"peakHeapBytes\":" + peakHeapBytes + ",",
+                    System.currentTimeMillis());
+            System.out.println(json);
+
+            File outputDir = new File(System.getProperty("benchmark.outputDir", "build/benchmark-results"));
+            if (!outputDir.isDirectory() && !outputDir.mkdirs())
+                {
+                    throw new IllegalStateException("Can't create " + outputDir);
+                }
+
+            Writer writer = null;
+            try
+                {
+                    writer = new FileWriter(new File(outputDir, RESULTS_FILE_NAME), true);
+                    writer.write(json);
+                    writer.write('\n');
+                }
+            catch (IOException e)
+                {
+                    throw new IllegalStateException("Can't write benchmark results", e);
+                }
+            finally
+                {
+                    if (writer != null)
+                        {
+                            try
+                                {
+                                    writer.close();
+                                }
+                            catch (IOException e)
+                                {
+                                    // Nothing left to do about it
+                                }
+                        }
+                }
+        }
+}
@@ -0,0 +1,167 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares setting the weight of every pet of a breed with one update of the pets URI against
+ * updating the same pets one at a time through pets/&lt;id&gt;, for the SQLite and in-memory
+ * engines. Both have to report every pet as updated; the update of the pets URI has to do it
+ * with a single change notification. Notifications are sent right away, so they can be counted.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class CollectionUpdateBenchmark {
+
+    /* The pets every update goes to */
+    private static final String SELECTION_BY_BREED = PetsEntry.COLUMN_PET_BREED + "=?";
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private int mRows;
+
+    public CollectionUpdateBenchmark(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setStorageEngine(mEngine);
+            mProvider.setNotificationWindowMillis(0);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED)));
+        }
+
+    /**
+     * Returns the IDs of the pets of the given breed.
+     */
+    private ArrayList<Long> readIds(String breed)
+        {
+            ArrayList<Long> ids = new ArrayList<>();
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID},
+                    SELECTION_BY_BREED, new String[] {breed}, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ids.add(cursor.getLong(0));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Returns the number of pets of the given breed with the given weight.
+     */
+    private int countWithWeight(String breed, int weight)
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID},
+                    SELECTION_BY_BREED + " AND " + PetsEntry.COLUMN_PET_WEIGHT + "=?",
+                    new String[] {breed, String.valueOf(weight)}, null);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    private static ContentValues weight(int weight)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+
+    @Test
+    public void setWeightOfBreed()
+        {
+            String breed = PetDataset.someBreed();
+            ArrayList<Long> ids = readIds(breed);
+            assertTrue("No pets of breed " + breed, !ids.isEmpty());
+
+            // One pet at a time, the way a client had to before
+            ContentValues values = weight(61);
+            long notifications = mProvider.getSentNotificationCount();
+            long start = System.nanoTime();
+            int rowsUpdated = 0;
+            for (long id : ids)
+                {
+                    rowsUpdated += mResolver.update(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), values, null, null);
+                }
+            BenchmarkResults.report("setWeightOfBreed[" + mEngine + ",byId]", mRows, ids.size(), System.nanoTime() - start);
+            assertEquals(ids.size(), rowsUpdated);
+            assertEquals(ids.size(), mProvider.getSentNotificationCount() - notifications);
+            assertEquals(ids.size(), countWithWeight(breed, 61));
+
+            // Every pet of the breed at once
+            values = weight(62);
+            notifications = mProvider.getSentNotificationCount();
+            start = System.nanoTime();
+            rowsUpdated = mResolver.update(PetsEntry.CONTENT_URI, values, SELECTION_BY_BREED, new String[] {breed});
+            BenchmarkResults.report("setWeightOfBreed[" + mEngine + ",collection]", mRows, ids.size(), System.nanoTime() - start);
+            assertEquals(ids.size(), rowsUpdated);
+            assertEquals(1, mProvider.getSentNotificationCount() - notifications);
+            assertEquals(ids.size(), countWithWeight(breed, 62));
+        }
+
+    @Test
+    public void rejectInvalidCollectionUpdate()
+        {
+            long notifications = mProvider.getSentNotificationCount();
+            try
+                {
+                    mResolver.update(PetsEntry.CONTENT_URI, weight(-1), null, null);
+                    throw new AssertionError("A negative weight was accepted");
+                }
+            catch (IllegalArgumentException expected)
+                {
+                    // Nothing may have been written or notified
+                }
+            assertEquals(0, mProvider.getSentNotificationCount() - notifications);
+            assertEquals(0, countWithWeight(PetDataset.someBreed(), -1));
+        }
+}
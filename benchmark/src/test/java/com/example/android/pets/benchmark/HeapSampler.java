@@ -0,0 +1,50 @@
+package com.example.android.pets.benchmark;
+
+/**
+ * Measures how much heap a benchmark keeps hold of. Every sample runs the garbage collector
+ * first, so only memory that is still reachable counts, not garbage waiting to be collected.
+ * Sampling is slow, so benchmarks should only do it every so often, and leave it out of the
+ * time they measure where that matters.
+ */
+public final class HeapSampler {
+
+    private final Runtime mRuntime = Runtime.getRuntime();
+
+    /* Heap in use when sampling started */
+    private final long mBaselineBytes;
+
+    /* The most heap in use seen by a sample */
+    private long mPeakBytes;
+
+    /**
+     * Start sampling, taking the heap in use now as the baseline.
+     */
+    public HeapSampler()
+        {
+            mBaselineBytes = usedAfterGc();
+            mPeakBytes = mBaselineBytes;
+        }
+
+    private long usedAfterGc()
+        {
+            System.gc();
+            System.gc();
+            return mRuntime.totalMemory() - mRuntime.freeMemory();
+        }
+
+    /**
+     * Take a sample of the heap in use now.
+     */
+    public void sample()
+        {
+            mPeakBytes = Math.max(mPeakBytes, usedAfterGc());
+        }
+
+    /**
+     * Returns the most heap in use by any sample, on top of the baseline.
+     */
+    public long getPeakBytes()
+        {
+            return mPeakBytes - mBaselineBytes;
+        }
+}
@@ -0,0 +1,87 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.util.Random;
+
+/**
+ * Generates shelter-like pets for the benchmarks. The same seed always gives the same pets, so
+ * runs can be compared with each other.
+ */
+public final class PetDataset {
+
+    /* Seed used by the benchmarks unless they need a second, different dataset */
+    public static final long SEED = 20180227L;
+
+    private static final String[] NAMES = {
+            "Toto", "Garfield", "Binx", "Lady", "Duke", "Bella", "Max", "Luna", "Charlie", "Lucy",
+            "Cooper", "Daisy", "Milo", "Sadie", "Rocky", "Molly", "Oliver", "Bailey", "Leo", "Maggie",
+            "Tucker", "Chloe", "Bear", "Sophie", "Buddy", "Stella", "Jack", "Penny", "Zeus", "Coco"
+    };
+
+    /* Breeds, with null standing for pets whose breed isn't known, as happens a lot at intake */
+    private static final String[] BREEDS = {
+            "Terrier", "Tabby", "Labrador Retriever", "German Shepherd", "Siamese", "Beagle",
+            "Persian", "Bulldog", "Maine Coon", "Poodle", "Dachshund", "Boxer", "Ragdoll",
+            "Chihuahua", "Husky", null, null, null
+    };
+
+    private PetDataset()
+        {
+        }
+
+    /**
+     * Returns the number of rows the benchmarks work with, set through -Pbenchmark.rows.
+     */
+    public static int rows()
+        {
+            return Integer.parseInt(System.getProperty("benchmark.rows", "10000"));
+        }
+
+    /**
+     * Generate the given number of pets from the given seed.
+     */
+    public static ContentValues[] generate(int count, long seed)
+        {
+            Random random = new Random(seed);
+            ContentValues[] pets = new ContentValues[count];
+            for (int i = 0; i < count; i++)
+                {
+                    pets[i] = pet(random, i);
+                }
+            return pets;
+        }
+
+    /**
+     * Generate one pet. Names repeat across the shelter, so a numeric suffix tells them apart.
+     */
+    public static ContentValues pet(Random random, int number)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_NAME, NAMES[random.nextInt(NAMES.length)] + " " + number);
+
+            String breed = BREEDS[random.nextInt(BREEDS.length)];
+            if (breed != null)
+                {
+                    values.put(PetsEntry.COLUMN_PET_BREED, breed);
+                }
+
+            // Most pets arriving at a shelter have a known gender
+            int gender = random.nextInt(10);
+            values.put(PetsEntry.COLUMN_PET_GENDER,
+                    gender < 1 ? PetsEntry.GENDER_UNKNOWN : gender < 6 ? PetsEntry.GENDER_MALE : PetsEntry.GENDER_FEMALE);
+
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+            return values;
+        }
+
+    /**
+     * Returns a breed that occurs in the generated pets.
+     */
+    public static String someBreed()
+        {
+            return BREEDS[0];
+        }
+}
@@ -0,0 +1,205 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of importing a million pets with {@link PetImporter}, from CSV and from JSON: the
+ * throughput of an import, and the heap it holds on to while it runs, also for a file where
+ * most rows can't be imported. The intake files are written to disk first, so reading them
+ * doesn't need the whole file in memory either.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetImportBenchmark {
+
+    /* Number of pets imported, whatever -Pbenchmark.rows says, to show memory doesn't grow with it */
+    private static final int ROWS = 1000000;
+
+    /* The most heap an import may hold on to, however many pets there are */
+    private static final long MAX_PEAK_HEAP_BYTES = 32 * 1024 * 1024;
+
+    /* In the mostly invalid file, only one row in this many is a pet that can be imported */
+    private static final int VALID_ONE_IN = 50;
+
+    /* Number of chunks imported between two heap samples */
+    private static final int SAMPLE_INTERVAL_CHUNKS = 100;
+
+    private PetImporter mImporter;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException
+        {
+            Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+            mImporter = new PetImporter(RuntimeEnvironment.application);
+            mFile = File.createTempFile("intake", null);
+        }
+
+    @After
+    public void tearDown()
+        {
+            mFile.delete();
+        }
+
+    /**
+     * Write an intake file of {@link #ROWS} pets in the given format, a pet at a time. Only
+     * one pet in {@code validOneIn} has a gender that can be imported.
+     */
+    private void writeIntakeFile(String format, int validOneIn) throws IOException
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+            try
+                {
+                    Random random = new Random(PetDataset.SEED);
+                    boolean csv = PetImporter.FORMAT_CSV.equals(format);
+                    writer.write(csv ? "name,breed,gender,weight\n" : "[\n");
+                    for (int i = 0; i < ROWS; i++)
+                        {
+                            ContentValues pet = PetDataset.pet(random, i);
+                            if (i % validOneIn != 0)
+                                {
+                                    pet.put(PetsEntry.COLUMN_PET_GENDER, 9);
+                                }
+                            String breed = pet.getAsString(PetsEntry.COLUMN_PET_BREED);
+                            if (csv)
+                                {
+                                    writer.write(pet.getAsString(PetsEntry.COLUMN_PET_NAME) + "," +
+                                            (breed == null ? "" : breed) + "," +
+                                            pet.getAsInteger(PetsEntry.COLUMN_PET_GENDER) + "," +
+                                            pet.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT) + "\n");
+                                }
+                            else
+                                {
+                                    writer.write((i == 0 ? "" : ",\n") +
+                                            "{\"name\":\"" + pet.getAsString(PetsEntry.COLUMN_PET_NAME) + "\"," +
+                                            "\"breed\":" + (breed == null ? "null" : "\"" + breed + "\"") + "," +
+                                            "\"gender\":" + pet.getAsInteger(PetsEntry.COLUMN_PET_GENDER) + "," +
+                                            "\"weight\":" + pet.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT) + "}");
+                                }
+                        }
+                    if (!csv)
+                        {
+                            writer.write("\n]\n");
+                        }
+                }
+            finally
+                {
+                    writer.close();
+                }
+        }
+
+    @Test
+    public void importCsv() throws IOException
+        {
+            importPets("importCsv", PetImporter.FORMAT_CSV, false, 1);
+        }
+
+    @Test
+    public void importJson() throws IOException
+        {
+            importPets("importJson", PetImporter.FORMAT_JSON, false, 1);
+        }
+
+    @Test
+    public void importCsvPeakHeap() throws IOException
+        {
+            importPets("importCsvPeakHeap", PetImporter.FORMAT_CSV, true, 1);
+        }
+
+    @Test
+    public void importJsonPeakHeap() throws IOException
+        {
+            importPets("importJsonPeakHeap", PetImporter.FORMAT_JSON, true, 1);
+        }
+
+    @Test
+    public void importMostlyInvalidCsvPeakHeap() throws IOException
+        {
+            importPets("importMostlyInvalidCsvPeakHeap", PetImporter.FORMAT_CSV, true, VALID_ONE_IN);
+        }
+
+    /**
+     * Import an intake file in the given format, where one pet in {@code validOneIn} can be
+     * imported. When measuring memory, the heap is sampled every
+     * {@link #SAMPLE_INTERVAL_CHUNKS} chunks, which slows the import down, so those runs are
+     * reported separately from the throughput runs.
+     */
+    private void importPets(String benchmark, String format, boolean measureHeap, final int validOneIn) throws IOException
+        {
+            writeIntakeFile(format, validOneIn);
+
+            final HeapSampler sampler = measureHeap ? new HeapSampler() : null;
+            PetImporter.Listener listener = new PetImporter.Listener() {
+                private int mChunks;
+
+                @Override
+                public void onRowFailed(long rowNumber, String reason) {
+                    if (validOneIn == 1)
+                        {
+                            throw new AssertionError("Row " + rowNumber + " failed: " + reason);
+                        }
+                }
+
+                @Override
+                public void onProgress(long rowsRead, long rowsImported, long rowsFailed) {
+                    if (sampler != null && ++mChunks % SAMPLE_INTERVAL_CHUNKS == 0)
+                        {
+                            sampler.sample();
+                        }
+                }
+            };
+
+            InputStream in = new FileInputStream(mFile);
+            PetImporter.Result result;
+            long start = System.nanoTime();
+            try
+                {
+                    result = mImporter.importPets(in, format, listener);
+                }
+            finally
+                {
+                    in.close();
+                }
+            long elapsedNanos = System.nanoTime() - start;
+            long valid = (ROWS + validOneIn - 1) / validOneIn;
+            assertEquals(valid, result.rowsImported);
+            assertEquals(ROWS - valid, result.rowsFailed);
+
+            if (sampler == null)
+                {
+                    BenchmarkResults.report(benchmark, ROWS, ROWS, elapsedNanos);
+                    return;
+                }
+            sampler.sample();
+            BenchmarkResults.report(benchmark, ROWS, ROWS, elapsedNanos, sampler.getPeakBytes());
+            assertTrue("Import held on to " + sampler.getPeakBytes() + " bytes of heap",
+                    sampler.getPeakBytes() < MAX_PEAK_HEAP_BYTES);
+        }
+}
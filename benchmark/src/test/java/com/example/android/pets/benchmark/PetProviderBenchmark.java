@@ -0,0 +1,325 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks of the basic operations of {@link PetProvider}, each against a fresh shelter.db
+ * of {@link PetDataset#rows()} pets, going through the ContentResolver like the app does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetProviderBenchmark {
+
+    /* Number of pets per page for the paging benchmarks, the same as the catalog uses */
+    private static final int PAGE_SIZE = 50;
+
+    /*
+     * Numbers of pets the first page is read from, whatever -Pbenchmark.rows says, to show the
+     * time it takes doesn't grow with the table
+     */
+    private static final int[] FIRST_PAGE_ROWS = {10 * 1000, 100 * 1000, 1000 * 1000};
+
+    /* Number of times the first page is read at each of FIRST_PAGE_ROWS */
+    private static final int FIRST_PAGE_READS = 100;
+
+    /* Number of pets generated and inserted at a time while filling the larger tables */
+    private static final int SEED_CHUNK = 10000;
+
+    /* Texts searched for by the search benchmarks, the start of a breed or a name */
+    private static final String[] SEARCH_TEXTS = {"ter", "lab", "max", "bella", "sia"};
+
+    /* Number of times the search benchmarks search for each text */
+    private static final int SEARCH_ROUNDS = 20;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private int mRows;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+        }
+
+    /**
+     * Fill the table with the standard dataset, returning the IDs of the pets.
+     */
+    private long[] seed()
+        {
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED)));
+
+            long[] ids = new long[mRows];
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    for (int i = 0; cursor.moveToNext(); i++)
+                        {
+                            ids[i] = cursor.getLong(0);
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Read every row of the given cursor, like a client would, and close it. Returns the
+     * number of rows read.
+     */
+    private static int drain(Cursor cursor)
+        {
+            try
+                {
+                    int count = 0;
+                    while (cursor.moveToNext())
+                        {
+                            for (int column = 0; column < cursor.getColumnCount(); column++)
+                                {
+                                    cursor.getString(column);
+                                }
+                            count++;
+                        }
+                    return count;
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void insertOneByOne()
+        {
+            ContentValues[] pets = PetDataset.generate(mRows, PetDataset.SEED);
+
+            long start = System.nanoTime();
+            for (ContentValues pet : pets)
+                {
+                    mResolver.insert(PetsEntry.CONTENT_URI, pet);
+                }
+            BenchmarkResults.report("insert", mRows, mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void bulkInsert()
+        {
+            ContentValues[] pets = PetDataset.generate(mRows, PetDataset.SEED);
+
+            long start = System.nanoTime();
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+            BenchmarkResults.report("bulkInsert", mRows, mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryPetById()
+        {
+            queryPetById("queryPetById", false);
+        }
+
+    @Test
+    public void queryPetByIdCached()
+        {
+            queryPetById("queryPetByIdCached", true);
+        }
+
+    /**
+     * Look up random pets one at a time, the way the editor opens a pet, with the row cache on
+     * or off. Lookups repeat, as they do when the same pets get opened again and again.
+     */
+    private void queryPetById(String benchmark, boolean cached)
+        {
+            long[] ids = seed();
+            mProvider.setRowCacheEnabled(cached);
+
+            // A working set of a tenth of the shelter gets looked up over and over
+            Random random = new Random(PetDataset.SEED);
+            int workingSet = Math.max(1, mRows / 10);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < mRows; i++)
+                {
+                    Uri uri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, ids[random.nextInt(workingSet)]);
+                    assertEquals(1, drain(mResolver.query(uri, null, null, null, null)));
+                }
+            BenchmarkResults.report(benchmark, mRows, mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryCollection()
+        {
+            seed();
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+
+            long start = System.nanoTime();
+            int rowsRead = drain(mResolver.query(PetsEntry.CONTENT_URI, projection, null, null, null));
+            BenchmarkResults.report("queryCollection", mRows, rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryByBreed()
+        {
+            seed();
+
+            long start = System.nanoTime();
+            int rowsRead = drain(mResolver.query(PetsEntry.CONTENT_URI, null,
+                    PetsEntry.COLUMN_PET_BREED + "=?", new String[] {PetDataset.someBreed()}, null));
+            BenchmarkResults.report("queryByBreed", mRows, rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryFirstPage()
+        {
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+            Uri pageUri = PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, PAGE_SIZE);
+
+            // The table grows from one size to the next
+            int rows = 0;
+            for (int size : FIRST_PAGE_ROWS)
+                {
+                    while (rows < size)
+                        {
+                            rows += mResolver.bulkInsert(PetsEntry.CONTENT_URI,
+                                    PetDataset.generate(Math.min(SEED_CHUNK, size - rows), PetDataset.SEED + rows));
+                        }
+
+                    long start = System.nanoTime();
+                    for (int i = 0; i < FIRST_PAGE_READS; i++)
+                        {
+                            assertEquals(PAGE_SIZE, drain(mResolver.query(pageUri, projection, null, null, null)));
+                        }
+                    BenchmarkResults.report("queryFirstPage[" + size + "]", size, FIRST_PAGE_READS, System.nanoTime() - start);
+                }
+        }
+
+    @Test
+    public void queryAllPages()
+        {
+            seed();
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+
+            // Page through the whole table, the way the catalog does as it gets scrolled
+            long start = System.nanoTime();
+            int rowsRead = 0;
+            Uri pageUri = PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, PAGE_SIZE);
+            while (true)
+                {
+                    Cursor cursor = mResolver.query(pageUri, projection, null, null, null);
+                    try
+                        {
+                            int count = cursor.getCount();
+                            rowsRead += count;
+                            if (count < PAGE_SIZE)
+                                {
+                                    break;
+                                }
+                            cursor.moveToLast();
+                            pageUri = PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, cursor.getLong(0), PAGE_SIZE);
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                }
+            assertEquals(mRows, rowsRead);
+            BenchmarkResults.report("queryAllPages", mRows, rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void searchFts()
+        {
+            search("searchFts", true);
+        }
+
+    @Test
+    public void searchLike()
+        {
+            search("searchLike", false);
+        }
+
+    /**
+     * Search for the names and breeds of {@link #SEARCH_TEXTS}, through the full-text index of
+     * pets/search/&lt;text&gt;, or with a LIKE on both columns that has to look at every pet.
+     */
+    private void search(String benchmark, boolean fts)
+        {
+            seed();
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+            String like = PetsEntry.COLUMN_PET_NAME + " LIKE ? OR " + PetsEntry.COLUMN_PET_BREED + " LIKE ?";
+
+            long start = System.nanoTime();
+            int searches = 0;
+            for (int round = 0; round < SEARCH_ROUNDS; round++)
+                {
+                    for (String text : SEARCH_TEXTS)
+                        {
+                            if (fts)
+                                {
+                                    drain(mResolver.query(PetsEntry.buildSearchUri(text), projection, null, null, null));
+                                }
+                            else
+                                {
+                                    String pattern = "%" + text + "%";
+                                    drain(mResolver.query(PetsEntry.CONTENT_URI, projection, like,
+                                            new String[] {pattern, pattern}, null));
+                                }
+                            searches++;
+                        }
+                }
+            BenchmarkResults.report(benchmark, mRows, searches, System.nanoTime() - start);
+        }
+
+    @Test
+    public void updateById()
+        {
+            long[] ids = seed();
+            Random random = new Random(PetDataset.SEED);
+
+            long start = System.nanoTime();
+            for (long id : ids)
+                {
+                    ContentValues values = new ContentValues();
+                    values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+                    mResolver.update(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), values, null, null);
+                }
+            BenchmarkResults.report("updateById", mRows, mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void deleteById()
+        {
+            long[] ids = seed();
+
+            long start = System.nanoTime();
+            for (long id : ids)
+                {
+                    mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), null, null);
+                }
+            BenchmarkResults.report("deleteById", mRows, mRows, System.nanoTime() - start);
+        }
+}
@@ -0,0 +1,163 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks of the pets/stats URI against working the same statistics out from every pet, for
+ * each storage engine. {@code PetStatsTest} checks that the two agree.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetStatsBenchmark {
+
+    /* Number of times the statistics are read for the read benchmarks */
+    private static final int READS = 1000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY},
+                    {PetProvider.STORAGE_ENGINE_MEMORY_WRITE_THROUGH}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+    private int mRows;
+
+    public PetStatsBenchmark(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED)));
+        }
+
+    private void report(String benchmark, long operations, long elapsedNanos)
+        {
+            BenchmarkResults.report(benchmark + "[" + mEngine + "]", mRows, operations, elapsedNanos);
+        }
+
+    @Test
+    public void readStats()
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++)
+                {
+                    readStoredStats();
+                }
+            report("readStats", READS, System.nanoTime() - start);
+        }
+
+    @Test
+    public void recomputeStats()
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++)
+                {
+                    workOutStats();
+                }
+            report("recomputeStats", READS, System.nanoTime() - start);
+        }
+
+    /**
+     * Read the statistics through pets/stats, keyed by "dimension/value".
+     */
+    private Map<String, String> readStoredStats()
+        {
+            Map<String, String> stats = new TreeMap<>();
+            String[] projection = {PetStatsEntry.COLUMN_DIMENSION, PetStatsEntry.COLUMN_VALUE,
+                    PetStatsEntry.COLUMN_PET_COUNT, PetStatsEntry.COLUMN_WEIGHT_SUM};
+            Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI, projection, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            stats.put(cursor.getString(0) + "/" + cursor.getString(1),
+                                    cursor.getLong(2) + " pets, " + cursor.getLong(3) + " kg");
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return stats;
+        }
+
+    /**
+     * Work the statistics out from every pet, in the same form as {@link #readStoredStats()}.
+     */
+    private Map<String, String> workOutStats()
+        {
+            Map<String, long[]> sums = new TreeMap<>();
+            sums.put(PetStatsEntry.DIMENSION_ALL + "/", new long[2]);
+            String[] projection = {PetsEntry.COLUMN_PET_BREED, PetsEntry.COLUMN_PET_GENDER, PetsEntry.COLUMN_PET_WEIGHT};
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, projection, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            String breed = cursor.isNull(0) ? "" : cursor.getString(0);
+                            int weight = cursor.getInt(2);
+                            add(sums, PetStatsEntry.DIMENSION_ALL + "/", weight);
+                            add(sums, PetStatsEntry.DIMENSION_GENDER + "/" + cursor.getInt(1), weight);
+                            add(sums, PetStatsEntry.DIMENSION_BREED + "/" + breed, weight);
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+
+            Map<String, String> stats = new TreeMap<>();
+            for (Map.Entry<String, long[]> entry : sums.entrySet())
+                {
+                    stats.put(entry.getKey(), entry.getValue()[0] + " pets, " + entry.getValue()[1] + " kg");
+                }
+            return stats;
+        }
+
+    private static void add(Map<String, long[]> sums, String key, int weight)
+        {
+            long[] sum = sums.get(key);
+            if (sum == null)
+                {
+                    sum = new long[2];
+                    sums.put(key, sum);
+                }
+            sum[0]++;
+            sum[1] += weight;
+        }
+}
@@ -0,0 +1,112 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times what capturing the plan of a slow query costs in {@link PetProvider}, for a query that
+ * has to scan the whole pets table and for a lookup by _id, with the SQLite and in-memory
+ * engines. The threshold is set to 0, so every query counts as slow. {@code SlowQueryLogTest}
+ * checks what the log captures.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SlowQueryLogBenchmark {
+
+    /* Number of times each query is run for the timings */
+    private static final int QUERIES = 100;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private int mRows;
+
+    public SlowQueryLogBenchmark(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setStorageEngine(mEngine);
+            mProvider.setRowCacheEnabled(false);
+            mProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED)));
+        }
+
+    /**
+     * Run a query, returning the number of rows it found.
+     */
+    private int count(String selection, String[] selectionArgs, String sortOrder)
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, null, selection, selectionArgs, sortOrder);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void captureUnindexedQuery()
+        {
+            // The weight is only indexed after the gender, so every pet has to be looked at
+            String selection = PetsEntry.COLUMN_PET_WEIGHT + ">=?";
+            String sortOrder = PetsEntry.COLUMN_PET_NAME;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++)
+                {
+                    count(selection, new String[] {String.valueOf(i)}, sortOrder);
+                }
+            BenchmarkResults.report("captureUnindexedQuery[" + mEngine + "]", mRows, QUERIES, System.nanoTime() - start);
+        }
+
+    @Test
+    public void captureLookupById()
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++)
+                {
+                    Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, 1 + i), null, null, null, null);
+                    cursor.close();
+                }
+            BenchmarkResults.report("captureLookupById[" + mEngine + "]", mRows, QUERIES, System.nanoTime() - start);
+        }
+}
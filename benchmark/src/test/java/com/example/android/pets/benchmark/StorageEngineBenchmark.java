@@ -0,0 +1,227 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the storage engines of {@link PetProvider} on the same operations: every benchmark
+ * runs once per engine, and is reported as "&lt;benchmark&gt;[&lt;engine&gt;]". The row cache is
+ * off, so the lookups measure the engines themselves.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class StorageEngineBenchmark {
+
+    /* Number of pets per page for the paging benchmark, the same as the catalog uses */
+    private static final int PAGE_SIZE = 50;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY},
+                    {PetProvider.STORAGE_ENGINE_MEMORY_WRITE_THROUGH}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+    private int mRows;
+
+    public StorageEngineBenchmark(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            provider.setRowCacheEnabled(false);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+        }
+
+    private void report(String benchmark, long operations, long elapsedNanos)
+        {
+            BenchmarkResults.report(benchmark + "[" + mEngine + "]", mRows, operations, elapsedNanos);
+        }
+
+    /**
+     * Fill the table with the standard dataset, returning the IDs of the pets.
+     */
+    private long[] seed()
+        {
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED)));
+
+            long[] ids = new long[mRows];
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    for (int i = 0; cursor.moveToNext(); i++)
+                        {
+                            ids[i] = cursor.getLong(0);
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Read every row of the given cursor and close it, returning the number of rows read.
+     */
+    private static int drain(Cursor cursor)
+        {
+            try
+                {
+                    int count = 0;
+                    while (cursor.moveToNext())
+                        {
+                            for (int column = 0; column < cursor.getColumnCount(); column++)
+                                {
+                                    cursor.getString(column);
+                                }
+                            count++;
+                        }
+                    return count;
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void bulkInsert()
+        {
+            ContentValues[] pets = PetDataset.generate(mRows, PetDataset.SEED);
+
+            long start = System.nanoTime();
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+            report("bulkInsert", mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryPetById()
+        {
+            long[] ids = seed();
+            Random random = new Random(PetDataset.SEED);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < mRows; i++)
+                {
+                    Uri uri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, ids[random.nextInt(mRows)]);
+                    assertEquals(1, drain(mResolver.query(uri, null, null, null, null)));
+                }
+            report("queryPetById", mRows, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryByBreed()
+        {
+            seed();
+
+            long start = System.nanoTime();
+            int rowsRead = drain(mResolver.query(PetsEntry.CONTENT_URI, null,
+                    PetsEntry.COLUMN_PET_BREED + "=?", new String[] {PetDataset.someBreed()}, null));
+            report("queryByBreed", rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryByNameSorted()
+        {
+            seed();
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+
+            long start = System.nanoTime();
+            int rowsRead = drain(mResolver.query(PetsEntry.CONTENT_URI, projection, null, null,
+                    PetsEntry.COLUMN_PET_NAME + " ASC"));
+            report("queryByNameSorted", rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void queryAllPages()
+        {
+            seed();
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+
+            long start = System.nanoTime();
+            int rowsRead = 0;
+            Uri pageUri = PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, PAGE_SIZE);
+            while (true)
+                {
+                    Cursor cursor = mResolver.query(pageUri, projection, null, null, null);
+                    try
+                        {
+                            int count = cursor.getCount();
+                            rowsRead += count;
+                            if (count < PAGE_SIZE)
+                                {
+                                    break;
+                                }
+                            cursor.moveToLast();
+                            pageUri = PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, cursor.getLong(0), PAGE_SIZE);
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                }
+            assertEquals(mRows, rowsRead);
+            report("queryAllPages", rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void search()
+        {
+            seed();
+
+            long start = System.nanoTime();
+            int rowsRead = drain(mResolver.query(PetsEntry.buildSearchUri(PetDataset.someBreed()), null, null, null, null));
+            report("search", rowsRead, System.nanoTime() - start);
+        }
+
+    @Test
+    public void updateById()
+        {
+            long[] ids = seed();
+            Random random = new Random(PetDataset.SEED);
+
+            long start = System.nanoTime();
+            for (long id : ids)
+                {
+                    ContentValues values = new ContentValues();
+                    values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+                    mResolver.update(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), values, null, null);
+                }
+            report("updateById", mRows, System.nanoTime() - start);
+        }
+}
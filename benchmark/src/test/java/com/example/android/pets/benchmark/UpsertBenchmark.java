@@ -0,0 +1,189 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares re-importing a shelter feed of microchipped pets, of which 90% haven't changed since
+ * the last import, through the upsert URI against deleting every pet and inserting the feed
+ * again, for the SQLite and in-memory engines. The upsert has to leave exactly one pet per
+ * microchip and count only the pets that changed; a single upsert has to return the URI of the
+ * pet it matched.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class UpsertBenchmark {
+
+    /* One pet in this many of the feed changes between imports */
+    private static final int CHANGED_ONE_IN = 10;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+    private int mRows;
+    private ContentValues[] mFeed;
+
+    public UpsertBenchmark(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+
+            mFeed = PetDataset.generate(mRows, PetDataset.SEED);
+            for (int i = 0; i < mRows; i++)
+                {
+                    mFeed[i].put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(i));
+                }
+            assertEquals(mRows, mResolver.bulkInsert(PetsEntry.buildUpsertUri(), mFeed));
+        }
+
+    private static String microchip(int number)
+        {
+            return String.format("985%012d", number);
+        }
+
+    /**
+     * Returns the feed as it comes in the next time: every tenth pet has either a new weight or
+     * been replaced by a pet that hasn't been imported before.
+     */
+    private ContentValues[] nextFeed()
+        {
+            Random random = new Random(PetDataset.SEED + 1);
+            ContentValues[] feed = new ContentValues[mRows];
+            for (int i = 0; i < mRows; i++)
+                {
+                    feed[i] = new ContentValues(mFeed[i]);
+                    if (i % CHANGED_ONE_IN != 0)
+                        {
+                            continue;
+                        }
+                    if (i % (2 * CHANGED_ONE_IN) == 0)
+                        {
+                            feed[i].put(PetsEntry.COLUMN_PET_WEIGHT, 61 + random.nextInt(60));
+                        }
+                    else
+                        {
+                            feed[i] = PetDataset.pet(random, mRows + i);
+                            feed[i].put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(mRows + i));
+                        }
+                }
+            return feed;
+        }
+
+    private int countPets()
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    private int countDistinctMicrochips()
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry.COLUMN_PET_MICROCHIP}, null, null, null);
+            try
+                {
+                    HashSet<String> microchips = new HashSet<>();
+                    while (cursor.moveToNext())
+                        {
+                            microchips.add(cursor.getString(0));
+                        }
+                    return microchips.size();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void reimport()
+        {
+            ContentValues[] feed = nextFeed();
+            int changed = (mRows + CHANGED_ONE_IN - 1) / CHANGED_ONE_IN;
+            int added = changed / 2;
+
+            // Upsert the feed over what the last import left
+            long start = System.nanoTime();
+            int rowsChanged = mResolver.bulkInsert(PetsEntry.buildUpsertUri(), feed);
+            BenchmarkResults.report("reimport[" + mEngine + ",upsert]", mRows, mRows, System.nanoTime() - start);
+            assertEquals(changed, rowsChanged);
+            assertEquals(mRows + added, countPets());
+            assertEquals(mRows + added, countDistinctMicrochips());
+
+            // The same feed once more changes nothing
+            start = System.nanoTime();
+            rowsChanged = mResolver.bulkInsert(PetsEntry.buildUpsertUri(), feed);
+            BenchmarkResults.report("reimport[" + mEngine + ",upsertAgain]", mRows, mRows, System.nanoTime() - start);
+            assertEquals(0, rowsChanged);
+            assertEquals(mRows + added, countPets());
+
+            // Throw everything away and insert the feed again, the way a re-import had to go
+            start = System.nanoTime();
+            mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+            int rowsInserted = mResolver.bulkInsert(PetsEntry.CONTENT_URI, feed);
+            BenchmarkResults.report("reimport[" + mEngine + ",deleteAndInsert]", mRows, mRows, System.nanoTime() - start);
+            assertEquals(mRows, rowsInserted);
+            assertEquals(mRows, countPets());
+        }
+
+    @Test
+    public void upsertSinglePet()
+        {
+            ContentValues pet = new ContentValues(mFeed[0]);
+            pet.put(PetsEntry.COLUMN_PET_WEIGHT, 121);
+            Uri updated = mResolver.insert(PetsEntry.buildUpsertUri(), pet);
+            assertNotNull(updated);
+            assertEquals(mRows, countPets());
+
+            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(mRows));
+            Uri inserted = mResolver.insert(PetsEntry.buildUpsertUri(), pet);
+            assertNotNull(inserted);
+            assertEquals(mRows + 1, countPets());
+            assertEquals(updated, mResolver.insert(PetsEntry.buildUpsertUri(), mFeed[0]));
+        }
+}
@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.BackupEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Backs up shelter.db through {@link SqlitePetStore} while another thread keeps inserting pets,
+ * two to a transaction, and reports how long the backup took and how long the writes had to
+ * wait, next to the same writes without a backup. Also times a backup and a restore through
+ * the provider. {@code BackupTest} checks what the backups and restores hold. This lives in
+ * the data package to get at the store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BackupBenchmark {
+
+    /* Number of transactions the writer runs without a backup, to compare with */
+    private static final int BASELINE_WRITES = 200;
+
+    /* The name of every pet the writer inserts */
+    private static final String WRITER_NAME = "Writer";
+
+    /**
+     * Keeps inserting two pets per transaction until it's stopped, or until it has run the given
+     * number of transactions, timing every one.
+     */
+    private static final class Writer extends Thread
+        {
+            private final PetStore mStore;
+            private final int mMaxWrites;
+            private volatile boolean mStopped;
+            private long[] mLatencies = new long[1024];
+            private int mWrites;
+
+            Writer(PetStore store, int maxWrites)
+                {
+                    mStore = store;
+                    mMaxWrites = maxWrites;
+                }
+
+            @Override
+            public void run()
+                {
+                    Random random = new Random(PetDataset.SEED + 1);
+                    while (!mStopped && mWrites < mMaxWrites)
+                        {
+                            ContentValues[] pets = {PetDataset.pet(random, 0), PetDataset.pet(random, 1)};
+                            for (ContentValues pet : pets)
+                                {
+                                    pet.put(PetsEntry.COLUMN_PET_NAME, WRITER_NAME);
+                                }
+                            long start = System.nanoTime();
+                            mStore.bulkInsert(pets);
+                            if (mWrites == mLatencies.length)
+                                {
+                                    mLatencies = Arrays.copyOf(mLatencies, 2 * mWrites);
+                                }
+                            mLatencies[mWrites++] = System.nanoTime() - start;
+                        }
+                }
+
+            /**
+             * Stop writing, and return the latencies of the writes, sorted.
+             */
+            long[] finish() throws InterruptedException
+                {
+                    mStopped = true;
+                    join();
+                    long[] latencies = Arrays.copyOf(mLatencies, mWrites);
+                    Arrays.sort(latencies);
+                    return latencies;
+                }
+        }
+
+    private int mRows;
+    private File mBackup;
+
+    @Before
+    public void setUp()
+        {
+            mRows = PetDataset.rows();
+            mBackup = new File(RuntimeEnvironment.application.getFilesDir(), "shelter-backup.db");
+            mBackup.delete();
+        }
+
+    /**
+     * Report how long something took, and the longest and 99th percentile wait of the writes
+     * that ran alongside it.
+     */
+    private void report(String benchmark, long operations, long elapsedNanos, long[] latencies)
+        {
+            BenchmarkResults.report(benchmark, mRows, operations, elapsedNanos);
+            if (latencies.length != 0)
+                {
+                    BenchmarkResults.report(benchmark + ".writeMax", mRows, 1, latencies[latencies.length - 1]);
+                    BenchmarkResults.report(benchmark + ".writeP99", mRows, 1, latencies[(int) (latencies.length * 0.99)]);
+                }
+        }
+
+    @Test
+    public void backupWhileWriting() throws IOException, InterruptedException
+        {
+            SqlitePetStore store = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            store.bulkInsert(PetDataset.generate(mRows, PetDataset.SEED));
+
+            // The writes on their own
+            Writer writer = new Writer(store, BASELINE_WRITES);
+            long start = System.nanoTime();
+            writer.start();
+            long[] latencies = writer.finish();
+            report("backupWhileWriting[writesAlone]", latencies.length, System.nanoTime() - start, latencies);
+
+            // The same writes, for as long as a backup runs
+            writer = new Writer(store, Integer.MAX_VALUE);
+            writer.start();
+            start = System.nanoTime();
+            long pages = store.backup(mBackup, BackupEntry.DEFAULT_STEP_PAGES, BackupEntry.DEFAULT_STEP_PAUSE_MILLIS);
+            long elapsed = System.nanoTime() - start;
+            latencies = writer.finish();
+            report("backupWhileWriting[backup]", pages, elapsed, latencies);
+        }
+
+    @Test
+    public void restore()
+        {
+            Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+            resolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(mRows, PetDataset.SEED));
+
+            long start = System.nanoTime();
+            Bundle result = resolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_BACKUP, mBackup.getPath(), null);
+            BenchmarkResults.report("restore[backup]", mRows, result.getLong(BackupEntry.KEY_PAGES), System.nanoTime() - start);
+
+            // Change the pets after the backup
+            resolver.delete(PetsEntry.CONTENT_URI, null, null);
+            resolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(10, PetDataset.SEED + 1));
+
+            start = System.nanoTime();
+            resolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_RESTORE, mBackup.getPath(), null);
+            BenchmarkResults.report("restore[restore]", mRows, mRows, System.nanoTime() - start);
+        }
+}
@@ -0,0 +1,414 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.BackupEntry;
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A backup made while another thread keeps writing is a sound database as it was between two
+ * of the writer's transactions. Restoring a backup through {@link PetProvider} brings the pets
+ * back, starts the change journal over after every change before, and leaves nothing of the
+ * database it replaced: not in the row cache, and not in what a call running alongside the
+ * restore sees. Every listener of the pets hears about the restore, and a damaged backup
+ * doesn't touch the pets.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BackupTest {
+
+    /* Number of pets in the backup */
+    private static final int ROWS = 100;
+
+    /* The name of every pet the writer inserts */
+    private static final String WRITER_NAME = "Writer";
+
+    /**
+     * Records every change it hears about.
+     */
+    private static final class RecordingObserver extends ContentObserver
+        {
+            final ArrayList<Uri> changes = new ArrayList<>();
+
+            RecordingObserver()
+                {
+                    // No handler, so changes are recorded as soon as they're sent
+                    super(null);
+                }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri)
+                {
+                    changes.add(uri);
+                }
+        }
+
+    /**
+     * Keeps counting the pets until it's stopped, and records every count it reads.
+     */
+    private static final class Counter extends Thread
+        {
+            private final ContentResolver mResolver;
+            private volatile boolean mStopped;
+            final ArrayList<Integer> counts = new ArrayList<>();
+            Throwable failure;
+
+            Counter(ContentResolver resolver)
+                {
+                    mResolver = resolver;
+                }
+
+            @Override
+            public void run()
+                {
+                    try
+                        {
+                            while (!mStopped)
+                                {
+                                    counts.add(countPets(mResolver));
+                                }
+                        }
+                    catch (Throwable e)
+                        {
+                            failure = e;
+                        }
+                }
+
+            void finish() throws InterruptedException
+                {
+                    mStopped = true;
+                    join();
+                }
+        }
+
+    /**
+     * Keeps inserting two pets per transaction until it's stopped.
+     */
+    private static final class Writer extends Thread
+        {
+            private final PetStore mStore;
+            private volatile boolean mStopped;
+
+            Writer(PetStore store)
+                {
+                    mStore = store;
+                }
+
+            @Override
+            public void run()
+                {
+                    Random random = new Random(PetDataset.SEED + 1);
+                    while (!mStopped)
+                        {
+                            ContentValues[] pets = {PetDataset.pet(random, 0), PetDataset.pet(random, 1)};
+                            for (ContentValues pet : pets)
+                                {
+                                    pet.put(PetsEntry.COLUMN_PET_NAME, WRITER_NAME);
+                                }
+                            mStore.bulkInsert(pets);
+                        }
+                }
+
+            void finish() throws InterruptedException
+                {
+                    mStopped = true;
+                    join();
+                }
+        }
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private File mBackup;
+    private Uri mPetUri;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setNotificationWindowMillis(0);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED));
+
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    cursor.moveToFirst();
+                    mPetUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, cursor.getLong(0));
+                }
+            finally
+                {
+                    cursor.close();
+                }
+
+            mBackup = new File(RuntimeEnvironment.application.getFilesDir(), "shelter-backup.db");
+            mBackup.delete();
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_BACKUP, mBackup.getPath(), null);
+        }
+
+    @After
+    public void tearDown()
+        {
+            mBackup.delete();
+        }
+
+    private static int countPets(ContentResolver resolver)
+        {
+            Cursor cursor = resolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    /**
+     * Returns the weight of the pet.
+     */
+    private int readWeight()
+        {
+            Cursor cursor = mResolver.query(mPetUri, new String[] {PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+            try
+                {
+                    assertTrue(cursor.moveToFirst());
+                    return cursor.getInt(0);
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    private void restore()
+        {
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_RESTORE, mBackup.getPath(), null);
+        }
+
+    /**
+     * Returns every pet, in _id order.
+     */
+    private ArrayList<String> readPets()
+        {
+            ArrayList<String> pets = new ArrayList<>();
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {
+                    PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_WEIGHT}, null, null, PetsEntry._ID);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            pets.add(cursor.getLong(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return pets;
+        }
+
+    /**
+     * Returns the sequence number of every entry of the journal, and 1 for a clear or 0 for
+     * any other change.
+     */
+    private ArrayList<long[]> readChanges()
+        {
+            ArrayList<long[]> changes = new ArrayList<>();
+            Cursor cursor = mResolver.query(PetChangesEntry.buildPageUri(0, Integer.MAX_VALUE), new String[] {
+                    PetChangesEntry.COLUMN_SEQUENCE, PetChangesEntry.COLUMN_CHANGE}, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            changes.add(new long[] {cursor.getLong(0),
+                                    PetChangesEntry.CHANGE_CLEAR.equals(cursor.getString(1)) ? 1 : 0});
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return changes;
+        }
+
+    private static long count(SQLiteDatabase db, String sql)
+        {
+            return DatabaseUtils.longForQuery(db, sql, null);
+        }
+
+    @Test
+    public void backupWhileWritingIsSound() throws IOException, InterruptedException
+        {
+            SqlitePetStore store = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            File backupFile = new File(RuntimeEnvironment.application.getFilesDir(), "shelter-backup-while-writing.db");
+            backupFile.delete();
+
+            // A page at a time, so the writer gets to write while the backup goes on
+            Writer writer = new Writer(store);
+            writer.start();
+            store.backup(backupFile, 1, BackupEntry.DEFAULT_STEP_PAUSE_MILLIS);
+            writer.finish();
+
+            // A database of its own, as it was between two of the writer's transactions
+            SQLiteDatabase backup = SQLiteDatabase.openDatabase(backupFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try
+                {
+                    assertEquals("ok", DatabaseUtils.stringForQuery(backup, "PRAGMA integrity_check", null));
+                    assertEquals("delete", DatabaseUtils.stringForQuery(backup, "PRAGMA journal_mode", null));
+
+                    long pets = count(backup, "SELECT COUNT(*) FROM " + PetsEntry.TABLE_PET_NAME);
+                    long writerPets = count(backup, "SELECT COUNT(*) FROM " + PetsEntry.TABLE_PET_NAME +
+                            " WHERE " + PetsEntry.COLUMN_PET_NAME + " = '" + WRITER_NAME + "'");
+                    assertTrue(pets >= ROWS);
+                    assertEquals(0, writerPets % 2);
+                    assertEquals(pets, count(backup, "SELECT " + PetStatsEntry.COLUMN_PET_COUNT + " FROM " +
+                            PetStatsEntry.TABLE_PET_STATS_NAME + " WHERE " + PetStatsEntry.COLUMN_DIMENSION +
+                            " = '" + PetStatsEntry.DIMENSION_ALL + "'"));
+                    assertEquals(pets, count(backup, "SELECT COUNT(*) FROM " + PetsEntry.TABLE_PET_SEARCH_NAME));
+                }
+            finally
+                {
+                    backup.close();
+                    backupFile.delete();
+                }
+        }
+
+    @Test
+    public void restoreBringsThePetsBack()
+        {
+            ArrayList<String> pets = readPets();
+
+            // Change the pets after the backup
+            mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(10, PetDataset.SEED + 1));
+            ArrayList<long[]> changes = readChanges();
+            long lastSequence = changes.get(changes.size() - 1)[0];
+
+            restore();
+            assertEquals(pets, readPets());
+
+            // The journal starts over with a clear and every pet, numbered after what came before
+            changes = readChanges();
+            assertEquals(ROWS + 1, changes.size());
+            assertTrue(changes.get(0)[0] > lastSequence);
+            assertEquals(1, changes.get(0)[1]);
+
+            // The provider goes on working with the restored database
+            mResolver.insert(PetsEntry.CONTENT_URI, PetDataset.pet(new Random(PetDataset.SEED), ROWS));
+            assertEquals(ROWS + 1, readPets().size());
+        }
+
+    @Test
+    public void damagedBackupLeavesThePets() throws IOException
+        {
+            ArrayList<String> pets = readPets();
+
+            FileOutputStream out = new FileOutputStream(mBackup);
+            try
+                {
+                    out.write("SQLite format 3\0 but not really a database".getBytes("US-ASCII"));
+                }
+            finally
+                {
+                    out.close();
+                }
+            try
+                {
+                    restore();
+                    fail("Restored a damaged backup");
+                }
+            catch (IllegalStateException e)
+                {
+                    // Expected
+                }
+            assertEquals(pets, readPets());
+        }
+
+    @Test
+    public void restoreDropsCachedPets()
+        {
+            int weight = readWeight();
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight + 1);
+            mResolver.update(mPetUri, values, null, null);
+
+            // Read the changed pet until it comes from the cache
+            readWeight();
+            int hits = mProvider.getRowCacheHitCount();
+            assertEquals(weight + 1, readWeight());
+            assertEquals(hits + 1, mProvider.getRowCacheHitCount());
+
+            restore();
+            assertEquals(weight, readWeight());
+        }
+
+    @Test
+    public void restoreTellsListenersOfThePets()
+        {
+            RecordingObserver observer = new RecordingObserver();
+            mResolver.registerContentObserver(PetsEntry.CONTENT_URI, true, observer);
+            try
+                {
+                    restore();
+                }
+            finally
+                {
+                    mResolver.unregisterContentObserver(observer);
+                }
+            assertTrue(observer.changes.contains(PetsEntry.CONTENT_URI));
+        }
+
+    @Test
+    public void callsDuringRestoreSeeOneDatabase() throws InterruptedException
+        {
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED + 1));
+
+            Counter counter = new Counter(mResolver);
+            counter.start();
+            for (int i = 0; i < 5; i++)
+                {
+                    restore();
+                }
+            counter.finish();
+
+            assertNull(counter.failure);
+            for (int count : counter.counts)
+                {
+                    assertTrue("Counted " + count + " pets", count == ROWS || count == 2 * ROWS);
+                }
+            assertEquals(ROWS, countPets(mResolver));
+        }
+}
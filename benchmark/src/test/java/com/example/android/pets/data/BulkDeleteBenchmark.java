@@ -0,0 +1,171 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deletes from a large shelter.db through {@link SqlitePetStore} while another thread keeps
+ * reading the first page of pets, and reports how long the deletes took and how long the
+ * reads had to wait. Deleting every pet takes the fast path; deleting the pets of a gender runs
+ * in chunks, and is compared with the same delete in one transaction. {@code BulkDeleteTest}
+ * checks what the deletes leave behind. The size of the table is set with
+ * -Pbenchmark.deleteRows, a million pets unless told otherwise. This lives in the data package
+ * to get at the store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BulkDeleteBenchmark {
+
+    /* Number of pets inserted per transaction while filling the table */
+    private static final int INSERT_BATCH_ROWS = 10000;
+
+    /* Number of pets the reader reads at a time, the same as a page of the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Keeps reading the first page of pets until it's stopped, timing every read.
+     */
+    private static final class Reader extends Thread
+        {
+            private final SqlitePetStore mStore;
+            private volatile boolean mStopped;
+            private long[] mLatencies = new long[1024];
+            private int mReads;
+
+            Reader(SqlitePetStore store)
+                {
+                    mStore = store;
+                }
+
+            @Override
+            public void run()
+                {
+                    while (!mStopped)
+                        {
+                            long start = System.nanoTime();
+                            Cursor cursor = mStore.query(new String[] {PetsEntry._ID}, null, null, PetsEntry._ID, String.valueOf(PAGE_SIZE));
+                            try
+                                {
+                                    cursor.getCount();
+                                }
+                            finally
+                                {
+                                    cursor.close();
+                                }
+                            if (mReads == mLatencies.length)
+                                {
+                                    mLatencies = Arrays.copyOf(mLatencies, 2 * mReads);
+                                }
+                            mLatencies[mReads++] = System.nanoTime() - start;
+                        }
+                }
+
+            /**
+             * Stop reading, and return the latencies of the reads, sorted.
+             */
+            long[] finish() throws InterruptedException
+                {
+                    mStopped = true;
+                    join();
+                    long[] latencies = Arrays.copyOf(mLatencies, mReads);
+                    Arrays.sort(latencies);
+                    return latencies;
+                }
+        }
+
+    private SqlitePetStore mStore;
+    private int mRows;
+
+    @Before
+    public void setUp()
+        {
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            mRows = Integer.parseInt(System.getProperty("benchmark.deleteRows", "1000000"));
+
+            Random random = new Random(PetDataset.SEED);
+            for (int start = 0; start < mRows; start += INSERT_BATCH_ROWS)
+                {
+                    ContentValues[] pets = new ContentValues[Math.min(INSERT_BATCH_ROWS, mRows - start)];
+                    for (int i = 0; i < pets.length; i++)
+                        {
+                            pets[i] = PetDataset.pet(random, start + i);
+                        }
+                    mStore.bulkInsert(pets);
+                }
+        }
+
+    /**
+     * Report the time of a delete, and the longest and 99th percentile wait of the reads that
+     * ran alongside it.
+     */
+    private void report(String benchmark, long rowsDeleted, long elapsedNanos, long[] latencies)
+        {
+            BenchmarkResults.report(benchmark, mRows, rowsDeleted, elapsedNanos);
+            if (latencies.length != 0)
+                {
+                    BenchmarkResults.report(benchmark + ".readMax", mRows, 1, latencies[latencies.length - 1]);
+                    BenchmarkResults.report(benchmark + ".readP99", mRows, 1, latencies[(int) (latencies.length * 0.99)]);
+                }
+        }
+
+    @Test
+    public void deleteAll() throws InterruptedException
+        {
+            Reader reader = new Reader(mStore);
+            reader.start();
+            long start = System.nanoTime();
+            int rowsDeleted = mStore.delete(null, null);
+            long elapsed = System.nanoTime() - start;
+            long[] latencies = reader.finish();
+            report("deleteAll", rowsDeleted, elapsed, latencies);
+        }
+
+    @Test
+    public void deleteMatching() throws InterruptedException
+        {
+            String selection = PetsEntry.COLUMN_PET_GENDER + "=?";
+
+            // The males in chunks, with the reader going in between
+            String[] males = {String.valueOf(PetsEntry.GENDER_MALE)};
+            Reader reader = new Reader(mStore);
+            reader.start();
+            long start = System.nanoTime();
+            int rowsDeleted = mStore.delete(selection, males);
+            long elapsed = System.nanoTime() - start;
+            long[] latencies = reader.finish();
+            report("deleteMatching[chunked]", rowsDeleted, elapsed, latencies);
+
+            // The females in one transaction, the way every delete went before
+            String[] females = {String.valueOf(PetsEntry.GENDER_FEMALE)};
+            reader = new Reader(mStore);
+            reader.start();
+            start = System.nanoTime();
+            mStore.beginTransaction();
+            try
+                {
+                    rowsDeleted = mStore.delete(selection, females);
+                    mStore.setTransactionSuccessful();
+                }
+            finally
+                {
+                    mStore.endTransaction();
+                }
+            elapsed = System.nanoTime() - start;
+            latencies = reader.finish();
+            report("deleteMatching[oneTransaction]", rowsDeleted, elapsed, latencies);
+        }
+}
@@ -0,0 +1,261 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Deleting every pet empties the search index and the statistics and puts the triggers back,
+ * a large delete runs in chunks that find every matching pet, and both hand the freed pages
+ * back. Only compacting switches a database from before incremental auto-vacuum over, never
+ * opening it. Through {@link PetProvider}, a delete that fails tells no listener, and drops the
+ * cached pets a part of it that went through may have deleted.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BulkDeleteTest {
+
+    /* Number of pets in the shelter, enough for several chunks of a delete */
+    private static final int ROWS = 5 * SqlitePetStore.DELETE_CHUNK_ROWS + 17;
+
+    /**
+     * Records every change it hears about.
+     */
+    private static final class RecordingObserver extends ContentObserver
+        {
+            final ArrayList<Uri> changes = new ArrayList<>();
+
+            RecordingObserver()
+                {
+                    // No handler, so changes are recorded as soon as they're sent
+                    super(null);
+                }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri)
+                {
+                    changes.add(uri);
+                }
+        }
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private SqlitePetStore mStore;
+    private RecordingObserver mObserver;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setNotificationWindowMillis(0);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            mStore.bulkInsert(PetDataset.generate(ROWS, PetDataset.SEED));
+
+            mObserver = new RecordingObserver();
+            mResolver.registerContentObserver(PetsEntry.CONTENT_URI, true, mObserver);
+        }
+
+    @After
+    public void tearDown()
+        {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+
+    private SQLiteDatabase getDatabase()
+        {
+            return mStore.getDbHelper().getWritableDatabase();
+        }
+
+    private long countPets(String selection, String[] selectionArgs)
+        {
+            return DatabaseUtils.queryNumEntries(getDatabase(), PetsEntry.TABLE_PET_NAME, selection, selectionArgs);
+        }
+
+    private long pragma(String name)
+        {
+            return DatabaseUtils.longForQuery(getDatabase(), "PRAGMA " + name, null);
+        }
+
+    /**
+     * Returns the _id of the first pet.
+     */
+    private long firstId()
+        {
+            Cursor cursor = mStore.query(new String[] {PetsEntry._ID}, null, null, PetsEntry._ID, "1");
+            try
+                {
+                    assertTrue(cursor.moveToFirst());
+                    return cursor.getLong(0);
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    /**
+     * Returns whether the provider finds the pet with the given _id.
+     */
+    private boolean providerFinds(long id)
+        {
+            Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id),
+                    new String[] {PetsEntry.COLUMN_PET_NAME}, null, null, null);
+            try
+                {
+                    return cursor.moveToFirst();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void deleteAllEmptiesEverythingAndKeepsTheTriggers()
+        {
+            long pagesBefore = pragma("page_count");
+            assertEquals(ROWS, mStore.delete(null, null));
+
+            assertEquals(0, countPets(null, null));
+            assertEquals(0, DatabaseUtils.queryNumEntries(getDatabase(), PetsEntry.TABLE_PET_SEARCH_NAME));
+            assertEquals(0, DatabaseUtils.longForQuery(getDatabase(),
+                    "SELECT " + PetStatsEntry.COLUMN_PET_COUNT + " FROM " + PetStatsEntry.TABLE_PET_STATS_NAME +
+                            " WHERE " + PetStatsEntry.COLUMN_DIMENSION + " = ?", new String[] {PetStatsEntry.DIMENSION_ALL}));
+
+            // The freed pages went back to the file system
+            assertEquals(0, pragma("freelist_count"));
+            assertTrue("Still " + pragma("page_count") + " of " + pagesBefore + " pages",
+                    pragma("page_count") < pagesBefore);
+
+            // The triggers are back, so the pets inserted from now on are searchable and counted
+            mStore.bulkInsert(PetDataset.generate(10, PetDataset.SEED));
+            assertEquals(10, DatabaseUtils.queryNumEntries(getDatabase(), PetsEntry.TABLE_PET_SEARCH_NAME));
+        }
+
+    @Test
+    public void chunkedDeleteFindsEveryMatch()
+        {
+            String selection = PetsEntry.COLUMN_PET_GENDER + "=?";
+            String[] males = {String.valueOf(PetsEntry.GENDER_MALE)};
+            long expected = countPets(selection, males);
+            long others = ROWS - expected;
+            assertTrue(expected > SqlitePetStore.DELETE_CHUNK_ROWS);
+
+            assertEquals(expected, mStore.delete(selection, males));
+            assertEquals(0, countPets(selection, males));
+            assertEquals(others, countPets(null, null));
+            assertEquals(0, pragma("freelist_count"));
+        }
+
+    @Test
+    public void deleteInTransactionReclaimsSpaceOnceItEnds()
+        {
+            String selection = PetsEntry.COLUMN_PET_GENDER + "=?";
+            String[] females = {String.valueOf(PetsEntry.GENDER_FEMALE)};
+            long expected = countPets(selection, females);
+
+            mStore.beginTransaction();
+            try
+                {
+                    assertEquals(expected, mStore.delete(selection, females));
+                    mStore.setTransactionSuccessful();
+                }
+            finally
+                {
+                    mStore.endTransaction();
+                }
+            assertEquals(0, countPets(selection, females));
+            assertEquals(0, pragma("freelist_count"));
+        }
+
+    @Test
+    public void onlyCompactSwitchesAnOldDatabaseToIncrementalVacuum()
+        {
+            // Turn the shelter into one from before incremental auto-vacuum, with space to give back
+            SQLiteDatabase db = getDatabase();
+            db.execSQL("PRAGMA auto_vacuum = NONE");
+            db.execSQL("VACUUM");
+            db.execSQL("DELETE FROM " + PetsEntry.TABLE_PET_NAME + " WHERE " + PetsEntry._ID + " > " + (firstId() + ROWS / 2));
+            mStore.getDbHelper().close();
+            assertEquals(0, pragma("auto_vacuum"));
+
+            // Opening the database again leaves it as it is
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            assertEquals(0, pragma("auto_vacuum"));
+            assertTrue(pragma("freelist_count") > 0);
+
+            mStore.compact();
+            assertEquals(PetDbHelper.AUTO_VACUUM_INCREMENTAL, pragma("auto_vacuum"));
+            assertEquals(0, pragma("freelist_count"));
+        }
+
+    @Test
+    public void failedDeleteTellsNoOne()
+        {
+            try
+                {
+                    mResolver.delete(PetsEntry.CONTENT_URI, "no_such_column = 1", null);
+                    fail("Deleted with a selection of a column that doesn't exist");
+                }
+            catch (SQLiteException e)
+                {
+                    // Expected
+                }
+            assertEquals(ROWS, countPets(null, null));
+            assertTrue("Heard " + mObserver.changes, mObserver.changes.isEmpty());
+        }
+
+    @Test
+    public void partlyFailedDeleteDropsCachedPets()
+        {
+            // Read the first pet until it comes from the cache
+            long id = firstId();
+            providerFinds(id);
+            int hits = mProvider.getRowCacheHitCount();
+            assertTrue(providerFinds(id));
+            assertEquals(hits + 1, mProvider.getRowCacheHitCount());
+
+            // Matches every pet, but past the first chunk the selection overflows, so the delete
+            // fails after the first chunk went through
+            String selection = "CASE WHEN " + PetsEntry._ID + " > " + (id + 2 * SqlitePetStore.DELETE_CHUNK_ROWS) +
+                    " THEN abs(-9223372036854775808) ELSE 1 END";
+            try
+                {
+                    mResolver.delete(PetsEntry.CONTENT_URI, selection, null);
+                    fail("The selection didn't overflow");
+                }
+            catch (SQLiteException e)
+                {
+                    // Expected
+                }
+            assertTrue(countPets(null, null) < ROWS);
+            assertTrue(!providerFinds(id));
+        }
+}
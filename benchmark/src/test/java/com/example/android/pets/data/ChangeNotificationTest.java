@@ -0,0 +1,192 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The cursors {@link PetProvider} hands out hear about every change that can touch their rows,
+ * once per change, and a change to a single pet isn't sent to the listeners of other pets.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ChangeNotificationTest {
+
+    /**
+     * Records every change it hears about.
+     */
+    private static final class RecordingObserver extends ContentObserver
+        {
+            final ArrayList<Uri> changes = new ArrayList<>();
+
+            RecordingObserver()
+                {
+                    // No handler, so changes are recorded as soon as they're sent
+                    super(null);
+                }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri)
+                {
+                    changes.add(uri);
+                }
+        }
+
+    private ContentResolver mResolver;
+    private final ArrayList<Cursor> mCursors = new ArrayList<>();
+    private final ArrayList<ContentObserver> mObservers = new ArrayList<>();
+    private long[] mIds;
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setNotificationWindowMillis(0);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(100, PetDataset.SEED));
+
+            Cursor cursor = query(PetsEntry.CONTENT_URI);
+            mIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++)
+                {
+                    mIds[i] = cursor.getLong(cursor.getColumnIndex(PetsEntry._ID));
+                }
+        }
+
+    @After
+    public void tearDown()
+        {
+            for (Cursor cursor : mCursors)
+                {
+                    cursor.close();
+                }
+            for (ContentObserver observer : mObservers)
+                {
+                    mResolver.unregisterContentObserver(observer);
+                }
+        }
+
+    /**
+     * Query the given URI, keeping the cursor open until the test is over.
+     */
+    private Cursor query(Uri uri)
+        {
+            Cursor cursor = mResolver.query(uri, null, null, null, PetsEntry._ID);
+            mCursors.add(cursor);
+            return cursor;
+        }
+
+    /**
+     * Query the given URI and return an observer of the cursor, the way a loader watches it. A
+     * cursor passes on that its rows changed, but not the URI of the change.
+     */
+    private RecordingObserver observe(Uri uri)
+        {
+            RecordingObserver observer = new RecordingObserver();
+            query(uri).registerContentObserver(observer);
+            return observer;
+        }
+
+    /**
+     * Return an observer of the given URI and its descendants, which hears the URI of every
+     * change.
+     */
+    private RecordingObserver listen(Uri uri)
+        {
+            RecordingObserver observer = new RecordingObserver();
+            mResolver.registerContentObserver(uri, true, observer);
+            mObservers.add(observer);
+            return observer;
+        }
+
+    @Test
+    public void searchHearsOfMatchingInsert()
+        {
+            RecordingObserver search = observe(PetsEntry.buildSearchUri("Quasimodo"));
+
+            ContentValues pet = PetDataset.pet(new Random(PetDataset.SEED), 1000);
+            pet.put(PetsEntry.COLUMN_PET_NAME, "Quasimodo");
+            mResolver.insert(PetsEntry.CONTENT_URI, pet);
+            assertEquals(1, search.changes.size());
+            assertEquals(1, query(PetsEntry.buildSearchUri("Quasimodo")).getCount());
+        }
+
+    @Test
+    public void searchHearsOfSinglePetUpdate()
+        {
+            RecordingObserver search = observe(PetsEntry.buildSearchUri(PetDataset.someBreed()));
+
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_BREED, PetDataset.someBreed());
+            mResolver.update(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mIds[0]), values, null, null);
+            assertEquals(1, search.changes.size());
+        }
+
+    @Test
+    public void singlePetUpdateReachesOnlyThatPet()
+        {
+            Uri firstPet = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mIds[0]);
+            Uri secondPet = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mIds[1]);
+            RecordingObserver all = observe(PetsEntry.CONTENT_URI);
+            RecordingObserver page = observe(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 50));
+            RecordingObserver first = observe(firstPet);
+            RecordingObserver second = observe(secondPet);
+
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, 99);
+            mResolver.update(firstPet, values, null, null);
+
+            assertEquals(1, all.changes.size());
+            assertEquals(1, page.changes.size());
+            assertEquals(1, first.changes.size());
+            assertEquals(0, second.changes.size());
+        }
+
+    @Test
+    public void changesCarryTheirKind()
+        {
+            RecordingObserver all = listen(PetsEntry.CONTENT_URI);
+
+            Uri petUri = mResolver.insert(PetsEntry.CONTENT_URI, PetDataset.pet(new Random(PetDataset.SEED), 1000));
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, 99);
+            mResolver.update(petUri, values, null, null);
+            mResolver.delete(petUri, null, null);
+
+            assertEquals(3, all.changes.size());
+            assertEquals(PetContract.CHANGE_INSERT, PetsEntry.getChange(all.changes.get(0)));
+            assertEquals(PetContract.CHANGE_UPDATE, PetsEntry.getChange(all.changes.get(1)));
+            assertEquals(PetContract.CHANGE_DELETE, PetsEntry.getChange(all.changes.get(2)));
+            assertEquals(ContentUris.parseId(petUri), ContentUris.parseId(all.changes.get(2)));
+        }
+
+    @Test
+    public void unchangedPetSendsNothing()
+        {
+            RecordingObserver all = observe(PetsEntry.CONTENT_URI);
+            mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, mIds[mIds.length - 1] + 1), null, null);
+            assertEquals(0, all.changes.size());
+        }
+}
@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A storm of writes to single pets reaches the observers of the pets table as one change,
+ * whether it comes inside a batch or within one notification window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class NotificationCoalescerTest {
+
+    /* Number of writes in a storm */
+    private static final int WRITES = 200;
+
+    /* A window that doesn't close by itself while a test runs, so it's flushed by hand */
+    private static final long LONG_WINDOW_MILLIS = 60 * 1000;
+
+    /**
+     * Records every change it hears about.
+     */
+    private static final class RecordingObserver extends ContentObserver
+        {
+            final ArrayList<Uri> changes = new ArrayList<>();
+
+            RecordingObserver()
+                {
+                    // No handler, so changes are recorded as soon as they're sent
+                    super(null);
+                }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri)
+                {
+                    changes.add(uri);
+                }
+        }
+
+    private ContentResolver mResolver;
+    private RecordingObserver mObserver;
+
+    @Before
+    public void setUp()
+        {
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mObserver = new RecordingObserver();
+            mResolver.registerContentObserver(PetsEntry.CONTENT_URI, true, mObserver);
+        }
+
+    @After
+    public void tearDown()
+        {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+
+    private static Uri petChange(long id, String change)
+        {
+            return PetsEntry.buildChangeUri(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), change);
+        }
+
+    @Test
+    public void stormWithinWindowIsOneChange()
+        {
+            NotificationCoalescer coalescer = new NotificationCoalescer(mResolver);
+            coalescer.setWindowMillis(LONG_WINDOW_MILLIS);
+            for (int i = 1; i <= WRITES; i++)
+                {
+                    coalescer.notifyChange(petChange(i, PetContract.CHANGE_UPDATE));
+                }
+            coalescer.flush();
+
+            assertEquals(1, coalescer.getSentCount());
+            assertEquals(WRITES - 1, coalescer.getSuppressedCount());
+            assertEquals(1, mObserver.changes.size());
+            assertEquals(PetsEntry.CONTENT_URI.getPath(), mObserver.changes.get(0).getPath());
+            assertEquals(PetContract.CHANGE_UPDATE, PetsEntry.getChange(mObserver.changes.get(0)));
+        }
+
+    @Test
+    public void mixedStormIsOneChangeOfNoKind()
+        {
+            NotificationCoalescer coalescer = new NotificationCoalescer(mResolver);
+            coalescer.setWindowMillis(LONG_WINDOW_MILLIS);
+            coalescer.notifyChange(petChange(1, PetContract.CHANGE_INSERT));
+            coalescer.notifyChange(petChange(1, PetContract.CHANGE_UPDATE));
+            coalescer.notifyChange(petChange(2, PetContract.CHANGE_DELETE));
+            coalescer.flush();
+
+            assertEquals(1, mObserver.changes.size());
+            assertEquals(PetsEntry.CONTENT_URI, mObserver.changes.get(0));
+            assertNull(PetsEntry.getChange(mObserver.changes.get(0)));
+        }
+
+    @Test
+    public void singleRowKeepsItsUri()
+        {
+            NotificationCoalescer coalescer = new NotificationCoalescer(mResolver);
+            coalescer.setWindowMillis(LONG_WINDOW_MILLIS);
+            Uri change = petChange(7, PetContract.CHANGE_UPDATE);
+            coalescer.notifyChange(change);
+            coalescer.notifyChange(PetsEntry.buildChangeUri(PetsEntry.CONTENT_URI, PetContract.CHANGE_INSERT));
+            coalescer.flush();
+
+            assertEquals(2, mObserver.changes.size());
+            assertEquals(change, mObserver.changes.get(0));
+        }
+
+    @Test
+    public void stormInsideBatchIsOneChange() throws RemoteException, OperationApplicationException
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setNotificationWindowMillis(0);
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(WRITES, PetDataset.SEED));
+
+            // Update every pet through its own URI, in one batch
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ContentValues values = new ContentValues();
+                            values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + cursor.getPosition() % 60);
+                            operations.add(ContentProviderOperation.newUpdate(
+                                    ContentUris.withAppendedId(PetsEntry.CONTENT_URI, cursor.getLong(0)))
+                                    .withValues(values).build());
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+
+            mObserver.changes.clear();
+            long sent = provider.getSentNotificationCount();
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            assertEquals(sent + 1, provider.getSentNotificationCount());
+            assertEquals(1, mObserver.changes.size());
+            assertEquals(PetContract.CHANGE_UPDATE, PetsEntry.getChange(mObserver.changes.get(0)));
+        }
+}
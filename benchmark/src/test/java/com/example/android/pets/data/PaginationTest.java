@@ -0,0 +1,164 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Paging through the pets or a search a page at a time, the way the catalog does, reads every
+ * pet exactly once, in _id order, even when pets are deleted from the pages already read.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PaginationTest {
+
+    /* Number of pets in the shelter, which doesn't end on a page boundary */
+    private static final int ROWS = 1234;
+
+    /* Number of pets per page, the same as the catalog uses */
+    private static final int PAGE_SIZE = 50;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+
+    public PaginationTest(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED)));
+        }
+
+    /**
+     * Returns the IDs of the pets the given URI finds, in the order they come.
+     */
+    private ArrayList<Long> readIds(Uri uri)
+        {
+            ArrayList<Long> ids = new ArrayList<>();
+            Cursor cursor = mResolver.query(uri, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ids.add(cursor.getLong(0));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Returns the IDs of the pets on the page of the given URI after the given ID, or the first
+     * page for -1.
+     */
+    private ArrayList<Long> readPage(Uri uri, long afterId)
+        {
+            return readIds(afterId == -1 ? PetsEntry.buildPageUri(uri, PAGE_SIZE)
+                    : PetsEntry.buildPageUri(uri, afterId, PAGE_SIZE));
+        }
+
+    /**
+     * Page through the given URI to the end, and return the IDs of every page in order.
+     */
+    private ArrayList<Long> readAllPages(Uri uri)
+        {
+            ArrayList<Long> ids = new ArrayList<>();
+            long afterId = -1;
+            while (true)
+                {
+                    ArrayList<Long> page = readPage(uri, afterId);
+                    ids.addAll(page);
+                    if (page.size() < PAGE_SIZE)
+                        {
+                            return ids;
+                        }
+                    afterId = page.get(page.size() - 1);
+                }
+        }
+
+    @Test
+    public void pagesCoverEveryPetOnce()
+        {
+            ArrayList<Long> all = readIds(PetsEntry.CONTENT_URI);
+            assertEquals(ROWS, all.size());
+            assertEquals(all, readAllPages(PetsEntry.CONTENT_URI));
+        }
+
+    @Test
+    public void pagesCoverEverySearchResultOnce()
+        {
+            Uri searchUri = PetsEntry.buildSearchUri(PetDataset.someBreed());
+            ArrayList<Long> results = readIds(searchUri);
+            assertEquals(results, readAllPages(searchUri));
+        }
+
+    @Test
+    public void deletesDontShiftLaterPages()
+        {
+            ArrayList<Long> all = readIds(PetsEntry.CONTENT_URI);
+
+            // Read the first page, then delete pets from it and from further on
+            ArrayList<Long> read = readPage(PetsEntry.CONTENT_URI, -1);
+            ArrayList<Long> expected = new ArrayList<>(all);
+            for (int i = 0; i < 10; i++)
+                {
+                    mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, all.get(i)), null, null);
+                }
+            for (int i = 500; i < 505; i++)
+                {
+                    mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, all.get(i)), null, null);
+                    expected.remove(all.get(i));
+                }
+
+            long afterId = read.get(read.size() - 1);
+            while (true)
+                {
+                    ArrayList<Long> page = readPage(PetsEntry.CONTENT_URI, afterId);
+                    read.addAll(page);
+                    if (page.size() < PAGE_SIZE)
+                        {
+                            break;
+                        }
+                    afterId = page.get(page.size() - 1);
+                }
+            assertEquals(expected, read);
+        }
+}
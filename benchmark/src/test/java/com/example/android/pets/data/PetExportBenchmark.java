@@ -0,0 +1,112 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.HeapSampler;
+import com.example.android.pets.benchmark.PetDataset;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of exporting a shelter of a million pets in each export format, and checks that
+ * the heap an export holds on to stays bounded. The exporters are run straight into a stream
+ * that throws the bytes away, since Robolectric can't open the pipe {@link PetProvider#openFile}
+ * hands out; this lives in the data package to get at them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetExportBenchmark {
+
+    /* Number of pets exported, whatever -Pbenchmark.rows says, to show memory doesn't grow with it */
+    private static final int ROWS = 1000000;
+
+    /* Number of pets generated and inserted at a time while seeding */
+    private static final int SEED_CHUNK = 10000;
+
+    /* The most heap an export may hold on to, however many pets there are */
+    private static final long MAX_PEAK_HEAP_BYTES = 16 * 1024 * 1024;
+
+    /* Bytes written between two heap samples */
+    private static final long SAMPLE_INTERVAL_BYTES = 4 * 1024 * 1024;
+
+    private SqlitePetStore mStore;
+
+    @Before
+    public void setUp()
+        {
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            for (int start = 0; start < ROWS; start += SEED_CHUNK)
+                {
+                    mStore.bulkInsert(PetDataset.generate(Math.min(SEED_CHUNK, ROWS - start), PetDataset.SEED + start));
+                }
+        }
+
+    /**
+     * A stream that counts the bytes written to it and throws them away, sampling the heap
+     * every so often if given a sampler.
+     */
+    private static class CountingOutputStream extends OutputStream
+        {
+            private final HeapSampler mSampler;
+            long count;
+
+            CountingOutputStream(HeapSampler sampler)
+                {
+                    mSampler = sampler;
+                }
+
+            @Override
+            public void write(int b)
+                {
+                    count++;
+                    if (mSampler != null && count % SAMPLE_INTERVAL_BYTES == 0)
+                        {
+                            mSampler.sample();
+                        }
+                }
+        }
+
+    @Test
+    public void exportCsv() throws IOException
+        {
+            export("exportCsv", PetExporter.CSV);
+        }
+
+    @Test
+    public void exportBinary() throws IOException
+        {
+            export("exportBinary", PetExporter.BINARY);
+        }
+
+    /**
+     * Time an export, then run it again sampling the heap, and check that it held on to no
+     * more than {@link #MAX_PEAK_HEAP_BYTES}.
+     */
+    private void export(String benchmark, PetExporter exporter) throws IOException
+        {
+            CountingOutputStream out = new CountingOutputStream(null);
+            long start = System.nanoTime();
+            assertEquals(ROWS, exporter.export(mStore, out));
+            long elapsedNanos = System.nanoTime() - start;
+
+            HeapSampler sampler = new HeapSampler();
+            exporter.export(mStore, new CountingOutputStream(sampler));
+            sampler.sample();
+
+            BenchmarkResults.report(benchmark, ROWS, ROWS, elapsedNanos, sampler.getPeakBytes());
+            // One operation per byte written, so the rate is the bytes written per second
+            BenchmarkResults.report(benchmark + ".bytes", ROWS, out.count, elapsedNanos);
+            assertTrue("Export held on to " + sampler.getPeakBytes() + " bytes of heap",
+                    sampler.getPeakBytes() < MAX_PEAK_HEAP_BYTES);
+        }
+}
@@ -0,0 +1,162 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every export format holds every column of every pet, and a CSV export imports back into the
+ * same shelter. The exporters are run straight into a byte array, since Robolectric can't open
+ * the pipe {@link PetProvider#openFile} hands out.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetExportTest {
+
+    /* Number of pets in the shelter, enough to span several chunks of an export */
+    private static final int ROWS = 2 * PetExporter.CHUNK_SIZE + 17;
+
+    /* The columns an export holds, in order */
+    private static final String[] COLUMNS = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    private SqlitePetStore mStore;
+
+    @Before
+    public void setUp()
+        {
+            Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY);
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+
+            // Every other pet is microchipped, and one name needs quoting in CSV
+            ContentValues[] pets = PetDataset.generate(ROWS, PetDataset.SEED);
+            for (int i = 0; i < pets.length; i += 2)
+                {
+                    pets[i].put(PetsEntry.COLUMN_PET_MICROCHIP, String.format("985112%09d", i));
+                }
+            pets[1].put(PetsEntry.COLUMN_PET_NAME, "Mr. \"Biscuit\", Jr.");
+            mStore.bulkInsert(pets);
+        }
+
+    /**
+     * Returns every pet of the given cursor as its columns joined into a string, leaving out
+     * the first ones.
+     */
+    private static List<String> readPets(Cursor cursor, int firstColumn)
+        {
+            ArrayList<String> pets = new ArrayList<>();
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            StringBuilder pet = new StringBuilder();
+                            for (int column = firstColumn; column < cursor.getColumnCount(); column++)
+                                {
+                                    pet.append(column == firstColumn ? "" : "|").append(cursor.getString(column));
+                                }
+                            pets.add(pet.toString());
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return pets;
+        }
+
+    private static long readVarint(InputStream in) throws IOException
+        {
+            long zigzag = 0;
+            int shift = 0;
+            int b;
+            do
+                {
+                    b = in.read();
+                    zigzag |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                }
+            while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+    private static String readBinaryString(InputStream in) throws IOException
+        {
+            int length = (int) readVarint(in);
+            if (length == 0)
+                {
+                    return null;
+                }
+            byte[] bytes = new byte[length - 1];
+            assertEquals(bytes.length, in.read(bytes));
+            return new String(bytes, "UTF-8");
+        }
+
+    @Test
+    public void binaryHoldsEveryColumn() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(ROWS, PetExporter.BINARY.export(mStore, out));
+
+            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            byte[] magic = new byte[4];
+            assertEquals(4, in.read(magic));
+            assertEquals("PETS", new String(magic, "US-ASCII"));
+            assertEquals(2, in.read());
+
+            ArrayList<String> pets = new ArrayList<>();
+            long id = 0;
+            while (in.available() > 0)
+                {
+                    id += readVarint(in);
+                    pets.add(id + "|" + readBinaryString(in) + "|" + readBinaryString(in) + "|" +
+                            readVarint(in) + "|" + readVarint(in) + "|" + readBinaryString(in));
+                }
+            assertEquals(readPets(mStore.query(COLUMNS, null, null, PetsEntry._ID, null), 0), pets);
+        }
+
+    @Test
+    public void csvImportsBack() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(ROWS, PetExporter.CSV.export(mStore, out));
+            String csv = out.toString("UTF-8");
+            assertEquals("_id,name,breed,gender,weight,microchip", csv.substring(0, csv.indexOf('\r')));
+
+            // Import the export into an empty shelter, which gives the pets new _ids
+            List<String> exported = readPets(mStore.query(COLUMNS, null, null, PetsEntry._ID, null), 1);
+            mStore.delete(null, null);
+            PetImporter.Result result = new PetImporter(RuntimeEnvironment.application)
+                    .importPets(new ByteArrayInputStream(out.toByteArray()), PetImporter.FORMAT_CSV, null);
+            assertEquals(ROWS, result.rowsImported);
+            assertEquals(0, result.rowsFailed);
+
+            ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+            assertEquals(exported, readPets(resolver.query(PetsEntry.CONTENT_URI, COLUMNS, null, null, PetsEntry._ID), 1));
+        }
+}
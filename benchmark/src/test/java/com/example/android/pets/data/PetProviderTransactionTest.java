@@ -0,0 +1,119 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A bulk insert and a batch of operations through {@link PetProvider} either take effect as a
+ * whole or not at all, and tell the listeners once.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetProviderTransactionTest {
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setNotificationWindowMillis(0);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+        }
+
+    private int countPets()
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void bulkInsertNotifiesOnce()
+        {
+            long sent = mProvider.getSentNotificationCount();
+            assertEquals(100, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(100, PetDataset.SEED)));
+            assertEquals(100, countPets());
+            assertEquals(sent + 1, mProvider.getSentNotificationCount());
+        }
+
+    @Test
+    public void bulkInsertWithAnInvalidPetInsertsNothing()
+        {
+            ContentValues[] pets = PetDataset.generate(100, PetDataset.SEED);
+            pets[50].remove(PetsEntry.COLUMN_PET_NAME);
+
+            long sent = mProvider.getSentNotificationCount();
+            try
+                {
+                    mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+                    fail("Inserted a pet without a name");
+                }
+            catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+            assertEquals(0, countPets());
+            assertEquals(sent, mProvider.getSentNotificationCount());
+        }
+
+    @Test
+    public void failedBatchRollsBack() throws RemoteException, OperationApplicationException
+        {
+            ContentValues[] pets = PetDataset.generate(2, PetDataset.SEED);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(pets[0]).build());
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(pets[1]).build());
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            assertEquals(2, countPets());
+
+            // An insert that goes through, then an update that can't
+            ContentValues invalid = new ContentValues();
+            invalid.put(PetsEntry.COLUMN_PET_GENDER, 42);
+            operations.clear();
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(pets[0]).build());
+            operations.add(ContentProviderOperation.newUpdate(PetsEntry.CONTENT_URI).withValues(invalid).build());
+
+            long sent = mProvider.getSentNotificationCount();
+            try
+                {
+                    mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                    fail("Applied a batch with an invalid update");
+                }
+            catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+            assertEquals(2, countPets());
+            assertEquals(sent, mProvider.getSentNotificationCount());
+        }
+}
@@ -0,0 +1,235 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The pets/stats URI of every storage engine matches the statistics worked out from every pet,
+ * after every round of random inserts, updates and deletes.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetStatsTest {
+
+    /* Number of pets in the shelter to start with */
+    private static final int ROWS = 500;
+
+    /* Number of rounds of random changes, and number of changes per round */
+    private static final int ROUNDS = 20;
+    private static final int WRITES_PER_ROUND = 50;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY},
+                    {PetProvider.STORAGE_ENGINE_MEMORY_WRITE_THROUGH}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+
+    public PetStatsTest(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED)));
+        }
+
+    @Test
+    public void statsMatchThePetsAfterRandomChanges()
+        {
+            Random random = new Random(PetDataset.SEED + 1);
+            ArrayList<Long> ids = readIds();
+            assertEquals(workOutStats(), readStoredStats());
+
+            for (int round = 0; round < ROUNDS; round++)
+                {
+                    for (int i = 0; i < WRITES_PER_ROUND; i++)
+                        {
+                            mutate(random, ids);
+                        }
+                    assertEquals("Statistics after round " + round, workOutStats(), readStoredStats());
+                }
+        }
+
+    @Test
+    public void statsAreEmptyOnceEveryPetIsGone()
+        {
+            mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+            assertEquals(workOutStats(), readStoredStats());
+        }
+
+    /**
+     * Make one random change to the pets: insert one, delete one, change the breed, gender or
+     * weight of one, or change the weight of every pet of a breed.
+     */
+    private void mutate(Random random, ArrayList<Long> ids)
+        {
+            int change = random.nextInt(10);
+            if (change < 3 || ids.isEmpty())
+                {
+                    ContentValues pet = PetDataset.pet(random, ROWS + ids.size());
+                    ids.add(ContentUris.parseId(mResolver.insert(PetsEntry.CONTENT_URI, pet)));
+                    return;
+                }
+
+            int index = random.nextInt(ids.size());
+            long id = ids.get(index);
+            if (change < 5)
+                {
+                    mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), null, null);
+                    ids.set(index, ids.get(ids.size() - 1));
+                    ids.remove(ids.size() - 1);
+                    return;
+                }
+
+            // Take the breed, gender or weight of a newly generated pet
+            ContentValues pet = PetDataset.pet(random, 0);
+            ContentValues values = new ContentValues();
+            if (change == 9)
+                {
+                    values.put(PetsEntry.COLUMN_PET_WEIGHT, pet.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT));
+                    mResolver.update(PetsEntry.CONTENT_URI, values, PetsEntry.COLUMN_PET_BREED + "=?",
+                            new String[] {pet.getAsString(PetsEntry.COLUMN_PET_BREED)});
+                    return;
+                }
+            switch (random.nextInt(3))
+                {
+                    case 0:
+                        values.put(PetsEntry.COLUMN_PET_BREED, pet.getAsString(PetsEntry.COLUMN_PET_BREED));
+                        break;
+                    case 1:
+                        values.put(PetsEntry.COLUMN_PET_GENDER, pet.getAsInteger(PetsEntry.COLUMN_PET_GENDER));
+                        break;
+                    default:
+                        values.put(PetsEntry.COLUMN_PET_WEIGHT, pet.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT));
+                        break;
+                }
+            mResolver.update(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id), values, null, null);
+        }
+
+    private ArrayList<Long> readIds()
+        {
+            ArrayList<Long> ids = new ArrayList<>(ROWS);
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ids.add(cursor.getLong(0));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Read the statistics through pets/stats, keyed by "dimension/value". A group without pets
+     * is left out, since the engines may keep it or drop it.
+     */
+    private Map<String, String> readStoredStats()
+        {
+            Map<String, String> stats = new TreeMap<>();
+            String[] projection = {PetStatsEntry.COLUMN_DIMENSION, PetStatsEntry.COLUMN_VALUE,
+                    PetStatsEntry.COLUMN_PET_COUNT, PetStatsEntry.COLUMN_WEIGHT_SUM};
+            Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI, projection, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            if (cursor.getLong(2) != 0)
+                                {
+                                    stats.put(cursor.getString(0) + "/" + cursor.getString(1),
+                                            cursor.getLong(2) + " pets, " + cursor.getLong(3) + " kg");
+                                }
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return stats;
+        }
+
+    /**
+     * Work the statistics out from every pet, in the same form as {@link #readStoredStats()}.
+     */
+    private Map<String, String> workOutStats()
+        {
+            Map<String, long[]> sums = new TreeMap<>();
+            String[] projection = {PetsEntry.COLUMN_PET_BREED, PetsEntry.COLUMN_PET_GENDER, PetsEntry.COLUMN_PET_WEIGHT};
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, projection, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            String breed = cursor.isNull(0) ? "" : cursor.getString(0);
+                            int weight = cursor.getInt(2);
+                            add(sums, PetStatsEntry.DIMENSION_ALL + "/", weight);
+                            add(sums, PetStatsEntry.DIMENSION_GENDER + "/" + cursor.getInt(1), weight);
+                            add(sums, PetStatsEntry.DIMENSION_BREED + "/" + breed, weight);
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+
+            Map<String, String> stats = new TreeMap<>();
+            for (Map.Entry<String, long[]> entry : sums.entrySet())
+                {
+                    stats.put(entry.getKey(), entry.getValue()[0] + " pets, " + entry.getValue()[1] + " kg");
+                }
+            return stats;
+        }
+
+    private static void add(Map<String, long[]> sums, String key, int weight)
+        {
+            long[] sum = sums.get(key);
+            if (sum == null)
+                {
+                    sum = new long[2];
+                    sums.put(key, sum);
+                }
+            sum[0]++;
+            sum[1] += weight;
+        }
+}
@@ -0,0 +1,201 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Syncs the pets of this device through {@link PetSyncEngine} with a {@link StandInSyncServer},
+ * and compares sending only what changed against copying the whole table, both ways. The
+ * server also acts as another device, changing pets of its own. {@code PetSyncTest} checks
+ * that both sides end up with the same pets.
+ * <p>
+ * Each run is reported twice: "&lt;benchmark&gt;" with the number of changes sent and the time
+ * it took here plus the time the bytes would take on a network of {@link #ROUND_TRIP_MILLIS}
+ * round trips at {@link #BYTES_PER_SECOND}, and "&lt;benchmark&gt;.wire" with the number of bytes
+ * sent as the operations and that network time alone. This lives in the data package to get at
+ * the wire format.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetSyncBenchmark {
+
+    /* The network the transfers are timed on: a mobile link of a megabit per second */
+    private static final long ROUND_TRIP_MILLIS = 50;
+    private static final long BYTES_PER_SECOND = 125000;
+
+    /* One pet in this many changes between syncs */
+    private static final int CHANGED_ONE_IN = 100;
+
+    private ContentResolver mResolver;
+    private StandInSyncServer mServer;
+    private PetSyncEngine mEngine;
+    private int mRows;
+
+    @Before
+    public void setUp() throws IOException
+        {
+            Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mRows = PetDataset.rows();
+            mServer = new StandInSyncServer();
+            mEngine = new PetSyncEngine(RuntimeEnvironment.application, mServer);
+
+            ContentValues[] pets = PetDataset.generate(mRows, PetDataset.SEED);
+            for (int i = 0; i < mRows; i++)
+                {
+                    pets[i].put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(i));
+                }
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+
+            // Both sides start out with the same pets
+            mEngine.sync();
+        }
+
+    private static String microchip(int number)
+        {
+            return String.format("985%012d", number);
+        }
+
+    private static ContentValues weight(int weight)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+
+    private void report(String benchmark, long changes, long elapsedNanos)
+        {
+            long networkNanos = mServer.getRequests() * ROUND_TRIP_MILLIS * 1000000L +
+                    mServer.getBytes() * 1000000000L / BYTES_PER_SECOND;
+            BenchmarkResults.report(benchmark, mRows, changes, elapsedNanos + networkNanos);
+            BenchmarkResults.report(benchmark + ".wire", mRows, mServer.getBytes(), networkNanos);
+        }
+
+    @Test
+    public void pushChanges() throws IOException
+        {
+            // Change every hundredth pet here: update most of them, delete or replace the rest
+            Random random = new Random(PetDataset.SEED + 1);
+            int changes = 0;
+            for (int i = 0; i < mRows; i += CHANGED_ONE_IN)
+                {
+                    String[] microchip = {microchip(i)};
+                    if (i % (4 * CHANGED_ONE_IN) == 0)
+                        {
+                            mResolver.delete(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_MICROCHIP + "=?", microchip);
+                            ContentValues pet = PetDataset.pet(random, mRows + i);
+                            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(mRows + i));
+                            mResolver.insert(PetsEntry.CONTENT_URI, pet);
+                            changes += 2;
+                        }
+                    else
+                        {
+                            mResolver.update(PetsEntry.CONTENT_URI, weight(61 + random.nextInt(60)),
+                                    PetsEntry.COLUMN_PET_MICROCHIP + "=?", microchip);
+                            changes++;
+                        }
+                }
+
+            // Only what changed
+            mServer.resetCounters();
+            long start = System.nanoTime();
+            PetSyncEngine.Result result = mEngine.push();
+            report("pushChanges[delta]", result.changesPushed, System.nanoTime() - start);
+
+            // The whole table, read and sent in the same format
+            mServer.resetCounters();
+            start = System.nanoTime();
+            ArrayList<ContentValues> pets = new ArrayList<>();
+            ContentValues clear = new ContentValues();
+            clear.put(PetChangesEntry.COLUMN_CHANGE, PetChangesEntry.CHANGE_CLEAR);
+            pets.add(clear);
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {
+                    PetsEntry.COLUMN_PET_MICROCHIP, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED,
+                    PetsEntry.COLUMN_PET_GENDER, PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ContentValues pet = new ContentValues();
+                            pet.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_UPDATE);
+                            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, cursor.getString(0));
+                            pet.put(PetsEntry.COLUMN_PET_NAME, cursor.getString(1));
+                            pet.put(PetsEntry.COLUMN_PET_BREED, cursor.isNull(2) ? null : cursor.getString(2));
+                            pet.put(PetsEntry.COLUMN_PET_GENDER, cursor.getInt(3));
+                            pet.put(PetsEntry.COLUMN_PET_WEIGHT, cursor.getInt(4));
+                            pets.add(pet);
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            mServer.push("full-copy", 1, PetDeltaCodec.encode(pets));
+            report("pushChanges[fullCopy]", pets.size(), System.nanoTime() - start);
+        }
+
+    @Test
+    public void pullChanges() throws IOException
+        {
+            // Another device changes every hundredth pet: updates most of them, deletes or
+            // replaces the rest
+            Random random = new Random(PetDataset.SEED + 2);
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            for (int i = 0; i < mRows; i += CHANGED_ONE_IN)
+                {
+                    ContentValues pet = new ContentValues(mServer.getPets().get(microchip(i)));
+                    if (i % (4 * CHANGED_ONE_IN) == 0)
+                        {
+                            ContentValues delete = new ContentValues();
+                            delete.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_DELETE);
+                            delete.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(i));
+                            changes.add(delete);
+                            pet = PetDataset.pet(random, mRows + i);
+                            pet.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_UPDATE);
+                            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(mRows + i));
+                        }
+                    else
+                        {
+                            pet.put(PetsEntry.COLUMN_PET_WEIGHT, 61 + random.nextInt(60));
+                        }
+                    changes.add(pet);
+                }
+            mServer.store(PetDeltaCodec.encode(changes));
+
+            // Only what changed
+            mServer.resetCounters();
+            long start = System.nanoTime();
+            PetSyncEngine.Result result = mEngine.pull();
+            report("pullChanges[delta]", result.changesPulled, System.nanoTime() - start);
+
+            // The whole table, fetched and put in place of every pet
+            mServer.resetCounters();
+            start = System.nanoTime();
+            ArrayList<ContentValues> pets = PetDeltaCodec.decode(mServer.fetchAll());
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(PetChangesEntry.KEY_CHANGES, pets);
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_APPLY_CHANGES, null, extras);
+            report("pullChanges[fullCopy]", pets.size(), System.nanoTime() - start);
+        }
+}
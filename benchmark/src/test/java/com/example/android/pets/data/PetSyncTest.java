@@ -0,0 +1,246 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PetSyncEngine} sends only what changed on this device and applies only what changed
+ * on the others, after which this device and the server have the same pets. A change made
+ * here that isn't pushed yet wins over one pulled from another device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetSyncTest {
+
+    /* Number of pets on both sides to start with */
+    private static final int ROWS = 500;
+
+    /* One pet in this many changes between syncs */
+    private static final int CHANGED_ONE_IN = 10;
+
+    private ContentResolver mResolver;
+    private StandInSyncServer mServer;
+    private PetSyncEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException
+        {
+            Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mServer = new StandInSyncServer();
+            mEngine = new PetSyncEngine(RuntimeEnvironment.application, mServer);
+
+            ContentValues[] pets = PetDataset.generate(ROWS, PetDataset.SEED);
+            for (int i = 0; i < ROWS; i++)
+                {
+                    pets[i].put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(i));
+                }
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets));
+
+            // Both sides start out with the same pets
+            assertEquals(ROWS, mEngine.sync().changesPushed);
+            assertEquals(readPets(), readServerPets());
+        }
+
+    private static String microchip(int number)
+        {
+            return String.format("985%012d", number);
+        }
+
+    private static String describe(String name, String breed, int gender, int weight)
+        {
+            return name + "|" + breed + "|" + gender + "|" + weight;
+        }
+
+    /**
+     * Returns every pet of this device, by microchip.
+     */
+    private HashMap<String, String> readPets()
+        {
+            HashMap<String, String> pets = new HashMap<>();
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {
+                    PetsEntry.COLUMN_PET_MICROCHIP, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED,
+                    PetsEntry.COLUMN_PET_GENDER, PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            pets.put(cursor.getString(0), describe(cursor.getString(1),
+                                    cursor.isNull(2) ? null : cursor.getString(2), cursor.getInt(3), cursor.getInt(4)));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return pets;
+        }
+
+    /**
+     * Returns every pet of the server, by microchip.
+     */
+    private HashMap<String, String> readServerPets()
+        {
+            HashMap<String, String> pets = new HashMap<>();
+            for (ContentValues pet : mServer.getPets().values())
+                {
+                    pets.put(pet.getAsString(PetsEntry.COLUMN_PET_MICROCHIP), describe(
+                            pet.getAsString(PetsEntry.COLUMN_PET_NAME), pet.getAsString(PetsEntry.COLUMN_PET_BREED),
+                            pet.getAsInteger(PetsEntry.COLUMN_PET_GENDER), pet.getAsInteger(PetsEntry.COLUMN_PET_WEIGHT)));
+                }
+            return pets;
+        }
+
+    private static ContentValues weight(int weight)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+
+    @Test
+    public void pushSendsOnlyWhatChanged() throws IOException
+        {
+            // Change every tenth pet here: update most of them, delete and replace the rest
+            Random random = new Random(PetDataset.SEED + 1);
+            int changes = 0;
+            for (int i = 0; i < ROWS; i += CHANGED_ONE_IN)
+                {
+                    String[] microchip = {microchip(i)};
+                    if (i % (4 * CHANGED_ONE_IN) == 0)
+                        {
+                            mResolver.delete(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_MICROCHIP + "=?", microchip);
+                            ContentValues pet = PetDataset.pet(random, ROWS + i);
+                            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(ROWS + i));
+                            mResolver.insert(PetsEntry.CONTENT_URI, pet);
+                            changes += 2;
+                        }
+                    else
+                        {
+                            mResolver.update(PetsEntry.CONTENT_URI, weight(61 + random.nextInt(60)),
+                                    PetsEntry.COLUMN_PET_MICROCHIP + "=?", microchip);
+                            changes++;
+                        }
+                }
+
+            assertEquals(changes, mEngine.push().changesPushed);
+            assertEquals(readPets(), readServerPets());
+
+            // And nothing is left to push
+            assertEquals(0, mEngine.push().changesPushed);
+        }
+
+    @Test
+    public void pullAppliesOnlyWhatChanged() throws IOException
+        {
+            // Another device changes every tenth pet: updates most of them, deletes and
+            // replaces the rest
+            Random random = new Random(PetDataset.SEED + 2);
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            for (int i = 0; i < ROWS; i += CHANGED_ONE_IN)
+                {
+                    ContentValues pet = new ContentValues(mServer.getPets().get(microchip(i)));
+                    if (i % (4 * CHANGED_ONE_IN) == 0)
+                        {
+                            ContentValues delete = new ContentValues();
+                            delete.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_DELETE);
+                            delete.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(i));
+                            changes.add(delete);
+                            pet = PetDataset.pet(random, ROWS + i);
+                            pet.put(PetChangesEntry.COLUMN_CHANGE, PetContract.CHANGE_UPDATE);
+                            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip(ROWS + i));
+                        }
+                    else
+                        {
+                            pet.put(PetsEntry.COLUMN_PET_WEIGHT, 61 + random.nextInt(60));
+                        }
+                    changes.add(pet);
+                }
+            mServer.store(PetDeltaCodec.encode(changes));
+
+            assertEquals(changes.size(), mEngine.pull().changesPulled);
+            assertEquals(readServerPets(), readPets());
+
+            // Nothing that was pulled goes back
+            assertEquals(0, mEngine.push().changesPushed);
+        }
+
+    @Test
+    public void wholeCopyReplacesEveryPet() throws IOException
+        {
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            ContentValues pet = new ContentValues(mServer.getPets().get(microchip(0)));
+            pet.put(PetsEntry.COLUMN_PET_WEIGHT, 77);
+            changes.add(pet);
+            mServer.store(PetDeltaCodec.encode(changes));
+            mResolver.update(PetsEntry.CONTENT_URI, weight(99), PetsEntry.COLUMN_PET_MICROCHIP + "=?",
+                    new String[] {microchip(1)});
+            mEngine.push();
+
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(PetChangesEntry.KEY_CHANGES, PetDeltaCodec.decode(mServer.fetchAll()));
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_APPLY_CHANGES, null, extras);
+            assertEquals(readServerPets(), readPets());
+        }
+
+    @Test
+    public void unpushedChangesWin() throws IOException
+        {
+            // This device changes a pet, and before it syncs another device changes the same
+            // pet and its neighbour
+            mResolver.update(PetsEntry.CONTENT_URI, weight(99), PetsEntry.COLUMN_PET_MICROCHIP + "=?",
+                    new String[] {microchip(0)});
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            for (int i = 0; i < 2; i++)
+                {
+                    ContentValues pet = new ContentValues(mServer.getPets().get(microchip(i)));
+                    pet.put(PetsEntry.COLUMN_PET_WEIGHT, 77);
+                    changes.add(pet);
+                }
+            mServer.store(PetDeltaCodec.encode(changes));
+
+            // Pulling first keeps the change made here, and pushing it makes it win everywhere
+            mEngine.pull();
+            HashMap<String, String> pets = readPets();
+            assertTrue(pets.get(microchip(0)).endsWith("|99"));
+            assertTrue(pets.get(microchip(1)).endsWith("|77"));
+            assertEquals(1, mEngine.sync().changesPushed);
+            assertEquals(readPets(), readServerPets());
+            assertTrue(readServerPets().get(microchip(0)).endsWith("|99"));
+        }
+
+    @Test
+    public void deleteAllPushesOneClear() throws IOException
+        {
+            mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+
+            mServer.resetCounters();
+            assertEquals(1, mEngine.push().changesPushed);
+            assertTrue(mServer.getBytes() < 100);
+            assertEquals(0, mServer.getPets().size());
+        }
+}
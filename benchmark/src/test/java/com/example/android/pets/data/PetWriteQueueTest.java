@@ -0,0 +1,245 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every write queued on {@link PetWriteQueue} hears back, even when the database throws, and
+ * the queue keeps applying the writes queued after a failure. Saving a pet through the queue
+ * leaves the provider, and so the database, alone on the main thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetWriteQueueTest {
+
+    /* How long a test waits for its writes */
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * Keeps the result of a write and counts down once it's there.
+     */
+    private static final class Result implements PetWriteQueue.Callback
+        {
+            private final CountDownLatch mLatch;
+            volatile ContentProviderResult result;
+
+            Result(CountDownLatch latch)
+                {
+                    mLatch = latch;
+                }
+
+            @Override
+            public void onWriteFinished(ContentProviderResult result)
+                {
+                    this.result = result;
+                    mLatch.countDown();
+                }
+        }
+
+    /**
+     * A {@link PetProvider} that records whether each write came in on the main thread. Every
+     * write reaches the store through one of these.
+     */
+    public static class RecordingProvider extends PetProvider
+        {
+            /* The name of the operation, for each write made on the main thread */
+            final List<String> mainThreadWrites = new CopyOnWriteArrayList<>();
+
+            /* Number of writes made */
+            volatile int writes;
+
+            private void record(String operation)
+                {
+                    writes++;
+                    if (Looper.myLooper() == Looper.getMainLooper())
+                        {
+                            mainThreadWrites.add(operation);
+                        }
+                }
+
+            @Override
+            public Uri insert(Uri uri, ContentValues values)
+                {
+                    record("insert");
+                    return super.insert(uri, values);
+                }
+
+            @Override
+            public int bulkInsert(Uri uri, ContentValues[] values)
+                {
+                    record("bulkInsert");
+                    return super.bulkInsert(uri, values);
+                }
+
+            @Override
+            public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+                {
+                    record("update");
+                    return super.update(uri, values, selection, selectionArgs);
+                }
+
+            @Override
+            public int delete(Uri uri, String selection, String[] selectionArgs)
+                {
+                    record("delete");
+                    return super.delete(uri, selection, selectionArgs);
+                }
+
+            @Override
+            public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                    throws OperationApplicationException
+                {
+                    record("applyBatch");
+                    return super.applyBatch(operations);
+                }
+        }
+
+    private RecordingProvider mProvider;
+    private ContentResolver mResolver;
+    private PetWriteQueue mQueue;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(RecordingProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mQueue = new PetWriteQueue(RuntimeEnvironment.application);
+        }
+
+    /**
+     * Wait for the given latch, running what the queue posts to the main thread meanwhile.
+     */
+    private static void await(CountDownLatch latch) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!latch.await(10, TimeUnit.MILLISECONDS))
+                {
+                    ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+                    assertTrue("Writes didn't finish in time", System.currentTimeMillis() < deadline);
+                }
+        }
+
+    private ContentValues microchipped(int number, String microchip)
+        {
+            ContentValues pet = PetDataset.generate(number + 1, PetDataset.SEED)[number];
+            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, microchip);
+            return pet;
+        }
+
+    private int countPets()
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, null);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void everyQueuedWriteHearsBack() throws InterruptedException
+        {
+            ContentValues[] pets = PetDataset.generate(100, PetDataset.SEED);
+            CountDownLatch latch = new CountDownLatch(pets.length);
+            Result[] results = new Result[pets.length];
+            for (int i = 0; i < pets.length; i++)
+                {
+                    results[i] = new Result(latch);
+                    mQueue.insert(pets[i], results[i]);
+                }
+            await(latch);
+
+            for (Result result : results)
+                {
+                    assertNotNull(result.result);
+                    assertNotNull(result.result.uri);
+                }
+            assertEquals(pets.length, countPets());
+        }
+
+    @Test
+    public void databaseFailureReportsBackAndQueueKeepsGoing() throws InterruptedException
+        {
+            mResolver.insert(PetsEntry.CONTENT_URI, microchipped(0, "985112000000001"));
+            Uri second = mResolver.insert(PetsEntry.CONTENT_URI, microchipped(1, "985112000000002"));
+
+            // Giving the second pet the microchip of the first breaks the unique index, which
+            // the database throws for, rather than the provider rejecting the write
+            ContentValues duplicate = new ContentValues();
+            duplicate.put(PetsEntry.COLUMN_PET_MICROCHIP, "985112000000001");
+            CountDownLatch latch = new CountDownLatch(2);
+            Result failed = new Result(latch);
+            Result inserted = new Result(latch);
+            mQueue.update(second, duplicate, failed);
+            mQueue.insert(microchipped(2, null), inserted);
+            await(latch);
+
+            assertNull(failed.result);
+            assertNotNull(inserted.result);
+            assertEquals(3, countPets());
+
+            // And a write queued afterwards still gets applied
+            latch = new CountDownLatch(1);
+            Result later = new Result(latch);
+            mQueue.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, ContentUris.parseId(inserted.result.uri)), later);
+            await(latch);
+            assertEquals(Integer.valueOf(1), later.result.count);
+            assertEquals(2, countPets());
+        }
+
+    @Test
+    public void savingStaysOffTheMainThread() throws InterruptedException
+        {
+            // Queued from the main thread, like the editor saves a pet
+            assertEquals(Looper.getMainLooper(), Looper.myLooper());
+            final CountDownLatch latch = new CountDownLatch(1);
+            final boolean[] heardOnMainThread = new boolean[1];
+            mQueue.insert(PetDataset.generate(1, PetDataset.SEED)[0], new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteFinished(ContentProviderResult result) {
+                    heardOnMainThread[0] = Looper.myLooper() == Looper.getMainLooper();
+                    latch.countDown();
+                }
+            });
+            await(latch);
+
+            assertTrue(mProvider.writes > 0);
+            assertTrue("Wrote on the main thread: " + mProvider.mainThreadWrites, mProvider.mainThreadWrites.isEmpty());
+            assertTrue(heardOnMainThread[0]);
+        }
+}
@@ -0,0 +1,127 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetDbHelper.PragmaProfile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reads the first page of the pets of a gender, by name, through {@link SqlitePetStore} while
+ * another thread keeps inserting pets, two to a transaction, once with shelter.db opened with
+ * each {@link PragmaProfile}, and reports the median and 99th percentile wait of the reads and
+ * how many writes got through meanwhile. This lives in the data package to get at the store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PragmaProfileBenchmark {
+
+    /* Number of reads timed per profile */
+    private static final int READS = 2000;
+
+    /* Number of pets read at a time, the same as a page of the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Keeps inserting two pets per transaction until it's stopped, counting the transactions.
+     */
+    private static final class Writer extends Thread
+        {
+            private final SqlitePetStore mStore;
+            private volatile boolean mStopped;
+            private int mWrites;
+
+            Writer(SqlitePetStore store)
+                {
+                    mStore = store;
+                }
+
+            @Override
+            public void run()
+                {
+                    Random random = new Random(PetDataset.SEED + 1);
+                    while (!mStopped)
+                        {
+                            mStore.bulkInsert(new ContentValues[] {PetDataset.pet(random, 0), PetDataset.pet(random, 1)});
+                            mWrites++;
+                        }
+                }
+
+            /**
+             * Stop writing, and return the number of transactions written.
+             */
+            int finish() throws InterruptedException
+                {
+                    mStopped = true;
+                    join();
+                    return mWrites;
+                }
+        }
+
+    /**
+     * Time {@link #READS} reads of the first page against a shelter opened with the given
+     * profile while the writer runs, and report them.
+     */
+    private static void readWhileWriting(PragmaProfile profile) throws InterruptedException
+        {
+            SqlitePetStore store = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application, profile));
+            int rows = PetDataset.rows();
+            store.bulkInsert(PetDataset.generate(rows, PetDataset.SEED));
+
+            String[] projection = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED};
+            String selection = PetsEntry.COLUMN_PET_GENDER + "=?";
+            String[] selectionArgs = {String.valueOf(PetsEntry.GENDER_FEMALE)};
+            long[] latencies = new long[READS];
+
+            Writer writer = new Writer(store);
+            writer.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++)
+                {
+                    long readStart = System.nanoTime();
+                    Cursor cursor = store.query(projection, selection, selectionArgs, PetsEntry.COLUMN_PET_NAME,
+                            String.valueOf(PAGE_SIZE));
+                    try
+                        {
+                            cursor.getCount();
+                        }
+                    finally
+                        {
+                            cursor.close();
+                        }
+                    latencies[i] = System.nanoTime() - readStart;
+                }
+            long elapsed = System.nanoTime() - start;
+            int writes = writer.finish();
+            Arrays.sort(latencies);
+
+            String benchmark = "readWhileWriting[" + profile.name + "]";
+            BenchmarkResults.report(benchmark, rows, READS, elapsed);
+            BenchmarkResults.report(benchmark + ".readP50", rows, 1, latencies[READS / 2]);
+            BenchmarkResults.report(benchmark + ".readP99", rows, 1, latencies[(int) (READS * 0.99)]);
+            BenchmarkResults.report(benchmark + ".writes", rows, writes, elapsed);
+        }
+
+    @Test
+    public void durable() throws InterruptedException
+        {
+            readWhileWriting(PragmaProfile.DURABLE);
+        }
+
+    @Test
+    public void throughput() throws InterruptedException
+        {
+            readWhileWriting(PragmaProfile.THROUGHPUT);
+        }
+}
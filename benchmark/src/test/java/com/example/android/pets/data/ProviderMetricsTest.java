@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.MetricsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The metrics of {@link PetProvider} count every call, failed or not, and the rows it read or
+ * wrote, under its operation and kind of URI, and recording them costs a small fraction of an
+ * insert.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ProviderMetricsTest {
+
+    /* Number of pets inserted one at a time to time an insert */
+    private static final int INSERTS = 1000;
+
+    /* Number of calls recorded to time the recording */
+    private static final int RECORDS = 1000000;
+
+    /* The largest share of an insert that recording its metrics may take */
+    private static final double MAX_OVERHEAD = 0.02;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+        }
+
+    /**
+     * Returns the figures of the given operation on the given kind of URI.
+     */
+    private Bundle figures(String operation, String uri)
+        {
+            Bundle metrics = mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_GET_METRICS, null, null);
+            Bundle figures = metrics.getBundle(operation + " " + uri);
+            assertTrue("No metrics of " + operation + " " + uri, figures != null);
+            return figures;
+        }
+
+    @Test
+    public void countsCallsAndRows()
+        {
+            ContentValues[] pets = PetDataset.generate(10, PetDataset.SEED);
+            Uri petUri = null;
+            for (ContentValues pet : pets)
+                {
+                    petUri = mResolver.insert(PetsEntry.CONTENT_URI, pet);
+                }
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(5, PetDataset.SEED + 1));
+            mResolver.query(petUri, null, null, null, null).close();
+            mResolver.query(PetsEntry.CONTENT_URI, null, null, null, null).close();
+            mResolver.delete(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, ContentUris.parseId(petUri)), null, null);
+
+            Bundle inserts = figures(MetricsEntry.OPERATION_INSERT, PetContract.PATH_PETS);
+            assertEquals(10, inserts.getLong(MetricsEntry.KEY_CALLS));
+            assertEquals(10, inserts.getLong(MetricsEntry.KEY_ROWS));
+            assertEquals(0, inserts.getLong(MetricsEntry.KEY_FAILURES));
+            assertTrue(inserts.getLong(MetricsEntry.KEY_MAX_NANOS) <= inserts.getLong(MetricsEntry.KEY_TOTAL_NANOS));
+
+            long histogramCalls = 0;
+            for (long calls : inserts.getLongArray(MetricsEntry.KEY_LATENCY_HISTOGRAM))
+                {
+                    histogramCalls += calls;
+                }
+            assertEquals(10, histogramCalls);
+
+            assertEquals(5, figures(MetricsEntry.OPERATION_BULK_INSERT, PetContract.PATH_PETS).getLong(MetricsEntry.KEY_ROWS));
+            assertEquals(1, figures(MetricsEntry.OPERATION_QUERY, PetContract.PATH_PETS + "/#").getLong(MetricsEntry.KEY_ROWS));
+            assertEquals(15, figures(MetricsEntry.OPERATION_QUERY, PetContract.PATH_PETS).getLong(MetricsEntry.KEY_ROWS));
+            assertEquals(1, figures(MetricsEntry.OPERATION_DELETE, PetContract.PATH_PETS + "/#").getLong(MetricsEntry.KEY_ROWS));
+        }
+
+    @Test
+    public void countsFailedCalls()
+        {
+            try
+                {
+                    mResolver.insert(PetsEntry.CONTENT_URI, new ContentValues());
+                    fail("Inserted a pet without a name");
+                }
+            catch (IllegalArgumentException e)
+                {
+                    // Expected
+                }
+
+            Bundle inserts = figures(MetricsEntry.OPERATION_INSERT, PetContract.PATH_PETS);
+            assertEquals(1, inserts.getLong(MetricsEntry.KEY_CALLS));
+            assertEquals(1, inserts.getLong(MetricsEntry.KEY_FAILURES));
+            assertEquals(0, inserts.getLong(MetricsEntry.KEY_ROWS));
+        }
+
+    @Test
+    public void resetStartsOver()
+        {
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(5, PetDataset.SEED));
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_RESET_METRICS, null, null);
+            assertTrue(mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_GET_METRICS, null, null).isEmpty());
+
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, null, null, null, null);
+            cursor.close();
+            assertEquals(1, figures(MetricsEntry.OPERATION_QUERY, PetContract.PATH_PETS).getLong(MetricsEntry.KEY_CALLS));
+        }
+
+    @Test
+    public void disabledMetricsRecordNothing()
+        {
+            mProvider.setMetricsEnabled(false);
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(5, PetDataset.SEED));
+            assertTrue(mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_GET_METRICS, null, null).isEmpty());
+        }
+
+    @Test
+    public void recordingCostsLittleNextToAnInsert()
+        {
+            mProvider.setMetricsEnabled(false);
+            long start = System.nanoTime();
+            for (ContentValues pet : PetDataset.generate(INSERTS, PetDataset.SEED))
+                {
+                    mResolver.insert(PetsEntry.CONTENT_URI, pet);
+                }
+            long insertNanos = (System.nanoTime() - start) / INSERTS;
+
+            ProviderMetrics metrics = new ProviderMetrics(new String[] {PetContract.PATH_PETS});
+            start = System.nanoTime();
+            for (int i = 0; i < RECORDS; i++)
+                {
+                    metrics.record(ProviderMetrics.OPERATION_INSERT, 0, 1, metrics.start());
+                }
+            long recordNanos = (System.nanoTime() - start) / RECORDS;
+
+            assertTrue("Recording an insert took " + recordNanos + " ns, against " + insertNanos + " ns for the insert",
+                    recordNanos <= insertNanos * MAX_OVERHEAD);
+        }
+}
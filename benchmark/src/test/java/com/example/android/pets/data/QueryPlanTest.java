@@ -0,0 +1,136 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The filters the catalog runs are answered through the indexes of {@link PetDbHelper}, and a
+ * database of the first version is migrated to the same schema a new one gets.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class QueryPlanTest {
+
+    /* Number of pets in the database the plans are worked out for */
+    private static final int ROWS = 1000;
+
+    private SqlitePetStore mStore;
+
+    @Before
+    public void setUp()
+        {
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            mStore.bulkInsert(PetDataset.generate(ROWS, PetDataset.SEED));
+        }
+
+    /**
+     * Check that the plan of the given query searches the pets through the given index and
+     * doesn't sort afterwards.
+     */
+    private void assertUsesIndex(String index, String selection, String[] selectionArgs, String sortOrder)
+        {
+            String plan = mStore.explainQuery(null, null, selection, selectionArgs, sortOrder, null);
+            assertTrue("Unexpected plan: " + plan, plan.startsWith("SEARCH") && plan.contains(index));
+            assertFalse("Unexpected plan: " + plan, plan.contains("TEMP B-TREE"));
+        }
+
+    @Test
+    public void filterByBreed()
+        {
+            assertUsesIndex(PetDbHelper.INDEX_PETS_BREED,
+                    PetsEntry.COLUMN_PET_BREED + "=?", new String[] {PetDataset.someBreed()}, null);
+        }
+
+    @Test
+    public void filterByGender()
+        {
+            String plan = mStore.explainQuery(null, null, PetsEntry.COLUMN_PET_GENDER + "=?",
+                    new String[] {String.valueOf(PetsEntry.GENDER_MALE)}, null, null);
+            assertTrue("Unexpected plan: " + plan, plan.startsWith("SEARCH") && plan.contains("INDEX"));
+        }
+
+    @Test
+    public void filterByNameIgnoringCase()
+        {
+            assertUsesIndex(PetDbHelper.INDEX_PETS_NAME_NOCASE,
+                    PetsEntry.COLUMN_PET_NAME + "=? COLLATE NOCASE", new String[] {"toto 1"}, null);
+        }
+
+    @Test
+    public void filterByGenderOrderedByWeight()
+        {
+            assertUsesIndex(PetDbHelper.INDEX_PETS_GENDER_WEIGHT,
+                    PetsEntry.COLUMN_PET_GENDER + "=?", new String[] {String.valueOf(PetsEntry.GENDER_FEMALE)},
+                    PetsEntry.COLUMN_PET_WEIGHT);
+        }
+
+    @Test
+    public void pageAfterId()
+        {
+            String plan = mStore.explainQuery(null, null, PetsEntry._ID + ">?", new String[] {"500"},
+                    PetsEntry._ID + " ASC", "50");
+            assertTrue("Unexpected plan: " + plan, plan.startsWith("SEARCH"));
+            assertFalse("Unexpected plan: " + plan, plan.contains("TEMP B-TREE"));
+        }
+
+    @Test
+    public void migrateFromFirstVersion()
+        {
+            mStore.getDbHelper().close();
+            File path = RuntimeEnvironment.application.getDatabasePath(PetDbHelper.DATABASE_NAME);
+            SQLiteDatabase.deleteDatabase(path);
+
+            // A database as the first release of the app left it
+            SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+            db.execSQL(PetDbHelper.SQL_CREATE_PETS_TABLE);
+            for (ContentValues pet : PetDataset.generate(ROWS, PetDataset.SEED))
+                {
+                    db.insert(PetsEntry.TABLE_PET_NAME, null, pet);
+                }
+            db.setVersion(1);
+            db.close();
+
+            PetDbHelper dbHelper = new PetDbHelper(RuntimeEnvironment.application);
+            db = dbHelper.getWritableDatabase();
+            try
+                {
+                    assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+                    assertEquals(ROWS, DatabaseUtils.queryNumEntries(db, PetsEntry.TABLE_PET_NAME));
+                    for (String index : new String[] {PetDbHelper.INDEX_PETS_BREED, PetDbHelper.INDEX_PETS_GENDER,
+                            PetDbHelper.INDEX_PETS_NAME_NOCASE, PetDbHelper.INDEX_PETS_GENDER_WEIGHT,
+                            PetDbHelper.INDEX_PETS_MICROCHIP})
+                        {
+                            assertEquals(index, 1, DatabaseUtils.longForQuery(db,
+                                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?", new String[] {index}));
+                        }
+
+                    // The tables that later versions derive from the pets are filled in as well
+                    assertEquals(ROWS, DatabaseUtils.queryNumEntries(db, PetsEntry.TABLE_PET_SEARCH_NAME));
+                    assertEquals(ROWS, DatabaseUtils.longForQuery(db, "SELECT " + PetStatsEntry.COLUMN_PET_COUNT +
+                            " FROM " + PetStatsEntry.TABLE_PET_STATS_NAME + " WHERE " + PetStatsEntry.COLUMN_DIMENSION +
+                            " = ?", new String[] {PetStatsEntry.DIMENSION_ALL}));
+                }
+            finally
+                {
+                    dbHelper.close();
+                }
+        }
+}
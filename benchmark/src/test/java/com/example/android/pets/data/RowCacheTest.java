@@ -0,0 +1,188 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A pet read through the row cache of {@link PetProvider} is never older than the pet in the
+ * store, whichever way it was written, and projections the cache can't answer still work.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RowCacheTest {
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private Uri mPetUri;
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(100, PetDataset.SEED));
+
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    cursor.moveToFirst();
+                    mPetUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, cursor.getLong(0));
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    /**
+     * Returns the weight of the pet, or -1 if there's no such pet.
+     */
+    private int readWeight()
+        {
+            Cursor cursor = mResolver.query(mPetUri, new String[] {PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+            try
+                {
+                    return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    /**
+     * Read the pet until it comes from the cache.
+     */
+    private void warmUp()
+        {
+            readWeight();
+            int hits = mProvider.getRowCacheHitCount();
+            readWeight();
+            assertEquals(hits + 1, mProvider.getRowCacheHitCount());
+        }
+
+    private static ContentValues weight(int weight)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+
+    @Test
+    public void seesUpdateOfThePet()
+        {
+            warmUp();
+            mResolver.update(mPetUri, weight(77), null, null);
+            assertEquals(77, readWeight());
+        }
+
+    @Test
+    public void seesUpdateOfManyPets()
+        {
+            warmUp();
+            mResolver.update(PetsEntry.CONTENT_URI, weight(78), PetsEntry.COLUMN_PET_WEIGHT + ">=?", new String[] {"0"});
+            assertEquals(78, readWeight());
+        }
+
+    @Test
+    public void seesDeleteOfThePet()
+        {
+            warmUp();
+            mResolver.delete(mPetUri, null, null);
+            assertEquals(-1, readWeight());
+        }
+
+    @Test
+    public void seesDeleteOfEveryPet()
+        {
+            warmUp();
+            mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+            assertEquals(-1, readWeight());
+        }
+
+    @Test
+    public void seesBatch() throws RemoteException, OperationApplicationException
+        {
+            warmUp();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newUpdate(mPetUri).withValues(weight(79)).build());
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            assertEquals(79, readWeight());
+        }
+
+    @Test
+    public void keepsPetOfFailedBatch()
+        {
+            int weight = readWeight();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newUpdate(mPetUri).withValues(weight(80)).build());
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(new ContentValues()).build());
+            try
+                {
+                    mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                }
+            catch (RemoteException | OperationApplicationException | RuntimeException e)
+                {
+                    // Expected, the pet inserted has no name
+                }
+            assertEquals(weight, readWeight());
+        }
+
+    @Test
+    public void answersExpressionsFromTheStore()
+        {
+            warmUp();
+            Cursor cursor = mResolver.query(mPetUri, new String[] {"COUNT(*)",
+                    PetsEntry.COLUMN_PET_WEIGHT + " * 2 AS double_weight"}, null, null, null);
+            try
+                {
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(1, cursor.getInt(0));
+                    assertEquals(2 * readWeight(), cursor.getInt(1));
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void answersExpressionsOfUncachedPet()
+        {
+            Cursor cursor = mResolver.query(mPetUri, new String[] {
+                    PetsEntry.COLUMN_PET_NAME + " || ' ' || " + PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+            try
+                {
+                    assertTrue(cursor.moveToFirst());
+                    assertTrue(cursor.getString(0).endsWith(" " + readWeight()));
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+}
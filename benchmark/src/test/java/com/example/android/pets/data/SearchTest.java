@@ -0,0 +1,179 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searching the pets finds exactly the pets where every word of the search text starts a word
+ * of their name or breed, follows the pets as they change, and takes whatever the user types.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SearchTest {
+
+    /* Number of pets in the shelter */
+    private static final int ROWS = 2000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+
+    public SearchTest(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED)));
+        }
+
+    /**
+     * Returns the IDs of the pets the given URI finds, in _id order.
+     */
+    private ArrayList<Long> readIds(Uri uri)
+        {
+            ArrayList<Long> ids = new ArrayList<>();
+            Cursor cursor = mResolver.query(uri, new String[] {PetsEntry._ID}, null, null, PetsEntry._ID);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ids.add(cursor.getLong(0));
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    /**
+     * Returns the words of the given text, in lower case.
+     */
+    private static ArrayList<String> words(String text)
+        {
+            ArrayList<String> words = new ArrayList<>();
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                {
+                    if (!word.isEmpty())
+                        {
+                            words.add(word);
+                        }
+                }
+            return words;
+        }
+
+    /**
+     * Returns the IDs of the pets the given search text should find, worked out by reading
+     * every pet.
+     */
+    private ArrayList<Long> expectedIds(String text)
+        {
+            ArrayList<String> searchWords = words(text);
+            ArrayList<Long> ids = new ArrayList<>();
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[] {
+                    PetsEntry._ID, PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED}, null, null, PetsEntry._ID);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            ArrayList<String> petWords = words(cursor.getString(1) + " " +
+                                    (cursor.isNull(2) ? "" : cursor.getString(2)));
+                            boolean matches = !searchWords.isEmpty();
+                            for (String searchWord : searchWords)
+                                {
+                                    boolean found = false;
+                                    for (String petWord : petWords)
+                                        {
+                                            found |= petWord.startsWith(searchWord);
+                                        }
+                                    matches &= found;
+                                }
+                            if (matches)
+                                {
+                                    ids.add(cursor.getLong(0));
+                                }
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return ids;
+        }
+
+    @Test
+    public void findsEveryMatchingPet()
+        {
+            for (String text : new String[] {PetDataset.someBreed(), "labrador", "Lab Ret", "toto", "max 1", "GERMAN"})
+                {
+                    ArrayList<Long> expected = expectedIds(text);
+                    assertTrue("Nothing to find for " + text, !expected.isEmpty());
+                    assertEquals(text, expected, readIds(PetsEntry.buildSearchUri(text)));
+                }
+        }
+
+    @Test
+    public void takesSearchOperatorsAsText()
+        {
+            for (String text : new String[] {"toto OR max", "\"lady", "-duke", "bel*", "NEAR(a b)", "tabby:"})
+                {
+                    assertEquals(text, expectedIds(text), readIds(PetsEntry.buildSearchUri(text)));
+                }
+        }
+
+    @Test
+    public void followsChanges()
+        {
+            long id = readIds(PetsEntry.CONTENT_URI).get(0);
+            Uri petUri = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id);
+            Uri searchUri = PetsEntry.buildSearchUri("Xoloitzcuintli");
+            assertTrue(readIds(searchUri).isEmpty());
+
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_BREED, "Xoloitzcuintli");
+            mResolver.update(petUri, values, null, null);
+            assertEquals(Arrays.asList(id), readIds(searchUri));
+
+            mResolver.delete(petUri, null, null);
+            assertTrue(readIds(searchUri).isEmpty());
+        }
+}
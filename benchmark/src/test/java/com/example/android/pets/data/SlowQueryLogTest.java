@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetContract.SlowQueryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The slow-query log of {@link PetProvider} catches a query that has to scan the whole pets
+ * table, with a plan that says so, keeps only the latest queries and leaves out the ones under
+ * its threshold, for the SQLite and in-memory engines. Unless a test says otherwise the
+ * threshold is 0, so every query counts as slow.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SlowQueryLogTest {
+
+    /* Number of pets in the shelter */
+    private static final int ROWS = 500;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY}
+            });
+        }
+
+    private final String mEngine;
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    public SlowQueryLogTest(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            mProvider.setStorageEngine(mEngine);
+            mProvider.setRowCacheEnabled(false);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, PetDataset.generate(ROWS, PetDataset.SEED)));
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        }
+
+    private ArrayList<Bundle> getSlowQueries()
+        {
+            return mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_GET_SLOW_QUERIES, null, null)
+                    .getParcelableArrayList(SlowQueryEntry.KEY_SLOW_QUERIES);
+        }
+
+    /**
+     * Returns the latest query in the slow-query log.
+     */
+    private Bundle getLatestSlowQuery()
+        {
+            ArrayList<Bundle> queries = getSlowQueries();
+            assertTrue("Nothing in the slow-query log", !queries.isEmpty());
+            return queries.get(queries.size() - 1);
+        }
+
+    /**
+     * Run a query, returning the number of rows it found.
+     */
+    private int count(String selection, String[] selectionArgs, String sortOrder)
+        {
+            Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, null, selection, selectionArgs, sortOrder);
+            try
+                {
+                    return cursor.getCount();
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void capturesUnindexedQuery()
+        {
+            // The weight is only indexed after the gender, so a filter on the weight alone
+            // has to look at every pet
+            String selection = PetsEntry.COLUMN_PET_WEIGHT + ">=?";
+            String sortOrder = PetsEntry.COLUMN_PET_NAME;
+            int rows = count(selection, new String[] {"10"}, sortOrder);
+
+            Bundle query = getLatestSlowQuery();
+            assertEquals(PetsEntry.CONTENT_URI.toString(), query.getString(SlowQueryEntry.KEY_URI));
+            assertEquals(selection, query.getString(SlowQueryEntry.KEY_SELECTION));
+            assertEquals(sortOrder, query.getString(SlowQueryEntry.KEY_SORT_ORDER));
+            assertEquals(rows, query.getInt(SlowQueryEntry.KEY_ROWS));
+            assertTrue(query.getLong(SlowQueryEntry.KEY_ELAPSED_NANOS) > 0);
+
+            String plan = query.getString(SlowQueryEntry.KEY_QUERY_PLAN);
+            assertTrue("Unexpected plan: " + plan, plan.startsWith("SCAN") && plan.contains(PetsEntry.TABLE_PET_NAME));
+        }
+
+    @Test
+    public void capturesLookupById()
+        {
+            Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, 1), null, null, null, null);
+            cursor.close();
+
+            // The primary key finds the pet without a scan
+            String plan = getLatestSlowQuery().getString(SlowQueryEntry.KEY_QUERY_PLAN);
+            assertTrue("Unexpected plan: " + plan, plan.startsWith("SEARCH"));
+        }
+
+    @Test
+    public void keepsOnlyTheLatestQueries()
+        {
+            int queries = SlowQueryEntry.MAX_SLOW_QUERIES + 10;
+            for (int i = 0; i < queries; i++)
+                {
+                    count(PetsEntry.COLUMN_PET_WEIGHT + ">=" + i, null, null);
+                }
+
+            ArrayList<Bundle> log = getSlowQueries();
+            assertEquals(SlowQueryEntry.MAX_SLOW_QUERIES, log.size());
+            assertEquals(PetsEntry.COLUMN_PET_WEIGHT + ">=" + (queries - SlowQueryEntry.MAX_SLOW_QUERIES),
+                    log.get(0).getString(SlowQueryEntry.KEY_SELECTION));
+            assertEquals(PetsEntry.COLUMN_PET_WEIGHT + ">=" + (queries - 1),
+                    log.get(log.size() - 1).getString(SlowQueryEntry.KEY_SELECTION));
+        }
+
+    @Test
+    public void leavesOutQueriesUnderTheThreshold()
+        {
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD,
+                    String.valueOf(60 * 60 * 1000), null);
+            count(null, null, null);
+            assertTrue(getSlowQueries().isEmpty());
+
+            mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+            count(null, null, null);
+            assertEquals(1, getSlowQueries().size());
+        }
+}
@@ -0,0 +1,121 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetChangesEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A sync server for {@link PetSyncEngine} that runs in the same process. It stores the batches
+ * pushed to it in order, and applies each of them to its own copy of the pets, keyed by
+ * microchip, the way a real server would. It counts the requests and bytes that go through it.
+ */
+final class StandInSyncServer implements PetSyncEngine.Transport {
+
+    private final ArrayList<PetSyncEngine.Batch> mBatches = new ArrayList<>();
+    private final HashMap<String, Long> mLastSequences = new HashMap<>();
+    private final HashMap<String, ContentValues> mPets = new HashMap<>();
+    private long mRequests;
+    private long mBytes;
+
+    @Override
+    public void push(String deviceId, long lastSequence, byte[] batch) throws IOException
+        {
+            mRequests++;
+            mBytes += batch.length;
+            Long stored = mLastSequences.get(deviceId);
+            if (stored != null && stored >= lastSequence)
+                {
+                    // Sent again after the answer got lost
+                    return;
+                }
+            mLastSequences.put(deviceId, lastSequence);
+            store(batch);
+        }
+
+    @Override
+    public List<PetSyncEngine.Batch> pull(long afterPosition, int maxBatches)
+        {
+            mRequests++;
+            int from = (int) afterPosition;
+            List<PetSyncEngine.Batch> batches = new ArrayList<>(
+                    mBatches.subList(from, Math.min(mBatches.size(), from + maxBatches)));
+            for (PetSyncEngine.Batch batch : batches)
+                {
+                    mBytes += batch.data.length;
+                }
+            return batches;
+        }
+
+    /**
+     * Store a batch, changing the server's copy of the pets with it, the way a batch pushed
+     * by another device would be.
+     */
+    void store(byte[] batch) throws IOException
+        {
+            mBatches.add(new PetSyncEngine.Batch(mBatches.size() + 1, batch));
+            for (ContentValues change : PetDeltaCodec.decode(batch))
+                {
+                    String kind = change.getAsString(PetChangesEntry.COLUMN_CHANGE);
+                    String microchip = change.getAsString(PetsEntry.COLUMN_PET_MICROCHIP);
+                    if (PetChangesEntry.CHANGE_CLEAR.equals(kind))
+                        {
+                            mPets.clear();
+                        }
+                    else if (PetContract.CHANGE_DELETE.equals(kind))
+                        {
+                            mPets.remove(microchip);
+                        }
+                    else
+                        {
+                            mPets.put(microchip, change);
+                        }
+                }
+        }
+
+    /**
+     * Returns every pet the server has, as a batch that clears the pets first, counting it
+     * as one request.
+     */
+    byte[] fetchAll() throws IOException
+        {
+            ArrayList<ContentValues> changes = new ArrayList<>();
+            ContentValues clear = new ContentValues();
+            clear.put(PetChangesEntry.COLUMN_CHANGE, PetChangesEntry.CHANGE_CLEAR);
+            changes.add(clear);
+            changes.addAll(mPets.values());
+            byte[] all = PetDeltaCodec.encode(changes);
+            mRequests++;
+            mBytes += all.length;
+            return all;
+        }
+
+    /**
+     * Returns the server's copy of the pets, by microchip.
+     */
+    HashMap<String, ContentValues> getPets()
+        {
+            return mPets;
+        }
+
+    long getRequests()
+        {
+            return mRequests;
+        }
+
+    long getBytes()
+        {
+            return mBytes;
+        }
+
+    void resetCounters()
+        {
+            mRequests = 0;
+            mBytes = 0;
+        }
+}
@@ -0,0 +1,145 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.benchmark.BenchmarkResults;
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Microbenchmarks of the fixed shapes of {@link SqlitePetStore}: a single pet read, inserted,
+ * updated and deleted through its cached statements, against the same operation built from a
+ * selection, the way every call went before. Each pair is reported as "&lt;operation&gt;[cached]"
+ * and "&lt;operation&gt;[built]". The cached run goes first, so warming up counts against it.
+ * This lives in the data package to get at the store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class StatementCacheBenchmark {
+
+    /* The selection the built operations find a single pet with */
+    private static final String SELECTION_BY_ID = PetsEntry._ID + "=?";
+
+    private SqlitePetStore mStore;
+    private int mRows;
+    private long[] mIds;
+
+    @Before
+    public void setUp()
+        {
+            mStore = new SqlitePetStore(new PetDbHelper(RuntimeEnvironment.application));
+            mRows = PetDataset.rows();
+            mIds = mStore.bulkInsert(PetDataset.generate(mRows, PetDataset.SEED));
+        }
+
+    private void report(String benchmark, long elapsedNanos)
+        {
+            BenchmarkResults.report(benchmark, mRows, mRows, elapsedNanos);
+        }
+
+    private static void readAndClose(Cursor cursor)
+        {
+            try
+                {
+                    assertEquals(1, cursor.getCount());
+                }
+            finally
+                {
+                    cursor.close();
+                }
+        }
+
+    @Test
+    public void queryById()
+        {
+            Random random = new Random(PetDataset.SEED);
+            long start = System.nanoTime();
+            for (int i = 0; i < mRows; i++)
+                {
+                    readAndClose(mStore.queryById(mIds[random.nextInt(mRows)], null));
+                }
+            report("queryById[cached]", System.nanoTime() - start);
+
+            random = new Random(PetDataset.SEED);
+            start = System.nanoTime();
+            for (int i = 0; i < mRows; i++)
+                {
+                    String[] selectionArgs = {String.valueOf(mIds[random.nextInt(mRows)])};
+                    readAndClose(mStore.query(null, SELECTION_BY_ID, selectionArgs, null, null));
+                }
+            report("queryById[built]", System.nanoTime() - start);
+        }
+
+    @Test
+    public void insert()
+        {
+            ContentValues[] pets = PetDataset.generate(mRows, PetDataset.SEED + 1);
+            long start = System.nanoTime();
+            for (ContentValues pet : pets)
+                {
+                    mStore.insert(pet);
+                }
+            report("insert[cached]", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (ContentValues pet : pets)
+                {
+                    mStore.getDbHelper().getWritableDatabase().insert(PetsEntry.TABLE_PET_NAME, null, pet);
+                }
+            report("insert[built]", System.nanoTime() - start);
+        }
+
+    @Test
+    public void updateById()
+        {
+            Random random = new Random(PetDataset.SEED);
+            long start = System.nanoTime();
+            for (long id : mIds)
+                {
+                    ContentValues values = new ContentValues();
+                    values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+                    assertEquals(1, mStore.updateById(id, values));
+                }
+            report("updateById[cached]", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (long id : mIds)
+                {
+                    ContentValues values = new ContentValues();
+                    values.put(PetsEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+                    assertEquals(1, mStore.update(values, SELECTION_BY_ID, new String[] {String.valueOf(id)}));
+                }
+            report("updateById[built]", System.nanoTime() - start);
+        }
+
+    @Test
+    public void deleteById()
+        {
+            int half = mRows / 2;
+            long start = System.nanoTime();
+            for (int i = 0; i < half; i++)
+                {
+                    assertEquals(1, mStore.deleteById(mIds[i]));
+                }
+            BenchmarkResults.report("deleteById[cached]", mRows, half, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = half; i < 2 * half; i++)
+                {
+                    assertEquals(1, mStore.delete(SELECTION_BY_ID, new String[] {String.valueOf(mIds[i])}));
+                }
+            BenchmarkResults.report("deleteById[built]", mRows, half, System.nanoTime() - start);
+        }
+}
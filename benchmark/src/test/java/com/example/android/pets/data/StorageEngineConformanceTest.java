@@ -0,0 +1,413 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.TextUtils;
+
+import com.example.android.pets.benchmark.PetDataset;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Every storage engine of {@link PetProvider} stores, selects, sorts, changes and rolls back
+ * pets the same way, so switching engines can't change what the app shows.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class StorageEngineConformanceTest {
+
+    /* Number of pets in the shelter */
+    private static final int ROWS = 500;
+
+    /* Every column of the pets table, in order */
+    private static final String[] COLUMNS = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_MICROCHIP
+    };
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> engines()
+        {
+            return Arrays.asList(new Object[][] {
+                    {PetProvider.STORAGE_ENGINE_SQLITE},
+                    {PetProvider.STORAGE_ENGINE_MEMORY},
+                    {PetProvider.STORAGE_ENGINE_MEMORY_WRITE_THROUGH}
+            });
+        }
+
+    private final String mEngine;
+    private ContentResolver mResolver;
+    private ContentValues[] mPets;
+
+    public StorageEngineConformanceTest(String engine)
+        {
+            mEngine = engine;
+        }
+
+    @Before
+    public void setUp()
+        {
+            PetProvider provider = Robolectric.buildContentProvider(PetProvider.class)
+                    .create(PetContract.CONTENT_AUTHORITY)
+                    .get();
+            provider.setStorageEngine(mEngine);
+            mResolver = RuntimeEnvironment.application.getContentResolver();
+
+            // Every third pet is microchipped
+            mPets = PetDataset.generate(ROWS, PetDataset.SEED);
+            for (int i = 0; i < mPets.length; i += 3)
+                {
+                    mPets[i].put(PetsEntry.COLUMN_PET_MICROCHIP, String.format("985112%09d", i));
+                }
+            assertEquals(ROWS, mResolver.bulkInsert(PetsEntry.CONTENT_URI, mPets));
+        }
+
+    /**
+     * Returns every row the given query finds, each as its values joined into a string.
+     */
+    private List<String> read(Uri uri, String selection, String[] selectionArgs, String sortOrder)
+        {
+            ArrayList<String> rows = new ArrayList<>();
+            Cursor cursor = mResolver.query(uri, PetStatsEntry.CONTENT_URI.equals(uri) ? null : COLUMNS,
+                    selection, selectionArgs, sortOrder);
+            try
+                {
+                    while (cursor.moveToNext())
+                        {
+                            StringBuilder row = new StringBuilder();
+                            for (int column = 0; column < cursor.getColumnCount(); column++)
+                                {
+                                    row.append(column == 0 ? "" : "|").append(cursor.getString(column));
+                                }
+                            rows.add(row.toString());
+                        }
+                }
+            finally
+                {
+                    cursor.close();
+                }
+            return rows;
+        }
+
+    private List<String> readAll()
+        {
+            return read(PetsEntry.CONTENT_URI, null, null, PetsEntry._ID);
+        }
+
+    /**
+     * Returns the statistics rows, in a fixed order.
+     */
+    private List<String> readStats()
+        {
+            List<String> rows = read(PetStatsEntry.CONTENT_URI, null, null, null);
+            Collections.sort(rows);
+            return rows;
+        }
+
+    private Uri firstPetUri()
+        {
+            return ContentUris.withAppendedId(PetsEntry.CONTENT_URI, Long.parseLong(readAll().get(0).split("\\|")[0]));
+        }
+
+    private static ContentValues weight(int weight)
+        {
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+
+    /**
+     * Apply the given operations, followed by an insert that fails, and check nothing changed.
+     */
+    private void assertRollsBack(ArrayList<ContentProviderOperation> operations) throws RemoteException
+        {
+            List<String> pets = readAll();
+            List<String> stats = readStats();
+
+            // A pet without a name is rejected, failing the whole batch
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(new ContentValues()).build());
+            try
+                {
+                    mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                    fail("Batch with an invalid pet went through");
+                }
+            catch (OperationApplicationException | IllegalArgumentException e)
+                {
+                    // Expected
+                }
+
+            assertEquals(pets, readAll());
+            assertEquals(stats, readStats());
+        }
+
+    @Test
+    public void storesWhatWasInserted()
+        {
+            List<String> rows = readAll();
+            assertEquals(ROWS, rows.size());
+            long lastId = 0;
+            for (int i = 0; i < ROWS; i++)
+                {
+                    String[] values = rows.get(i).split("\\|", -1);
+                    long id = Long.parseLong(values[0]);
+                    assertTrue(id > lastId);
+                    lastId = id;
+                    assertEquals(mPets[i].getAsString(PetsEntry.COLUMN_PET_NAME), values[1]);
+                    assertEquals(String.valueOf(mPets[i].getAsString(PetsEntry.COLUMN_PET_BREED)), values[2]);
+                    assertEquals(mPets[i].getAsString(PetsEntry.COLUMN_PET_GENDER), values[3]);
+                    assertEquals(String.valueOf(mPets[i].getAsInteger(PetsEntry.COLUMN_PET_WEIGHT)), values[4]);
+                    assertEquals(String.valueOf(mPets[i].getAsString(PetsEntry.COLUMN_PET_MICROCHIP)), values[5]);
+                }
+        }
+
+    @Test
+    public void selectsAndSortsLikeSql()
+        {
+            // Work out the expected rows from a plain read of every pet
+            ArrayList<String[]> expected = new ArrayList<>();
+            for (String row : readAll())
+                {
+                    String[] values = row.split("\\|", -1);
+                    if (values[3].equals(String.valueOf(PetsEntry.GENDER_MALE)) && Integer.parseInt(values[4]) >= 20)
+                        {
+                            expected.add(values);
+                        }
+                }
+            Collections.sort(expected, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a, String[] b) {
+                    int byWeight = Integer.compare(Integer.parseInt(b[4]), Integer.parseInt(a[4]));
+                    return byWeight != 0 ? byWeight : Long.compare(Long.parseLong(a[0]), Long.parseLong(b[0]));
+                }
+            });
+            ArrayList<String> expectedRows = new ArrayList<>();
+            for (String[] values : expected)
+                {
+                    expectedRows.add(TextUtils.join("|", values));
+                }
+
+            assertTrue(!expectedRows.isEmpty());
+            assertEquals(expectedRows, read(PetsEntry.CONTENT_URI,
+                    PetsEntry.COLUMN_PET_GENDER + "=? AND " + PetsEntry.COLUMN_PET_WEIGHT + ">=?",
+                    new String[] {String.valueOf(PetsEntry.GENDER_MALE), "20"},
+                    PetsEntry.COLUMN_PET_WEIGHT + " DESC, " + PetsEntry._ID + " ASC"));
+
+            // Null breeds are found with IS NULL, never with a comparison
+            int withoutBreed = read(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_BREED + " IS NULL", null, null).size();
+            int withBreed = read(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_BREED + "=? OR " +
+                    PetsEntry.COLUMN_PET_BREED + "<>?", new String[] {"", ""}, null).size();
+            assertEquals(ROWS, withoutBreed + withBreed);
+        }
+
+    @Test
+    public void comparisonsWithNullAreUnknownLikeSql()
+        {
+            String breed = PetDataset.someBreed();
+            String microchip = mPets[0].getAsString(PetsEntry.COLUMN_PET_MICROCHIP);
+            int heavy = 20;
+
+            // Work out the expected rows from a plain read of every pet. A comparison with a NULL
+            // is unknown, and so is its opposite, so neither selects the pet; but FALSE AND
+            // unknown is FALSE, whose opposite does
+            ArrayList<String> otherBreed = new ArrayList<>();
+            ArrayList<String> otherMicrochip = new ArrayList<>();
+            ArrayList<String> otherBreedNotHeavy = new ArrayList<>();
+            ArrayList<String> otherBreedOrNotHeavy = new ArrayList<>();
+            int withoutBreed = 0;
+            int withoutMicrochip = 0;
+            for (String row : readAll())
+                {
+                    String[] values = row.split("\\|", -1);
+                    boolean hasBreed = !values[2].equals("null");
+                    boolean isOtherBreed = hasBreed && !values[2].equals(breed);
+                    boolean isHeavy = Integer.parseInt(values[4]) > heavy;
+                    withoutBreed += hasBreed ? 0 : 1;
+                    if (values[5].equals("null"))
+                        {
+                            withoutMicrochip++;
+                        }
+                    else if (!values[5].equals(microchip))
+                        {
+                            otherMicrochip.add(row);
+                        }
+                    if (isOtherBreed)
+                        {
+                            otherBreed.add(row);
+                        }
+                    if (isOtherBreed && !isHeavy)
+                        {
+                            otherBreedNotHeavy.add(row);
+                        }
+                    if (isOtherBreed || !isHeavy)
+                        {
+                            otherBreedOrNotHeavy.add(row);
+                        }
+                }
+            assertTrue(withoutBreed > 0);
+            assertTrue(withoutMicrochip > 0);
+
+            String[] breedArgs = {breed};
+            String[] microchipArgs = {microchip};
+            String[] breedAndWeightArgs = {breed, String.valueOf(heavy)};
+            String isBreed = PetsEntry.COLUMN_PET_BREED + "=?";
+            String isHeavy = PetsEntry.COLUMN_PET_WEIGHT + ">?";
+            assertEquals(otherBreed, read(PetsEntry.CONTENT_URI, "NOT (" + isBreed + ")", breedArgs, PetsEntry._ID));
+            assertEquals(otherBreed, read(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_BREED + "<>?", breedArgs,
+                    PetsEntry._ID));
+            assertEquals(otherMicrochip, read(PetsEntry.CONTENT_URI, "NOT (" + PetsEntry.COLUMN_PET_MICROCHIP + "=?)",
+                    microchipArgs, PetsEntry._ID));
+            assertEquals(otherMicrochip, read(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_MICROCHIP + "<>?",
+                    microchipArgs, PetsEntry._ID));
+            assertEquals(otherBreedNotHeavy, read(PetsEntry.CONTENT_URI,
+                    "NOT (" + isBreed + " OR " + isHeavy + ")", breedAndWeightArgs, PetsEntry._ID));
+            assertEquals(otherBreedOrNotHeavy, read(PetsEntry.CONTENT_URI,
+                    "NOT (" + isBreed + " AND " + isHeavy + ")", breedAndWeightArgs, PetsEntry._ID));
+        }
+
+    @Test
+    public void updatesAndDeletesMatchingPets()
+        {
+            String selection = PetsEntry.COLUMN_PET_GENDER + "=?";
+            String[] female = {String.valueOf(PetsEntry.GENDER_FEMALE)};
+            int females = read(PetsEntry.CONTENT_URI, selection, female, null).size();
+
+            assertEquals(females, mResolver.update(PetsEntry.CONTENT_URI, weight(42), selection, female));
+            for (String row : read(PetsEntry.CONTENT_URI, selection, female, null))
+                {
+                    assertTrue(row, row.split("\\|", -1)[4].equals("42"));
+                }
+
+            assertEquals(females, mResolver.delete(PetsEntry.CONTENT_URI, selection, female));
+            assertEquals(ROWS - females, readAll().size());
+            assertEquals(0, read(PetsEntry.CONTENT_URI, selection, female, null).size());
+        }
+
+    @Test
+    public void statisticsFollowThePets()
+        {
+            mResolver.update(firstPetUri(), weight(61), null, null);
+            mResolver.delete(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_WEIGHT + "<?", new String[] {"10"});
+
+            // Count the pets and their weight per gender, and over all pets
+            HashMap<String, long[]> expected = new HashMap<>();
+            for (String row : readAll())
+                {
+                    String[] values = row.split("\\|", -1);
+                    for (String key : new String[] {PetStatsEntry.DIMENSION_ALL + "|",
+                            PetStatsEntry.DIMENSION_GENDER + "|" + values[3]})
+                        {
+                            long[] stats = expected.get(key);
+                            if (stats == null)
+                                {
+                                    stats = new long[2];
+                                    expected.put(key, stats);
+                                }
+                            stats[0]++;
+                            stats[1] += Long.parseLong(values[4]);
+                        }
+                }
+
+            int checked = 0;
+            for (String row : readStats())
+                {
+                    String[] values = row.split("\\|", -1);
+                    long[] stats = expected.get(values[0] + "|" + values[1]);
+                    if (stats != null)
+                        {
+                            assertEquals(row, stats[0], Long.parseLong(values[2]));
+                            assertEquals(row, stats[1], Long.parseLong(values[3]));
+                            checked++;
+                        }
+                }
+            assertEquals(expected.size(), checked);
+        }
+
+    @Test
+    public void microchipsStayUnique()
+        {
+            ContentValues pet = PetDataset.generate(1, PetDataset.SEED)[0];
+            pet.put(PetsEntry.COLUMN_PET_MICROCHIP, mPets[0].getAsString(PetsEntry.COLUMN_PET_MICROCHIP));
+            assertNull(mResolver.insert(PetsEntry.CONTENT_URI, pet));
+
+            ContentValues values = new ContentValues();
+            values.put(PetsEntry.COLUMN_PET_MICROCHIP, mPets[3].getAsString(PetsEntry.COLUMN_PET_MICROCHIP));
+            List<String> pets = readAll();
+            try
+                {
+                    mResolver.update(firstPetUri(), values, null, null);
+                    fail("Two pets got the same microchip");
+                }
+            catch (SQLiteException e)
+                {
+                    // Expected
+                }
+            assertEquals(pets, readAll());
+        }
+
+    @Test
+    public void failedBatchPutsChangedPetsBack() throws RemoteException
+        {
+            List<String> rows = readAll();
+            Uri first = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, Long.parseLong(rows.get(0).split("\\|")[0]));
+            Uri fourth = ContentUris.withAppendedId(PetsEntry.CONTENT_URI, Long.parseLong(rows.get(3).split("\\|")[0]));
+
+            // Update, move a microchip between pets, insert and delete, then fail
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newUpdate(PetsEntry.CONTENT_URI).withValues(weight(7))
+                    .withSelection(PetsEntry.COLUMN_PET_WEIGHT + ">?", new String[] {"30"}).build());
+            operations.add(ContentProviderOperation.newUpdate(fourth)
+                    .withValue(PetsEntry.COLUMN_PET_MICROCHIP, null).build());
+            operations.add(ContentProviderOperation.newUpdate(first)
+                    .withValue(PetsEntry.COLUMN_PET_MICROCHIP, mPets[3].getAsString(PetsEntry.COLUMN_PET_MICROCHIP)).build());
+            operations.add(ContentProviderOperation.newUpdate(fourth)
+                    .withValue(PetsEntry.COLUMN_PET_MICROCHIP, mPets[0].getAsString(PetsEntry.COLUMN_PET_MICROCHIP)).build());
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI)
+                    .withValues(PetDataset.generate(1, PetDataset.SEED + 1)[0]).build());
+            operations.add(ContentProviderOperation.newDelete(PetsEntry.CONTENT_URI)
+                    .withSelection(PetsEntry.COLUMN_PET_WEIGHT + "<?", new String[] {"10"}).build());
+            assertRollsBack(operations);
+        }
+
+    @Test
+    public void failedBatchPutsDeletedShelterBack() throws RemoteException
+        {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newUpdate(firstPetUri()).withValues(weight(9)).build());
+            operations.add(ContentProviderOperation.newDelete(PetsEntry.CONTENT_URI).build());
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI)
+                    .withValues(PetDataset.generate(1, PetDataset.SEED + 1)[0]).build());
+            assertRollsBack(operations);
+        }
+}
@@ -0,0 +1,65 @@
+#!/bin/sh
+#
+# Measures cold starts of the catalog on the connected device or emulator: the app is stopped,
+# launched, and the time to its first pet row is read from the log, as StartupTrace writes it.
+# Every run is printed and appended as one JSON object per line to
+# build/startup-results/results.jsonl, followed by the median of the runs.
+#
+#     ./gradlew installDebug
+#     scripts/startup-benchmark.sh [runs]
+#
+# The catalog has to have at least one pet, or there is no first row to wait for. The file
+# cache isn't dropped between runs, since that needs root, so the runs measure the start of a
+# new process rather than a start after a reboot.
+
+set -e
+
+RUNS=${1:-10}
+PACKAGE=com.example.android.pets
+ACTIVITY=$PACKAGE/.CatalogActivity
+TAG=PetsStartup
+TIMEOUT_SECONDS=10
+OUTPUT_DIR=${OUTPUT_DIR:-build/startup-results}
+
+mkdir -p "$OUTPUT_DIR"
+RESULTS=$(mktemp)
+trap 'rm -f "$RESULTS"' EXIT
+
+run=1
+while [ "$run" -le "$RUNS" ]
+do
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+
+    # TotalTime is until the first frame of the activity, whatever is in it
+    total=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r' | sed -n 's/^TotalTime: //p')
+
+    first_row=""
+    waited=0
+    while [ -z "$first_row" ] && [ "$waited" -lt "$TIMEOUT_SECONDS" ]
+    do
+        first_row=$(adb logcat -d -s "$TAG:I" | tr -d '\r' | sed -n 's/.*first_pet_row_ms=\([0-9]*\) since=\([a-z]*\).*/\1 \2/p' | head -n 1)
+        if [ -z "$first_row" ]
+        then
+            sleep 1
+            waited=$((waited + 1))
+        fi
+    done
+    if [ -z "$first_row" ]
+    then
+        echo "No pet row was drawn within $TIMEOUT_SECONDS s; add some pets to the catalog first" >&2
+        exit 1
+    fi
+
+    millis=${first_row% *}
+    since=${first_row#* }
+    json="{\"benchmark\":\"coldStartFirstPetRow\",\"run\":$run,\"firstPetRowMillis\":$millis,\"since\":\"$since\",\"totalTimeMillis\":${total:-null},\"timestamp\":$(date +%s)000}"
+    echo "$json"
+    echo "$json" >> "$OUTPUT_DIR/results.jsonl"
+    echo "$millis" >> "$RESULTS"
+
+    run=$((run + 1))
+done
+
+median=$(sort -n "$RESULTS" | awk '{ values[NR] = $1 } END { print (NR % 2) ? values[(NR + 1) / 2] : (values[NR / 2] + values[NR / 2 + 1]) / 2 }')
+echo "Median time to first pet row over $RUNS runs: $median ms"